@@ -4,7 +4,8 @@
 // SUBSYSTEM:     MMCore
 //-----------------------------------------------------------------------------
 // DESCRIPTION:   Generic implementation of the circular buffer. The buffer
-//                allows only one thread to enter at a time by using a mutex lock.
+//                allows only one thread to enter at a time by using a mutex lock,
+//                except in lock-free mode (see SetLockFree()).
 //                This makes the buffer susceptible to race conditions if the
 //                calling threads are mutually dependent.
 //              
@@ -31,9 +32,11 @@
 
 #include "DeviceUtils.h"
 
+#include <algorithm>
 #include <chrono>
 #include <cstdio>
 #include <ctime>
+#include <functional>
 #include <memory>
 #include <string>
 
@@ -41,13 +44,17 @@ namespace mmcore {
 namespace internal {
 
 const long long bytesInMB = 1 << 20;
-const long adjustThreshold = LONG_MAX / 2;
 
 // Maximum number of images allowed in the buffer. This arbitrary limit is code
 // smell, but kept for now until careful checks for integer overflow and
 // division by zero can be added.
 const unsigned long maxCBSize = 10000000;
 
+// With variable frame sizes, the number of frames per image of the
+// initialized size that fits in the buffer, so that smaller images (e.g.
+// with 2x2 binning) can use all of the memory.
+const unsigned long variableSizeFramesPerImage = 4;
+
 CircularBuffer::CircularBuffer(unsigned int memorySizeMB) :
    width_(0), 
    height_(0), 
@@ -57,6 +64,17 @@ CircularBuffer::CircularBuffer(unsigned int memorySizeMB) :
    saveIndex_(0), 
    overflow_(false),
    overwriteData_(false),
+   dropOldest_(false),
+   lockFree_(false),
+   lazyAllocation_(false),
+   variableFrameSize_(false),
+   arenaSize_(0),
+   variableLayout_(false),
+   arenaHead_(0),
+   leasing_(0),
+   droppedImages_(0),
+   wakeCount_(0),
+   waiters_(0),
    memorySizeMB_(memorySizeMB),
    threadPool_(std::make_shared<ThreadPool>()),
    tasksMemCopy_(std::make_shared<TaskSet_CopyMemory>(threadPool_))
@@ -71,11 +89,112 @@ int CircularBuffer::SetOverwriteData(bool overwrite) {
    return DEVICE_OK;
 }
 
+/**
+* Selects what happens when an image is inserted in a full buffer with
+* overwriting enabled (see SetOverwriteData()). By default, all unretrieved
+* images are discarded. When dropping the oldest, only the oldest image is
+* discarded for each image inserted, so that consumers that fall behind only
+* miss the images that they could not keep up with.
+*/
+void CircularBuffer::SetDropOldest(bool dropOldest)
+{
+   std::lock_guard<std::mutex> guard(bufferLock_);
+   dropOldest_ = dropOldest;
+}
+
+/**
+* Selects how images are handed from the inserting (camera) thread to
+* consumers. By default, both take bufferLock_ for every operation.
+*
+* In lock-free mode, InsertImage() does not wait for consumers, and getting
+* or counting images does not lock. An image is published by incrementing
+* insertIndex_ after it has been written, and consumers claim images by
+* advancing saveIndex_ with compare-and-swap, so images are still handed out
+* exactly once and in order. Leasing images, and waiting for them, still
+* take bufferLock_; the inserting thread then takes it too, but only while
+* it checks the frame it is about to reuse for leases, or notifies waiters.
+*
+* In lock-free mode, Initialize() must not be called while other threads may
+* be getting images (which is already the case during a sequence
+* acquisition).
+*/
+void CircularBuffer::SetLockFree(bool lockFree)
+{
+   std::lock_guard<std::mutex> insertGuard(insertLock_);
+   std::lock_guard<std::mutex> guard(bufferLock_);
+   lockFree_ = lockFree;
+}
+
+/**
+* Selects how the memory for images is allocated. By default, Initialize()
+* allocates (and zeroes) every frame, which for a large buffer can take
+* seconds.
+*
+* With lazy allocation, Initialize() instead allocates one contiguous arena
+* for all frames without touching it, and each frame takes its slot in the
+* arena when the first image is inserted in it; the operating system then
+* commits the pages as they are first written. Re-initializing (e.g. for a
+* new ROI) reuses the arena if it is large enough, unless a leased image is
+* still in it.
+*
+* Takes effect at the next Initialize().
+*/
+void CircularBuffer::SetLazyAllocation(bool lazy)
+{
+   std::lock_guard<std::mutex> insertGuard(insertLock_);
+   std::lock_guard<std::mutex> guard(bufferLock_);
+   lazyAllocation_ = lazy;
+}
+
+/**
+* Selects whether images of different sizes can be inserted. By default,
+* InsertImage() only accepts images of the size given to Initialize(), and
+* every frame is of that size.
+*
+* With variable frame sizes, Initialize() allocates an arena of the whole
+* memory size (as with lazy allocation), and each image is placed in it just
+* after the previous one, wrapping around at the end; each frame records the
+* size of its image. Images of other sizes (e.g. after the ROI or binning
+* has changed) can then be inserted without re-initializing, and take as
+* much memory as they need. An image that would overlap a leased image gets
+* memory of its own instead.
+*
+* GetSize() and GetFreeSize() then count images of the initialized size.
+*
+* Takes effect at the next Initialize().
+*/
+void CircularBuffer::SetVariableFrameSize(bool variable)
+{
+   std::lock_guard<std::mutex> insertGuard(insertLock_);
+   std::lock_guard<std::mutex> guard(bufferLock_);
+   variableFrameSize_ = variable;
+}
+
+// Returns a lock on bufferLock_, or an unlocked one in lock-free mode.
+std::unique_lock<std::mutex> CircularBuffer::LockUnlessLockFree() const
+{
+   if (lockFree_)
+      return std::unique_lock<std::mutex>(bufferLock_, std::defer_lock);
+   return std::unique_lock<std::mutex>(bufferLock_);
+}
+
+// The number of images that have been inserted and not yet claimed. Without
+// bufferLock_, consumers may claim images in between the two loads; loading
+// saveIndex_ first means that the result may be too large (even larger than
+// the buffer) but is never negative.
+long long CircularBuffer::AvailableImages() const
+{
+   long long saveIndex = saveIndex_;
+   return insertIndex_ - saveIndex;
+}
+
 bool CircularBuffer::Initialize(unsigned int w, unsigned int h, unsigned int pixDepth)
 {
+   std::lock_guard<std::mutex> insertGuard(insertLock_);
    std::lock_guard<std::mutex> guard(bufferLock_);
    imageNumbers_.clear();
    startTime_ = std::chrono::steady_clock::now();
+   ResetDropCounts();
 
    bool ret = true;
    try
@@ -83,10 +202,16 @@ bool CircularBuffer::Initialize(unsigned int w, unsigned int h, unsigned int pix
       if (w == 0 || h==0 || pixDepth == 0)
          return false; // does not make sense
 
+      const bool variableFrameSize = variableFrameSize_;
       if (w == width_ && height_ == h && pixDepth_ == pixDepth)
-         if (frameArray_.size() > 0)
+         if (frameArray_.size() > 0 && variableLayout_ == variableFrameSize &&
+               (arena_ != nullptr) == (lazyAllocation_ || variableFrameSize))
             return true; // nothing to change
 
+      // Leased images must outlive the frames they came from
+      for (FrameBuffer& frame : frameArray_)
+         DetachIfLeasedLocked(frame);
+
       width_ = w;
       height_ = h;
       pixDepth_ = pixDepth;
@@ -94,6 +219,8 @@ bool CircularBuffer::Initialize(unsigned int w, unsigned int h, unsigned int pix
       insertIndex_ = 0;
       saveIndex_ = 0;
       overflow_ = false;
+      variableLayout_ = false;
+      arenaHead_ = 0;
 
       // calculate the size of the entire buffer array once all images get allocated
       // the actual size at the time of the creation is going to be less, because
@@ -116,18 +243,48 @@ bool CircularBuffer::Initialize(unsigned int w, unsigned int h, unsigned int pix
       for (unsigned long i=0; i<frameArray_.size(); i++)
          frameArray_[i].Clear();
 
+      std::size_t arenaSize = (std::size_t)cbSize * frameSizeBytes;
+      if (variableFrameSize)
+      {
+         arenaSize = (std::size_t)memorySizeMB_ * bytesInMB;
+         cbSize = std::min(cbSize * variableSizeFramesPerImage, maxCBSize);
+      }
+
       // allocate buffers  - could conceivably throw an out-of-memory exception
       frameArray_.resize(cbSize);
-      for (unsigned long i=0; i<frameArray_.size(); i++)
+      if (lazyAllocation_ || variableFrameSize)
+      {
+         // Leased images in the arena were detached above, and keep it
+         // alive; we cannot reuse it while they do
+         if (arenaSize > arenaSize_ || arena_.use_count() > 1)
+         {
+            arena_.reset();
+            arenaSize_ = 0;
+            // Not value-initialized, so that no pages are touched yet
+            arena_.reset(new unsigned char[arenaSize]);
+            arenaSize_ = arenaSize;
+         }
+         for (unsigned long i=0; i<frameArray_.size(); i++)
+            frameArray_[i].Resize(w, h, pixDepth);
+         variableLayout_ = variableFrameSize;
+      }
+      else
       {
-         frameArray_[i].Resize(w, h, pixDepth);
-         frameArray_[i].Preallocate();
+         arena_.reset();
+         arenaSize_ = 0;
+         for (unsigned long i=0; i<frameArray_.size(); i++)
+         {
+            frameArray_[i].Resize(w, h, pixDepth);
+            frameArray_[i].Preallocate();
+         }
       }
    }
 
    catch( ... /* std::bad_alloc& ex */)
    {
       frameArray_.resize(0);
+      arena_.reset();
+      arenaSize_ = 0;
       ret = false;
    }
    return ret;
@@ -135,29 +292,108 @@ bool CircularBuffer::Initialize(unsigned int w, unsigned int h, unsigned int pix
 
 void CircularBuffer::Clear()
 {
+   std::lock_guard<std::mutex> insertGuard(insertLock_);
    std::lock_guard<std::mutex> guard(bufferLock_);
    ClearLocked();
+   ResetDropCounts();
 }
 
-void CircularBuffer::ClearLocked()
+// Requires insertLock_, and also bufferLock_ unless in lock-free mode.
+// Returns the index of the first dropped image; the images from there to
+// insertIndex_ were dropped.
+long long CircularBuffer::ClearLocked()
 {
-   insertIndex_=0;
-   saveIndex_=0;
+   // Drop the images by claiming them all, rather than by resetting both
+   // indices, so that a consumer that is concurrently claiming an image in
+   // lock-free mode sees the buffer as empty
+   long long insertIndex = insertIndex_;
+   long long saveIndex = saveIndex_;
+   while (saveIndex < insertIndex &&
+         !saveIndex_.compare_exchange_weak(saveIndex, insertIndex))
+      ;
    overflow_ = false;
    startTime_ = std::chrono::steady_clock::now();
    imageNumbers_.clear();
+   return std::min(saveIndex, insertIndex);
+}
+
+static std::string CameraLabel(const Metadata& md)
+{
+   try
+   {
+      return md.GetSingleTag(MM::g_Keyword_Metadata_CameraLabel).GetValue();
+   }
+   catch (const MetadataKeyError&)
+   {
+      return std::string();
+   }
+}
+
+// Counts the images from fromIndex to toIndex as dropped. Called by the
+// inserting thread, before it overwrites them.
+void CircularBuffer::CountDroppedImages(long long fromIndex, long long toIndex)
+{
+   std::lock_guard<std::mutex> guard(dropLock_);
+   for (long long i = fromIndex; i < toIndex; ++i)
+   {
+      const ImgBuffer* img = frameArray_[i %
+         static_cast<long long>(frameArray_.size())].FindImage(0);
+      ++droppedImagesByCamera_[img ? CameraLabel(img->GetMetadata()) :
+         std::string()];
+   }
+   droppedImages_ += static_cast<unsigned long>(toIndex - fromIndex);
+}
+
+void CircularBuffer::CountDroppedImage(const std::string& cameraLabel)
+{
+   std::lock_guard<std::mutex> guard(dropLock_);
+   ++droppedImagesByCamera_[cameraLabel];
+   ++droppedImages_;
+}
+
+void CircularBuffer::ResetDropCounts()
+{
+   std::lock_guard<std::mutex> guard(dropLock_);
+   droppedImages_ = 0;
+   droppedImagesByCamera_.clear();
+}
+
+unsigned long CircularBuffer::GetDroppedImageCount() const
+{
+   std::lock_guard<std::mutex> guard(dropLock_);
+   return droppedImages_;
+}
+
+unsigned long CircularBuffer::GetDroppedImageCount(
+      const std::string& cameraLabel) const
+{
+   std::lock_guard<std::mutex> guard(dropLock_);
+   auto it = droppedImagesByCamera_.find(cameraLabel);
+   if (it == droppedImagesByCamera_.end())
+      return 0;
+   return it->second;
+}
+
+// The number of images of the initialized size that the buffer can hold. With
+// variable frame sizes, there are more frames than that, for smaller images.
+long long CircularBuffer::Capacity() const
+{
+   if (variableLayout_)
+      return std::min<long long>((long long)frameArray_.size(),
+            (long long)(arenaSize_ / ((std::size_t)width_ * height_ * pixDepth_)));
+   return (long long)frameArray_.size();
 }
 
 unsigned long CircularBuffer::GetSize() const
 {
-   std::lock_guard<std::mutex> guard(bufferLock_);
-   return (unsigned long)frameArray_.size();
+   std::unique_lock<std::mutex> guard = LockUnlessLockFree();
+   return (unsigned long)Capacity();
 }
 
 unsigned long CircularBuffer::GetFreeSize() const
 {
-   std::lock_guard<std::mutex> guard(bufferLock_);
-   long freeSize = (long)frameArray_.size() - (insertIndex_ - saveIndex_);
+   std::unique_lock<std::mutex> guard = LockUnlessLockFree();
+   long long freeSize = Capacity() - AvailableImages();
    if (freeSize < 0)
       return 0;
    else
@@ -166,8 +402,41 @@ unsigned long CircularBuffer::GetFreeSize() const
 
 unsigned long CircularBuffer::GetRemainingImageCount() const
 {
-   std::lock_guard<std::mutex> guard(bufferLock_);
-   return (unsigned long)(insertIndex_ - saveIndex_);
+   std::unique_lock<std::mutex> guard = LockUnlessLockFree();
+   return (unsigned long)std::min<long long>(AvailableImages(),
+         (long long)frameArray_.size());
+}
+
+/**
+* Returns the size in bytes of the image that GetNextImageBuffer() would
+* return, without removing it, or 0 if the buffer is empty.
+*/
+unsigned long CircularBuffer::GetNextImageSize() const
+{
+   std::unique_lock<std::mutex> guard = LockUnlessLockFree();
+   long long saveIndex = saveIndex_;
+   if (saveIndex >= insertIndex_)
+      return 0;
+   const ImgBuffer* img = frameArray_[saveIndex %
+      static_cast<long long>(frameArray_.size())].FindImage(0);
+   if (!img)
+      return 0;
+   return (unsigned long)img->Width() * img->Height() * img->Depth();
+}
+
+/**
+* Whether InsertImage() accepts images of the given size without the buffer
+* being initialized for it.
+*/
+bool CircularBuffer::AcceptsImage(unsigned int width, unsigned int height,
+      unsigned int byteDepth) const
+{
+   std::lock_guard<std::mutex> insertGuard(insertLock_);
+   if (frameArray_.empty())
+      return false;
+   if (variableLayout_)
+      return (std::size_t)width * height * byteDepth <= arenaSize_;
+   return width == width_ && height == height_ && byteDepth == pixDepth_;
 }
 
 static std::string FormatLocalTime(std::chrono::time_point<std::chrono::system_clock> tp) {
@@ -205,23 +474,44 @@ bool CircularBuffer::InsertImage(const unsigned char* pixArray,
    const Metadata* pMd) MMCORE_LEGACY_THROW(CMMError)
 {
     std::lock_guard<std::mutex> insertGuard(insertLock_);
+    const bool lockFree = lockFree_; // Cannot change while we hold insertLock_
 
     ImgBuffer* pImg;
     unsigned long singleChannelSize = (unsigned long)width * height * byteDepth;
+    std::size_t offset = 0; // In the arena, with variable frame sizes
  
     {
-       std::lock_guard<std::mutex> guard(bufferLock_);
+       std::unique_lock<std::mutex> guard = LockUnlessLockFree();
  
        // check image dimensions
-       if (width != width_ || height != height_ || byteDepth != pixDepth_)
+       if (variableLayout_)
+       {
+          if (singleChannelSize > arenaSize_)
+             throw CMMError("Image too large for the circular buffer", MMERR_CircularBufferIncompatibleImage);
+       }
+       else if (width != width_ || height != height_ || byteDepth != pixDepth_)
           throw CMMError("Incompatible image dimensions in the circular buffer", MMERR_CircularBufferIncompatibleImage);
  
-       bool overflowed = (insertIndex_ - saveIndex_) >= static_cast<long>(frameArray_.size());
+       bool overflowed = !HasRoom(saveIndex_, singleChannelSize, offset);
        if (overflowed) {
-         if (overwriteData_) {
-            ClearLocked();
+         if (overwriteData_ && dropOldest_) {
+            // Claim the oldest images until there is room, unless consumers
+            // get to them first
+            long long saveIndex = saveIndex_;
+            while (!HasRoom(saveIndex, singleChannelSize, offset))
+            {
+               if (saveIndex_.compare_exchange_weak(saveIndex, saveIndex + 1))
+               {
+                  CountDroppedImages(saveIndex, saveIndex + 1);
+                  ++saveIndex;
+               }
+            }
+         } else if (overwriteData_) {
+            CountDroppedImages(ClearLocked(), insertIndex_);
+            HasRoom(saveIndex_, singleChannelSize, offset);
          } else {
             overflow_ = true;
+            CountDroppedImage(pMd ? CameraLabel(*pMd) : std::string());
             return false;
          }
        }
@@ -229,9 +519,37 @@ bool CircularBuffer::InsertImage(const unsigned char* pixArray,
  
    Metadata md;
    {
-      std::lock_guard<std::mutex> guard(bufferLock_);
-      // we assume that all buffers are pre-allocated
-      pImg = frameArray_[insertIndex_ % frameArray_.size()].FindImage(0);
+      std::unique_lock<std::mutex> guard = LockUnlessLockFree();
+      // buffers are pre-allocated, except with lazy allocation or where a
+      // leased image had to be detached
+      long long index = insertIndex_ % static_cast<long long>(frameArray_.size());
+      FrameBuffer& frame = frameArray_[index];
+      auto allocate = [&](bool checkLeases) {
+         if (variableLayout_)
+            PlaceFrame(frame, width, height, byteDepth, offset, checkLeases);
+         else
+            AllocateFrame(frame, index, checkLeases);
+      };
+      if (!lockFree)
+      {
+         DetachIfLeasedLocked(frame);
+         allocate(true);
+      }
+      else if (leasing_ > 0)
+      {
+         // A consumer counts a lease in leasing_ before claiming the image,
+         // so if the frame's previous image (which has been claimed, or we
+         // could not reuse the frame) can be leased, we see it here, and
+         // wait for the lease to be recorded.
+         std::lock_guard<std::mutex> leaseGuard(bufferLock_);
+         DetachIfLeasedLocked(frame);
+         allocate(true);
+      }
+      else
+      {
+         allocate(false); // There are no leases
+      }
+      pImg = frame.FindImage(0);
       if (!pImg)
          return false;
  
@@ -246,8 +564,9 @@ bool CircularBuffer::InsertImage(const unsigned char* pixArray,
          imageNumbers_[cameraName] = 0;
       }
 
-      // insert image number. 
-      md.PutImageTag(MM::g_Keyword_Metadata_ImageNumber, CDeviceUtils::ConvertToString(imageNumbers_[cameraName]));
+      // insert image number (not with CDeviceUtils::ConvertToString(), whose
+      // static buffer is shared with the other cameras' buffers)
+      md.PutImageTag(MM::g_Keyword_Metadata_ImageNumber, std::to_string(imageNumbers_[cameraName]));
       ++imageNumbers_[cameraName];
    }
 
@@ -293,18 +612,25 @@ bool CircularBuffer::InsertImage(const unsigned char* pixArray,
          pixArray, singleChannelSize);
 
    {
-      std::lock_guard<std::mutex> guard(bufferLock_);
+      std::unique_lock<std::mutex> guard = LockUnlessLockFree();
 
       imageCounter_++;
+      // Publishes the image; consumers load insertIndex_ before reading it
       insertIndex_++;
-      if ((insertIndex_ - (long)frameArray_.size()) > adjustThreshold && (saveIndex_- (long)frameArray_.size()) > adjustThreshold)
-      {
-         // adjust buffer indices to avoid overflowing integer size
-         insertIndex_ -= adjustThreshold;
-         saveIndex_ -= adjustThreshold;
-      }
    }
 
+   if (lockFree)
+   {
+      if (waiters_ == 0)
+         return true;
+      // A waiter that did not see the new image is registered in waiters_
+      // (the accesses to both counters are sequentially consistent) and
+      // holds bufferLock_ until it waits, so taking the lock ensures that
+      // it gets the notification.
+      std::lock_guard<std::mutex> guard(bufferLock_);
+   }
+   imageAvailable_.notify_all();
+
    return true;
 }
  
@@ -330,17 +656,20 @@ const ImgBuffer* CircularBuffer::GetNthFromTopImageBuffer(unsigned long n) const
 const ImgBuffer* CircularBuffer::GetNthFromTopImageBuffer(long n,
       unsigned channel) const
 {
-   std::lock_guard<std::mutex> guard(bufferLock_);
+   std::unique_lock<std::mutex> guard = LockUnlessLockFree();
+   return PeekNthFromTopImageBuffer(n, channel);
+}
 
-   long availableImages = insertIndex_ - saveIndex_;
-   if (n + 1 > availableImages)
+const ImgBuffer* CircularBuffer::PeekNthFromTopImageBuffer(long n,
+      unsigned channel) const
+{
+   long long saveIndex = saveIndex_;
+   long long insertIndex = insertIndex_;
+   if (n < 0 || n + 1 > insertIndex - saveIndex)
       return 0;
 
-   long targetIndex = insertIndex_ - n - 1L;
-   while (targetIndex < 0)
-      targetIndex += (long) frameArray_.size();
-   targetIndex %= frameArray_.size();
-
+   long long targetIndex = (insertIndex - n - 1) %
+      static_cast<long long>(frameArray_.size());
    return frameArray_[targetIndex].FindImage(channel);
 }
 
@@ -353,16 +682,307 @@ const unsigned char* CircularBuffer::GetNextImage()
 }
 
 const ImgBuffer* CircularBuffer::GetNextImageBuffer(unsigned channel)
+{
+   std::unique_lock<std::mutex> guard = LockUnlessLockFree();
+   return ClaimNextImageBuffer(channel);
+}
+
+const ImgBuffer* CircularBuffer::GetNextImageBuffer(unsigned channel,
+      unsigned int width, unsigned int height, unsigned int byteDepth,
+      bool& sizeMismatch)
+{
+   sizeMismatch = false;
+   std::unique_lock<std::mutex> guard = LockUnlessLockFree();
+   const long long size = static_cast<long long>(frameArray_.size());
+   long long saveIndex = saveIndex_;
+   do
+   {
+      if (saveIndex >= insertIndex_)
+         return 0;
+      const ImgBuffer* img = frameArray_[saveIndex % size].FindImage(channel);
+      if (img && (img->Width() != width || img->Height() != height ||
+            img->Depth() != byteDepth))
+      {
+         sizeMismatch = true;
+         return 0;
+      }
+   } while (!saveIndex_.compare_exchange_weak(saveIndex, saveIndex + 1));
+
+   return frameArray_[saveIndex % size].FindImage(channel);
+}
+
+const ImgBuffer* CircularBuffer::ClaimNextImageBuffer(unsigned channel)
+{
+   long long saveIndex = saveIndex_;
+   do
+   {
+      if (saveIndex >= insertIndex_)
+         return 0;
+   } while (!saveIndex_.compare_exchange_weak(saveIndex, saveIndex + 1));
+
+   return frameArray_[saveIndex % static_cast<long long>(frameArray_.size())]
+      .FindImage(channel);
+}
+
+// Gives the frame an image if it has none: its slot in the arena with lazy
+// allocation, unless a detached leased image is still there. checkLeases
+// must be true if there may be leases, and requires bufferLock_.
+void CircularBuffer::AllocateFrame(FrameBuffer& frame, long long index,
+      bool checkLeases)
+{
+   if (frame.FindImage(0))
+      return;
+   if (arena_)
+   {
+      std::size_t frameSize = (std::size_t)frame.Width() * frame.Height() *
+         frame.Depth();
+      unsigned char* pixels = arena_.get() + index * frameSize;
+      if (!checkLeases || leases_.find(pixels) == leases_.end())
+      {
+         frame.Preallocate(pixels);
+         return;
+      }
+   }
+   frame.Preallocate();
+}
+
+// Whether an image of imageSize bytes can be inserted without overwriting the
+// images from saveIndex on. With variable frame sizes, also finds the offset
+// in the arena where it goes: the images in the buffer occupy the arena from
+// the oldest one up to arenaHead_, possibly wrapping around, and the new
+// image goes just after them, or at the start of the arena if it does not
+// fit at the end.
+bool CircularBuffer::HasRoom(long long saveIndex, std::size_t imageSize,
+      std::size_t& offset) const
+{
+   const long long insertIndex = insertIndex_;
+   const long long size = static_cast<long long>(frameArray_.size());
+   if (insertIndex - saveIndex >= size)
+      return false;
+   if (!variableLayout_)
+      return true;
+
+   // Images that were given memory of their own (see PlaceFrame()) take no
+   // room in the arena
+   const unsigned char* oldest = nullptr;
+   for (long long i = saveIndex; i < insertIndex && !oldest; ++i)
+   {
+      const ImgBuffer* img = frameArray_[i % size].FindImage(0);
+      if (img && InArena(img->GetPixels()))
+         oldest = img->GetPixels();
+   }
+
+   const std::size_t head = arenaHead_;
+   if (!oldest)
+   {
+      offset = head + imageSize <= arenaSize_ ? head : 0;
+      return true;
+   }
+   const std::size_t tail = oldest - arena_.get();
+   if (tail < head)
+   {
+      if (head + imageSize <= arenaSize_)
+      {
+         offset = head;
+         return true;
+      }
+      offset = 0;
+      return imageSize <= tail;
+   }
+   // Wrapped around (or full, if the tail has caught up with the head)
+   offset = head;
+   return tail > head && head + imageSize <= tail;
+}
+
+// Gives the frame an image of the given size at offset in the arena, or, if
+// that would overlap a leased image, memory of its own. Either way, the next
+// image goes after offset, so that images get past a leased one. checkLeases
+// is as for AllocateFrame().
+void CircularBuffer::PlaceFrame(FrameBuffer& frame, unsigned int width,
+      unsigned int height, unsigned int byteDepth, std::size_t offset,
+      bool checkLeases)
+{
+   std::size_t imageSize = (std::size_t)width * height * byteDepth;
+   unsigned char* pixels = arena_.get() + offset;
+   arenaHead_ = offset + imageSize;
+   if (checkLeases && OverlapsLeaseLocked(pixels, imageSize))
+   {
+      frame.Resize(width, height, byteDepth);
+      frame.Preallocate();
+      return;
+   }
+   frame.Relocate(width, height, byteDepth, pixels);
+}
+
+bool CircularBuffer::InArena(const unsigned char* pixels) const
+{
+   std::less<const unsigned char*> before;
+   return arena_ && !before(pixels, arena_.get()) &&
+      before(pixels, arena_.get() + arenaSize_);
+}
+
+// Whether the pixel memory overlaps that of a leased image. Requires
+// bufferLock_.
+bool CircularBuffer::OverlapsLeaseLocked(const unsigned char* pixels,
+      std::size_t size) const
+{
+   // Leased images do not overlap each other, so only the last one that
+   // starts before the end can overlap
+   auto it = leases_.lower_bound(pixels + size);
+   if (it == leases_.begin())
+      return false;
+   --it;
+   const ImgBuffer* img = it->second.buffer;
+   std::less<const unsigned char*> before;
+   return before(pixels, it->first +
+         (std::size_t)img->Width() * img->Height() * img->Depth());
+}
+
+/**
+* Removes the next image from the buffer, as GetNextImageBuffer() does, but
+* keeps its pixels (and metadata) valid until ReleaseImageBuffer() is called.
+*/
+const ImgBuffer* CircularBuffer::LeaseNextImageBuffer()
 {
    std::lock_guard<std::mutex> guard(bufferLock_);
+   ++leasing_; // Before claiming; see InsertImage()
+   const ImgBuffer* img = ClaimNextImageBuffer(0);
+   if (img)
+      LeaseLocked(img);
+   else
+      --leasing_;
+   return img;
+}
 
-   long availableImages = insertIndex_ - saveIndex_;
+/**
+* Leases up to maxCount of the next images (oldest first) in a single
+* operation. Returns an empty vector if the buffer is empty.
+*/
+std::vector<const ImgBuffer*> CircularBuffer::LeaseNextImageBuffers(
+      unsigned long maxCount)
+{
+   std::vector<const ImgBuffer*> images;
+   std::lock_guard<std::mutex> guard(bufferLock_);
+   long long availableImages = AvailableImages();
    if (availableImages < 1)
-      return 0;
+      return images;
+   images.reserve(static_cast<std::size_t>(
+         std::min<long long>(maxCount, availableImages)));
+   while (images.size() < maxCount)
+   {
+      ++leasing_; // Before claiming; see InsertImage()
+      const ImgBuffer* img = ClaimNextImageBuffer(0);
+      if (!img)
+      {
+         --leasing_;
+         break;
+      }
+      LeaseLocked(img);
+      images.push_back(img);
+   }
+   return images;
+}
 
-   long targetIndex = saveIndex_ % frameArray_.size();
-   ++saveIndex_;
-   return frameArray_[targetIndex].FindImage(channel);
+/**
+* Returns the most recent image, keeping it valid until ReleaseImageBuffer()
+* is called. The image is not removed from the buffer.
+*/
+const ImgBuffer* CircularBuffer::LeaseTopImageBuffer()
+{
+   std::lock_guard<std::mutex> guard(bufferLock_);
+   // Before looking for the image, so that if it is claimed by another
+   // consumer and its frame is then reused, InsertImage() sees the lease
+   ++leasing_;
+   const ImgBuffer* img = PeekNthFromTopImageBuffer(0, 0);
+   if (img)
+      LeaseLocked(img);
+   else
+      --leasing_;
+   return img;
+}
+
+const ImgBuffer* CircularBuffer::FindLeasedImageBuffer(
+      const unsigned char* pixels) const
+{
+   std::lock_guard<std::mutex> guard(bufferLock_);
+   auto it = leases_.find(pixels);
+   if (it == leases_.end())
+      return nullptr;
+   return it->second.buffer;
+}
+
+/**
+* Returns false if the pixels do not belong to a leased image.
+*/
+bool CircularBuffer::ReleaseImageBuffer(const unsigned char* pixels)
+{
+   std::lock_guard<std::mutex> guard(bufferLock_);
+   auto it = leases_.find(pixels);
+   if (it == leases_.end())
+      return false;
+   if (--it->second.count == 0)
+      leases_.erase(it); // Frees the image if it was detached
+   --leasing_;
+   return true;
+}
+
+unsigned long CircularBuffer::GetLeaseCount() const
+{
+   std::lock_guard<std::mutex> guard(bufferLock_);
+   return leasing_;
+}
+
+unsigned long CircularBuffer::GetWakeCount() const
+{
+   std::lock_guard<std::mutex> guard(bufferLock_);
+   return wakeCount_;
+}
+
+/**
+* Wakes all threads blocked in WaitForImage(), e.g. because the acquisition
+* has stopped and no more images are expected.
+*/
+void CircularBuffer::WakeWaiters()
+{
+   {
+      std::lock_guard<std::mutex> guard(bufferLock_);
+      ++wakeCount_;
+   }
+   imageAvailable_.notify_all();
+}
+
+bool CircularBuffer::WaitForImage(unsigned long wakeCount,
+      std::chrono::steady_clock::time_point deadline) const
+{
+   std::unique_lock<std::mutex> lock(bufferLock_);
+   ++waiters_; // Before checking for images; see InsertImage()
+   bool woken = imageAvailable_.wait_until(lock, deadline, [&] {
+      return AvailableImages() > 0 || wakeCount_ != wakeCount;
+   });
+   --waiters_;
+   return woken;
+}
+
+void CircularBuffer::LeaseLocked(const ImgBuffer* img)
+{
+   Lease& lease = leases_[img->GetPixels()];
+   if (lease.count++ == 0)
+      lease.buffer = img;
+}
+
+// If the frame's image is leased, transfers its ownership to the lease so
+// that the frame can be reallocated without disturbing the lease holder.
+void CircularBuffer::DetachIfLeasedLocked(FrameBuffer& frame)
+{
+   const ImgBuffer* img = frame.FindImage(0);
+   if (!img)
+      return;
+   auto it = leases_.find(img->GetPixels());
+   if (it == leases_.end() || it->second.detached)
+      return;
+   it->second.detached = frame.Detach();
+   if (InArena(img->GetPixels()))
+      it->second.arena = arena_;
 }
 
 } // namespace internal
@@ -30,9 +30,14 @@
 
 #include "MMDevice.h"
 
+#include <atomic>
 #include <chrono>
+#include <condition_variable>
+#include <cstddef>
+#include <map>
 #include <memory>
 #include <mutex>
+#include <string>
 #include <vector>
 
 namespace mmcore {
@@ -49,6 +54,18 @@ public:
    ~CircularBuffer();
 
    int SetOverwriteData(bool overwrite);
+   bool IsOverwriteData() const { return overwriteData_; }
+   void SetDropOldest(bool dropOldest);
+   bool IsDropOldest() const { return dropOldest_; }
+
+   void SetLockFree(bool lockFree);
+   bool IsLockFree() const { return lockFree_; }
+
+   void SetLazyAllocation(bool lazy);
+   bool IsLazyAllocation() const { return lazyAllocation_; }
+
+   void SetVariableFrameSize(bool variable);
+   bool IsVariableFrameSize() const { return variableFrameSize_; }
 
    unsigned GetMemorySizeMB() const { return memorySizeMB_; }
 
@@ -56,10 +73,13 @@ public:
    unsigned long GetSize() const;
    unsigned long GetFreeSize() const;
    unsigned long GetRemainingImageCount() const;
+   unsigned long GetNextImageSize() const;
+   bool AcceptsImage(unsigned int width, unsigned int height,
+         unsigned int byteDepth) const;
 
-   unsigned int Width() const {std::lock_guard<std::mutex> guard(bufferLock_); return width_;}
-   unsigned int Height() const {std::lock_guard<std::mutex> guard(bufferLock_); return height_;}
-   unsigned int Depth() const {std::lock_guard<std::mutex> guard(bufferLock_); return pixDepth_;}
+   unsigned int Width() const { return width_; }
+   unsigned int Height() const { return height_; }
+   unsigned int Depth() const { return pixDepth_; }
 
    bool InsertImage(const unsigned char* pixArray,
       unsigned int width, unsigned int height, unsigned int byteDepth, unsigned int nComponents,
@@ -70,23 +90,87 @@ public:
    const ImgBuffer* GetNthFromTopImageBuffer(unsigned long n) const;
    const ImgBuffer* GetNthFromTopImageBuffer(long n, unsigned channel) const;
    const ImgBuffer* GetNextImageBuffer(unsigned channel);
+   // Like GetNextImageBuffer(), but if the next image is not of the given
+   // size, leaves it in the buffer, sets sizeMismatch and returns 0.
+   const ImgBuffer* GetNextImageBuffer(unsigned channel, unsigned int width,
+         unsigned int height, unsigned int byteDepth, bool& sizeMismatch);
    void Clear(); 
 
-   bool Overflow() {std::lock_guard<std::mutex> guard(bufferLock_); return overflow_;}
+   // Leased images stay valid, and their memory is not reused for new
+   // images, until released (even across Clear() and Initialize()).
+   const ImgBuffer* LeaseNextImageBuffer();
+   std::vector<const ImgBuffer*> LeaseNextImageBuffers(unsigned long maxCount);
+   const ImgBuffer* LeaseTopImageBuffer();
+   const ImgBuffer* FindLeasedImageBuffer(const unsigned char* pixels) const;
+   bool ReleaseImageBuffer(const unsigned char* pixels);
+   unsigned long GetLeaseCount() const;
+
+   // Blocking consumers: WaitForImage() returns true as soon as an image is
+   // available or WakeWaiters() has been called since wakeCount was obtained
+   // from GetWakeCount(), and false if the deadline passes first.
+   unsigned long GetWakeCount() const;
+   void WakeWaiters();
+   bool WaitForImage(unsigned long wakeCount,
+         std::chrono::steady_clock::time_point deadline) const;
+
+   bool Overflow() const { return overflow_; }
+
+   // Images lost because the buffer was full, since the last Clear() or
+   // Initialize().
+   unsigned long GetDroppedImageCount() const;
+   unsigned long GetDroppedImageCount(const std::string& cameraLabel) const;
 
 private:
-   void ClearLocked();
+   struct Lease {
+      const ImgBuffer* buffer = nullptr;
+      unsigned count = 0;
+      // Owns the image once it has been detached from its frame
+      std::unique_ptr<ImgBuffer> detached;
+      // Keeps the arena alive if the detached image's pixels are in it
+      std::shared_ptr<unsigned char[]> arena;
+   };
+
+   std::unique_lock<std::mutex> LockUnlessLockFree() const;
+   long long AvailableImages() const;
+   long long Capacity() const;
+   long long ClearLocked();
+   void CountDroppedImages(long long fromIndex, long long toIndex);
+   void CountDroppedImage(const std::string& cameraLabel);
+   void ResetDropCounts();
+
+   // These are called with bufferLock_ held, or without it in lock-free
+   // mode.
+   const ImgBuffer* PeekNthFromTopImageBuffer(long n, unsigned channel) const;
+   const ImgBuffer* ClaimNextImageBuffer(unsigned channel);
+   void AllocateFrame(FrameBuffer& frame, long long index, bool checkLeases);
+
+   // With variable frame sizes; called by the inserting thread.
+   bool HasRoom(long long saveIndex, std::size_t imageSize,
+         std::size_t& offset) const;
+   void PlaceFrame(FrameBuffer& frame, unsigned int width,
+         unsigned int height, unsigned int byteDepth, std::size_t offset,
+         bool checkLeases);
+   bool InArena(const unsigned char* pixels) const;
+   bool OverlapsLeaseLocked(const unsigned char* pixels,
+         std::size_t size) const;
+
+   void LeaseLocked(const ImgBuffer* img);
+   void DetachIfLeasedLocked(FrameBuffer& frame);
 
    // Serializes InsertImage calls so that the pixel copy can occur
-   // without holding bufferLock_.
+   // without holding bufferLock_. Also guards the state that only the
+   // inserting thread uses (startTime_, imageNumbers_, imageCounter_).
    mutable std::mutex insertLock_;
 
-   // Guards all mutable state below except where noted.
+   // Guards all mutable state below except where noted. In lock-free mode
+   // (see SetLockFree()), getting and counting images does not take it;
+   // the state that this needs is atomic, and frameArray_ is only resized
+   // with insertLock_ held too.
    mutable std::mutex bufferLock_;
 
-   unsigned int width_;
-   unsigned int height_;
-   unsigned int pixDepth_;
+   std::atomic<unsigned int> width_;
+   std::atomic<unsigned int> height_;
+   std::atomic<unsigned int> pixDepth_;
    long imageCounter_;
    std::chrono::time_point<std::chrono::steady_clock> startTime_;
    std::map<std::string, long> imageNumbers_;
@@ -94,13 +178,55 @@ private:
    // Invariants:
    // 0 <= saveIndex_ <= insertIndex_
    // insertIndex_ - saveIndex_ <= frameArray_.size()
-   long insertIndex_;
-   long saveIndex_;
-
-   bool overflow_;
-   bool overwriteData_;
+   // Only the inserting thread advances insertIndex_, after the image is
+   // written; consumers advance saveIndex_ by compare-and-swap. 64-bit, so
+   // that they never need to wrap around.
+   std::atomic<long long> insertIndex_;
+   std::atomic<long long> saveIndex_;
+
+   std::atomic<bool> overflow_;
+   std::atomic<bool> overwriteData_;
+   std::atomic<bool> dropOldest_;
+   std::atomic<bool> lockFree_; // Changed with both locks held
+   std::atomic<bool> lazyAllocation_; // Changed with both locks held
+   std::atomic<bool> variableFrameSize_; // Changed with both locks held
    std::vector<FrameBuffer> frameArray_;
 
+   // With lazy allocation, the pixel memory of all frames: frame i uses the
+   // slot at i * (frame size), once an image is first inserted in it.
+   // Changed only with both locks held.
+   std::shared_ptr<unsigned char[]> arena_;
+   std::size_t arenaSize_;
+
+   // Whether the frames were laid out for variable frame sizes at the last
+   // Initialize(). If so, images of any size are packed one after another
+   // in the arena, wrapping around at its end, and arenaHead_ is the offset
+   // just past the last one. variableLayout_ is changed only with both
+   // locks held; arenaHead_ is only used with insertLock_ held.
+   bool variableLayout_;
+   std::size_t arenaHead_;
+
+   // The number of leases, plus any being taken. Counted before an image is
+   // claimed, so that the inserting thread knows to look for leases in
+   // lock-free mode (see InsertImage()).
+   std::atomic<unsigned long> leasing_;
+
+   // Keyed by pixel address, which is what clients hand back on release.
+   std::map<const unsigned char*, Lease> leases_;
+
+   // Guards the drop counts, which the inserting thread updates without
+   // holding bufferLock_ in lock-free mode.
+   mutable std::mutex dropLock_;
+   unsigned long droppedImages_;
+   std::map<std::string, unsigned long> droppedImagesByCamera_;
+
+   // Notified when an image is inserted or on WakeWaiters().
+   mutable std::condition_variable imageAvailable_;
+   unsigned long wakeCount_;
+   // Threads in WaitForImage(), which the inserting thread must notify
+   // under bufferLock_ in lock-free mode.
+   mutable std::atomic<unsigned> waiters_;
+
    // Effectively const after construction.
    unsigned long memorySizeMB_;
    std::shared_ptr<ThreadPool> threadPool_;
@@ -242,6 +242,18 @@ int CoreCallback::InsertImage(const MM::Device* caller, const unsigned char* buf
          {
             ip->Process(const_cast<unsigned char*>(buf), width, height, bytesPerPixel);
          }
+      if (core_->perCameraBuffers_)
+      {
+         // Each camera's buffer follows the camera's image size
+         std::shared_ptr<CircularBuffer> cameraBuffer =
+            core_->getCameraBufferForInsert(
+               md.GetSingleTag(MM::g_Keyword_Metadata_CameraLabel).GetValue(),
+               width, height, bytesPerPixel);
+         if (cameraBuffer->InsertImage(buf, width, height, bytesPerPixel, nComponents, &md))
+            return DEVICE_OK;
+         else
+            return DEVICE_BUFFER_OVERFLOW;
+      }
       if (core_->cbuf_->InsertImage(buf, width, height, bytesPerPixel, nComponents, &md))
          return DEVICE_OK;
       else
@@ -264,6 +276,10 @@ bool CoreCallback::InitializeImageBuffer(unsigned channels, unsigned slices,
    if (slices != 1)
       return false;
 
+   // Per-camera buffers are initialized as their cameras insert images
+   if (core_->perCameraBuffers_)
+      return true;
+
    return core_->cbuf_->Initialize(w, h, pixDepth);
 }
 
@@ -332,6 +348,9 @@ int CoreCallback::AcqFinished(const MM::Device* caller, int /*statusCode*/)
       }
    }
 
+   // Don't leave consumers waiting for images that will not arrive
+   core_->cbuf_->WakeWaiters();
+
    core_->postNotification(
       notif::SequenceAcquisitionStopped{camera->GetLabel()});
 
@@ -25,7 +25,15 @@ namespace mmcore {
 namespace internal {
 
 ImgBuffer::ImgBuffer(unsigned xSize, unsigned ySize, unsigned pixDepth) :
-   pixels_(new unsigned char[xSize * ySize * pixDepth]()),
+   ownedPixels_(new unsigned char[xSize * ySize * pixDepth]()),
+   pixels_(ownedPixels_.get()),
+   width_(xSize), height_(ySize), pixDepth_(pixDepth)
+{
+}
+
+ImgBuffer::ImgBuffer(unsigned xSize, unsigned ySize, unsigned pixDepth,
+      unsigned char* pixels) :
+   pixels_(pixels),
    width_(xSize), height_(ySize), pixDepth_(pixDepth)
 {
 }
@@ -34,12 +42,12 @@ ImgBuffer::~ImgBuffer() = default;
 
 const unsigned char* ImgBuffer::GetPixels() const
 {
-   return pixels_.get();
+   return pixels_;
 }
 
 void ImgBuffer::SetPixels(const void* pix)
 {
-   memcpy((void*)pixels_.get(), pix, width_ * height_ * pixDepth_);
+   memcpy((void*)pixels_, pix, width_ * height_ * pixDepth_);
 }
 
 void ImgBuffer::Resize(unsigned xSize, unsigned ySize, unsigned pixDepth)
@@ -47,7 +55,8 @@ void ImgBuffer::Resize(unsigned xSize, unsigned ySize, unsigned pixDepth)
    // re-allocate internal buffer if it is not big enough
    if (width_ * height_ * pixDepth_ < xSize * ySize * pixDepth)
    {
-      pixels_.reset(new unsigned char[xSize * ySize * pixDepth]);
+      ownedPixels_.reset(new unsigned char[xSize * ySize * pixDepth]);
+      pixels_ = ownedPixels_.get();
    }
 
    width_ = xSize;
@@ -60,13 +69,26 @@ void ImgBuffer::Resize(unsigned xSize, unsigned ySize)
    // re-allocate internal buffer if it is not big enough
    if (width_ * height_ < xSize * ySize)
    {
-      pixels_.reset(new unsigned char[xSize * ySize * pixDepth_]);
+      ownedPixels_.reset(new unsigned char[xSize * ySize * pixDepth_]);
+      pixels_ = ownedPixels_.get();
    }
 
    width_ = xSize;
    height_ = ySize;
 
-   memset(pixels_.get(), 0, width_ * height_ * pixDepth_);
+   memset(pixels_, 0, width_ * height_ * pixDepth_);
+}
+
+// Switches to (without owning or initializing) other pixel memory, which may
+// be of a different size.
+void ImgBuffer::Relocate(unsigned xSize, unsigned ySize, unsigned pixDepth,
+      unsigned char* pixels)
+{
+   ownedPixels_.reset();
+   pixels_ = pixels;
+   width_ = xSize;
+   height_ = ySize;
+   pixDepth_ = pixDepth;
 }
 
 void ImgBuffer::SetMetadata(const Metadata& md)
@@ -109,6 +131,35 @@ void FrameBuffer::Preallocate()
    }
 }
 
+// Uses pixel memory owned by the caller, e.g. a slot in an arena.
+void FrameBuffer::Preallocate(unsigned char* pixels)
+{
+   if (!buffer_) {
+      buffer_ = std::make_unique<ImgBuffer>(width_, height_, depth_, pixels);
+   }
+}
+
+// Gives the frame an image of a new size in pixel memory owned by the
+// caller. Unlike Resize() followed by Preallocate(), keeps the existing
+// ImgBuffer, if any.
+void FrameBuffer::Relocate(unsigned xSize, unsigned ySize, unsigned byteDepth,
+      unsigned char* pixels)
+{
+   width_ = xSize;
+   height_ = ySize;
+   depth_ = byteDepth;
+   if (buffer_)
+      buffer_->Relocate(xSize, ySize, byteDepth, pixels);
+   else
+      buffer_ = std::make_unique<ImgBuffer>(xSize, ySize, byteDepth, pixels);
+}
+
+// Hands over ownership of the image, leaving this frame unallocated.
+std::unique_ptr<ImgBuffer> FrameBuffer::Detach()
+{
+   return std::move(buffer_);
+}
+
 void FrameBuffer::Resize(unsigned xSize, unsigned ySize, unsigned byteDepth)
 {
    Clear();
@@ -27,7 +27,8 @@ namespace internal {
 
 class ImgBuffer
 {
-   std::unique_ptr<unsigned char[]> pixels_;
+   std::unique_ptr<unsigned char[]> ownedPixels_; // Empty if not owned
+   unsigned char* pixels_;
    unsigned int width_;
    unsigned int height_;
    unsigned int pixDepth_;
@@ -35,6 +36,10 @@ class ImgBuffer
 
 public:
    ImgBuffer(unsigned xSize, unsigned ySize, unsigned pixDepth);
+   // Uses (without owning or initializing) pixel memory that must outlive
+   // this object, unless Resize() needs a larger size
+   ImgBuffer(unsigned xSize, unsigned ySize, unsigned pixDepth,
+         unsigned char* pixels);
    ~ImgBuffer();
 
    unsigned int Width() const {return width_;}
@@ -45,6 +50,8 @@ public:
 
    void Resize(unsigned xSize, unsigned ySize, unsigned pixDepth);
    void Resize(unsigned xSize, unsigned ySize);
+   void Relocate(unsigned xSize, unsigned ySize, unsigned pixDepth,
+         unsigned char* pixels);
 
    void SetMetadata(const Metadata& md);
    const Metadata& GetMetadata() const {return metadata_;}
@@ -70,6 +77,10 @@ public:
    void Resize(unsigned xSize, unsigned ySize, unsigned pixDepth);
    void Clear();
    void Preallocate();
+   void Preallocate(unsigned char* pixels);
+   void Relocate(unsigned xSize, unsigned ySize, unsigned byteDepth,
+         unsigned char* pixels);
+   std::unique_ptr<ImgBuffer> Detach();
 
    ImgBuffer* FindImage(unsigned channel) const;
    unsigned Width() const {return width_;}
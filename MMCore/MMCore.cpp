@@ -108,7 +108,7 @@ namespace notif = mmcore::internal::notification;
  * (Keep the 3 numbers on one line to make it easier to look at diffs when
  * merging/rebasing.)
  */
-const int MMCore_versionMajor = 12, MMCore_versionMinor = 5, MMCore_versionPatch = 0;
+const int MMCore_versionMajor = 12, MMCore_versionMinor = 6, MMCore_versionPatch = 0;
 
 
 ///////////////////////////////////////////////////////////////////////////////
@@ -598,6 +598,20 @@ Configuration CMMCore::getSystemStateCache() const
    return stateCache_->get();
 }
 
+/**
+ * Returns a number that changes whenever the contents of the system state
+ * cache may have changed.
+ *
+ * Callers that convert the state cache (for example, to attach it to every
+ * image) can keep the converted result until the version changes. Read the
+ * version before calling getSystemStateCache(), so that the cache obtained
+ * is never older than the version.
+ */
+long long CMMCore::getSystemStateCacheVersion() const
+{
+   return static_cast<long long>(stateCache_->getVersion());
+}
+
 /**
  * Returns a partial state of the system, only for devices included in the
  * specified configuration.
@@ -3040,7 +3054,17 @@ void CMMCore::startSequenceAcquisition(long numImages, double intervalMs, bool s
 
 		try
 		{
-			if (!cbuf_->Initialize(camera->GetImageWidth(), camera->GetImageHeight(), camera->GetImageBytesPerPixel()))
+			if (perCameraBuffers_)
+			{
+				// The camera (or the physical cameras of a Multi Camera)
+				// initialize their buffers as they insert images
+				for (const auto& buffer : getCameraBuffers())
+				{
+					buffer->Clear();
+					buffer->SetOverwriteData(!stopOnOverflow);
+				}
+			}
+			else if (!cbuf_->Initialize(camera->GetImageWidth(), camera->GetImageHeight(), camera->GetImageBytesPerPixel()))
 			{
 				logError(getDeviceName(camera).c_str(), getCoreErrorText(MMERR_CircularBufferFailedToInitialize).c_str());
 				throw CMMError(getCoreErrorText(MMERR_CircularBufferFailedToInitialize).c_str(), MMERR_CircularBufferFailedToInitialize);
@@ -3086,12 +3110,23 @@ void CMMCore::startSequenceAcquisition(const char* label, long numImages, double
       throw CMMError(getCoreErrorText(MMERR_NotAllowedDuringSequenceAcquisition).c_str(),
                      MMERR_NotAllowedDuringSequenceAcquisition);
 
-   if (!cbuf_->Initialize(pCam->GetImageWidth(), pCam->GetImageHeight(), pCam->GetImageBytesPerPixel()))
+   if (perCameraBuffers_)
    {
-      logError(getDeviceName(pCam).c_str(), getCoreErrorText(MMERR_CircularBufferFailedToInitialize).c_str());
-      throw CMMError(getCoreErrorText(MMERR_CircularBufferFailedToInitialize).c_str(), MMERR_CircularBufferFailedToInitialize);
+      // Only this camera's images are discarded
+      std::shared_ptr<mmi::CircularBuffer> buffer = getCameraBufferForInsert(label,
+            pCam->GetImageWidth(), pCam->GetImageHeight(), pCam->GetImageBytesPerPixel());
+      buffer->Clear();
+      buffer->SetOverwriteData(!stopOnOverflow);
+   }
+   else
+   {
+      if (!cbuf_->Initialize(pCam->GetImageWidth(), pCam->GetImageHeight(), pCam->GetImageBytesPerPixel()))
+      {
+         logError(getDeviceName(pCam).c_str(), getCoreErrorText(MMERR_CircularBufferFailedToInitialize).c_str());
+         throw CMMError(getCoreErrorText(MMERR_CircularBufferFailedToInitialize).c_str(), MMERR_CircularBufferFailedToInitialize);
+      }
+      cbuf_->Clear();
    }
-   cbuf_->Clear();
    cbuf_->SetOverwriteData(!stopOnOverflow);
    LOG_DEBUG(coreLogger_) <<
       "Will start sequence acquisition from camera " << label;
@@ -3133,7 +3168,13 @@ void CMMCore::initializeCircularBuffer() MMCORE_LEGACY_THROW(CMMError)
    if (camera)
    {
       mmi::DeviceModuleLockGuard guard(camera);
-      if (!cbuf_->Initialize(camera->GetImageWidth(), camera->GetImageHeight(), camera->GetImageBytesPerPixel()))
+      if (perCameraBuffers_)
+      {
+         // Buffers follow their camera's image size as images are inserted
+         for (const auto& buffer : getCameraBuffers())
+            buffer->Clear();
+      }
+      else if (!cbuf_->Initialize(camera->GetImageWidth(), camera->GetImageHeight(), camera->GetImageBytesPerPixel()))
       {
          logError(getDeviceName(camera).c_str(), getCoreErrorText(MMERR_CircularBufferFailedToInitialize).c_str());
          throw CMMError(getCoreErrorText(MMERR_CircularBufferFailedToInitialize).c_str(), MMERR_CircularBufferFailedToInitialize);
@@ -3167,6 +3208,7 @@ void CMMCore::stopSequenceAcquisition(const char* label) MMCORE_LEGACY_THROW(CMM
 
    LOG_DEBUG(coreLogger_) << "Did stop sequence acquisition from camera " << label;
    // onSequenceAcquisitionStopped will be called by CoreCallback::AcqFinished
+   cbuf_->WakeWaiters();
 }
 
 /**
@@ -3186,7 +3228,15 @@ void CMMCore::startContinuousSequenceAcquisition(double intervalMs) MMCORE_LEGAC
             ,MMERR_NotAllowedDuringSequenceAcquisition);
       }
 
-      if (!cbuf_->Initialize(camera->GetImageWidth(), camera->GetImageHeight(), camera->GetImageBytesPerPixel()))
+      if (perCameraBuffers_)
+      {
+         for (const auto& buffer : getCameraBuffers())
+         {
+            buffer->Clear();
+            buffer->SetOverwriteData(true);
+         }
+      }
+      else if (!cbuf_->Initialize(camera->GetImageWidth(), camera->GetImageHeight(), camera->GetImageBytesPerPixel()))
       {
          logError(getDeviceName(camera).c_str(), getCoreErrorText(MMERR_CircularBufferFailedToInitialize).c_str());
          throw CMMError(getCoreErrorText(MMERR_CircularBufferFailedToInitialize).c_str(), MMERR_CircularBufferFailedToInitialize);
@@ -3232,6 +3282,7 @@ void CMMCore::stopSequenceAcquisition() MMCORE_LEGACY_THROW(CMMError)
 
    LOG_DEBUG(coreLogger_) << "Did stop sequence acquisition from current camera";
    // onSequenceAcquisitionStopped will be called by CoreCallback::AcqFinished
+   cbuf_->WakeWaiters();
 }
 
 /**
@@ -3256,6 +3307,27 @@ bool CMMCore::isSequenceRunning() MMCORE_NOEXCEPT
    return false;
 };
 
+/**
+ * Returns a number that stays the same while the settings that describe the
+ * images of the running sequence acquisition (image size, bit depth, pixel
+ * size, channel, binning, and so on) remain unchanged.
+ *
+ * This lets callers read those settings once per acquisition instead of once
+ * per image. The version changes when an acquisition starts, when the system
+ * state cache changes, with property, configuration group, and pixel size
+ * notifications, and when the ROI is set or cleared. Returns -1 if no
+ * sequence acquisition is running on the current camera, in which case the
+ * settings should be read afresh.
+ */
+long long CMMCore::getAcquisitionContextVersion() MMCORE_NOEXCEPT
+{
+   if (!isSequenceRunning())
+      return -1;
+   // Sum of monotonic counters: changes whenever either one does
+   return static_cast<long long>(stateCache_->getVersion() +
+      acquisitionContextChanges_.load());
+}
+
 /**
  * Check if the specified camera is acquiring the sequence
  * Returns false when the sequence is done
@@ -3275,7 +3347,9 @@ bool CMMCore::isSequenceRunning(const char* label) MMCORE_LEGACY_THROW(CMMError)
  */
 void* CMMCore::getLastImage() MMCORE_LEGACY_THROW(CMMError)
 {
-   unsigned char* pBuf = const_cast<unsigned char*>(cbuf_->GetTopImage());
+   const mmi::ImgBuffer* pImg = cbuf_->GetTopImageBuffer(0);
+   checkCameraImageSize(pImg);
+   unsigned char* pBuf = pImg ? const_cast<unsigned char*>(pImg->GetPixels()) : 0;
    if (pBuf != 0)
       return pBuf;
    else
@@ -3294,6 +3368,7 @@ void* CMMCore::getLastImageMD(unsigned channel, unsigned slice, Metadata& md) co
       throw CMMError("Slice must be 0");
 
    const mmi::ImgBuffer* pBuf = cbuf_->GetTopImageBuffer(channel);
+   checkCameraImageSize(pBuf);
    if (pBuf != 0)
    {
       md = pBuf->GetMetadata();
@@ -3335,6 +3410,7 @@ void* CMMCore::getLastImageMD(Metadata& md) const MMCORE_LEGACY_THROW(CMMError)
 void* CMMCore::getNBeforeLastImageMD(unsigned long n, Metadata& md) const MMCORE_LEGACY_THROW(CMMError)
 {
    const mmi::ImgBuffer* pBuf = cbuf_->GetNthFromTopImageBuffer(n);
+   checkCameraImageSize(pBuf);
    if (pBuf != 0)
    {
       md = pBuf->GetMetadata();
@@ -3358,7 +3434,8 @@ void* CMMCore::getNBeforeLastImageMD(unsigned long n, Metadata& md) const MMCORE
  */
 void* CMMCore::popNextImage() MMCORE_LEGACY_THROW(CMMError)
 {
-   unsigned char* pBuf = const_cast<unsigned char*>(cbuf_->GetNextImage());
+   const mmi::ImgBuffer* pImg = popNextCameraSizedImage();
+   unsigned char* pBuf = pImg ? const_cast<unsigned char*>(pImg->GetPixels()) : 0;
    if (pBuf != 0)
       return pBuf;
    else
@@ -3379,7 +3456,7 @@ void* CMMCore::popNextImageMD(unsigned channel, unsigned slice, Metadata& md) MM
    if (slice != 0)
       throw CMMError("Slice must be 0");
 
-   const mmi::ImgBuffer* pBuf = cbuf_->GetNextImageBuffer(channel);
+   const mmi::ImgBuffer* pBuf = popNextCameraSizedImage();
    if (pBuf != 0)
    {
       md = pBuf->GetMetadata();
@@ -3397,6 +3474,271 @@ void* CMMCore::popNextImageMD(Metadata& md) MMCORE_LEGACY_THROW(CMMError)
    return popNextImageMD(0, 0, md);
 }
 
+/**
+ * Gets and removes the next image (and metadata) from the circular buffer,
+ * or returns 0 if the buffer is empty.
+ *
+ * Unlike popNextImageMD(), this does not throw when the buffer is empty, so
+ * it is cheap to call in a polling loop. md is left unchanged if the buffer
+ * is empty. Throws only if the metadata cannot be copied (out of memory).
+ */
+void* CMMCore::tryPopNextImageMD(Metadata& md) MMCORE_LEGACY_THROW(CMMError)
+{
+   const mmi::ImgBuffer* pBuf = popNextCameraSizedImage();
+   if (!pBuf)
+      return nullptr;
+   try
+   {
+      md = pBuf->GetMetadata();
+   }
+   catch (std::bad_alloc& ex)
+   {
+      std::ostringstream messs;
+      messs << getCoreErrorText(MMERR_OutOfMemory).c_str() << " " << ex.what() << '\n';
+      throw CMMError(messs.str().c_str() , MMERR_OutOfMemory);
+   }
+   return const_cast<unsigned char*>(pBuf->GetPixels());
+}
+
+/**
+ * Gets the last image (and metadata) from the circular buffer of a camera
+ * (see setCircularBufferPerCamera()).
+ *
+ * @param cameraLabel the camera label
+ * @param md receives the image metadata
+ */
+void* CMMCore::getLastImageMD(const char* cameraLabel, Metadata& md) const MMCORE_LEGACY_THROW(CMMError)
+{
+   std::shared_ptr<mmi::CircularBuffer> buffer = getCameraBuffer(cameraLabel);
+   const mmi::ImgBuffer* pBuf = buffer ? buffer->GetTopImageBuffer(0) : nullptr;
+   if (!pBuf)
+      throw CMMError(getCoreErrorText(MMERR_CircularBufferEmpty).c_str(), MMERR_CircularBufferEmpty);
+   md = pBuf->GetMetadata();
+   return const_cast<unsigned char*>(pBuf->GetPixels());
+}
+
+/**
+ * Gets and removes the next image (and metadata) from the circular buffer of
+ * a camera (see setCircularBufferPerCamera()).
+ *
+ * @param cameraLabel the camera label
+ * @param md receives the image metadata
+ */
+void* CMMCore::popNextImageMD(const char* cameraLabel, Metadata& md) MMCORE_LEGACY_THROW(CMMError)
+{
+   std::shared_ptr<mmi::CircularBuffer> buffer = getCameraBuffer(cameraLabel);
+   const mmi::ImgBuffer* pBuf = buffer ? buffer->GetNextImageBuffer(0) : nullptr;
+   if (!pBuf)
+      throw CMMError(getCoreErrorText(MMERR_CircularBufferEmpty).c_str(), MMERR_CircularBufferEmpty);
+   md = pBuf->GetMetadata();
+   return const_cast<unsigned char*>(pBuf->GetPixels());
+}
+
+/**
+ * Gets and removes the next image (and metadata) from the circular buffer,
+ * without copying the pixels.
+ *
+ * The returned pixels remain valid, and are not overwritten by subsequently
+ * acquired images, until they are handed back with releaseImageBuffer().
+ * Every buffer obtained from this function must be released exactly once;
+ * images that are not released hold on to their memory.
+ *
+ * The pixel format is the same as for popNextImageMD().
+ */
+imgLease CMMCore::popNextImageBuffer(Metadata& md) MMCORE_LEGACY_THROW(CMMError)
+{
+   const mmi::ImgBuffer* pBuf = cbuf_->LeaseNextImageBuffer();
+   if (!pBuf)
+      throw CMMError(getCoreErrorText(MMERR_CircularBufferEmpty).c_str(), MMERR_CircularBufferEmpty);
+   md = pBuf->GetMetadata();
+   return pBuf->GetPixels();
+}
+
+/**
+ * Like popNextImageBuffer(Metadata&), but waits for an image to arrive if the
+ * buffer is empty, instead of throwing.
+ *
+ * Returns a null buffer if no image arrived within timeoutMs, or if the
+ * buffer is empty and no sequence acquisition is running on the current
+ * camera (including when the acquisition stops while waiting). A timeout of
+ * zero or less does not wait at all. A timeout too long for the clock to
+ * represent (such as infinity) means no deadline: the call waits until an
+ * image arrives or the acquisition stops.
+ */
+imgLease CMMCore::popNextImageBuffer(Metadata& md, double timeoutMs) MMCORE_LEGACY_THROW(CMMError)
+{
+   using namespace std::chrono;
+   const auto start = steady_clock::now();
+   const duration<double, std::milli> timeout(timeoutMs > 0.0 ? timeoutMs : 0.0);
+   // Adding a huge timeout to now() would overflow, so such timeouts leave
+   // the deadline unbounded and the wait below is done in slices.
+   const bool bounded = timeout < (steady_clock::time_point::max() - start) / 2;
+   const auto deadline = bounded ?
+      start + duration_cast<steady_clock::duration>(timeout) :
+      steady_clock::time_point::max();
+
+   for (;;)
+   {
+      // Take the wake count first so that a stop occurring after the
+      // isSequenceRunning() check below still ends the wait.
+      const unsigned long wakeCount = cbuf_->GetWakeCount();
+
+      const mmi::ImgBuffer* pBuf = cbuf_->LeaseNextImageBuffer();
+      if (pBuf)
+      {
+         md = pBuf->GetMetadata();
+         return pBuf->GetPixels();
+      }
+
+      if (!isSequenceRunning())
+         return nullptr;
+
+      const auto sliceEnd = steady_clock::now() + hours(1);
+      if (!cbuf_->WaitForImage(wakeCount, std::min(deadline, sliceEnd)) &&
+            steady_clock::now() >= deadline)
+         return nullptr;
+   }
+}
+
+/**
+ * Like popNextImageBuffer(Metadata&), but gets the image from the circular
+ * buffer of a camera (see setCircularBufferPerCamera()).
+ *
+ * @param cameraLabel the camera label
+ * @param md receives the image metadata
+ */
+imgLease CMMCore::popNextImageBuffer(const char* cameraLabel, Metadata& md) MMCORE_LEGACY_THROW(CMMError)
+{
+   std::shared_ptr<mmi::CircularBuffer> buffer = getCameraBuffer(cameraLabel);
+   const mmi::ImgBuffer* pBuf = buffer ? buffer->LeaseNextImageBuffer() : nullptr;
+   if (!pBuf)
+      throw CMMError(getCoreErrorText(MMERR_CircularBufferEmpty).c_str(), MMERR_CircularBufferEmpty);
+   md = pBuf->GetMetadata();
+   return pBuf->GetPixels();
+}
+
+/**
+ * Gets and removes up to maxCount images from the circular buffer in one
+ * call, without copying the pixels. This lets a consumer that has fallen
+ * behind catch up in bulk rather than frame by frame.
+ *
+ * The images are returned oldest first; the vector is empty (rather than an
+ * exception being thrown) if the buffer is empty. serializedMetadata is
+ * replaced with the metadata of each image, in the format of
+ * Metadata::Serialize(). Each returned buffer must be released, e.g. with
+ * releaseImageBuffers().
+ */
+std::vector<imgLease> CMMCore::popNextImageBuffers(unsigned maxCount,
+      std::vector<std::string>& serializedMetadata) MMCORE_LEGACY_THROW(CMMError)
+{
+   std::vector<const mmi::ImgBuffer*> images =
+      cbuf_->LeaseNextImageBuffers(maxCount);
+
+   std::vector<imgLease> buffers;
+   buffers.reserve(images.size());
+   serializedMetadata.clear();
+   serializedMetadata.reserve(images.size());
+   for (const mmi::ImgBuffer* img : images)
+   {
+      buffers.push_back(img->GetPixels());
+      serializedMetadata.push_back(img->GetMetadata().Serialize());
+   }
+   return buffers;
+}
+
+/**
+ * Gets the last image (and metadata) from the circular buffer, without
+ * copying the pixels. The image is not removed from the buffer.
+ *
+ * As with popNextImageBuffer(), the returned buffer must be handed back with
+ * releaseImageBuffer().
+ */
+imgLease CMMCore::getLastImageBuffer(Metadata& md) MMCORE_LEGACY_THROW(CMMError)
+{
+   const mmi::ImgBuffer* pBuf = cbuf_->LeaseTopImageBuffer();
+   if (!pBuf)
+      throw CMMError(getCoreErrorText(MMERR_CircularBufferEmpty).c_str(), MMERR_CircularBufferEmpty);
+   md = pBuf->GetMetadata();
+   return pBuf->GetPixels();
+}
+
+/**
+ * Like getLastImageBuffer(Metadata&), but gets the image from the circular
+ * buffer of a camera (see setCircularBufferPerCamera()).
+ *
+ * @param cameraLabel the camera label
+ * @param md receives the image metadata
+ */
+imgLease CMMCore::getLastImageBuffer(const char* cameraLabel, Metadata& md) MMCORE_LEGACY_THROW(CMMError)
+{
+   std::shared_ptr<mmi::CircularBuffer> buffer = getCameraBuffer(cameraLabel);
+   const mmi::ImgBuffer* pBuf = buffer ? buffer->LeaseTopImageBuffer() : nullptr;
+   if (!pBuf)
+      throw CMMError(getCoreErrorText(MMERR_CircularBufferEmpty).c_str(), MMERR_CircularBufferEmpty);
+   md = pBuf->GetMetadata();
+   return pBuf->GetPixels();
+}
+
+/**
+ * Returns the size in bytes of a buffer obtained from popNextImageBuffer() or
+ * getLastImageBuffer() that has not yet been released.
+ */
+long CMMCore::getImageBufferSize(imgLease buffer) MMCORE_LEGACY_THROW(CMMError)
+{
+   const mmi::ImgBuffer* pBuf = cbuf_->FindLeasedImageBuffer(buffer);
+   if (!pBuf && perCameraBuffers_)
+   {
+      for (const auto& cameraBuffer : getLeasingCameraBuffers())
+      {
+         pBuf = cameraBuffer->FindLeasedImageBuffer(buffer);
+         if (pBuf)
+            break;
+      }
+   }
+   if (!pBuf)
+      throw CMMError("Image buffer was not obtained from the circular buffer or has already been released");
+   return static_cast<long>(pBuf->Width()) * pBuf->Height() * pBuf->Depth();
+}
+
+/**
+ * Returns the size in bytes of the next image in the circular buffer (the one
+ * that popNextImageBuffer() would return), without removing it, or 0 if the
+ * buffer is empty.
+ *
+ * This lets a consumer check that it can take the image before removing it.
+ */
+long CMMCore::getNextImageBufferSize()
+{
+   return static_cast<long>(cbuf_->GetNextImageSize());
+}
+
+/**
+ * Hands back a buffer obtained from popNextImageBuffer() or
+ * getLastImageBuffer(). The pixels must not be accessed afterwards.
+ */
+void CMMCore::releaseImageBuffer(imgLease buffer) MMCORE_LEGACY_THROW(CMMError)
+{
+   if (!releaseLeasedImage(buffer))
+      throw CMMError("Image buffer was not obtained from the circular buffer or has already been released");
+}
+
+/**
+ * Hands back several buffers at once. See releaseImageBuffer().
+ *
+ * All valid buffers are released even if some are not.
+ */
+void CMMCore::releaseImageBuffers(const std::vector<imgLease>& buffers) MMCORE_LEGACY_THROW(CMMError)
+{
+   bool allReleased = true;
+   for (imgLease buffer : buffers)
+   {
+      if (!releaseLeasedImage(buffer))
+         allReleased = false;
+   }
+   if (!allReleased)
+      throw CMMError("Image buffer was not obtained from the circular buffer or has already been released");
+}
+
 /**
  * Removes all images from the circular buffer.
  *
@@ -3406,6 +3748,437 @@ void* CMMCore::popNextImageMD(Metadata& md) MMCORE_LEGACY_THROW(CMMError)
 void CMMCore::clearCircularBuffer() MMCORE_LEGACY_THROW(CMMError)
 {
    cbuf_->Clear();
+   for (const auto& buffer : getCameraBuffers())
+      buffer->Clear();
+}
+
+/**
+ * Selects the lock-free mode of the circular buffer.
+ *
+ * By default, the camera thread inserting an image and the threads getting
+ * images from the buffer (or just counting them) contend for one lock. In
+ * lock-free mode, inserting an image never waits for another thread, and
+ * popNextImage(), getLastImage(), getRemainingImageCount() and similar do not
+ * lock; images are still handed out exactly once, in order. Leasing image
+ * buffers (popNextImageBuffer() etc.) and waiting for images still lock, and
+ * then make the camera thread lock briefly too. This can help when several
+ * threads poll the buffer during a fast sequence acquisition.
+ *
+ * The mode can be changed at any time and is kept when the buffer is
+ * reallocated. In lock-free mode, do not initialize the buffer (e.g. by
+ * starting a sequence acquisition or changing the memory footprint) while
+ * other threads may be getting images.
+ *
+ * @param lockFree true for lock-free mode
+ */
+void CMMCore::setCircularBufferLockFree(bool lockFree)
+{
+   cbuf_->SetLockFree(lockFree);
+   for (const auto& buffer : getCameraBuffers())
+      buffer->SetLockFree(lockFree);
+}
+
+/**
+ * Returns whether the circular buffer is in lock-free mode.
+ * @see setCircularBufferLockFree()
+ */
+bool CMMCore::isCircularBufferLockFree() const
+{
+   return cbuf_->IsLockFree();
+}
+
+/**
+ * Selects lazy allocation of the circular buffer memory.
+ *
+ * By default, initializing the circular buffer (e.g. when starting a sequence
+ * acquisition or after the ROI has changed) allocates and zeroes memory for
+ * every image it can hold, which can take seconds with a memory footprint of
+ * many gigabytes. With lazy allocation, the memory is reserved as one block
+ * whose pages are only touched when an image is first inserted in them, and
+ * re-initializing the buffer reuses that block when the images are no larger
+ * than before.
+ *
+ * Takes effect the next time the buffer is initialized, and is kept when the
+ * buffer is reallocated.
+ *
+ * @param lazy true for lazy allocation
+ */
+void CMMCore::setCircularBufferLazyAllocation(bool lazy)
+{
+   cbuf_->SetLazyAllocation(lazy);
+   for (const auto& buffer : getCameraBuffers())
+      buffer->SetLazyAllocation(lazy);
+}
+
+/**
+ * Returns whether the circular buffer memory is allocated lazily.
+ * @see setCircularBufferLazyAllocation()
+ */
+bool CMMCore::isCircularBufferLazyAllocation() const
+{
+   return cbuf_->IsLazyAllocation();
+}
+
+/**
+ * Selects what happens when the circular buffer is full during a sequence
+ * acquisition that does not stop on overflow (including continuous
+ * acquisition).
+ *
+ * By default, all images that have not been retrieved are discarded to make
+ * room for the new one. When dropping the oldest, only the oldest image is
+ * discarded for each new image, so that a consumer that falls behind misses
+ * as few images as possible; the image numbers of the remaining images show
+ * which ones were dropped. Either way, getBufferDroppedImageCount() counts
+ * the discarded images.
+ *
+ * The setting is kept when the buffer is reallocated.
+ *
+ * @param dropOldest true to drop only the oldest image
+ */
+void CMMCore::setCircularBufferDropOldest(bool dropOldest)
+{
+   cbuf_->SetDropOldest(dropOldest);
+   for (const auto& buffer : getCameraBuffers())
+      buffer->SetDropOldest(dropOldest);
+}
+
+/**
+ * Returns whether the circular buffer drops only the oldest image when full.
+ * @see setCircularBufferDropOldest()
+ */
+bool CMMCore::isCircularBufferDropOldest() const
+{
+   return cbuf_->IsDropOldest();
+}
+
+/**
+ * Selects whether the circular buffer accepts images of any size.
+ *
+ * By default, the circular buffer holds images of the size it was initialized
+ * for (the camera's image size when a sequence acquisition was started), and
+ * images of any other size are rejected, so changing the ROI or binning
+ * requires restarting the acquisition. With variable frame sizes, images of
+ * any size that fits in the memory footprint are accepted, and packed one
+ * after another in a single block of memory, so that smaller images take
+ * less room. Each image keeps its own size, which getImageBufferSize() and
+ * the Width, Height and PixelType metadata tags report.
+ *
+ * getBufferTotalCapacity() and getBufferFreeCapacity() then count images of
+ * the initialized size. Functions that return pixels without their size
+ * (popNextImage(), getLastImage() etc.) throw MMERR_CircularBufferIncompatibleImage
+ * for an image that is not of the current camera's size (leaving it in the
+ * buffer); lease image buffers (popNextImageBuffer() etc.) instead when the
+ * size changes.
+ *
+ * Takes effect the next time the buffer is initialized, and is kept when the
+ * buffer is reallocated.
+ *
+ * @param variable true for variable frame sizes
+ */
+void CMMCore::setCircularBufferVariableFrameSize(bool variable)
+{
+   cbuf_->SetVariableFrameSize(variable);
+   for (const auto& buffer : getCameraBuffers())
+      buffer->SetVariableFrameSize(variable);
+}
+
+/**
+ * Returns whether the circular buffer accepts images of any size.
+ * @see setCircularBufferVariableFrameSize()
+ */
+bool CMMCore::isCircularBufferVariableFrameSize() const
+{
+   return cbuf_->IsVariableFrameSize();
+}
+
+/**
+ * Selects whether each camera has its own circular buffer.
+ *
+ * By default, the images from all cameras (including the physical cameras of
+ * a Multi Camera device) are inserted in one circular buffer, one at a time,
+ * and consumers tell them apart by the Camera tag. With per-camera buffers,
+ * the images from each camera are inserted in that camera's buffer, so that
+ * cameras insert in parallel and each camera's images can be retrieved
+ * independently, with the functions that take a camera label
+ * (popNextImageMD(const char*, Metadata&), popNextImageBuffer(const char*,
+ * Metadata&), getRemainingImageCount(const char*) etc.). The functions without
+ * a camera label then find no images.
+ *
+ * The memory footprint (see setCircularBufferMemoryFootprint()) is divided
+ * equally among the camera devices loaded when each buffer is created, which
+ * is when its camera first inserts an image or a sequence acquisition is
+ * started on it by label. A camera's buffer follows its image size, and is
+ * replaced by a new, empty buffer when the camera inserts an image of a
+ * different size (unless the buffer accepts it; see
+ * setCircularBufferVariableFrameSize()). Images leased from the old buffer
+ * stay valid until they are released. The
+ * other buffer settings (setCircularBufferLockFree() etc.) apply to all
+ * buffers. Lazy allocation (setCircularBufferLazyAllocation()) avoids
+ * allocating memory for cameras that do not insert images, such as a Multi
+ * Camera device itself.
+ *
+ * Starting a sequence acquisition on a camera by label clears only that
+ * camera's buffer; other functions that clear the buffer clear all of them.
+ *
+ * Cannot be changed while image buffers are leased; changing it discards all
+ * images.
+ *
+ * @param perCamera true for per-camera buffers
+ */
+void CMMCore::setCircularBufferPerCamera(bool perCamera) MMCORE_LEGACY_THROW(CMMError)
+{
+   if (perCamera == perCameraBuffers_)
+      return;
+   if (getLeaseCount() > 0)
+      throw CMMError("Cannot change the circular buffers while image buffers are not released");
+
+   // Release the memory of the buffer(s) no longer used
+   try
+   {
+      cbuf_ = newCircularBuffer(cbuf_->GetMemorySizeMB());
+   }
+   catch (std::bad_alloc& ex)
+   {
+      std::ostringstream messs;
+      messs << getCoreErrorText(MMERR_OutOfMemory).c_str() << " " << ex.what() << '\n';
+      throw CMMError(messs.str().c_str() , MMERR_OutOfMemory);
+   }
+   {
+      std::lock_guard<std::mutex> guard(cameraBuffersMutex_);
+      cameraBuffers_.clear();
+      retiredCameraBuffers_.clear();
+   }
+   perCameraBuffers_ = perCamera;
+   LOG_DEBUG(coreLogger_) << "Per-camera circular buffers " <<
+      (perCamera ? "enabled" : "disabled");
+}
+
+/**
+ * Returns whether each camera has its own circular buffer.
+ * @see setCircularBufferPerCamera()
+ */
+bool CMMCore::isCircularBufferPerCamera() const
+{
+   return perCameraBuffers_;
+}
+
+/**
+ * Returns the number of images from a camera available in its circular
+ * buffer (see setCircularBufferPerCamera()); 0 if the camera has not
+ * inserted any images yet.
+ *
+ * @param cameraLabel the camera label
+ */
+long CMMCore::getRemainingImageCount(const char* cameraLabel) MMCORE_LEGACY_THROW(CMMError)
+{
+   std::shared_ptr<mmi::CircularBuffer> buffer = getCameraBuffer(cameraLabel);
+   return buffer ? buffer->GetRemainingImageCount() : 0;
+}
+
+/**
+ * Returns the number of images that the circular buffer of a camera can hold
+ * (see setCircularBufferPerCamera()); 0 if the buffer has not been created
+ * yet.
+ *
+ * @param cameraLabel the camera label
+ */
+long CMMCore::getBufferTotalCapacity(const char* cameraLabel) MMCORE_LEGACY_THROW(CMMError)
+{
+   std::shared_ptr<mmi::CircularBuffer> buffer = getCameraBuffer(cameraLabel);
+   return buffer ? buffer->GetSize() : 0;
+}
+
+// A new, uninitialized circular buffer with the settings of cbuf_ (if any).
+std::unique_ptr<mmi::CircularBuffer> CMMCore::newCircularBuffer(unsigned sizeMB) const
+{
+   auto buffer = std::make_unique<mmi::CircularBuffer>(sizeMB);
+   if (cbuf_)
+   {
+      buffer->SetOverwriteData(cbuf_->IsOverwriteData());
+      buffer->SetLockFree(cbuf_->IsLockFree());
+      buffer->SetLazyAllocation(cbuf_->IsLazyAllocation());
+      buffer->SetDropOldest(cbuf_->IsDropOldest());
+      buffer->SetVariableFrameSize(cbuf_->IsVariableFrameSize());
+   }
+   return buffer;
+}
+
+std::vector<std::shared_ptr<mmi::CircularBuffer>> CMMCore::getCameraBuffers() const
+{
+   std::vector<std::shared_ptr<mmi::CircularBuffer>> buffers;
+   std::lock_guard<std::mutex> guard(cameraBuffersMutex_);
+   buffers.reserve(cameraBuffers_.size());
+   for (const auto& labelAndBuffer : cameraBuffers_)
+      buffers.push_back(labelAndBuffer.second);
+   return buffers;
+}
+
+// Returns null if the camera has no buffer (yet).
+std::shared_ptr<mmi::CircularBuffer> CMMCore::getCameraBuffer(const char* cameraLabel) const MMCORE_LEGACY_THROW(CMMError)
+{
+   CheckDeviceLabel(cameraLabel);
+   if (!perCameraBuffers_)
+      throw CMMError("Per-camera circular buffers are not enabled");
+   std::lock_guard<std::mutex> guard(cameraBuffersMutex_);
+   auto it = cameraBuffers_.find(cameraLabel);
+   if (it == cameraBuffers_.end())
+      return nullptr;
+   return it->second;
+}
+
+// The camera buffers, including retired ones that may hold leased images.
+std::vector<std::shared_ptr<mmi::CircularBuffer>> CMMCore::getLeasingCameraBuffers() const
+{
+   std::vector<std::shared_ptr<mmi::CircularBuffer>> buffers = getCameraBuffers();
+   std::lock_guard<std::mutex> guard(cameraBuffersMutex_);
+   buffers.insert(buffers.end(), retiredCameraBuffers_.begin(),
+         retiredCameraBuffers_.end());
+   return buffers;
+}
+
+// Returns the camera's buffer, initialized to accept an image of the given
+// size. A buffer that does not accept it is replaced by a new one rather than
+// reinitialized, because consumers may be using it without locking (in
+// lock-free mode); they keep the old buffer until they are done with it.
+std::shared_ptr<mmi::CircularBuffer> CMMCore::getCameraBufferForInsert(
+      const std::string& cameraLabel, unsigned width, unsigned height,
+      unsigned bytesPerPixel) MMCORE_LEGACY_THROW(CMMError)
+{
+   std::lock_guard<std::mutex> guard(cameraBuffersMutex_);
+   std::shared_ptr<mmi::CircularBuffer>& buffer = cameraBuffers_[cameraLabel];
+   if (buffer && buffer->AcceptsImage(width, height, bytesPerPixel))
+      return buffer;
+
+   std::shared_ptr<mmi::CircularBuffer> replacement;
+   if (buffer)
+   {
+      replacement = newCircularBuffer(buffer->GetMemorySizeMB());
+      replacement->SetOverwriteData(buffer->IsOverwriteData());
+   }
+   else
+   {
+      std::size_t nCameras = std::max<std::size_t>(1,
+            deviceManager_->GetDeviceList(MM::CameraDevice).size());
+      unsigned sizeMB = std::max(1u, cbuf_->GetMemorySizeMB() /
+            static_cast<unsigned>(nCameras));
+      replacement = newCircularBuffer(sizeMB);
+   }
+   if (!replacement->Initialize(width, height, bytesPerPixel))
+   {
+      logError(cameraLabel.c_str(), getCoreErrorText(MMERR_CircularBufferFailedToInitialize).c_str());
+      throw CMMError(getCoreErrorText(MMERR_CircularBufferFailedToInitialize).c_str(), MMERR_CircularBufferFailedToInitialize);
+   }
+   LOG_DEBUG(coreLogger_) << (buffer ? "Replaced " : "Created ") <<
+      replacement->GetMemorySizeMB() << " MB circular buffer for camera " <<
+      cameraLabel << " (" << width << "x" << height << "x" << bytesPerPixel << ")";
+
+   if (buffer && buffer->GetLeaseCount() > 0)
+      retiredCameraBuffers_.push_back(buffer);
+   buffer = replacement;
+   return buffer;
+}
+
+// Releases a leased image from whichever circular buffer it came from
+bool CMMCore::releaseLeasedImage(imgLease buffer)
+{
+   if (cbuf_->ReleaseImageBuffer(buffer))
+      return true;
+   if (perCameraBuffers_)
+   {
+      for (const auto& cameraBuffer : getLeasingCameraBuffers())
+      {
+         if (cameraBuffer->ReleaseImageBuffer(buffer))
+         {
+            // Retired buffers are dropped with their last lease
+            std::lock_guard<std::mutex> guard(cameraBuffersMutex_);
+            retiredCameraBuffers_.erase(std::remove_if(
+                  retiredCameraBuffers_.begin(), retiredCameraBuffers_.end(),
+                  [](const std::shared_ptr<mmi::CircularBuffer>& b) {
+                     return b->GetLeaseCount() == 0;
+                  }), retiredCameraBuffers_.end());
+            return true;
+         }
+      }
+   }
+   return false;
+}
+
+// The current camera's image size (0 if there is no camera), which the
+// callers of the functions that return pixels without their size, and the
+// MMCoreJ wrapper, take those pixels to be
+void CMMCore::getCameraImageSize(unsigned& width, unsigned& height,
+      unsigned& bytesPerPixel) const
+{
+   width = height = bytesPerPixel = 0;
+   std::shared_ptr<mmi::CameraInstance> camera = currentCameraDevice_.lock();
+   if (!camera)
+      return;
+   try
+   {
+      mmi::DeviceModuleLockGuard guard(camera);
+      width = camera->GetImageWidth();
+      height = camera->GetImageHeight();
+      bytesPerPixel = camera->GetImageBytesPerPixel();
+   }
+   catch (const CMMError&) // Possibly uninitialized camera
+   {
+   }
+}
+
+// With variable frame sizes, throws if an image from the circular buffer is
+// not of the current camera's size, rather than have it read as one that is
+void CMMCore::checkCameraImageSize(const mmi::ImgBuffer* pBuf) const MMCORE_LEGACY_THROW(CMMError)
+{
+   if (!pBuf || !cbuf_->IsVariableFrameSize())
+      return;
+   unsigned width, height, bytesPerPixel;
+   getCameraImageSize(width, height, bytesPerPixel);
+   if (pBuf->Width() != width || pBuf->Height() != height ||
+         pBuf->Depth() != bytesPerPixel)
+      throw CMMError(getCoreErrorText(MMERR_CircularBufferIncompatibleImage).c_str(),
+            MMERR_CircularBufferIncompatibleImage);
+}
+
+// Removes the next image from the circular buffer, or returns 0 if it is
+// empty. With variable frame sizes, an image that is not of the current
+// camera's size is left in the buffer, and the call throws as
+// checkCameraImageSize() does.
+const mmi::ImgBuffer* CMMCore::popNextCameraSizedImage() MMCORE_LEGACY_THROW(CMMError)
+{
+   if (!cbuf_->IsVariableFrameSize())
+      return cbuf_->GetNextImageBuffer(0);
+   unsigned width, height, bytesPerPixel;
+   getCameraImageSize(width, height, bytesPerPixel);
+   bool sizeMismatch;
+   const mmi::ImgBuffer* pBuf = cbuf_->GetNextImageBuffer(0, width, height,
+         bytesPerPixel, sizeMismatch);
+   if (sizeMismatch)
+      throw CMMError(getCoreErrorText(MMERR_CircularBufferIncompatibleImage).c_str(),
+            MMERR_CircularBufferIncompatibleImage);
+   return pBuf;
+}
+
+// Called when the image size may have changed. Any images left over in the
+// sequence buffers may have sizes inconsistent with the current image size.
+// There is no way to "fix" popNextImage() to handle this correctly, so we
+// need to make sure we discard such images, unless the buffers have variable
+// frame sizes, where each image keeps its own size.
+void CMMCore::clearBuffersForNewImageSize()
+{
+   if (cbuf_->IsVariableFrameSize())
+      return;
+   cbuf_->Clear();
+   for (const auto& buffer : getCameraBuffers())
+      buffer->Clear();
+}
+
+// The number of leased images in all circular buffers
+unsigned long CMMCore::getLeaseCount() const
+{
+   unsigned long count = cbuf_ ? cbuf_->GetLeaseCount() : 0;
+   for (const auto& buffer : getLeasingCameraBuffers())
+      count += buffer->GetLeaseCount();
+   return count;
 }
 
 /**
@@ -3414,11 +4187,18 @@ void CMMCore::clearCircularBuffer() MMCORE_LEGACY_THROW(CMMError)
 void CMMCore::setCircularBufferMemoryFootprint(unsigned sizeMB ///< n megabytes
                                                ) MMCORE_LEGACY_THROW(CMMError)
 {
+   if (getLeaseCount() > 0)
+      throw CMMError("Cannot change the circular buffer size while image buffers are not released");
+
    LOG_DEBUG(coreLogger_) << "Will set circular buffer size to " <<
       sizeMB << " MB";
 	try
 	{
-		cbuf_ = std::make_unique<mmi::CircularBuffer>(sizeMB);
+		cbuf_ = newCircularBuffer(sizeMB);
+		// Recreated with their share of the new size as cameras insert
+		std::lock_guard<std::mutex> guard(cameraBuffersMutex_);
+		cameraBuffers_.clear();
+		retiredCameraBuffers_.clear();
 	}
 	catch (std::bad_alloc& ex)
 	{
@@ -3434,7 +4214,7 @@ void CMMCore::setCircularBufferMemoryFootprint(unsigned sizeMB ///< n megabytes
 
 		// attempt to initialize based on the current camera settings
       std::shared_ptr<mmi::CameraInstance> camera = currentCameraDevice_.lock();
-      if (camera)
+      if (camera && !perCameraBuffers_)
 		{
          mmi::DeviceModuleLockGuard guard(camera);
          if (!cbuf_->Initialize(camera->GetImageWidth(), camera->GetImageHeight(), camera->GetImageBytesPerPixel()))
@@ -3505,11 +4285,51 @@ long CMMCore::getBufferFreeCapacity()
 }
 
 /**
- * Indicates whether the circular buffer is overflowed
+ * Indicates whether the circular buffer (or, with per-camera buffers, any of
+ * them) is overflowed
  */
 bool CMMCore::isBufferOverflowed() const
 {
-   return cbuf_->Overflow();
+   if (cbuf_->Overflow())
+      return true;
+   for (const auto& buffer : getCameraBuffers())
+   {
+      if (buffer->Overflow())
+         return true;
+   }
+   return false;
+}
+
+/**
+ * Returns the number of images lost because the circular buffer was full
+ * since it was last cleared (e.g. when a sequence acquisition was started).
+ *
+ * This counts the images discarded to make room for new ones when the
+ * acquisition does not stop on overflow (see setCircularBufferDropOldest()),
+ * as well as an image rejected when it does.
+ */
+long CMMCore::getBufferDroppedImageCount() const
+{
+   unsigned long count = cbuf_->GetDroppedImageCount();
+   for (const auto& buffer : getCameraBuffers())
+      count += buffer->GetDroppedImageCount();
+   return count;
+}
+
+/**
+ * Returns the number of images from the given camera lost because the
+ * circular buffer was full since it was last cleared.
+ * @see getBufferDroppedImageCount()
+ *
+ * @param cameraLabel the camera label
+ */
+long CMMCore::getBufferDroppedImageCount(const char* cameraLabel) const
+{
+   std::string label = cameraLabel ? cameraLabel : "";
+   unsigned long count = cbuf_->GetDroppedImageCount(label);
+   for (const auto& buffer : getCameraBuffers())
+      count += buffer->GetDroppedImageCount(label);
+   return count;
 }
 
 /**
@@ -4670,7 +5490,8 @@ void CMMCore::setBinning(const char* label, long binning) MMCORE_LEGACY_THROW(CM
  * Set the hardware region of interest for the current camera.
  *
  * A successful call to this method will clear any images in the sequence
- * buffer, even if the ROI does not change.
+ * buffer, even if the ROI does not change, unless the buffer has variable
+ * frame sizes (see setCircularBufferVariableFrameSize()).
  *
  * If multiple ROIs are set prior to this call, they will be replaced by the
  * new single ROI.
@@ -4695,12 +5516,10 @@ void CMMCore::setROI(int x, int y, int xSize, int ySize) MMCORE_LEGACY_THROW(CMM
       int nRet = camera->SetROI(x, y, xSize, ySize);
       if (nRet != DEVICE_OK)
          throw CMMError(getDeviceErrorText(nRet, camera).c_str(), MMERR_DEVICE_GENERIC);
+      // The ROI tag of the images changes even if their size does not
+      ++acquisitionContextChanges_;
 
-      // Any images left over in the sequence buffer may have sizes
-      // inconsistent with the current image size. There is no way to "fix"
-      // popNextImage() to handle this correctly, so we need to make sure we
-      // discard such images.
-      cbuf_->Clear();
+      clearBuffersForNewImageSize();
    }
    else
       throw CMMError(getCoreErrorText(MMERR_CameraNotAvailable).c_str(), MMERR_CameraNotAvailable);
@@ -4745,7 +5564,8 @@ void CMMCore::getROI(int& x, int& y, int& xSize, int& ySize) MMCORE_LEGACY_THROW
 * Set the hardware region of interest for a specified camera.
 *
 * A successful call to this method will clear any images in the sequence
-* buffer, even if the ROI does not change.
+* buffer, even if the ROI does not change, unless the buffer has variable
+* frame sizes (see setCircularBufferVariableFrameSize()).
 *
 * Warning: the clearing of the sequence buffer will interfere with any sequence
 * acquisitions currently being performed on other cameras.
@@ -4774,12 +5594,9 @@ void CMMCore::setROI(const char* label, int x, int y, int xSize, int ySize) MMCO
      int nRet = camera->SetROI(x, y, xSize, ySize);
      if (nRet != DEVICE_OK)
         throw CMMError(getDeviceErrorText(nRet, camera).c_str(), MMERR_DEVICE_GENERIC);
+     ++acquisitionContextChanges_;
 
-     // Any images left over in the sequence buffer may have sizes
-     // inconsistent with the current image size. There is no way to "fix"
-     // popNextImage() to handle this correctly, so we need to make sure we
-     // discard such images.
-     cbuf_->Clear();
+     clearBuffersForNewImageSize();
   }
   else
      throw CMMError(getCoreErrorText(MMERR_CameraNotAvailable).c_str(), MMERR_CameraNotAvailable);
@@ -4821,7 +5638,8 @@ void CMMCore::getROI(const char* label, int& x, int& y, int& xSize, int& ySize)
  * Set the region of interest of the current camera to the full frame.
  *
  * A successful call to this method will clear any images in the sequence
- * buffer, even if the ROI does not change.
+ * buffer, even if the ROI does not change, unless the buffer has variable
+ * frame sizes (see setCircularBufferVariableFrameSize()).
  */
 void CMMCore::clearROI() MMCORE_LEGACY_THROW(CMMError)
 {
@@ -4833,12 +5651,9 @@ void CMMCore::clearROI() MMCORE_LEGACY_THROW(CMMError)
       int nRet = camera->ClearROI();
       if (nRet != DEVICE_OK)
          throw CMMError(getDeviceErrorText(nRet, camera).c_str(), MMERR_DEVICE_GENERIC);
+      ++acquisitionContextChanges_;
 
-      // Any images left over in the sequence buffer may have sizes
-      // inconsistent with the current image size. There is no way to "fix"
-      // popNextImage() to handle this correctly, so we need to make sure we
-      // discard such images.
-      cbuf_->Clear();
+      clearBuffersForNewImageSize();
    }
 }
 
@@ -4904,6 +5719,7 @@ void CMMCore::setMultiROI(std::vector<unsigned> xs, std::vector<unsigned> ys,
    {
       throw CMMError(getDeviceErrorText(nRet, camera).c_str(), MMERR_DEVICE_GENERIC);
    }
+   ++acquisitionContextChanges_;
 }
 
 /**
@@ -7926,6 +8742,16 @@ void CMMCore::registerCallback(MMEventCallback* cb) MMCORE_LEGACY_THROW(CMMError
 
 void CMMCore::postNotification(mmi::Notification notification)
 {
+   if (std::holds_alternative<notif::PropertiesChanged>(notification) ||
+         std::holds_alternative<notif::PropertyChanged>(notification) ||
+         std::holds_alternative<notif::ConfigGroupChanged>(notification) ||
+         std::holds_alternative<notif::PixelSizeChanged>(notification) ||
+         std::holds_alternative<notif::PixelSizeAffineChanged>(notification) ||
+         std::holds_alternative<notif::SequenceAcquisitionStarted>(notification) ||
+         std::holds_alternative<notif::SystemConfigurationLoaded>(notification) ||
+         std::holds_alternative<notif::ChannelGroupChanged>(notification))
+      ++acquisitionContextChanges_;
+
    std::shared_ptr<mmi::NotificationQueue> q;
    {
       std::lock_guard<std::mutex> lock(notificationQueueMutex_);
@@ -8227,6 +9053,9 @@ void CMMCore::InitializeErrorMessages()
    errorText_[MMERR_CircularBufferFailedToInitialize] =
       "Failed to initialize circular buffer - memory requirements not adequate.";
    errorText_[MMERR_CircularBufferEmpty] = "Circular buffer is empty.";
+   errorText_[MMERR_CircularBufferIncompatibleImage] =
+      "Image in the circular buffer is not of the camera's current image size; "
+      "use the image buffer functions (popNextImageBuffer() etc.) instead.";
    errorText_[MMERR_ContFocusNotAvailable] = "Auto-focus focus device not defined.";
    errorText_[MMERR_BadConfigName] = "Configuration name contains illegal characters (/\\*!')";
    errorText_[MMERR_NotAllowedDuringSequenceAcquisition] =
@@ -57,6 +57,8 @@
 #include "MMDevice.h"
 #include "MMDeviceConstants.h"
 
+#include <atomic>
+#include <cstdint>
 #include <cstring>
 #include <deque>
 #include <map>
@@ -93,12 +95,14 @@ namespace internal {
    class CorePropertyCollection;
    class CPluginManager;
    class DeviceManager;
+   class ImgBuffer;
    class LogManager;
    class NotificationQueue;
 } // namespace internal
 } // namespace mmcore
 
 typedef unsigned int* imgRGB32;
+typedef const unsigned char* imgLease;
 
 enum DeviceInitializationState {
    Uninitialized,
@@ -306,6 +310,7 @@ public:
     */
    ///@{
    Configuration getSystemStateCache() const;
+   long long getSystemStateCacheVersion() const;
    void updateSystemStateCache();
    std::string getPropertyFromCache(const char* deviceLabel,
          const char* propName) const MMCORE_LEGACY_THROW(CMMError);
@@ -435,6 +440,7 @@ public:
    void stopSequenceAcquisition(const char* cameraLabel) MMCORE_LEGACY_THROW(CMMError);
    bool isSequenceRunning() MMCORE_NOEXCEPT;
    bool isSequenceRunning(const char* cameraLabel) MMCORE_LEGACY_THROW(CMMError);
+   long long getAcquisitionContextVersion() MMCORE_NOEXCEPT;
 
    void* getLastImage() MMCORE_LEGACY_THROW(CMMError);
    void* popNextImage() MMCORE_LEGACY_THROW(CMMError);
@@ -446,15 +452,46 @@ public:
    void* getNBeforeLastImageMD(unsigned long n, Metadata& md)
       const MMCORE_LEGACY_THROW(CMMError);
    void* popNextImageMD(Metadata& md) MMCORE_LEGACY_THROW(CMMError);
+   void* tryPopNextImageMD(Metadata& md) MMCORE_LEGACY_THROW(CMMError);
+   void* getLastImageMD(const char* cameraLabel, Metadata& md)
+      const MMCORE_LEGACY_THROW(CMMError);
+   void* popNextImageMD(const char* cameraLabel, Metadata& md)
+      MMCORE_LEGACY_THROW(CMMError);
+
+   imgLease popNextImageBuffer(Metadata& md) MMCORE_LEGACY_THROW(CMMError);
+   imgLease popNextImageBuffer(Metadata& md, double timeoutMs) MMCORE_LEGACY_THROW(CMMError);
+   imgLease popNextImageBuffer(const char* cameraLabel, Metadata& md) MMCORE_LEGACY_THROW(CMMError);
+   imgLease getLastImageBuffer(Metadata& md) MMCORE_LEGACY_THROW(CMMError);
+   imgLease getLastImageBuffer(const char* cameraLabel, Metadata& md) MMCORE_LEGACY_THROW(CMMError);
+   std::vector<imgLease> popNextImageBuffers(unsigned maxCount,
+         std::vector<std::string>& serializedMetadata) MMCORE_LEGACY_THROW(CMMError);
+   long getImageBufferSize(imgLease buffer) MMCORE_LEGACY_THROW(CMMError);
+   long getNextImageBufferSize();
+   void releaseImageBuffer(imgLease buffer) MMCORE_LEGACY_THROW(CMMError);
+   void releaseImageBuffers(const std::vector<imgLease>& buffers) MMCORE_LEGACY_THROW(CMMError);
 
    long getRemainingImageCount();
    long getBufferTotalCapacity();
    long getBufferFreeCapacity();
+   long getRemainingImageCount(const char* cameraLabel) MMCORE_LEGACY_THROW(CMMError);
+   long getBufferTotalCapacity(const char* cameraLabel) MMCORE_LEGACY_THROW(CMMError);
    bool isBufferOverflowed() const;
+   long getBufferDroppedImageCount() const;
+   long getBufferDroppedImageCount(const char* cameraLabel) const;
    void setCircularBufferMemoryFootprint(unsigned sizeMB) MMCORE_LEGACY_THROW(CMMError);
    unsigned getCircularBufferMemoryFootprint();
    void initializeCircularBuffer() MMCORE_LEGACY_THROW(CMMError);
    void clearCircularBuffer() MMCORE_LEGACY_THROW(CMMError);
+   void setCircularBufferLockFree(bool lockFree);
+   bool isCircularBufferLockFree() const;
+   void setCircularBufferLazyAllocation(bool lazy);
+   bool isCircularBufferLazyAllocation() const;
+   void setCircularBufferDropOldest(bool dropOldest);
+   bool isCircularBufferDropOldest() const;
+   void setCircularBufferVariableFrameSize(bool variable);
+   bool isCircularBufferVariableFrameSize() const;
+   void setCircularBufferPerCamera(bool perCamera) MMCORE_LEGACY_THROW(CMMError);
+   bool isCircularBufferPerCamera() const;
 
    bool isExposureSequenceable(const char* cameraLabel) MMCORE_LEGACY_THROW(CMMError);
    void startExposureSequence(const char* cameraLabel) MMCORE_LEGACY_THROW(CMMError);
@@ -730,6 +767,17 @@ private:
    std::unique_ptr<PixelSizeConfigGroup> pixelSizeGroup_;
    std::unique_ptr<mmcore::internal::CorePropertyCollection> properties_;
    std::unique_ptr<mmcore::internal::CircularBuffer> cbuf_;
+   // With per-camera buffers, images are inserted in these (keyed by camera
+   // label) instead of cbuf_, which then only holds the settings that they
+   // copy and is never initialized.
+   std::atomic<bool> perCameraBuffers_{false};
+   mutable std::mutex cameraBuffersMutex_; // Protects cameraBuffers_ and retiredCameraBuffers_
+   std::map<std::string, std::shared_ptr<mmcore::internal::CircularBuffer>>
+      cameraBuffers_;
+   // Camera buffers that were replaced while they had leased images, kept
+   // until the leases are released.
+   std::vector<std::shared_ptr<mmcore::internal::CircularBuffer>>
+      retiredCameraBuffers_;
    std::unique_ptr<MM::Core> callback_;
 
    std::shared_ptr<mmcore::internal::CPluginManager> pluginManager_;
@@ -738,6 +786,10 @@ private:
 
    std::unique_ptr<SynchronizedConfiguration> stateCache_;
 
+   // Counts notifications that may change image properties or the pixel
+   // size (see getAcquisitionContextVersion()).
+   std::atomic<std::uint64_t> acquisitionContextChanges_{0};
+
    // True while interpreting the config file (but not while rolling back on
    // failure):
    bool isLoadingSystemConfiguration_ = false;
@@ -786,6 +838,25 @@ private:
    void setChannelGroupInternal(const std::string& group);
    void initializeInternal(bool init);
 
+   std::unique_ptr<mmcore::internal::CircularBuffer> newCircularBuffer(
+         unsigned sizeMB) const;
+   std::vector<std::shared_ptr<mmcore::internal::CircularBuffer>>
+      getCameraBuffers() const;
+   std::shared_ptr<mmcore::internal::CircularBuffer> getCameraBuffer(
+         const char* cameraLabel) const MMCORE_LEGACY_THROW(CMMError);
+   std::vector<std::shared_ptr<mmcore::internal::CircularBuffer>>
+      getLeasingCameraBuffers() const;
+   std::shared_ptr<mmcore::internal::CircularBuffer> getCameraBufferForInsert(
+         const std::string& cameraLabel, unsigned width, unsigned height,
+         unsigned bytesPerPixel) MMCORE_LEGACY_THROW(CMMError);
+   bool releaseLeasedImage(imgLease buffer);
+   void clearBuffersForNewImageSize();
+   void getCameraImageSize(unsigned& width, unsigned& height,
+         unsigned& bytesPerPixel) const;
+   void checkCameraImageSize(const mmcore::internal::ImgBuffer* pBuf) const MMCORE_LEGACY_THROW(CMMError);
+   const mmcore::internal::ImgBuffer* popNextCameraSizedImage() MMCORE_LEGACY_THROW(CMMError);
+   unsigned long getLeaseCount() const;
+
    void initializeAllDevicesSerial() MMCORE_LEGACY_THROW(CMMError);
    void initializeAllDevicesParallel() MMCORE_LEGACY_THROW(CMMError);
    int initializeVectorOfDevices(std::vector<std::pair<std::shared_ptr<mmcore::internal::DeviceInstance>, std::string> > pDevices);
@@ -8,6 +8,7 @@
 
 #include "Configuration.h"
 
+#include <cstdint>
 #include <mutex>
 #include <optional>
 
@@ -15,7 +16,15 @@ class SynchronizedConfiguration {
 public:
    void addSetting(const PropertySetting& setting) {
       std::lock_guard<std::mutex> lock(mutex_);
+      // Re-adding an identical setting (common with property-changed
+      // notifications) leaves the version unchanged.
+      if (config_.isSettingIncluded(setting) &&
+            config_.getSetting(setting.getDeviceLabel().c_str(),
+               setting.getPropertyName().c_str()).getReadOnly() ==
+            setting.getReadOnly())
+         return;
       config_.addSetting(setting);
+      ++version_;
    }
 
    std::optional<PropertySetting> getSetting(const char* device,
@@ -34,9 +43,17 @@ public:
    void set(Configuration config) {
       std::lock_guard<std::mutex> lock(mutex_);
       config_ = std::move(config);
+      ++version_;
+   }
+
+   // Incremented whenever the contents may have changed
+   std::uint64_t getVersion() const {
+      std::lock_guard<std::mutex> lock(mutex_);
+      return version_;
    }
 
 private:
    mutable std::mutex mutex_;
    Configuration config_;
+   std::uint64_t version_ = 0;
 };
@@ -6,7 +6,12 @@
 #include "MockDeviceUtils.h"
 #include "StubDevices.h"
 
+#include <algorithm>
+#include <atomic>
+#include <chrono>
 #include <cstddef>
+#include <string>
+#include <thread>
 #include <vector>
 
 // Initialization
@@ -16,6 +21,7 @@ TEST_CASE("initializeCircularBuffer succeeds with camera set",
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -25,6 +31,7 @@ TEST_CASE("initializeCircularBuffer succeeds with camera set",
 TEST_CASE("initializeCircularBuffer without camera throws",
           "[CircularBuffer]") {
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    CHECK_THROWS_AS(c.initializeCircularBuffer(), CMMError);
 }
 
@@ -32,6 +39,7 @@ TEST_CASE("Buffer is empty after init", "[CircularBuffer]") {
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -44,6 +52,7 @@ TEST_CASE("initializeCircularBuffer clears existing images",
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -59,6 +68,7 @@ TEST_CASE("initializeCircularBuffer clears images even with same dimensions",
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -76,6 +86,7 @@ TEST_CASE("getRemainingImageCount is 1 after one insert",
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -88,6 +99,7 @@ TEST_CASE("Insert with mismatched width returns DEVICE_INCOMPATIBLE_IMAGE",
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -101,6 +113,7 @@ TEST_CASE("Insert with mismatched height returns DEVICE_INCOMPATIBLE_IMAGE",
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -115,6 +128,7 @@ TEST_CASE(
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -128,6 +142,7 @@ TEST_CASE("Insert with mismatched nComponents succeeds",
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -142,6 +157,7 @@ TEST_CASE("getLastImage returns non-null after insert", "[CircularBuffer]") {
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -153,6 +169,7 @@ TEST_CASE("getLastImage on empty buffer throws", "[CircularBuffer]") {
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -164,6 +181,7 @@ TEST_CASE("getLastImage returns most recently inserted image",
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -187,6 +205,7 @@ TEST_CASE("popNextImage returns non-null and decrements count",
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -199,6 +218,7 @@ TEST_CASE("popNextImage on empty buffer throws", "[CircularBuffer]") {
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -210,6 +230,7 @@ TEST_CASE("popNextImage returns images in insertion order",
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -233,6 +254,7 @@ TEST_CASE("FIFO ordering is maintained across interleaved pops and inserts",
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -259,6 +281,49 @@ TEST_CASE("FIFO ordering is maintained across interleaved pops and inserts",
    }
 }
 
+// tryPopNextImageMD
+
+TEST_CASE("tryPopNextImageMD on empty buffer returns null",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.initializeCircularBuffer();
+   Metadata md;
+   CHECK(c.tryPopNextImageMD(md) == nullptr);
+}
+
+TEST_CASE("tryPopNextImageMD returns images in insertion order",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.initializeCircularBuffer();
+
+   const std::size_t imgSize =
+       static_cast<std::size_t>(cam.width) * cam.height * cam.bytesPerPixel;
+   for (unsigned char fill = 1; fill <= 2; ++fill) {
+      std::vector<unsigned char> pixels(imgSize, fill);
+      REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+   }
+
+   Metadata md;
+   for (unsigned char expected = 1; expected <= 2; ++expected) {
+      auto* img = static_cast<unsigned char*>(c.tryPopNextImageMD(md));
+      REQUIRE(img != nullptr);
+      CHECK(img[0] == expected);
+      CHECK(md.GetSingleTag(MM::g_Keyword_Metadata_ImageNumber).GetValue() ==
+            std::to_string(expected - 1));
+   }
+   CHECK(c.tryPopNextImageMD(md) == nullptr);
+}
+
 // getNBeforeLastImageMD
 
 TEST_CASE("getNBeforeLastImageMD returns images by reverse offset",
@@ -266,6 +331,7 @@ TEST_CASE("getNBeforeLastImageMD returns images by reverse offset",
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -288,6 +354,7 @@ TEST_CASE("getNBeforeLastImageMD throws when offset exceeds available images",
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -305,6 +372,7 @@ TEST_CASE("getNBeforeLastImageMD on empty buffer throws",
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -320,6 +388,7 @@ TEST_CASE("Free plus remaining equals total after each insert",
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.setCircularBufferMemoryFootprint(1);
@@ -336,6 +405,7 @@ TEST_CASE("Free plus remaining equals total after each insert",
 
 TEST_CASE("setCircularBufferMemoryFootprint round-trips", "[CircularBuffer]") {
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    c.setCircularBufferMemoryFootprint(32);
    CHECK(c.getCircularBufferMemoryFootprint() == 32);
 }
@@ -345,6 +415,7 @@ TEST_CASE("Changing memory footprint changes total capacity",
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
 
@@ -365,6 +436,7 @@ TEST_CASE("Overflow with overwrite disabled", "[CircularBuffer]") {
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.setCircularBufferMemoryFootprint(1);
@@ -386,6 +458,7 @@ TEST_CASE("Overflow with overwrite enabled", "[CircularBuffer]") {
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.setCircularBufferMemoryFootprint(1);
@@ -410,6 +483,7 @@ TEST_CASE("clearCircularBuffer resets remaining count", "[CircularBuffer]") {
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.initializeCircularBuffer();
@@ -423,6 +497,7 @@ TEST_CASE("clearCircularBuffer resets overflow flag", "[CircularBuffer]") {
    StubCamera cam;
    MockAdapterWithDevices adapter{{"cam", &cam}};
    CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
    adapter.LoadIntoCore(c);
    c.setCameraDevice("cam");
    c.setCircularBufferMemoryFootprint(1);
@@ -437,3 +512,1110 @@ TEST_CASE("clearCircularBuffer resets overflow flag", "[CircularBuffer]") {
    c.clearCircularBuffer();
    CHECK(c.isBufferOverflowed() == false);
 }
+
+// Leased image buffers
+
+TEST_CASE("popNextImageBuffer returns pixels and decrements count",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.initializeCircularBuffer();
+
+   const std::size_t imgSize =
+       static_cast<std::size_t>(cam.width) * cam.height * cam.bytesPerPixel;
+   std::vector<unsigned char> pixels(imgSize, 7);
+   REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+
+   Metadata md;
+   imgLease img = c.popNextImageBuffer(md);
+   REQUIRE(img != nullptr);
+   CHECK(img[0] == 7);
+   CHECK(c.getImageBufferSize(img) == static_cast<long>(imgSize));
+   CHECK(md.GetSingleTag(MM::g_Keyword_Metadata_ImageNumber).GetValue() ==
+         "0");
+   CHECK(c.getRemainingImageCount() == 0);
+   c.releaseImageBuffer(img);
+}
+
+TEST_CASE("popNextImageBuffer on empty buffer throws", "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.initializeCircularBuffer();
+   Metadata md;
+   CHECK_THROWS_AS(c.popNextImageBuffer(md), CMMError);
+   CHECK_THROWS_AS(c.getLastImageBuffer(md), CMMError);
+}
+
+TEST_CASE("getLastImageBuffer does not remove the image", "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.initializeCircularBuffer();
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+
+   Metadata md;
+   imgLease img = c.getLastImageBuffer(md);
+   REQUIRE(img != nullptr);
+   CHECK(c.getRemainingImageCount() == 1);
+   c.releaseImageBuffer(img);
+}
+
+TEST_CASE("releaseImageBuffer throws for buffers that are not leased",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.initializeCircularBuffer();
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+
+   Metadata md;
+   imgLease img = c.popNextImageBuffer(md);
+   c.releaseImageBuffer(img);
+   CHECK_THROWS_AS(c.releaseImageBuffer(img), CMMError);
+   CHECK_THROWS_AS(c.getImageBufferSize(img), CMMError);
+
+   unsigned char other = 0;
+   CHECK_THROWS_AS(c.releaseImageBuffer(&other), CMMError);
+}
+
+TEST_CASE("Leased image is not overwritten when the buffer wraps around",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferMemoryFootprint(1);
+   c.initializeCircularBuffer();
+   long total = c.getBufferTotalCapacity();
+   REQUIRE(total == 4);
+
+   const std::size_t imgSize =
+       static_cast<std::size_t>(cam.width) * cam.height * cam.bytesPerPixel;
+   std::vector<unsigned char> first(imgSize, 1);
+   REQUIRE(cam.InsertTestImage({}, first.data()) == DEVICE_OK);
+
+   Metadata md;
+   imgLease leased = c.popNextImageBuffer(md);
+
+   // Fill every slot, including the one the leased image came from
+   for (long i = 0; i < total; ++i) {
+      std::vector<unsigned char> pixels(imgSize,
+                                        static_cast<unsigned char>(10 + i));
+      REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+   }
+
+   CHECK(leased[0] == 1);
+   CHECK(leased[imgSize - 1] == 1);
+   for (long i = 0; i < total; ++i) {
+      auto* img = static_cast<unsigned char*>(c.popNextImage());
+      REQUIRE(img != nullptr);
+      CHECK(img[0] == 10 + i);
+   }
+   c.releaseImageBuffer(leased);
+}
+
+TEST_CASE("Leased image survives reinitialization", "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.initializeCircularBuffer();
+
+   const std::size_t imgSize =
+       static_cast<std::size_t>(cam.width) * cam.height * cam.bytesPerPixel;
+   std::vector<unsigned char> pixels(imgSize, 42);
+   REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+
+   Metadata md;
+   imgLease img = c.getLastImageBuffer(md);
+   cam.width = 256;
+   c.initializeCircularBuffer();
+
+   CHECK(img[imgSize - 1] == 42);
+   CHECK(c.getImageBufferSize(img) == static_cast<long>(imgSize));
+   c.releaseImageBuffer(img);
+}
+
+TEST_CASE("setCircularBufferMemoryFootprint throws while images are leased",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.initializeCircularBuffer();
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+
+   Metadata md;
+   imgLease img = c.popNextImageBuffer(md);
+   CHECK_THROWS_AS(c.setCircularBufferMemoryFootprint(16), CMMError);
+   c.releaseImageBuffer(img);
+   CHECK_NOTHROW(c.setCircularBufferMemoryFootprint(16));
+}
+
+TEST_CASE("popNextImageBuffers returns up to maxCount images in order",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.initializeCircularBuffer();
+
+   const std::size_t imgSize =
+       static_cast<std::size_t>(cam.width) * cam.height * cam.bytesPerPixel;
+   for (unsigned char fill = 1; fill <= 3; ++fill) {
+      std::vector<unsigned char> pixels(imgSize, fill);
+      REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+   }
+
+   std::vector<std::string> serialized;
+   std::vector<imgLease> imgs = c.popNextImageBuffers(2, serialized);
+   REQUIRE(imgs.size() == 2);
+   REQUIRE(serialized.size() == 2);
+   CHECK(imgs[0][0] == 1);
+   CHECK(imgs[1][0] == 2);
+   CHECK(c.getRemainingImageCount() == 1);
+
+   Metadata md;
+   REQUIRE(md.Restore(serialized[1].c_str()));
+   CHECK(md.GetSingleTag(MM::g_Keyword_Metadata_ImageNumber).GetValue() ==
+         "1");
+
+   c.releaseImageBuffers(imgs);
+   CHECK_THROWS_AS(c.releaseImageBuffers(imgs), CMMError);
+
+   imgs = c.popNextImageBuffers(10, serialized);
+   REQUIRE(imgs.size() == 1);
+   CHECK(serialized.size() == 1);
+   CHECK(imgs[0][0] == 3);
+   c.releaseImageBuffers(imgs);
+}
+
+TEST_CASE("popNextImageBuffers on empty buffer returns no images",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.initializeCircularBuffer();
+
+   std::vector<std::string> serialized{"stale"};
+   CHECK(c.popNextImageBuffers(5, serialized).empty());
+   CHECK(serialized.empty());
+}
+
+TEST_CASE("getNextImageBufferSize does not remove the image",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.initializeCircularBuffer();
+   CHECK(c.getNextImageBufferSize() == 0);
+
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   CHECK(c.getNextImageBufferSize() == 512 * 512);
+   CHECK(c.getRemainingImageCount() == 1);
+   Metadata md;
+   imgLease img = c.popNextImageBuffer(md);
+   CHECK(c.getImageBufferSize(img) == 512 * 512);
+   CHECK(c.getNextImageBufferSize() == 0);
+   c.releaseImageBuffer(img);
+}
+
+// Lock-free mode
+
+TEST_CASE("Lock-free mode is off by default and kept on reallocation",
+          "[CircularBuffer]") {
+   CMMCore c;
+   CHECK_FALSE(c.isCircularBufferLockFree());
+   c.setCircularBufferLockFree(true);
+   c.setCircularBufferMemoryFootprint(16);
+   CHECK(c.isCircularBufferLockFree());
+   c.setCircularBufferLockFree(false);
+   CHECK_FALSE(c.isCircularBufferLockFree());
+}
+
+namespace {
+
+long ImageNumber(const Metadata& md) {
+   return std::stol(
+       md.GetSingleTag(MM::g_Keyword_Metadata_ImageNumber).GetValue());
+}
+
+// Inserts count images, each filled with its number modulo 251, waiting for
+// free space rather than overflowing.
+void InsertNumberedImages(CMMCore& c, StubCamera& cam, long count) {
+   const std::size_t imgSize =
+       static_cast<std::size_t>(cam.width) * cam.height * cam.bytesPerPixel;
+   std::vector<unsigned char> pixels(imgSize);
+   for (long i = 0; i < count; ++i) {
+      while (c.getBufferFreeCapacity() == 0)
+         std::this_thread::yield();
+      std::fill(pixels.begin(), pixels.end(),
+                static_cast<unsigned char>(i % 251));
+      if (cam.InsertTestImage({}, pixels.data()) != DEVICE_OK)
+         return;
+   }
+}
+
+} // namespace
+
+TEST_CASE("Concurrent consumers get each image once, in order",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   cam.width = 64;
+   cam.height = 64;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.initializeCircularBuffer();
+
+   const long count = 2000;
+   const int nConsumers = 3;
+   std::atomic<long> consumed{0};
+   std::vector<std::vector<long>> numbers(nConsumers);
+   std::vector<std::thread> consumers;
+   for (int t = 0; t < nConsumers; ++t) {
+      consumers.emplace_back([&, t] {
+         Metadata md;
+         while (consumed < count) {
+            if (c.tryPopNextImageMD(md)) {
+               numbers[t].push_back(ImageNumber(md));
+               ++consumed;
+            }
+         }
+      });
+   }
+   InsertNumberedImages(c, cam, count);
+   for (auto& t : consumers)
+      t.join();
+
+   std::vector<long> all;
+   for (const auto& n : numbers) {
+      CHECK(std::is_sorted(n.begin(), n.end()));
+      all.insert(all.end(), n.begin(), n.end());
+   }
+   std::sort(all.begin(), all.end());
+   REQUIRE(all.size() == static_cast<std::size_t>(count));
+   for (long i = 0; i < count; ++i)
+      CHECK(all[i] == i);
+   CHECK(c.getRemainingImageCount() == 0);
+   CHECK_FALSE(c.isBufferOverflowed());
+}
+
+TEST_CASE("Leased images stay intact while the buffer wraps concurrently",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferMemoryFootprint(1);
+   c.initializeCircularBuffer();
+   REQUIRE(c.getBufferTotalCapacity() == 4);
+
+   const long count = 500;
+   const std::size_t imgSize =
+       static_cast<std::size_t>(cam.width) * cam.height * cam.bytesPerPixel;
+   std::atomic<long> consumed{0};
+   std::atomic<long> corrupted{0};
+   std::vector<std::thread> consumers;
+   for (int t = 0; t < 2; ++t) {
+      consumers.emplace_back([&] {
+         std::vector<std::string> serialized;
+         while (consumed < count) {
+            std::vector<imgLease> imgs = c.popNextImageBuffers(2, serialized);
+            // Let the producer reuse the frames while the images are leased
+            std::this_thread::yield();
+            for (std::size_t i = 0; i < imgs.size(); ++i) {
+               Metadata md;
+               md.Restore(serialized[i].c_str());
+               auto expected = static_cast<unsigned char>(
+                   ImageNumber(md) % 251);
+               if (imgs[i][0] != expected || imgs[i][imgSize - 1] != expected)
+                  ++corrupted;
+            }
+            consumed += static_cast<long>(imgs.size());
+            c.releaseImageBuffers(imgs);
+         }
+      });
+   }
+   InsertNumberedImages(c, cam, count);
+   for (auto& t : consumers)
+      t.join();
+
+   CHECK(consumed == count);
+   CHECK(corrupted == 0);
+   CHECK(c.getRemainingImageCount() == 0);
+}
+
+// Not run by default; run with the [benchmark] tag. Reports the rate at which
+// a camera thread can insert (small) images while other threads consume and
+// poll the buffer, with and without lock-free mode.
+TEST_CASE("Circular buffer insertion under contention",
+          "[CircularBuffer][.][benchmark]") {
+   for (bool lockFree : {false, true}) {
+      for (int nPollers : {0, 2, 4}) {
+         StubCamera cam;
+         cam.width = 64;
+         cam.height = 64;
+         MockAdapterWithDevices adapter{{"cam", &cam}};
+         CMMCore c;
+         c.setCircularBufferLockFree(lockFree);
+         adapter.LoadIntoCore(c);
+         c.setCameraDevice("cam");
+         c.setCircularBufferMemoryFootprint(16);
+         c.initializeCircularBuffer();
+
+         const long count = 100000;
+         std::atomic<bool> done{false};
+         std::vector<std::thread> threads;
+         threads.emplace_back([&] {
+            Metadata md;
+            while (!done)
+               c.tryPopNextImageMD(md);
+         });
+         for (int t = 0; t < nPollers; ++t) {
+            threads.emplace_back([&] {
+               long n = 0;
+               while (!done)
+                  n += c.getRemainingImageCount() +
+                       (c.isBufferOverflowed() ? 1 : 0);
+               (void)n;
+            });
+         }
+
+         auto start = std::chrono::steady_clock::now();
+         InsertNumberedImages(c, cam, count);
+         auto elapsed = std::chrono::steady_clock::now() - start;
+         done = true;
+         for (auto& t : threads)
+            t.join();
+
+         double seconds = std::chrono::duration<double>(elapsed).count();
+         WARN((lockFree ? "lock-free" : "locking") << ", " << nPollers
+              << " pollers: " << static_cast<long>(count / seconds)
+              << " images/s");
+      }
+   }
+}
+
+// Lazy allocation
+
+TEST_CASE("Lazy allocation is off by default and kept on reallocation",
+          "[CircularBuffer]") {
+   CMMCore c;
+   CHECK_FALSE(c.isCircularBufferLazyAllocation());
+   c.setCircularBufferLazyAllocation(true);
+   c.setCircularBufferMemoryFootprint(16);
+   CHECK(c.isCircularBufferLazyAllocation());
+}
+
+TEST_CASE("Lazy allocation keeps images intact across wrap-around",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   c.setCircularBufferLazyAllocation(true);
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferMemoryFootprint(1);
+   REQUIRE(c.getBufferTotalCapacity() == 4);
+
+   const std::size_t imgSize =
+       static_cast<std::size_t>(cam.width) * cam.height * cam.bytesPerPixel;
+   std::vector<unsigned char> pixels(imgSize);
+   for (int i = 0; i < 10; ++i) {
+      std::fill(pixels.begin(), pixels.end(), static_cast<unsigned char>(i));
+      REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+      const auto* img = static_cast<const unsigned char*>(c.getLastImage());
+      CHECK(img[0] == i);
+      CHECK(img[imgSize - 1] == i);
+      if (i % 2 == 1) {
+         CHECK(static_cast<const unsigned char*>(c.popNextImage())[0] == i - 1);
+         CHECK(static_cast<const unsigned char*>(c.popNextImage())[0] == i);
+      }
+   }
+}
+
+TEST_CASE("Lazy allocation uses contiguous slots, reused on reinitialization",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLazyAllocation(true);
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferMemoryFootprint(1);
+
+   const std::size_t imgSize =
+       static_cast<std::size_t>(cam.width) * cam.height * cam.bytesPerPixel;
+   std::vector<unsigned char> pixels(imgSize);
+   REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+   REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+   const auto* first = static_cast<const unsigned char*>(c.popNextImage());
+   const auto* second = static_cast<const unsigned char*>(c.popNextImage());
+   CHECK(second - first == static_cast<std::ptrdiff_t>(imgSize));
+
+   // A smaller ROI fits in the same memory
+   cam.width = 256;
+   c.initializeCircularBuffer();
+   REQUIRE(c.getBufferTotalCapacity() == 8);
+   REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+   CHECK(c.popNextImage() == first);
+}
+
+TEST_CASE("Lazy allocation keeps leased images across reinitialization",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLazyAllocation(true);
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferMemoryFootprint(1);
+
+   const std::size_t imgSize =
+       static_cast<std::size_t>(cam.width) * cam.height * cam.bytesPerPixel;
+   std::vector<unsigned char> pixels(imgSize, 42);
+   REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+   Metadata md;
+   imgLease leased = c.popNextImageBuffer(md);
+
+   // The leased image stays in its slot; new images go elsewhere
+   cam.width = 256;
+   c.initializeCircularBuffer();
+   std::fill(pixels.begin(), pixels.end(), 7);
+   for (int i = 0; i < 10; ++i) {
+      REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+      CHECK(c.popNextImage() != leased);
+   }
+   CHECK(leased[0] == 42);
+   CHECK(leased[imgSize - 1] == 42);
+   c.releaseImageBuffer(leased);
+}
+
+TEST_CASE("Lazy allocation does not reuse the slot of a leased image",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   c.setCircularBufferLazyAllocation(true);
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferMemoryFootprint(1);
+
+   const std::size_t imgSize =
+       static_cast<std::size_t>(cam.width) * cam.height * cam.bytesPerPixel;
+   std::vector<unsigned char> pixels(imgSize, 42);
+   REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+   Metadata md;
+   imgLease leased = c.popNextImageBuffer(md);
+
+   std::fill(pixels.begin(), pixels.end(), 7);
+   for (int i = 0; i < 10; ++i) {
+      REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+      CHECK(c.popNextImage() != leased);
+   }
+   CHECK(leased[0] == 42);
+   CHECK(leased[imgSize - 1] == 42);
+   c.releaseImageBuffer(leased);
+}
+
+// Dropped images
+
+TEST_CASE("Overwrite counts the discarded images as dropped",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferMemoryFootprint(1);
+   c.startSequenceAcquisition(100, 0.0, false);
+   REQUIRE(c.getBufferTotalCapacity() == 4);
+
+   for (int i = 0; i < 5; ++i)
+      REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   CHECK(c.getRemainingImageCount() == 1);
+   CHECK(c.getBufferDroppedImageCount() == 4);
+   CHECK(c.getBufferDroppedImageCount("cam") == 4);
+   CHECK(c.getBufferDroppedImageCount("other") == 0);
+}
+
+TEST_CASE("Drop-oldest overwrites only the oldest image", "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferDropOldest(true);
+   c.setCircularBufferMemoryFootprint(1);
+   CHECK(c.isCircularBufferDropOldest());
+   c.startSequenceAcquisition(100, 0.0, false);
+   REQUIRE(c.getBufferTotalCapacity() == 4);
+
+   for (int i = 0; i < 6; ++i)
+      REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   CHECK(c.getRemainingImageCount() == 4);
+   CHECK_FALSE(c.isBufferOverflowed());
+   CHECK(c.getBufferDroppedImageCount() == 2);
+   CHECK(c.getBufferDroppedImageCount("cam") == 2);
+
+   Metadata md;
+   for (long expected = 2; expected < 6; ++expected) {
+      c.popNextImageMD(md);
+      CHECK(ImageNumber(md) == expected);
+   }
+
+   // Once the consumer has caught up, nothing more is dropped
+   for (int i = 0; i < 4; ++i)
+      REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   CHECK(c.getBufferDroppedImageCount() == 2);
+}
+
+TEST_CASE("Drop-oldest does not apply when stopping on overflow",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferDropOldest(true);
+   c.setCircularBufferMemoryFootprint(1);
+   c.initializeCircularBuffer();
+
+   for (int i = 0; i < 4; ++i)
+      REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   CHECK(cam.InsertTestImage() == DEVICE_BUFFER_OVERFLOW);
+   CHECK(c.isBufferOverflowed());
+   CHECK(c.getRemainingImageCount() == 4);
+   CHECK(c.getBufferDroppedImageCount() == 1);
+   CHECK(c.getBufferDroppedImageCount("cam") == 1);
+}
+
+TEST_CASE("clearCircularBuffer resets dropped image counts",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferDropOldest(true);
+   c.setCircularBufferMemoryFootprint(1);
+   c.startSequenceAcquisition(100, 0.0, false);
+
+   for (int i = 0; i < 5; ++i)
+      REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   REQUIRE(c.getBufferDroppedImageCount() == 1);
+   c.clearCircularBuffer();
+   CHECK(c.getBufferDroppedImageCount() == 0);
+   CHECK(c.getBufferDroppedImageCount("cam") == 0);
+}
+
+// Per-camera buffers
+
+TEST_CASE("Camera label functions require per-camera buffers",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.initializeCircularBuffer();
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+
+   CHECK_FALSE(c.isCircularBufferPerCamera());
+   Metadata md;
+   CHECK_THROWS_AS(c.getRemainingImageCount("cam"), CMMError);
+   CHECK_THROWS_AS(c.popNextImageMD("cam", md), CMMError);
+   CHECK(c.getRemainingImageCount() == 1);
+}
+
+TEST_CASE("Per-camera buffers keep each camera's images separate",
+          "[CircularBuffer]") {
+   StubCamera cam1;
+   StubCamera cam2;
+   cam2.width = 256;
+   MockAdapterWithDevices adapter{{"cam1", &cam1}, {"cam2", &cam2}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam1");
+   c.setCircularBufferMemoryFootprint(8);
+   c.setCircularBufferPerCamera(true);
+   CHECK(c.isCircularBufferPerCamera());
+   CHECK(c.getBufferTotalCapacity("cam1") == 0);
+
+   for (int i = 0; i < 3; ++i)
+      REQUIRE(cam1.InsertTestImage() == DEVICE_OK);
+   for (int i = 0; i < 2; ++i)
+      REQUIRE(cam2.InsertTestImage() == DEVICE_OK);
+
+   // Half of the footprint each
+   CHECK(c.getBufferTotalCapacity("cam1") == 16);
+   CHECK(c.getBufferTotalCapacity("cam2") == 32);
+   CHECK(c.getRemainingImageCount("cam1") == 3);
+   CHECK(c.getRemainingImageCount("cam2") == 2);
+   CHECK(c.getRemainingImageCount() == 0);
+
+   Metadata md;
+   c.getLastImageMD("cam2", md);
+   CHECK(ImageNumber(md) == 1);
+   c.popNextImageMD("cam2", md);
+   CHECK(md.GetSingleTag(MM::g_Keyword_Metadata_CameraLabel).GetValue() ==
+         "cam2");
+   CHECK(md.GetSingleTag(MM::g_Keyword_Metadata_Width).GetValue() == "256");
+   CHECK(ImageNumber(md) == 0);
+   CHECK(c.getRemainingImageCount("cam1") == 3);
+   CHECK(c.getRemainingImageCount("cam2") == 1);
+
+   imgLease img = c.getLastImageBuffer("cam2", md);
+   CHECK(ImageNumber(md) == 1);
+   CHECK(c.getImageBufferSize(img) == 256 * 512);
+   CHECK(c.getRemainingImageCount("cam2") == 1);
+   c.releaseImageBuffer(img);
+
+   c.clearCircularBuffer();
+   CHECK(c.getRemainingImageCount("cam1") == 0);
+   CHECK(c.getRemainingImageCount("cam2") == 0);
+}
+
+TEST_CASE("Per-camera buffer follows its camera's image size",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferMemoryFootprint(1);
+   c.setCircularBufferPerCamera(true);
+
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   CHECK(c.getBufferTotalCapacity("cam") == 4);
+   cam.width = 256;
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   CHECK(c.getBufferTotalCapacity("cam") == 8);
+   CHECK(c.getRemainingImageCount("cam") == 1);
+}
+
+TEST_CASE("Images leased from a replaced per-camera buffer stay valid",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferMemoryFootprint(1);
+   c.setCircularBufferPerCamera(true);
+
+   std::vector<unsigned char> pixels(512 * 512, 42);
+   REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+   Metadata md;
+   imgLease img = c.popNextImageBuffer("cam", md);
+   REQUIRE(img != nullptr);
+
+   cam.width = 256;
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   CHECK(c.getBufferTotalCapacity("cam") == 8);
+   CHECK(c.getImageBufferSize(img) == 512 * 512);
+   CHECK(img[512 * 512 - 1] == 42);
+   CHECK_THROWS_AS(c.setCircularBufferMemoryFootprint(2), CMMError);
+   c.releaseImageBuffer(img);
+   CHECK_THROWS_AS(c.releaseImageBuffer(img), CMMError);
+   c.setCircularBufferMemoryFootprint(2);
+}
+
+TEST_CASE("Starting a camera by label clears only its own buffer",
+          "[CircularBuffer]") {
+   StubCamera cam1;
+   StubCamera cam2;
+   MockAdapterWithDevices adapter{{"cam1", &cam1}, {"cam2", &cam2}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam1");
+   c.setCircularBufferMemoryFootprint(8);
+   c.setCircularBufferPerCamera(true);
+
+   REQUIRE(cam1.InsertTestImage() == DEVICE_OK);
+   REQUIRE(cam2.InsertTestImage() == DEVICE_OK);
+   c.startSequenceAcquisition("cam1", 10, 0.0, true);
+   CHECK(c.getRemainingImageCount("cam1") == 0);
+   CHECK(c.getRemainingImageCount("cam2") == 1);
+   c.stopSequenceAcquisition("cam1");
+}
+
+TEST_CASE("Per-camera buffers lease images and count drops per camera",
+          "[CircularBuffer]") {
+   StubCamera cam1;
+   StubCamera cam2;
+   MockAdapterWithDevices adapter{{"cam1", &cam1}, {"cam2", &cam2}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam1");
+   c.setCircularBufferMemoryFootprint(2);
+   c.setCircularBufferPerCamera(true);
+
+   for (int i = 0; i < 5; ++i)
+      cam1.InsertTestImage();
+   REQUIRE(cam2.InsertTestImage() == DEVICE_OK);
+   CHECK(c.isBufferOverflowed());
+   CHECK(c.getBufferDroppedImageCount() == 1);
+   CHECK(c.getBufferDroppedImageCount("cam1") == 1);
+   CHECK(c.getBufferDroppedImageCount("cam2") == 0);
+
+   Metadata md;
+   imgLease img = c.popNextImageBuffer("cam2", md);
+   CHECK(c.getImageBufferSize(img) == 512 * 512);
+   CHECK_THROWS_AS(c.setCircularBufferPerCamera(false), CMMError);
+   c.releaseImageBuffer(img);
+   c.setCircularBufferPerCamera(false);
+   CHECK_FALSE(c.isCircularBufferPerCamera());
+}
+
+TEST_CASE("Cameras insert into their own buffers concurrently",
+          "[CircularBuffer]") {
+   StubCamera cam1;
+   StubCamera cam2;
+   cam1.width = cam1.height = cam2.width = cam2.height = 64;
+   MockAdapterWithDevices adapter{{"cam1", &cam1}, {"cam2", &cam2}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam1");
+   c.setCircularBufferPerCamera(true);
+
+   const long count = 1000;
+   std::vector<std::thread> threads;
+   std::vector<std::vector<long>> numbers(2);
+   const char* labels[] = {"cam1", "cam2"};
+   StubCamera* cams[] = {&cam1, &cam2};
+   for (int t = 0; t < 2; ++t) {
+      threads.emplace_back([&, t] {
+         // Wait for the buffer to be created by the first image
+         while (c.getBufferTotalCapacity(labels[t]) == 0)
+            std::this_thread::yield();
+         Metadata md;
+         while (static_cast<long>(numbers[t].size()) < count) {
+            if (c.getRemainingImageCount(labels[t]) > 0) {
+               c.popNextImageMD(labels[t], md);
+               numbers[t].push_back(ImageNumber(md));
+            }
+         }
+      });
+      threads.emplace_back([&, t] {
+         // The buffers are large enough not to overflow
+         for (long i = 0; i < count; ++i)
+            cams[t]->InsertTestImage();
+      });
+   }
+   for (auto& t : threads)
+      t.join();
+
+   for (const auto& n : numbers) {
+      REQUIRE(n.size() == static_cast<std::size_t>(count));
+      for (long i = 0; i < count; ++i)
+         CHECK(n[i] == i);
+   }
+}
+
+// Variable frame sizes
+
+TEST_CASE("Variable frame sizes are off by default and kept on reallocation",
+          "[CircularBuffer]") {
+   CMMCore c;
+   CHECK_FALSE(c.isCircularBufferVariableFrameSize());
+   c.setCircularBufferVariableFrameSize(true);
+   c.setCircularBufferMemoryFootprint(16);
+   CHECK(c.isCircularBufferVariableFrameSize());
+}
+
+TEST_CASE("Variable frame sizes accept images of any size",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   c.setCircularBufferVariableFrameSize(true);
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferMemoryFootprint(1);
+   c.initializeCircularBuffer();
+   CHECK(c.getBufferTotalCapacity() == 4);
+
+   std::vector<unsigned char> pixels(512 * 512 * 2);
+   std::fill(pixels.begin(), pixels.end(), 1);
+   REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+   cam.width = 256;
+   std::fill(pixels.begin(), pixels.end(), 2);
+   REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+   cam.height = 128;
+   cam.bytesPerPixel = 2;
+   std::fill(pixels.begin(), pixels.end(), 3);
+   REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+   CHECK(c.getRemainingImageCount() == 3);
+
+   const unsigned expected[][3] = {{512, 512, 1}, {256, 512, 1}, {256, 128, 2}};
+   for (unsigned i = 0; i < 3; ++i) {
+      Metadata md;
+      imgLease img = c.popNextImageBuffer(md);
+      const long size = static_cast<long>(expected[i][0]) * expected[i][1] *
+                        expected[i][2];
+      CHECK(c.getImageBufferSize(img) == size);
+      CHECK(md.GetSingleTag(MM::g_Keyword_Metadata_Width).GetValue() ==
+            std::to_string(expected[i][0]));
+      CHECK(md.GetSingleTag(MM::g_Keyword_Metadata_Height).GetValue() ==
+            std::to_string(expected[i][1]));
+      CHECK(img[0] == i + 1);
+      CHECK(img[size - 1] == i + 1);
+      c.releaseImageBuffer(img);
+   }
+}
+
+TEST_CASE("Variable-size images are packed in the memory footprint",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   c.setCircularBufferVariableFrameSize(true);
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferMemoryFootprint(1);
+   c.initializeCircularBuffer();
+
+   // 2 images of 256 KiB and 8 of 64 KiB fill the 1 MiB
+   for (int i = 0; i < 2; ++i)
+      REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   cam.width = 256;
+   cam.height = 256;
+   for (int i = 0; i < 8; ++i)
+      REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   CHECK(cam.InsertTestImage() == DEVICE_BUFFER_OVERFLOW);
+   CHECK(c.getRemainingImageCount() == 10);
+   CHECK(c.getBufferFreeCapacity() == 0);
+
+   // A large image goes where the first one was
+   cam.width = 512;
+   cam.height = 512;
+   const void* first = c.popNextImage();
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   CHECK(c.getLastImage() == first);
+   CHECK(c.getRemainingImageCount() == 10);
+   CHECK(cam.InsertTestImage() == DEVICE_BUFFER_OVERFLOW);
+}
+
+TEST_CASE("Variable frame sizes drop enough images for a larger one",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   c.setCircularBufferVariableFrameSize(true);
+   c.setCircularBufferDropOldest(true);
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferMemoryFootprint(1);
+   c.startSequenceAcquisition(100, 0.0, false);
+
+   cam.width = 256;
+   cam.height = 256;
+   for (int i = 0; i < 16; ++i)
+      REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   CHECK(c.getBufferDroppedImageCount() == 0);
+
+   cam.width = 512;
+   cam.height = 512;
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   CHECK(c.getBufferDroppedImageCount() == 4);
+   CHECK(c.getRemainingImageCount() == 13);
+
+   Metadata md;
+   for (long expected = 4; expected < 17; ++expected) {
+      imgLease img = c.popNextImageBuffer(md);
+      CHECK(ImageNumber(md) == expected);
+      c.releaseImageBuffer(img);
+   }
+}
+
+TEST_CASE("Variable frame sizes do not overwrite leased images",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   c.setCircularBufferVariableFrameSize(true);
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferMemoryFootprint(1);
+   c.initializeCircularBuffer();
+
+   const std::size_t imgSize =
+       static_cast<std::size_t>(cam.width) * cam.height * cam.bytesPerPixel;
+   std::vector<unsigned char> pixels(imgSize, 42);
+   REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+   Metadata md;
+   imgLease leased = c.popNextImageBuffer(md);
+
+   // Wrap around the arena, over the leased image
+   cam.width = 256;
+   cam.height = 256;
+   std::fill(pixels.begin(), pixels.end(), 7);
+   for (int i = 0; i < 20; ++i) {
+      REQUIRE(cam.InsertTestImage({}, pixels.data()) == DEVICE_OK);
+      const auto* img = static_cast<const unsigned char*>(c.popNextImage());
+      CHECK(img != leased);
+      CHECK(img[0] == 7);
+   }
+   CHECK(leased[0] == 42);
+   CHECK(leased[imgSize - 1] == 42);
+   c.releaseImageBuffer(leased);
+}
+
+TEST_CASE("Variable frame sizes keep other-size images from the pixel getters",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferLockFree(GENERATE(false, true));
+   c.setCircularBufferVariableFrameSize(true);
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferMemoryFootprint(1);
+   c.initializeCircularBuffer();
+
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   cam.width = 256;
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+
+   // Not read as the camera's current (256x512) size
+   Metadata md;
+   CHECK(c.getLastImage() != nullptr);
+   CHECK_THROWS_AS(c.getNBeforeLastImageMD(1, md), CMMError);
+   CHECK_THROWS_AS(c.popNextImage(), CMMError);
+   CHECK_THROWS_AS(c.popNextImageMD(md), CMMError);
+   CHECK_THROWS_AS(c.tryPopNextImageMD(md), CMMError);
+   CHECK(c.getRemainingImageCount() == 2);
+
+   cam.width = 512;
+   CHECK_THROWS_AS(c.getLastImage(), CMMError);
+   c.popNextImageMD(md);
+   CHECK(ImageNumber(md) == 0);
+   CHECK_THROWS_AS(c.popNextImage(), CMMError);
+
+   // The image buffer functions return any size
+   imgLease img = c.popNextImageBuffer(md);
+   CHECK(ImageNumber(md) == 1);
+   CHECK(c.getImageBufferSize(img) == 256 * 512);
+   c.releaseImageBuffer(img);
+}
+
+TEST_CASE("Variable frame sizes keep queued images across ROI changes",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   const bool perCamera = GENERATE(false, true);
+   c.setCircularBufferVariableFrameSize(true);
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferMemoryFootprint(1);
+   c.initializeCircularBuffer();
+   c.setCircularBufferPerCamera(perCamera);
+   auto remaining = [&] {
+      return perCamera ? c.getRemainingImageCount("cam")
+                       : c.getRemainingImageCount();
+   };
+
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   cam.width = 256;
+   cam.height = 128;
+   c.setROI(16, 16, 256, 128);
+   CHECK(remaining() == 1);
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   c.setROI("cam", 32, 32, 256, 128);
+   CHECK(remaining() == 2);
+   cam.width = 512;
+   cam.height = 512;
+   c.clearROI();
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   CHECK(remaining() == 3);
+
+   const long sizes[] = {512 * 512, 256 * 128, 512 * 512};
+   for (long i = 0; i < 3; ++i) {
+      Metadata md;
+      imgLease img = perCamera ? c.popNextImageBuffer("cam", md)
+                               : c.popNextImageBuffer(md);
+      CHECK(ImageNumber(md) == i);
+      CHECK(c.getImageBufferSize(img) == sizes[i]);
+      c.releaseImageBuffer(img);
+   }
+}
+
+TEST_CASE("Setting the ROI clears fixed-size buffers", "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferMemoryFootprint(1);
+   c.initializeCircularBuffer();
+   c.setCircularBufferPerCamera(true);
+
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   REQUIRE(c.getRemainingImageCount("cam") == 1);
+   c.setROI(0, 0, 512, 512);
+   CHECK(c.getRemainingImageCount("cam") == 0);
+}
+
+TEST_CASE("Per-camera buffer with variable frame sizes keeps its images",
+          "[CircularBuffer]") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   c.setCircularBufferVariableFrameSize(true);
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferMemoryFootprint(1);
+   c.setCircularBufferPerCamera(true);
+
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   cam.width = 256;
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   CHECK(c.getBufferTotalCapacity("cam") == 4);
+   CHECK(c.getRemainingImageCount("cam") == 2);
+}
@@ -658,3 +658,23 @@ TEST_CASE("System state includes Core properties") {
       CHECK(cache.getSetting("Core", "Camera").getPropertyValue() == "cam");
    }
 }
+
+// --- System state cache version ---
+
+TEST_CASE("System state cache version changes only on change") {
+   StubCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+
+   auto v0 = c.getSystemStateCacheVersion();
+   c.setCameraDevice("cam");
+   auto v1 = c.getSystemStateCacheVersion();
+   CHECK(v1 != v0);
+
+   c.setCameraDevice("cam");
+   CHECK(c.getSystemStateCacheVersion() == v1);
+
+   c.updateSystemStateCache();
+   CHECK(c.getSystemStateCacheVersion() != v1);
+}
@@ -1,12 +1,14 @@
 #include <catch2/catch_all.hpp>
 
 #include "MMCore.h"
+#include "ImageMetadata.h"
 #include "MMDeviceConstants.h"
 #include "MockDeviceUtils.h"
 #include "StubDevices.h"
 
 #include <chrono>
 #include <condition_variable>
+#include <limits>
 #include <mutex>
 #include <thread>
 #include <vector>
@@ -559,3 +561,214 @@ TEST_CASE("stopSequenceAcquisition on finite acquisition stops it early",
    CHECK(c.isSequenceRunning() == false);
    CHECK(c.getRemainingImageCount() < 1000000);
 }
+
+// --- Waiting for images ---
+
+TEST_CASE("Timed popNextImageBuffer returns available image without waiting",
+          "[SequenceAcquisition]") {
+   SyncCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.initializeCircularBuffer();
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+
+   Metadata md;
+   imgLease img = c.popNextImageBuffer(md, 0.0);
+   REQUIRE(img != nullptr);
+   CHECK(c.getRemainingImageCount() == 0);
+   c.releaseImageBuffer(img);
+}
+
+TEST_CASE("Timed popNextImageBuffer does not wait when no sequence is running",
+          "[SequenceAcquisition]") {
+   SyncCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.initializeCircularBuffer();
+
+   Metadata md;
+   auto start = std::chrono::steady_clock::now();
+   CHECK(c.popNextImageBuffer(md, 10000.0) == nullptr);
+   CHECK(std::chrono::steady_clock::now() - start < std::chrono::seconds(5));
+}
+
+TEST_CASE("Timed popNextImageBuffer times out while sequence is running",
+          "[SequenceAcquisition]") {
+   SyncCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.startSequenceAcquisition(10, 0.0, true);
+
+   Metadata md;
+   auto start = std::chrono::steady_clock::now();
+   CHECK(c.popNextImageBuffer(md, 50.0) == nullptr);
+   CHECK(std::chrono::steady_clock::now() - start >=
+         std::chrono::milliseconds(50));
+   c.stopSequenceAcquisition();
+}
+
+TEST_CASE("Timed popNextImageBuffer wakes when an image is inserted",
+          "[SequenceAcquisition]") {
+   SyncCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.startSequenceAcquisition(10, 0.0, true);
+
+   std::thread inserter([&] {
+      std::this_thread::sleep_for(std::chrono::milliseconds(20));
+      cam.InsertTestImage();
+   });
+   Metadata md;
+   imgLease img = c.popNextImageBuffer(md, 10000.0);
+   inserter.join();
+   REQUIRE(img != nullptr);
+   c.releaseImageBuffer(img);
+   c.stopSequenceAcquisition();
+}
+
+TEST_CASE("Timed popNextImageBuffer treats huge timeouts as no deadline",
+          "[SequenceAcquisition]") {
+   // E.g. Long.MAX_VALUE milliseconds, as passed from Java
+   const double timeoutMs = GENERATE(9.223372036854775807e18, 1e300,
+                                     std::numeric_limits<double>::infinity());
+   SyncCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.startSequenceAcquisition(10, 0.0, true);
+
+   std::thread inserter([&] {
+      std::this_thread::sleep_for(std::chrono::milliseconds(20));
+      cam.InsertTestImage();
+   });
+   Metadata md;
+   imgLease img = c.popNextImageBuffer(md, timeoutMs);
+   inserter.join();
+   REQUIRE(img != nullptr);
+   c.releaseImageBuffer(img);
+   c.stopSequenceAcquisition();
+}
+
+TEST_CASE("Timed popNextImageBuffer wakes when the sequence stops",
+          "[SequenceAcquisition]") {
+   SyncCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.startSequenceAcquisition(10, 0.0, true);
+
+   std::thread stopper([&] {
+      std::this_thread::sleep_for(std::chrono::milliseconds(20));
+      c.stopSequenceAcquisition();
+   });
+   Metadata md;
+   auto start = std::chrono::steady_clock::now();
+   imgLease img = c.popNextImageBuffer(md, 10000.0);
+   stopper.join();
+   CHECK(img == nullptr);
+   CHECK(std::chrono::steady_clock::now() - start < std::chrono::seconds(5));
+}
+
+TEST_CASE("Finite acquisition can be drained with timed popNextImageBuffer",
+          "[SequenceAcquisition]") {
+   AsyncCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.setCircularBufferMemoryFootprint(1);
+
+   const long numImages = 5;
+   c.startSequenceAcquisition(numImages, 0.0, true);
+
+   long received = 0;
+   Metadata md;
+   while (imgLease img = c.popNextImageBuffer(md, 5000.0)) {
+      ++received;
+      c.releaseImageBuffer(img);
+   }
+   CHECK(received == numImages);
+   c.stopSequenceAcquisition();
+}
+
+// --- Acquisition context version ---
+
+TEST_CASE("Acquisition context version is -1 when not running",
+          "[SequenceAcquisition]") {
+   SyncCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   CHECK(c.getAcquisitionContextVersion() == -1);
+
+   c.startSequenceAcquisition(10, 0.0, true);
+   CHECK(c.getAcquisitionContextVersion() >= 0);
+   c.stopSequenceAcquisition();
+   CHECK(c.getAcquisitionContextVersion() == -1);
+}
+
+TEST_CASE("Acquisition context version changes on property change",
+          "[SequenceAcquisition]") {
+   SyncCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.startSequenceAcquisition(10, 0.0, true);
+
+   long long v = c.getAcquisitionContextVersion();
+   REQUIRE(cam.InsertTestImage() == DEVICE_OK);
+   CHECK(c.getAcquisitionContextVersion() == v);
+
+   cam.GetCoreCallback()->OnPropertyChanged(&cam, "Binning", "2");
+   CHECK(c.getAcquisitionContextVersion() != v);
+   c.stopSequenceAcquisition();
+}
+
+TEST_CASE("Acquisition context version changes on ROI change",
+          "[SequenceAcquisition]") {
+   SyncCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+   c.startSequenceAcquisition(10, 0.0, true);
+
+   long long v = c.getAcquisitionContextVersion();
+   c.setROI(16, 16, 256, 256);
+   CHECK(c.getAcquisitionContextVersion() != v);
+   v = c.getAcquisitionContextVersion();
+   c.setROI("cam", 32, 32, 256, 256);
+   CHECK(c.getAcquisitionContextVersion() != v);
+   v = c.getAcquisitionContextVersion();
+   c.clearROI();
+   CHECK(c.getAcquisitionContextVersion() != v);
+   c.stopSequenceAcquisition();
+}
+
+TEST_CASE("Acquisition context version changes with each acquisition",
+          "[SequenceAcquisition]") {
+   SyncCamera cam;
+   MockAdapterWithDevices adapter{{"cam", &cam}};
+   CMMCore c;
+   adapter.LoadIntoCore(c);
+   c.setCameraDevice("cam");
+
+   c.startSequenceAcquisition(10, 0.0, true);
+   long long v = c.getAcquisitionContextVersion();
+   c.stopSequenceAcquisition();
+   c.startSequenceAcquisition(10, 0.0, true);
+   CHECK(c.getAcquisitionContextVersion() != v);
+   c.stopSequenceAcquisition();
+}
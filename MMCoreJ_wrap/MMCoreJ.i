@@ -205,6 +205,13 @@
 }
 %typemap(out) void*
 {
+   if (result == 0)
+   {
+      // No image (e.g. tryPopNextImageMD() on an empty buffer)
+      $result = 0;
+      return $result;
+   }
+
    long lSize = (arg1)->getImageWidth() * (arg1)->getImageHeight();
    
    if ((arg1)->getBytesPerPixel() == 1)
@@ -398,6 +405,197 @@
 }
 
 
+// Zero-copy image access: an imgLease (pixels leased from the circular
+// buffer) is exposed as a read-only direct ByteBuffer in native byte order,
+// backed by the Core's memory. The same ByteBuffer (or a duplicate of it) must
+// be passed back to releaseImageBuffer(), after which it must not be read.
+// A null imgLease (e.g. on timeout) maps to null.
+%typemap(jni) imgLease "jobject"
+%typemap(jtype) imgLease      "java.nio.ByteBuffer"
+%typemap(jstype) imgLease     "java.nio.ByteBuffer"
+%typemap(javaout) imgLease {
+   java.nio.ByteBuffer buffer = $jnicall;
+   if (buffer == null) {
+      return null;
+   }
+   return buffer.asReadOnlyBuffer().order(java.nio.ByteOrder.nativeOrder());
+}
+%typemap(out) imgLease
+{
+   if (result == 0)
+   {
+      $result = 0;
+      return $result;
+   }
+
+   long lSize = 0;
+   try
+   {
+      lSize = (arg1)->getImageBufferSize(result);
+   }
+   catch (const CMMError&)
+   {
+   }
+
+   $result = JCALL2(NewDirectByteBuffer, jenv, (void*)result, lSize);
+   if ($result == 0)
+   {
+      // Don't leave the image leased if the Java side never sees it
+      try
+      {
+         (arg1)->releaseImageBuffer(result);
+      }
+      catch (const CMMError&)
+      {
+      }
+      return $result;
+   }
+}
+%typemap(javain) imgLease     "$javainput"
+%typemap(in) imgLease
+{
+   $1 = 0;
+   if ($input)
+      $1 = (imgLease) JCALL1(GetDirectBufferAddress, jenv, $input);
+   if (!$1)
+   {
+      jclass excep = jenv->FindClass("java/lang/IllegalArgumentException");
+      if (excep)
+         jenv->ThrowNew(excep, "Not a buffer obtained from popNextImageBuffer() or getLastImageBuffer()");
+      return $null;
+   }
+}
+
+// Batched variants: vectors of leased images map to ByteBuffer[], so that
+// many images can be popped (or released) in a single JNI call.
+%typemap(jni) std::vector<imgLease> "jobjectArray"
+%typemap(jtype) std::vector<imgLease>      "java.nio.ByteBuffer[]"
+%typemap(jstype) std::vector<imgLease>     "java.nio.ByteBuffer[]"
+%typemap(javaout) std::vector<imgLease> {
+   java.nio.ByteBuffer[] buffers = $jnicall;
+   for (int i = 0; i < buffers.length; ++i) {
+      buffers[i] = buffers[i].asReadOnlyBuffer().order(java.nio.ByteOrder.nativeOrder());
+   }
+   return buffers;
+}
+%typemap(out) std::vector<imgLease>
+{
+   const std::vector<imgLease>& leases = $1;
+   jclass bufferClass = jenv->FindClass("java/nio/ByteBuffer");
+   if (bufferClass)
+      $result = JCALL3(NewObjectArray, jenv, (jsize) leases.size(), bufferClass, 0);
+   if ($result == 0)
+   {
+      try
+      {
+         (arg1)->releaseImageBuffers(leases);
+      }
+      catch (const CMMError&)
+      {
+      }
+      return $result;
+   }
+
+   for (size_t i = 0; i < leases.size(); ++i)
+   {
+      long lSize = 0;
+      try
+      {
+         lSize = (arg1)->getImageBufferSize(leases[i]);
+      }
+      catch (const CMMError&)
+      {
+      }
+
+      jobject buffer = JCALL2(NewDirectByteBuffer, jenv, (void*) leases[i], lSize);
+      if (buffer == 0)
+      {
+         // Release the whole batch; the Java side will never see it
+         try
+         {
+            (arg1)->releaseImageBuffers(leases);
+         }
+         catch (const CMMError&)
+         {
+         }
+         return 0;
+      }
+      JCALL3(SetObjectArrayElement, jenv, $result, (jsize) i, buffer);
+      JCALL1(DeleteLocalRef, jenv, buffer);
+   }
+}
+
+%typemap(jni) const std::vector<imgLease>& "jobjectArray"
+%typemap(jtype) const std::vector<imgLease>&      "java.nio.ByteBuffer[]"
+%typemap(jstype) const std::vector<imgLease>&     "java.nio.ByteBuffer[]"
+%typemap(javain) const std::vector<imgLease>&     "$javainput"
+%typemap(in) const std::vector<imgLease>& (std::vector<imgLease> buffers)
+{
+   if (!$input)
+   {
+      jclass excep = jenv->FindClass("java/lang/NullPointerException");
+      if (excep)
+         jenv->ThrowNew(excep, "null ByteBuffer[]");
+      return $null;
+   }
+
+   jsize n = JCALL1(GetArrayLength, jenv, $input);
+   buffers.reserve(n);
+   for (jsize i = 0; i < n; ++i)
+   {
+      jobject buffer = JCALL2(GetObjectArrayElement, jenv, $input, i);
+      imgLease pixels = 0;
+      if (buffer)
+         pixels = (imgLease) JCALL1(GetDirectBufferAddress, jenv, buffer);
+      JCALL1(DeleteLocalRef, jenv, buffer);
+      if (!pixels)
+      {
+         jclass excep = jenv->FindClass("java/lang/IllegalArgumentException");
+         if (excep)
+            jenv->ThrowNew(excep, "Not a buffer obtained from popNextImageBuffers()");
+         return $null;
+      }
+      buffers.push_back(pixels);
+   }
+   $1 = &buffers;
+}
+
+// The metadata of batched images is returned serialized (see
+// Metadata::Serialize()) into a caller-allocated String[], which must be at
+// least as long as the maximum number of images requested.
+%typemap(jni) std::vector<std::string>& serializedMetadata "jobjectArray"
+%typemap(jtype) std::vector<std::string>& serializedMetadata      "String[]"
+%typemap(jstype) std::vector<std::string>& serializedMetadata     "String[]"
+%typemap(javain) std::vector<std::string>& serializedMetadata     "$javainput"
+%typemap(in) std::vector<std::string>& serializedMetadata (std::vector<std::string> serialized)
+{
+   if (!$input)
+   {
+      jclass excep = jenv->FindClass("java/lang/NullPointerException");
+      if (excep)
+         jenv->ThrowNew(excep, "null String[]");
+      return $null;
+   }
+   if (JCALL1(GetArrayLength, jenv, $input) < (jsize) arg2)
+   {
+      jclass excep = jenv->FindClass("java/lang/IllegalArgumentException");
+      if (excep)
+         jenv->ThrowNew(excep, "Metadata array is shorter than the maximum image count");
+      return $null;
+   }
+   $1 = &serialized;
+}
+%typemap(argout) std::vector<std::string>& serializedMetadata
+{
+   for (size_t i = 0; i < $1->size(); ++i)
+   {
+      jstring str = JCALL1(NewStringUTF, jenv, (*$1)[i].c_str());
+      JCALL3(SetObjectArrayElement, jenv, $input, (jsize) i, str);
+      JCALL1(DeleteLocalRef, jenv, str);
+   }
+}
+
+
 //
 // Map all exception objects coming from C++ level
 // generic Java Exception
@@ -452,10 +650,105 @@
       includeSystemStateCache_ = state;
    }
 
+   private boolean lazyTaggedImageTags_ = false;
+   private volatile SystemStateSnapshot systemStateSnapshot_;
+   private volatile AcquisitionContext acquisitionContext_;
+   private volatile TaggedImagePool taggedImagePool_;
+
+   public boolean getLazyTaggedImageTags() {
+      return lazyTaggedImageTags_;
+   }
+
+   /**
+    * If enabled, the tags of the TaggedImages returned by this object are
+    * only converted from the image metadata and the system state cache when
+    * they are first accessed. The Core state is still captured when the
+    * image is retrieved, so the tags are the same either way; applications
+    * that do not read the tags of every image save the conversion cost.
+    */
+   public void setLazyTaggedImageTags(boolean lazy) {
+      lazyTaggedImageTags_ = lazy;
+   }
+
+   public TaggedImagePool getTaggedImagePool() {
+      return taggedImagePool_;
+   }
+
+   /**
+    * Sets a pool from which the pixel arrays of images popped from the
+    * circular buffer (popNextTaggedImage() and related methods) are taken.
+    * Call TaggedImage.release() on such images when done with them, so that
+    * their arrays can be reused. Pass null (the default) to allocate a new
+    * array for each image.
+    */
+   public void setTaggedImagePool(TaggedImagePool pool) {
+      taggedImagePool_ = pool;
+   }
+
+   // The system state cache for image tags, or null if not included. It is
+   // only fetched and converted again when the Core reports a new version.
+   private SystemStateSnapshot getSystemStateSnapshot() {
+      if (!includeSystemStateCache_) {
+         return null;
+      }
+      SystemStateSnapshot snapshot = SystemStateSnapshot.update(this, systemStateSnapshot_);
+      systemStateSnapshot_ = snapshot;
+      return snapshot;
+   }
+
+   // The Core settings for image tags. During a sequence acquisition they
+   // are only read again when the Core reports a new context version.
+   private AcquisitionContext getAcquisitionContext() throws java.lang.Exception {
+      AcquisitionContext context = AcquisitionContext.update(this, acquisitionContext_);
+      acquisitionContext_ = context;
+      return context;
+   }
+
+   // cameraChannelIndex < 0 omits the camera channel tags
+   private TaggedImage createTaggedImage(Object pixels, Metadata md, int cameraChannelIndex) throws java.lang.Exception {
+      return createTaggedImage(pixels, md, cameraChannelIndex, getAcquisitionContext());
+   }
+
+   // Copies a leased image buffer into a new or pooled array, and releases it
+   private TaggedImage createTaggedImage(java.nio.ByteBuffer buffer, Metadata md, int cameraChannelIndex) throws java.lang.Exception {
+      return createTaggedImage(buffer, md, cameraChannelIndex, false);
+   }
+
+   // ownFrame takes the image size and pixel type from the image metadata
+   // rather than from the current camera, for images that need not match it
+   private TaggedImage createTaggedImage(java.nio.ByteBuffer buffer, Metadata md, int cameraChannelIndex,
+         boolean ownFrame) throws java.lang.Exception {
+      try {
+         AcquisitionContext context = getAcquisitionContext();
+         if (ownFrame) {
+            context = context.forFrame(md);
+         }
+         TaggedImagePool pool = taggedImagePool_;
+         Object pixels = ImageBuffers.toPixelArray(buffer,
+               context.bytesPerPixel, context.numComponents, pool);
+         TaggedImage image = createTaggedImage(pixels, md, cameraChannelIndex, context);
+         return pool == null ? image : new TaggedImage(image.pix, image.tags, pool);
+      } finally {
+         releaseImageBuffer(buffer);
+      }
+   }
+
+   private TaggedImage createTaggedImage(Object pixels, Metadata md, int cameraChannelIndex,
+         AcquisitionContext context) throws java.lang.Exception {
+      SystemStateSnapshot state = getSystemStateSnapshot();
+      if (lazyTaggedImageTags_) {
+         return TaggedImageCreator.createLazyTaggedImage(state, context, pixels, md, cameraChannelIndex);
+      }
+      if (cameraChannelIndex < 0) {
+         return TaggedImageCreator.createTaggedImage(state, context, pixels, md);
+      }
+      return TaggedImageCreator.createTaggedImage(state, context, pixels, md, cameraChannelIndex);
+   }
+
    public TaggedImage getTaggedImage(int cameraChannelIndex) throws java.lang.Exception {
       Metadata md = new Metadata();
       Object pixels = getImage(cameraChannelIndex);
-      return TaggedImageCreator.createTaggedImage(this, includeSystemStateCache_, pixels, md, cameraChannelIndex);
+      return createTaggedImage(pixels, md, cameraChannelIndex);
    }
 
    public TaggedImage getTaggedImage() throws java.lang.Exception {
@@ -464,8 +757,11 @@
 
    public TaggedImage getLastTaggedImage(int cameraChannelIndex) throws java.lang.Exception {
       Metadata md = new Metadata();
+      if (cameraChannelIndex == 0 && isCircularBufferVariableFrameSize()) {
+         return createTaggedImage(getLastImageBuffer(md), md, 0, true);
+      }
       Object pixels = getLastImageMD(cameraChannelIndex, 0, md);
-      return TaggedImageCreator.createTaggedImage(this, includeSystemStateCache_, pixels, md, cameraChannelIndex);
+      return createTaggedImage(pixels, md, cameraChannelIndex);
    }
 
    public TaggedImage getLastTaggedImage() throws java.lang.Exception {
@@ -475,19 +771,160 @@
    public TaggedImage getNBeforeLastTaggedImage(long n) throws java.lang.Exception {
       Metadata md = new Metadata();
       Object pixels = getNBeforeLastImageMD(n, md);
-      return TaggedImageCreator.createTaggedImage(this, includeSystemStateCache_, pixels, md);
+      return createTaggedImage(pixels, md, -1);
    }
 
    public TaggedImage popNextTaggedImage(int cameraChannelIndex) throws java.lang.Exception {
       Metadata md = new Metadata();
+      if (cameraChannelIndex == 0) {
+         // With variable frame sizes, the image need not be of the camera's
+         // current size, so it is leased and tagged with its own
+         boolean variableFrameSize = isCircularBufferVariableFrameSize();
+         if (taggedImagePool_ != null || variableFrameSize) {
+            return createTaggedImage(popNextImageBuffer(md), md, 0, variableFrameSize);
+         }
+      }
       Object pixels = popNextImageMD(cameraChannelIndex, 0, md);
-      return TaggedImageCreator.createTaggedImage(this, includeSystemStateCache_, pixels, md, cameraChannelIndex);
+      return createTaggedImage(pixels, md, cameraChannelIndex);
    }
 
    public TaggedImage popNextTaggedImage() throws java.lang.Exception {
       return popNextTaggedImage(0);
    }
 
+   /**
+    * Gets and removes the next image from the circular buffer of a camera
+    * (see setCircularBufferPerCamera()).
+    *
+    * The tags identify the camera by its Camera tag only; the camera
+    * channel tags of a Multi Camera image are not added. The Width, Height,
+    * PixelType and ROI tags, and the pixel array type, are those of the
+    * image rather than of the current camera.
+    */
+   public TaggedImage popNextTaggedImage(String cameraLabel) throws java.lang.Exception {
+      Metadata md = new Metadata();
+      return createTaggedImage(popNextImageBuffer(cameraLabel, md), md, -1, true);
+   }
+
+   /**
+    * Gets the last image from the circular buffer of a camera (see
+    * setCircularBufferPerCamera()), tagged as by
+    * popNextTaggedImage(String).
+    */
+   public TaggedImage getLastTaggedImage(String cameraLabel) throws java.lang.Exception {
+      Metadata md = new Metadata();
+      return createTaggedImage(getLastImageBuffer(cameraLabel, md), md, -1, true);
+   }
+
+   /**
+    * Gets and removes the next image from the circular buffer, or returns
+    * null if the buffer is empty.
+    *
+    * Unlike popNextTaggedImage(), an empty buffer does not raise (and fill in
+    * the stack trace of) an exception, so this is suitable for polling.
+    */
+   public TaggedImage tryPopNextTaggedImage() throws java.lang.Exception {
+      if (getRemainingImageCount() == 0) {
+         return null;
+      }
+      Metadata md = new Metadata();
+      boolean variableFrameSize = isCircularBufferVariableFrameSize();
+      if (taggedImagePool_ != null || variableFrameSize) {
+         java.nio.ByteBuffer buffer = popNextImageBuffer(md, 0.0);
+         return buffer == null ? null : createTaggedImage(buffer, md, 0, variableFrameSize);
+      }
+      Object pixels = tryPopNextImageMD(md);
+      if (pixels == null) {
+         return null;
+      }
+      return createTaggedImage(pixels, md, 0);
+   }
+
+   /**
+    * Gets and removes the next image from the circular buffer, waiting for
+    * one to arrive if the buffer is empty.
+    *
+    * Returns null if no image arrived within the timeout, or if the buffer is
+    * empty and the sequence acquisition has stopped (or was not running), so
+    * that an acquisition loop can block here instead of polling
+    * getRemainingImageCount().
+    */
+   public TaggedImage popNextTaggedImage(long timeout, java.util.concurrent.TimeUnit unit) throws java.lang.Exception {
+      Metadata md = new Metadata();
+      java.nio.ByteBuffer buffer = popNextImageBuffer(md, unit.toNanos(timeout) / 1e6);
+      if (buffer == null) {
+         return null;
+      }
+      return createTaggedImage(buffer, md, 0, isCircularBufferVariableFrameSize());
+   }
+
+   /**
+    * Gets and removes up to maxCount images from the circular buffer.
+    *
+    * The images are fetched in a single call into the Core, and the Core
+    * state that goes into the tags is queried once for the whole batch, so
+    * this is much cheaper per image than calling popNextTaggedImage()
+    * repeatedly. Returns an empty list (rather than throwing) if the buffer
+    * is empty.
+    */
+   public List<TaggedImage> popNextTaggedImages(int maxCount) throws java.lang.Exception {
+      if (maxCount <= 0) {
+         return new ArrayList<TaggedImage>();
+      }
+      String[] serializedMetadata = new String[maxCount];
+      java.nio.ByteBuffer[] buffers = popNextImageBuffers(maxCount, serializedMetadata);
+      try {
+         if (buffers.length == 0) {
+            return new ArrayList<TaggedImage>();
+         }
+         return TaggedImageCreator.createTaggedImages(getSystemStateSnapshot(),
+               getAcquisitionContext(), lazyTaggedImageTags_, taggedImagePool_,
+               isCircularBufferVariableFrameSize(), buffers, serializedMetadata);
+      } finally {
+         releaseImageBuffers(buffers);
+      }
+   }
+
+   /**
+    * Gets and removes the next image from the circular buffer, copying the
+    * pixels into a caller-supplied array instead of allocating a new one.
+    *
+    * The destination can be a byte[], short[], int[] or float[] at least as
+    * large as the image; the pixels are copied in native byte order. Reusing
+    * the same array for every frame keeps the acquisition loop free of
+    * per-frame allocation. If the destination is too small, an
+    * IllegalArgumentException is thrown and the image stays in the buffer.
+    *
+    * @param dst destination array (preallocated, reused by the caller)
+    * @param md receives the image metadata
+    * @return the number of array elements written
+    */
+   public int popNextImageInto(Object dst, Metadata md) throws java.lang.Exception {
+      // Checked before the image is removed, so that it is not lost if dst
+      // is too small (an empty buffer passes, and then throws below)
+      ImageBuffers.checkCapacity(dst, getNextImageBufferSize());
+      java.nio.ByteBuffer buffer = popNextImageBuffer(md);
+      try {
+         return ImageBuffers.copy(buffer, dst);
+      } finally {
+         releaseImageBuffer(buffer);
+      }
+   }
+
+   /**
+    * Gets the last image from the circular buffer, copying the pixels into a
+    * caller-supplied array. See popNextImageInto().
+    */
+   public int getLastImageInto(Object dst, Metadata md) throws java.lang.Exception {
+      ImageBuffers.checkDestination(dst);
+      java.nio.ByteBuffer buffer = getLastImageBuffer(md);
+      try {
+         return ImageBuffers.copy(buffer, dst);
+      } finally {
+         releaseImageBuffer(buffer);
+      }
+   }
+
    // convenience functions follow
    
    /*
@@ -923,6 +1360,12 @@ namespace std {
 
 }
 
+// The void* typemap sizes the pixel array for the current camera, but these
+// return another camera's image; use the leased image buffers instead
+// (popNextImageBuffer(String, Metadata), popNextTaggedImage(String), etc.).
+%ignore CMMCore::getLastImageMD(const char*, Metadata&) const;
+%ignore CMMCore::popNextImageMD(const char*, Metadata&);
+
 %import "CoreDeclHelpers.h"
 
 %include "LogLevel.h"
@@ -0,0 +1,150 @@
+package mmcorej;
+
+import java.util.concurrent.TimeUnit;
+import mmcorej.org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Paths through CMMCore, using the DemoCamera device adapter. Needs the
+ * native library (see the benchmarks profile in pom.xml) and the directory
+ * containing the DemoCamera adapter, given as the system property
+ * mmcorej.bench.adapterPath (e.g., -Djmh.args="-jvmArgsAppend
+ * -Dmmcorej.bench.adapterPath=/path/to/adapters CoreBenchmark").
+ *
+ * The circular buffer is filled by a finite sequence acquisition before the
+ * benchmarks run, so that no benchmark measures waiting for the camera.
+ * popNextTaggedImage empties the buffer, so it runs as a single shot per
+ * iteration, popping the FRAMES images that a fill before the iteration
+ * (outside the measurement) put in the buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CoreBenchmark {
+
+   /** Number of images in the filled circular buffer. */
+   static final int FRAMES = 10;
+
+   @Param({"512", "2048", "4096"})
+   public int size;
+
+   @Param({"8bit", "16bit"})
+   public String pixelType;
+
+   private CMMCore core;
+   private Object pixels;
+   private Metadata md;
+
+   @Setup(Level.Trial)
+   public void setUp() throws Exception {
+      core = new CMMCore();
+      String adapterPath = System.getProperty("mmcorej.bench.adapterPath");
+      if (adapterPath != null) {
+         StrVector paths = new StrVector();
+         paths.add(adapterPath);
+         core.setDeviceAdapterSearchPaths(paths);
+      }
+      core.loadDevice("Camera", "DemoCamera", "DCam");
+      core.initializeAllDevices();
+      core.setCameraDevice("Camera");
+      core.setProperty("Camera", "OnCameraCCDXSize", size);
+      core.setProperty("Camera", "OnCameraCCDYSize", size);
+      core.setProperty("Camera", "PixelType", pixelType);
+      core.setProperty("Camera", "FastImage", 1);
+      core.setExposure(0.0);
+      core.updateSystemStateCache();
+      core.setCircularBufferMemoryFootprint(
+            FRAMES * core.getImageBufferSize() / (1024 * 1024) + 1);
+
+      fillBuffer();
+      md = new Metadata();
+      pixels = core.getLastImageMD(md);
+   }
+
+   void fillBuffer() throws Exception {
+      core.clearCircularBuffer();
+      core.startSequenceAcquisition(FRAMES, 0.0, true);
+      while (core.isSequenceRunning()) {
+         Thread.sleep(1);
+      }
+   }
+
+   /**
+    * Refills the circular buffer of the benchmark's Core before each
+    * iteration.
+    */
+   @State(Scope.Thread)
+   public static class FullBuffer {
+      @Setup(Level.Iteration)
+      public void fill(CoreBenchmark bench) throws Exception {
+         bench.fillBuffer();
+      }
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() throws Exception {
+      core.unloadAllDevices();
+      core.delete();
+   }
+
+   @Benchmark
+   public TaggedImage createTaggedImage() throws Exception {
+      return TaggedImageCreator.createTaggedImage(core, true, pixels, md, 0);
+   }
+
+   @Benchmark
+   public TaggedImage getLastTaggedImage() throws Exception {
+      return core.getLastTaggedImage();
+   }
+
+   @Benchmark
+   @BenchmarkMode(Mode.SingleShotTime)
+   @Warmup(iterations = 10)
+   @Measurement(iterations = 30)
+   @OperationsPerInvocation(FRAMES)
+   public void popNextTaggedImage(FullBuffer buffer, Blackhole bh)
+         throws Exception {
+      for (int i = 0; i < FRAMES; ++i) {
+         bh.consume(core.popNextTaggedImage());
+      }
+   }
+
+   @Benchmark
+   public JSONObject metadataToMap() {
+      return TaggedImageCreator.metadataToMap(md);
+   }
+
+   @Benchmark
+   public String serializeTags() throws Exception {
+      return core.getLastTaggedImage().tags.toString();
+   }
+
+   @Benchmark
+   public String[] strVectorToArray() throws Exception {
+      return core.getDevicePropertyNames("Camera").toArray();
+   }
+
+   @Benchmark
+   public Object systemStateCache() throws Exception {
+      JSONObject tags = new JSONObject();
+      TaggedImageCreator.putCoreTags(core, true, tags);
+      return tags;
+   }
+}
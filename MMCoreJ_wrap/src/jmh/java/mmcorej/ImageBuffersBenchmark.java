@@ -0,0 +1,64 @@
+package mmcorej;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copying pixels out of a (leased) direct buffer, into a new array or into
+ * one from a TaggedImagePool. Does not need the native library.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ImageBuffersBenchmark {
+
+   @Param({"512", "2048", "4096"})
+   public int size;
+
+   @Param({"1", "2"})
+   public int bytesPerPixel;
+
+   private ByteBuffer buffer;
+   private TaggedImagePool pool;
+   private Object dst;
+
+   @Setup
+   public void setUp() {
+      buffer = ByteBuffer.allocateDirect(size * size * bytesPerPixel)
+            .order(ByteOrder.nativeOrder());
+      pool = new TaggedImagePool();
+      dst = ImageBuffers.newPixelArray(buffer.capacity(), bytesPerPixel, 1);
+   }
+
+   @Benchmark
+   public Object toPixelArray() {
+      return ImageBuffers.toPixelArray(buffer, bytesPerPixel, 1);
+   }
+
+   @Benchmark
+   public Object toPixelArrayPooled() {
+      Object pixels = ImageBuffers.toPixelArray(buffer, bytesPerPixel, 1, pool);
+      pool.recycle(pixels);
+      return pixels;
+   }
+
+   @Benchmark
+   public int copyIntoArray() {
+      return ImageBuffers.copy(buffer, dst);
+   }
+}
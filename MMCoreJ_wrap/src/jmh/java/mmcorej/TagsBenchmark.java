@@ -0,0 +1,133 @@
+package mmcorej;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import mmcorej.org.json.JSONEncoder;
+import mmcorej.org.json.JSONObject;
+import mmcorej.org.json.JSONReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building and serializing image tags, with a tag set shaped like a typical
+ * configuration (Core tags plus numDeviceTags system state cache entries).
+ * Does not need the native library.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TagsBenchmark {
+
+   @Param({"50", "500"})
+   public int numDeviceTags;
+
+   private String serializedMetadata;
+   private JSONObject tags;
+   private String tagsText;
+   private final JSONEncoder encoder = new JSONEncoder();
+   private ByteBuffer utf8;
+   private final TagsCodec.Encoder tagsCodec = new TagsCodec.Encoder();
+   private ByteBuffer binary;
+   private int frame;
+
+   @Setup
+   public void setUp() throws Exception {
+      StringBuilder sb = new StringBuilder();
+      sb.append(numDeviceTags).append('\n');
+      tags = new JSONObject();
+      for (int i = 0; i < numDeviceTags; ++i) {
+         String device = "Device" + (i / 10);
+         String property = "Property" + (i % 10);
+         String value = (i % 3 == 0) ? Double.toString(i * 0.25) : "Value " + i;
+         sb.append("s\n").append(property).append('\n').append(device)
+               .append("\n0\n").append(value).append('\n');
+         tags.put(device + "-" + property, value);
+      }
+      serializedMetadata = sb.toString();
+
+      tags.put("BitDepth", 16L);
+      tags.put("PixelSizeUm", 0.325);
+      tags.put("PixelSizeAffine", "0.325;0.0;0.0;0.0;0.325;0.0");
+      tags.put("ROI", "0-0-2048-2048");
+      tags.put("Width", 2048L);
+      tags.put("Height", 2048L);
+      tags.put("PixelType", "GRAY16");
+      tags.put("Frame", 0);
+      tags.put("FrameIndex", 0);
+      tags.put("Position", "Default");
+      tags.put("PositionIndex", 0);
+      tags.put("Slice", 0);
+      tags.put("SliceIndex", 0);
+      tags.put("Channel", "DAPI");
+      tags.put("ChannelIndex", 0);
+      tags.put("Binning", "1");
+      tagsText = tags.toString();
+   }
+
+   @Benchmark
+   public JSONObject serializedMetadataToMap() {
+      return TaggedImageCreator.serializedMetadataToMap(serializedMetadata);
+   }
+
+   @Benchmark
+   public String tagsToString() {
+      return tags.toString();
+   }
+
+   @Benchmark
+   public StringBuilder tagsWriteAppendable() throws Exception {
+      StringBuilder sb = new StringBuilder();
+      tags.write(sb);
+      return sb;
+   }
+
+   @Benchmark
+   public byte[] tagsToUTF8() {
+      return tags.toString().getBytes(StandardCharsets.UTF_8);
+   }
+
+   @Benchmark
+   public ByteBuffer tagsEncodeUTF8() throws Exception {
+      utf8 = encoder.reset().encode(tags).toUTF8(utf8);
+      return utf8;
+   }
+
+   /**
+    * Binary delta record for tags that differ from the previous record in
+    * one value, as for successive images of a sequence acquisition.
+    */
+   @Benchmark
+   public ByteBuffer tagsEncodeBinary() throws Exception {
+      tags.put("Frame", ++frame);
+      binary = tagsCodec.encode(tags, binary);
+      return binary;
+   }
+
+   @Benchmark
+   public JSONObject tagsRoundTrip() throws Exception {
+      return new JSONObject(tags.toString());
+   }
+
+   @Benchmark
+   public JSONObject tagsParse() throws Exception {
+      return new JSONObject(tagsText);
+   }
+
+   @Benchmark
+   public Object tagsParseReader() throws Exception {
+      return new JSONReader(tagsText).nextValue();
+   }
+}
@@ -0,0 +1,266 @@
+package mmcorej.org.json;
+
+import java.io.StringWriter;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The bundled JSON library (JSONObject, JSONArray, JSONTokener, JSONWriter,
+ * XML and CDL) on metadata generated by MetadataCorpus: the tags of an image
+ * with a system state cache of numProperties properties, a stream of the
+ * tags of successive images, and summary metadata. Does not need the native
+ * library.
+ *
+ * Reports throughput; add the GC profiler to also report the allocation rate
+ * and the bytes allocated per operation (gc.alloc.rate.norm), e.g.:
+ *
+ * <pre>
+ * mvn -Pbenchmarks test-compile exec:exec -Djmh.args="-prof gc JSONBenchmark"
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JSONBenchmark {
+
+    private static final int STREAM_FRAMES = 20;
+
+    @Param({"50", "200", "800"})
+    public int numProperties;
+
+    private JSONObject tags;
+    private JSONObject frozenTags;
+    private String tagsText;
+    private String[] tagsNames;
+    private String frameStream;
+    private JSONObject summary;
+    private String summaryText;
+    private JSONArray positionsArray;
+    private String positionsText;
+    private JSONObject xmlTags;
+    private String xmlText;
+    private JSONArray frameTable;
+    private String csvText;
+    private final JSONEncoder encoder = new JSONEncoder();
+    private final JSONObject reused = new JSONObject();
+    private int frame;
+
+    @Setup
+    public void setUp() throws Exception {
+        JSONObject stateCache = MetadataCorpus.stateCache(numProperties);
+        tags = MetadataCorpus.frameTags(stateCache, 0);
+        tagsText = tags.toString();
+        frozenTags = new JSONObject(tagsText).freeze();
+        tagsNames = keyArray(tags);
+        frameStream = MetadataCorpus.frameStream(stateCache, STREAM_FRAMES);
+        summary = MetadataCorpus.summary(numProperties / 4);
+        summaryText = summary.toString();
+        positionsArray = summary.getJSONArray("InitialPositionList");
+        positionsText = positionsArray.toString();
+        xmlTags = MetadataCorpus.xmlSafe(tags);
+        xmlText = XML.toString(xmlTags, "tags");
+        frameTable = MetadataCorpus.frameTable(stateCache, STREAM_FRAMES);
+        csvText = CDL.toString(frameTable);
+    }
+
+    private static String[] keyArray(JSONObject jo) {
+        String[] names = new String[jo.length()];
+        int i = 0;
+        for (Iterator<String> keys = jo.keys(); keys.hasNext(); ) {
+            names[i++] = keys.next();
+        }
+        return names;
+    }
+
+    // --- JSONObject ---
+
+    @Benchmark
+    public JSONObject objectParse() throws Exception {
+        return new JSONObject(tagsText);
+    }
+
+    @Benchmark
+    public String objectToString() {
+        return tags.toString();
+    }
+
+    @Benchmark
+    public String objectToStringIndented() throws Exception {
+        return tags.toString(2);
+    }
+
+    @Benchmark
+    public JSONEncoder objectEncode() throws Exception {
+        return encoder.reset().encode(tags);
+    }
+
+    @Benchmark
+    public JSONObject objectCopy() throws Exception {
+        return new JSONObject(tags, tagsNames);
+    }
+
+    @Benchmark
+    public int objectReadAll() throws Exception {
+        int n = 0;
+        for (String key : tagsNames) {
+            n += tags.getString(key).length();
+        }
+        return n;
+    }
+
+    /**
+     * The per-frame changes of an image's tags, on a copy of the previous
+     * tags.
+     */
+    @Benchmark
+    public JSONObject objectFrameDelta() throws Exception {
+        int f = ++frame;
+        JSONObject next = new JSONObject(tags, tagsNames);
+        next.put("ImageNumber", Integer.toString(f));
+        next.put("ElapsedTime-ms", 1234.5 + f * 33.3667);
+        next.put("ZPositionUm", 42.125 + f * 0.001);
+        next.put("Frame", f);
+        return next;
+    }
+
+    /**
+     * As objectFrameDelta, on an overlay of the (frozen) previous tags.
+     */
+    @Benchmark
+    public JSONObject objectFrameDeltaOverlay() throws Exception {
+        int f = ++frame;
+        JSONObject next = JSONObject.overlay(frozenTags);
+        next.put("ImageNumber", Integer.toString(f));
+        next.put("ElapsedTime-ms", 1234.5 + f * 33.3667);
+        next.put("ZPositionUm", 42.125 + f * 0.001);
+        next.put("Frame", f);
+        return next;
+    }
+
+    /**
+     * As objectFrameDeltaOverlay, reusing one overlay (as a TaggedImagePool
+     * that reuses tags does).
+     */
+    @Benchmark
+    public JSONObject objectFrameDeltaReused() throws Exception {
+        int f = ++frame;
+        JSONObject next = reused.reset(frozenTags);
+        next.put("ImageNumber", Integer.toString(f));
+        next.put("ElapsedTime-ms", 1234.5 + f * 33.3667);
+        next.put("ZPositionUm", 42.125 + f * 0.001);
+        next.put("Frame", f);
+        return next;
+    }
+
+    // --- JSONArray ---
+
+    @Benchmark
+    public JSONArray arrayParse() throws Exception {
+        return new JSONArray(positionsText);
+    }
+
+    @Benchmark
+    public String arrayToString() {
+        return positionsArray.toString();
+    }
+
+    @Benchmark
+    public JSONObject summaryParse() throws Exception {
+        return new JSONObject(summaryText);
+    }
+
+    @Benchmark
+    public String summaryToString() {
+        return summary.toString();
+    }
+
+    // --- JSONTokener ---
+
+    /**
+     * Reads the tags of STREAM_FRAMES successive images from one text.
+     */
+    @Benchmark
+    public int tokenerFrameStream() throws Exception {
+        JSONTokener x = new JSONTokener(frameStream);
+        int n = 0;
+        while (x.nextClean() != 0) {
+            x.back();
+            n += ((JSONObject) x.nextValue()).length();
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int readerFrameStream() throws Exception {
+        JSONReader r = new JSONReader(frameStream);
+        int n = 0;
+        for (Object o; (o = r.nextValue()) != null; ) {
+            n += ((JSONObject) o).length();
+        }
+        return n;
+    }
+
+    // --- JSONWriter ---
+
+    @Benchmark
+    public String writerTags() throws Exception {
+        JSONWriter w = new JSONStringer().object();
+        for (String key : tagsNames) {
+            Object value = tags.get(key);
+            w.key(key);
+            if (value instanceof Integer) {
+                w.value(((Integer) value).longValue());
+            } else if (value instanceof Double) {
+                w.value(((Double) value).doubleValue());
+            } else {
+                w.value(value);
+            }
+        }
+        return w.endObject().toString();
+    }
+
+    @Benchmark
+    public StringWriter objectWriteWriter() throws Exception {
+        StringWriter w = new StringWriter();
+        tags.write(w);
+        return w;
+    }
+
+    // --- XML ---
+
+    @Benchmark
+    public String xmlToString() throws Exception {
+        return XML.toString(xmlTags, "tags");
+    }
+
+    @Benchmark
+    public JSONObject xmlToJSONObject() throws Exception {
+        return XML.toJSONObject(xmlText);
+    }
+
+    // --- CDL ---
+
+    @Benchmark
+    public String cdlToString() throws Exception {
+        return CDL.toString(frameTable);
+    }
+
+    @Benchmark
+    public JSONArray cdlToJSONArray() throws Exception {
+        return CDL.toJSONArray(csvText);
+    }
+}
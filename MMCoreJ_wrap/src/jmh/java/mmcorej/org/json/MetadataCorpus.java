@@ -0,0 +1,214 @@
+package mmcorej.org.json;
+
+import java.util.Random;
+
+/**
+ * Generates JSON shaped like Micro-Manager metadata, for benchmarks: the
+ * system state cache, the tags of the images of an acquisition (which
+ * differ from frame to frame in a few values), and summary metadata. The
+ * output depends only on the arguments.
+ */
+final class MetadataCorpus {
+
+    private static final String[] DEVICES = {
+        "Camera", "Z", "XY", "Dichroic", "Emission", "Excitation", "Shutter",
+        "Objective", "Autofocus", "LED", "Filter Wheel", "Piezo", "Laser",
+        "TIRF", "Lamp", "Condenser"
+    };
+
+    private static final String[] PROPERTIES = {
+        "Label", "State", "Exposure", "Binning", "PixelType", "Gain",
+        "Offset", "ReadoutTime", "Position", "Description", "Name",
+        "Trigger Mode", "CCDTemperature", "TransposeXY", "Mode", "Wavelength",
+        "Power %", "Speed", "Physical Camera 1", "Closed Position",
+        "OnOff", "Version"
+    };
+
+    private MetadataCorpus() {
+    }
+
+
+    /**
+     * The system state cache, as "Device-Property" keys with string values
+     * (numbers formatted as by device adapters, labels, flags and
+     * descriptions).
+     */
+    static JSONObject stateCache(int numProperties) throws JSONException {
+        Random random = new Random(numProperties);
+        JSONObject cache = new JSONObject();
+        cache.put("Core-Camera", "Camera");
+        cache.put("Core-Shutter", "Shutter");
+        cache.put("Core-Focus", "Z");
+        cache.put("Core-ChannelGroup", "Channel");
+        for (int i = cache.length(); i < numProperties; ++i) {
+            String device = DEVICES[i % DEVICES.length] +
+                    (i >= DEVICES.length * PROPERTIES.length ?
+                            "-" + i / (DEVICES.length * PROPERTIES.length) : "");
+            String property = PROPERTIES[(i / DEVICES.length) %
+                    PROPERTIES.length];
+            String value;
+            switch (random.nextInt(5)) {
+                case 0:
+                    value = String.format("%.4f", random.nextDouble() * 1000);
+                    break;
+                case 1:
+                    value = Integer.toString(random.nextInt(4096));
+                    break;
+                case 2:
+                    value = random.nextBoolean() ? "On" : "Off";
+                    break;
+                case 3:
+                    value = "Position-" + random.nextInt(8);
+                    break;
+                default:
+                    value = device + " adapter, firmware " +
+                            random.nextInt(10) + "." + random.nextInt(100) +
+                            " (serial #" + Long.toHexString(random.nextLong()) +
+                            ")";
+            }
+            cache.put(device + "-" + property, value);
+        }
+        return cache;
+    }
+
+
+    /**
+     * The tags of one image: Core tags, the state cache, and the values
+     * that change from frame to frame.
+     */
+    static JSONObject frameTags(JSONObject stateCache, int frame)
+            throws JSONException {
+        JSONObject tags = new JSONObject();
+        for (java.util.Iterator<String> keys = stateCache.keys();
+                keys.hasNext(); ) {
+            String key = keys.next();
+            tags.put(key, stateCache.get(key));
+        }
+        int channel = frame % 3;
+        tags.put("BitDepth", 16);
+        tags.put("PixelSizeUm", 0.1625);
+        tags.put("PixelSizeAffine", "0.1625;0.0;0.0;0.0;0.1625;0.0");
+        tags.put("ROI", "0-0-2048-2048");
+        tags.put("Width", 2048);
+        tags.put("Height", 2048);
+        tags.put("PixelType", "GRAY16");
+        tags.put("Binning", "1");
+        tags.put("Camera", "Camera");
+        tags.put("Channel", new String[] { "DAPI", "FITC", "Cy5" }[channel]);
+        tags.put("ChannelIndex", channel);
+        tags.put("CameraChannelIndex", 0);
+        tags.put("Frame", frame / 3);
+        tags.put("FrameIndex", frame / 3);
+        tags.put("Position", "Default");
+        tags.put("PositionIndex", 0);
+        tags.put("Slice", 0);
+        tags.put("SliceIndex", 0);
+        tags.put("ImageNumber", Integer.toString(frame));
+        tags.put("ElapsedTime-ms", 1234.5 + frame * 33.3667);
+        tags.put("TimeReceivedByCore", String.format(
+                "2024-04-05 12:%02d:%02d.%06d", frame / 60 % 60, frame % 60,
+                frame * 33367 % 1000000));
+        tags.put("XPositionUm", 1520.25 + (frame % 7) * 0.05);
+        tags.put("YPositionUm", -310.5);
+        tags.put("ZPositionUm", 42.125 + frame * 0.001);
+        tags.put("Exposure-ms", 10.0);
+        return tags;
+    }
+
+
+    /**
+     * The tags of successive images, one JSON text per line.
+     */
+    static String frameStream(JSONObject stateCache, int numFrames)
+            throws JSONException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numFrames; ++i) {
+            frameTags(stateCache, i).write(sb);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * The per-frame values of successive images, as rows for CDL.
+     */
+    static JSONArray frameTable(JSONObject stateCache, int numFrames)
+            throws JSONException {
+        String[] columns = { "ImageNumber", "Channel", "Frame",
+                "ElapsedTime-ms", "TimeReceivedByCore", "XPositionUm",
+                "YPositionUm", "ZPositionUm", "Exposure-ms" };
+        JSONArray rows = new JSONArray();
+        for (int i = 0; i < numFrames; ++i) {
+            rows.put(new JSONObject(frameTags(stateCache, i), columns));
+        }
+        return rows;
+    }
+
+
+    /**
+     * Summary metadata of a multi-position, multi-channel acquisition.
+     */
+    static JSONObject summary(int numPositions) throws JSONException {
+        JSONObject summary = new JSONObject();
+        summary.put("Prefix", "acq_1");
+        summary.put("Directory", "C:\\Users\\user\\Desktop\\data");
+        summary.put("MicroManagerVersion", "2.0.3-20240405");
+        summary.put("MetadataVersion", 10);
+        summary.put("ComputerName", "scope-pc");
+        summary.put("UserName", "user");
+        summary.put("StartTime", "2024-04-05 12:00:00.000 +0200");
+        summary.put("Frames", 100);
+        summary.put("Slices", 11);
+        summary.put("Channels", 3);
+        summary.put("Positions", numPositions);
+        summary.put("z-step_um", 0.5);
+        summary.put("Interval_ms", 1000.0);
+        summary.put("CustomIntervals_ms", new JSONArray());
+        summary.put("ChNames", new JSONArray().put("DAPI").put("FITC")
+                .put("Cy5"));
+        summary.put("ChColors", new JSONArray().put(-16776961)
+                .put(-16711936).put(-65536));
+        summary.put("ChContrastMin", new JSONArray().put(0).put(0).put(0));
+        summary.put("ChContrastMax", new JSONArray().put(65535).put(65535)
+                .put(65535));
+        JSONArray positions = new JSONArray();
+        for (int i = 0; i < numPositions; ++i) {
+            JSONObject coordinates = new JSONObject();
+            coordinates.put("XY", new JSONArray().put(1000.0 + i * 512.5)
+                    .put(-300.0 + (i % 10) * 412.75));
+            coordinates.put("Z", new JSONArray().put(42.125));
+            JSONObject position = new JSONObject();
+            position.put("Label", "Pos" + i);
+            position.put("GridRowIndex", i / 10);
+            position.put("GridColumnIndex", i % 10);
+            position.put("DefaultXYStage", "XY");
+            position.put("DefaultZStage", "Z");
+            position.put("DeviceCoordinatesUm", coordinates);
+            position.put("Properties", new JSONObject());
+            positions.put(position);
+        }
+        summary.put("InitialPositionList", positions);
+        summary.put("UserData", new JSONObject().put("Experiment", "bench")
+                .put("Plate", "96-well"));
+        return summary;
+    }
+
+
+    /**
+     * A copy of an object (and of the objects in it) whose keys are valid
+     * XML tag names.
+     */
+    static JSONObject xmlSafe(JSONObject jo) throws JSONException {
+        JSONObject copy = new JSONObject();
+        for (java.util.Iterator<String> keys = jo.keys(); keys.hasNext(); ) {
+            String key = keys.next();
+            Object value = jo.get(key);
+            if (value instanceof JSONObject) {
+                value = xmlSafe((JSONObject) value);
+            }
+            copy.put(key.replaceAll("[^A-Za-z0-9_.-]", "_"), value);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,180 @@
+package mmcorej;
+
+import mmcorej.org.json.JSONObject;
+
+/**
+ * The per-image tags that TaggedImageCreator derives from the Core settings
+ * (image size, pixel size, ROI, channel, binning, ...), captured once and
+ * reused for as long as the Core's acquisition context version is unchanged.
+ */
+final class AcquisitionContext {
+   private final long version; // Or -1 if not reusable
+   private final JSONObject imageTags; // Never modified after construction
+   final int bytesPerPixel;
+   final int numComponents;
+
+   // For a context made by forFrame(), the frame it describes
+   private final String frameKey;
+   // The last context made by forFrame(), which the following frames of the
+   // same size share
+   private volatile AcquisitionContext frameContext;
+
+   // The Core tags for the most recent state passed to baseTags()
+   private SystemStateSnapshot baseState; // Guarded by this
+   private JSONObject baseTags; // Guarded by this
+
+   // The number of tags of the last image whose full tags were built, to
+   // size the tags of the next one
+   private volatile int tagCountHint;
+
+   private AcquisitionContext(CMMCore core, long version) throws java.lang.Exception {
+      this.version = version;
+      this.imageTags = new JSONObject();
+      TaggedImageCreator.putImageTags(core, imageTags);
+      this.bytesPerPixel = (int) core.getBytesPerPixel();
+      this.numComponents = (int) core.getNumberOfComponents();
+      this.frameKey = null;
+   }
+
+   private AcquisitionContext(AcquisitionContext base, String frameKey,
+         long width, long height, String pixelType, String roiX, String roiY,
+         String binning) throws java.lang.Exception {
+      this.version = -1;
+      this.frameKey = frameKey;
+      this.imageTags = new JSONObject();
+      TaggedImageCreator.putAll(base.imageTags, imageTags);
+      this.bytesPerPixel = TaggedImageCreator.getBytesPerPixel(pixelType);
+      this.numComponents = TaggedImageCreator.getNumberOfComponents(pixelType);
+      imageTags.put("Width", width);
+      imageTags.put("Height", height);
+      if (roiX != null && roiY != null) {
+         imageTags.put("ROI", roiX + "-" + roiY + "-" + width + "-" + height);
+      } else if (!base.imageTags.optString("ROI").endsWith(
+            "-" + width + "-" + height)) {
+         // The camera's ROI is not that of the image, whose origin is unknown
+         imageTags.remove("ROI");
+      }
+      if (!pixelType.equals(base.imageTags.optString("PixelType"))) {
+         imageTags.put("PixelType", pixelType);
+         imageTags.put("BitDepth", (long) (8 * bytesPerPixel / numComponents));
+      }
+      if (binning != null) {
+         imageTags.put("Binning", binning);
+      }
+   }
+
+   /**
+    * Reads the current settings from the Core.
+    */
+   static AcquisitionContext capture(CMMCore core) throws java.lang.Exception {
+      return new AcquisitionContext(core, -1);
+   }
+
+   /**
+    * Returns previous if it is still valid, or else captures the current
+    * settings. Contexts are only reused during a sequence acquisition.
+    */
+   static AcquisitionContext update(CMMCore core, AcquisitionContext previous)
+         throws java.lang.Exception {
+      // Version first, so that the context is never older than its version
+      long version = core.getAcquisitionContextVersion();
+      if (version >= 0 && previous != null && previous.version == version) {
+         return previous;
+      }
+      return new AcquisitionContext(core, version);
+   }
+
+   /**
+    * Returns the context for an image with the given metadata. This is this
+    * context, unless the Width, Height or PixelType that the circular buffer
+    * puts in the metadata differ from it, as they do for an image from
+    * another camera's buffer, or (with variable frame sizes) from before a
+    * change of ROI or binning. The returned context then has the image's
+    * size and pixel type, the Binning from the metadata if given, and, for
+    * another pixel type, the BitDepth of the pixel type. The ROI is at
+    * ROI-X-start, ROI-Y-start if the metadata gives them, or else the
+    * camera's ROI if that is of the image's size; otherwise there is no ROI
+    * tag.
+    */
+   AcquisitionContext forFrame(Metadata md) throws java.lang.Exception {
+      return forFrame(frameTag(md, "Width"), frameTag(md, "Height"),
+            frameTag(md, "PixelType"), frameTag(md, "ROI-X-start"),
+            frameTag(md, "ROI-Y-start"), frameTag(md, "Binning"));
+   }
+
+   /**
+    * Like forFrame(Metadata), for the image tags as returned by
+    * TaggedImageCreator.serializedMetadataToMap().
+    */
+   AcquisitionContext forFrame(JSONObject frameTags) throws java.lang.Exception {
+      return forFrame(frameTags.optString("Width", null),
+            frameTags.optString("Height", null),
+            frameTags.optString("PixelType", null),
+            frameTags.optString("ROI-X-start", null),
+            frameTags.optString("ROI-Y-start", null),
+            frameTags.optString("Binning", null));
+   }
+
+   private AcquisitionContext forFrame(String width, String height,
+         String pixelType, String roiX, String roiY, String binning)
+         throws java.lang.Exception {
+      if (width == null || height == null || pixelType == null ||
+            TaggedImageCreator.getBytesPerPixel(pixelType) == 0) {
+         return this;
+      }
+      long w;
+      long h;
+      try {
+         w = Long.parseLong(width);
+         h = Long.parseLong(height);
+      } catch (NumberFormatException e) {
+         return this;
+      }
+      if (w == imageTags.optLong("Width") && h == imageTags.optLong("Height") &&
+            pixelType.equals(imageTags.optString("PixelType"))) {
+         return this;
+      }
+      String key = w + "x" + h + " " + pixelType + " " + roiX + "," + roiY +
+            " " + binning;
+      AcquisitionContext context = frameContext;
+      if (context == null || !context.frameKey.equals(key)) {
+         context = new AcquisitionContext(this, key, w, h, pixelType,
+               roiX, roiY, binning);
+         frameContext = context;
+      }
+      return context;
+   }
+
+   private static String frameTag(Metadata md, String key) throws java.lang.Exception {
+      return md.HasTag(key) ? md.GetSingleTag(key).GetValue() : null;
+   }
+
+   void putInto(JSONObject tags) throws java.lang.Exception {
+      TaggedImageCreator.putAll(imageTags, tags);
+   }
+
+   /**
+    * Returns the tags that putCoreTags() puts for this context and the given
+    * state (or null), frozen, to be overlaid by the tags of each image (see
+    * JSONObject.overlay()). The tags for the most recent state are kept, so
+    * that the images of a sequence acquisition share one copy.
+    */
+   synchronized JSONObject baseTags(SystemStateSnapshot state)
+         throws java.lang.Exception {
+      if (baseTags == null || baseState != state) {
+         JSONObject tags = new JSONObject();
+         TaggedImageCreator.putCoreTags(state, this, tags);
+         baseTags = tags.freeze();
+         baseState = state;
+      }
+      return baseTags;
+   }
+
+   int tagCountHint() {
+      return tagCountHint;
+   }
+
+   void setTagCountHint(int count) {
+      tagCountHint = count;
+   }
+}
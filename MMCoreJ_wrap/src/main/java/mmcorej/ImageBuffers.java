@@ -0,0 +1,123 @@
+package mmcorej;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Copies pixels out of image buffers leased from the circular buffer into
+ * caller-supplied arrays.
+ */
+final class ImageBuffers {
+
+   static void checkDestination(Object dst) {
+      if (!(dst instanceof byte[] || dst instanceof short[]
+            || dst instanceof int[] || dst instanceof float[])) {
+         throw new IllegalArgumentException(
+               "Destination must be a byte[], short[], int[] or float[] (got "
+               + (dst == null ? "null" : dst.getClass().getName()) + ")");
+      }
+   }
+
+   /**
+    * Checks that dst (of a type accepted by checkDestination()) can hold an
+    * image of nBytes.
+    */
+   static void checkCapacity(Object dst, long nBytes) {
+      checkDestination(dst);
+      int elementSize = bytesPerElement(dst);
+      if (nBytes % elementSize != 0) {
+         throw new IllegalArgumentException("Image of " + nBytes
+               + " bytes cannot be copied to an array of "
+               + elementSize + "-byte elements");
+      }
+      long nElements = nBytes / elementSize;
+      int capacity = java.lang.reflect.Array.getLength(dst);
+      if (capacity < nElements) {
+         throw new IllegalArgumentException("Destination array too small for image ("
+               + capacity + " < " + nElements + " elements)");
+      }
+   }
+
+   static int bytesPerElement(Object dst) {
+      if (dst instanceof byte[]) {
+         return 1;
+      }
+      if (dst instanceof short[]) {
+         return 2;
+      }
+      return 4;
+   }
+
+   /**
+    * Copies the whole of src (from its current position) into the start of
+    * dst, reinterpreting the bytes in src's byte order.
+    *
+    * @return the number of array elements written
+    */
+   static int copy(ByteBuffer src, Object dst) {
+      ByteBuffer buf = src.duplicate().order(src.order());
+      int nBytes = buf.remaining();
+      checkCapacity(dst, nBytes);
+      int nElements = nBytes / bytesPerElement(dst);
+      if (dst instanceof byte[]) {
+         buf.get((byte[]) dst, 0, nElements);
+      } else if (dst instanceof short[]) {
+         buf.asShortBuffer().get((short[]) dst, 0, nElements);
+      } else if (dst instanceof int[]) {
+         buf.asIntBuffer().get((int[]) dst, 0, nElements);
+      } else {
+         buf.asFloatBuffer().get((float[]) dst, 0, nElements);
+      }
+      return nElements;
+   }
+
+   /**
+    * Copies src into a new array of the type that popNextImage() would return
+    * for the given pixel format, or returns null if the format is unknown.
+    */
+   static Object toPixelArray(ByteBuffer src, int bytesPerPixel, int numComponents) {
+      return toPixelArray(src, bytesPerPixel, numComponents, null);
+   }
+
+   /**
+    * Like toPixelArray(ByteBuffer, int, int), but takes the array from pool
+    * (if not null) instead of allocating it.
+    */
+   static Object toPixelArray(ByteBuffer src, int bytesPerPixel, int numComponents,
+         TaggedImagePool pool) {
+      int nBytes = src.remaining();
+      Object dst = pool != null
+            ? pool.getPixelArray(nBytes, bytesPerPixel, numComponents)
+            : newPixelArray(nBytes, bytesPerPixel, numComponents);
+      if (dst == null) {
+         return null;
+      }
+      copy(src, dst);
+      return dst;
+   }
+
+   /**
+    * Allocates an array of the type that popNextImage() would return for the
+    * given pixel format and image size, or returns null if the format is
+    * unknown.
+    */
+   static Object newPixelArray(int nBytes, int bytesPerPixel, int numComponents) {
+      switch (bytesPerPixel) {
+         case 1:
+            return new byte[nBytes];
+         case 2:
+            return new short[nBytes / 2];
+         case 4:
+            if (numComponents == 1) {
+               return new float[nBytes / 4];
+            }
+            return new byte[nBytes];
+         case 8:
+            return new short[nBytes / 2];
+         default:
+            return null;
+      }
+   }
+
+   private ImageBuffers() {
+   }
+}
@@ -0,0 +1,62 @@
+package mmcorej;
+
+import mmcorej.org.json.JSONObject;
+
+/**
+ * A copy of the Core's system state cache that is converted to tag keys and
+ * values only when first needed. A snapshot can be shared by the tags of any
+ * number of images, and reused for as long as the state cache version is
+ * unchanged.
+ */
+final class SystemStateSnapshot {
+   private final long version; // Or -1 if not known
+   private Configuration config; // Released once converted
+   private String[] keys;
+   private String[] values;
+
+   SystemStateSnapshot(Configuration config) {
+      this(config, -1);
+   }
+
+   private SystemStateSnapshot(Configuration config, long version) {
+      this.config = config;
+      this.version = version;
+   }
+
+   /**
+    * Returns previous if the Core's state cache has not changed since it was
+    * taken, or else a new snapshot.
+    */
+   static SystemStateSnapshot update(CMMCore core, SystemStateSnapshot previous) {
+      // Version first, so that the snapshot is never older than its version
+      long version = core.getSystemStateCacheVersion();
+      if (previous != null && previous.version == version) {
+         return previous;
+      }
+      return new SystemStateSnapshot(core.getSystemStateCache(), version);
+   }
+
+   void putInto(JSONObject tags) throws java.lang.Exception {
+      convert();
+      for (int i = 0; i < keys.length; ++i) {
+         tags.put(keys[i], values[i]);
+      }
+   }
+
+   private synchronized void convert() throws java.lang.Exception {
+      if (keys != null) {
+         return;
+      }
+      int n = (int) config.size();
+      String[] k = new String[n];
+      String[] v = new String[n];
+      for (int i = 0; i < n; ++i) {
+         PropertySetting setting = config.getSetting(i);
+         k[i] = setting.getDeviceLabel() + "-" + setting.getPropertyName();
+         v[i] = setting.getPropertyValue();
+      }
+      values = v;
+      keys = k;
+      config = null;
+   }
+}
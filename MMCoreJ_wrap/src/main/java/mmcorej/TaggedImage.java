@@ -9,9 +9,38 @@ import mmcorej.org.json.JSONObject;
 public class TaggedImage {
    public final Object pix;
    public JSONObject tags;
+   private TaggedImagePool pool_;
 
    public TaggedImage(Object pix, JSONObject tags) {
       this.pix = pix;
       this.tags = tags;
    }
+
+   /**
+    * Creates an image whose pixel array (and tags, if the pool reuses tags)
+    * are returned to pool by release().
+    */
+   public TaggedImage(Object pix, JSONObject tags, TaggedImagePool pool) {
+      this.pix = pix;
+      this.tags = tags;
+      this.pool_ = pool;
+   }
+
+   /**
+    * Returns the pixel array to the pool it came from, so that it can be
+    * reused for a later image, and likewise the tags if the pool reuses
+    * tags. The pixels (and such tags) must not be used after this.
+    * Has no effect if the image is not pooled or was already released.
+    */
+   public void release() {
+      TaggedImagePool pool;
+      synchronized (this) {
+         pool = pool_;
+         pool_ = null;
+      }
+      if (pool != null) {
+         pool.recycle(pix);
+         pool.recycleTags(tags);
+      }
+   }
 }
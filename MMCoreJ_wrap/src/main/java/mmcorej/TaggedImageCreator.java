@@ -1,20 +1,109 @@
 package mmcorej;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import mmcorej.org.json.JSONObject;
 
 final class TaggedImageCreator {
 
    static JSONObject metadataToMap(Metadata md) {
-      JSONObject tags = new JSONObject();
-      for (String key : md.GetKeys()) {
+      StrVector keys = md.GetKeys();
+      JSONObject tags = new JSONObject(keys.size());
+      putMetadata(md, keys, tags, null);
+      return tags;
+   }
+
+   /**
+    * Puts the tags of md, except for keys that are in coreTags (if not
+    * null), which take precedence over the metadata.
+    */
+   static void putMetadata(Metadata md, JSONObject tags, JSONObject coreTags) {
+      putMetadata(md, md.GetKeys(), tags, coreTags);
+   }
+
+   private static void putMetadata(Metadata md, StrVector keys, JSONObject tags,
+         JSONObject coreTags) {
+      for (String key : keys) {
+         if (coreTags != null && coreTags.has(key)) {
+            continue;
+         }
          try {
             tags.put(key, md.GetSingleTag(key).GetValue());
          } catch (Exception e) {
          }
       }
+   }
+
+   /**
+    * Equivalent of metadataToMap() for metadata in the format of
+    * Metadata::Serialize(). Array tags are skipped.
+    */
+   static JSONObject serializedMetadataToMap(String serialized) {
+      JSONObject tags = new JSONObject(serializedTagCount(serialized));
+      putSerializedMetadata(serialized, tags, null);
       return tags;
    }
 
+   /**
+    * Equivalent of putMetadata() for metadata in the format of
+    * Metadata::Serialize().
+    */
+   static void putSerializedMetadata(String serialized, JSONObject tags,
+         JSONObject coreTags) {
+      int count = serializedTagCount(serialized);
+      if (count == 0) {
+         return;
+      }
+      String[] lines = serialized.split("\n", -1);
+      int pos = 1;
+      for (int i = 0; i < count && pos + 4 < lines.length; ++i) {
+         String kind = lines[pos++];
+         String name = lines[pos++];
+         String device = lines[pos++];
+         pos++; // read-only flag
+         if (kind.equals("s")) {
+            String key = device.equals("_") ? name : device + "-" + name;
+            String value = lines[pos++];
+            if (coreTags != null && coreTags.has(key)) {
+               continue;
+            }
+            try {
+               tags.put(key, value);
+            } catch (Exception e) {
+            }
+         } else if (kind.equals("a")) {
+            int nValues;
+            try {
+               nValues = Integer.parseInt(lines[pos++].trim());
+            } catch (NumberFormatException e) {
+               break;
+            }
+            pos += nValues;
+         } else {
+            break;
+         }
+      }
+   }
+
+   /**
+    * Returns the number of tags (including array tags) that serialized
+    * metadata declares, or 0 if there is none or it cannot be read.
+    */
+   static int serializedTagCount(String serialized) {
+      if (serialized == null || serialized.isEmpty()) {
+         return 0;
+      }
+      int end = serialized.indexOf('\n');
+      try {
+         return Math.max(0, Integer.parseInt(
+               serialized.substring(0, end < 0 ? serialized.length() : end).trim()));
+      } catch (NumberFormatException e) {
+         return 0;
+      }
+   }
+
    static String getROITag(CMMCore core) throws java.lang.Exception {
       String roi = "";
       int[] x = new int[1];
@@ -46,6 +135,29 @@ final class TaggedImageCreator {
       return "";
    }
 
+   /**
+    * Returns the bytes per pixel of a pixel type as returned by
+    * getPixelType(), or 0 if unknown.
+    */
+   static int getBytesPerPixel(String pixelType) {
+      switch (pixelType) {
+         case "GRAY8":
+            return 1;
+         case "GRAY16":
+            return 2;
+         case "GRAY32":
+         case "RGB32":
+            return 4;
+         case "RGB64":
+            return 8;
+      }
+      return 0;
+   }
+
+   static int getNumberOfComponents(String pixelType) {
+      return pixelType.startsWith("RGB") ? 4 : 1;
+   }
+
    static String getMultiCameraChannel(JSONObject tags, int cameraChannelIndex) {
       try {
          String camera = tags.getString("Core-Camera");
@@ -67,9 +179,25 @@ final class TaggedImageCreator {
    static TaggedImage createTaggedImage(
          CMMCore core, boolean includeSystemStateCache,
          Object pixels, Metadata md, int cameraChannelIndex) throws java.lang.Exception {
-      TaggedImage image = createTaggedImage(core, includeSystemStateCache, pixels, md);
-      JSONObject tags = image.tags;
+      return createTaggedImage(currentState(core, includeSystemStateCache),
+            AcquisitionContext.capture(core), pixels, md, cameraChannelIndex);
+   }
 
+   /**
+    * Variant of createTaggedImage() that takes the system state cache as a
+    * (possibly shared) snapshot, or null to omit it, and the Core settings as
+    * a (possibly shared) acquisition context.
+    */
+   static TaggedImage createTaggedImage(
+         SystemStateSnapshot state, AcquisitionContext context,
+         Object pixels, Metadata md, int cameraChannelIndex) throws java.lang.Exception {
+      TaggedImage image = createTaggedImage(state, context, pixels, md);
+      putCameraChannelTags(image.tags, cameraChannelIndex);
+      return image;
+   }
+
+   static void putCameraChannelTags(JSONObject tags, int cameraChannelIndex)
+         throws java.lang.Exception {
       if (!tags.has("CameraChannelIndex")) {
          tags.put("CameraChannelIndex", cameraChannelIndex);
          tags.put("ChannelIndex", cameraChannelIndex);
@@ -81,23 +209,120 @@ final class TaggedImageCreator {
             tags.put("Channel", physicalCamera);
          }
       }
-      return image;
    }
 
    static TaggedImage createTaggedImage(
          CMMCore core, boolean includeSystemStateCache,
          Object pixels, Metadata md) throws java.lang.Exception {
-      JSONObject tags = metadataToMap(md);
-      PropertySetting setting;
-      if (includeSystemStateCache) {
-         Configuration config = core.getSystemStateCache();
-         for (int i = 0; i < config.size(); ++i) {
-            setting = config.getSetting(i);
-            String key = setting.getDeviceLabel() + "-" + setting.getPropertyName();
-            String value = setting.getPropertyValue();
-            tags.put(key, value);
+      return createTaggedImage(currentState(core, includeSystemStateCache),
+            AcquisitionContext.capture(core), pixels, md);
+   }
+
+   /**
+    * The tags are an overlay of the context's shared base tags (see
+    * AcquisitionContext.baseTags()), so that each image only stores its
+    * metadata. The result is the same as putting the Core tags after the
+    * metadata, except for the order of the keys.
+    */
+   static TaggedImage createTaggedImage(
+         SystemStateSnapshot state, AcquisitionContext context,
+         Object pixels, Metadata md) throws java.lang.Exception {
+      JSONObject coreTags = context.baseTags(state);
+      JSONObject tags = JSONObject.overlay(coreTags);
+      putMetadata(md, tags, coreTags);
+      return new TaggedImage(pixels, tags);
+   }
+
+   /**
+    * Like createTaggedImage(), but the tags are only built from the metadata
+    * and the system state cache when they are first accessed, which saves
+    * the conversion for images whose tags are never read.
+    *
+    * The tags come out the same as with createTaggedImage(): the Core state
+    * that goes into them is captured when this is called, and only the
+    * conversion is deferred. If the Core tags cannot be created (where
+    * createTaggedImage() would throw), the first access to the tags throws
+    * IllegalStateException.
+    *
+    * @param cameraChannelIndex camera channel index, or -1 to omit the
+    * camera channel tags (as with the 4-argument createTaggedImage())
+    */
+   static TaggedImage createLazyTaggedImage(
+         CMMCore core, boolean includeSystemStateCache,
+         Object pixels, Metadata md, int cameraChannelIndex) throws java.lang.Exception {
+      return createLazyTaggedImage(currentState(core, includeSystemStateCache),
+            AcquisitionContext.capture(core), pixels, md, cameraChannelIndex);
+   }
+
+   static TaggedImage createLazyTaggedImage(
+         SystemStateSnapshot state, AcquisitionContext context,
+         Object pixels, Metadata md, int cameraChannelIndex) {
+      return new TaggedImage(pixels, new JSONObject(
+            new LazyTags(md, null, state, context, cameraChannelIndex)));
+   }
+
+   /**
+    * Creates tagged images (as for camera channel 0) from a batch of leased
+    * image buffers and their serialized metadata. The buffers are copied,
+    * not released.
+    *
+    * If lazyTags is true, the tags are built on first access, as with
+    * createLazyTaggedImage(). If pool is not null, the pixel arrays (and
+    * the tags, if the pool reuses tags) are taken from it. If ownFrames is
+    * true, the image size and pixel type are taken from each image's
+    * metadata (see AcquisitionContext.forFrame()).
+    */
+   static List<TaggedImage> createTaggedImages(
+         SystemStateSnapshot state, AcquisitionContext batchContext, boolean lazyTags,
+         TaggedImagePool pool, boolean ownFrames,
+         ByteBuffer[] buffers, String[] serializedMetadata) throws java.lang.Exception {
+      List<TaggedImage> images = new ArrayList<TaggedImage>(buffers.length);
+      for (int i = 0; i < buffers.length; ++i) {
+         AcquisitionContext context = ownFrames
+               ? batchContext.forFrame(serializedMetadataToMap(serializedMetadata[i]))
+               : batchContext;
+         Object pixels = ImageBuffers.toPixelArray(buffers[i],
+               context.bytesPerPixel, context.numComponents, pool);
+         if (lazyTags) {
+            images.add(new TaggedImage(pixels, new JSONObject(
+                  new LazyTags(null, serializedMetadata[i], state, context, 0)), pool));
+            continue;
          }
+         JSONObject coreTags = context.baseTags(state);
+         JSONObject tags = pool != null ? pool.getTags(coreTags)
+               : JSONObject.overlay(coreTags);
+         putSerializedMetadata(serializedMetadata[i], tags, coreTags);
+         putCameraChannelTags(tags, 0);
+         images.add(new TaggedImage(pixels, tags, pool));
       }
+      return images;
+   }
+
+   static void putCoreTags(CMMCore core, boolean includeSystemStateCache,
+         JSONObject tags) throws java.lang.Exception {
+      putCoreTags(currentState(core, includeSystemStateCache),
+            AcquisitionContext.capture(core), tags);
+   }
+
+   static void putCoreTags(SystemStateSnapshot state, AcquisitionContext context,
+         JSONObject tags) throws java.lang.Exception {
+      if (state != null) {
+         state.putInto(tags);
+      }
+      context.putInto(tags);
+   }
+
+   private static SystemStateSnapshot currentState(CMMCore core,
+         boolean includeSystemStateCache) {
+      return includeSystemStateCache
+            ? new SystemStateSnapshot(core.getSystemStateCache()) : null;
+   }
+
+   /**
+    * Puts the tags that putCoreTags() derives from the current camera and
+    * Core settings (everything except the system state cache).
+    */
+   static void putImageTags(CMMCore core, JSONObject tags) throws java.lang.Exception {
       tags.put("BitDepth", core.getImageBitDepth());
       tags.put("PixelSizeUm", core.getPixelSizeUm(true));
       tags.put("PixelSizeAffine", core.getPixelSizeAffineAsString());
@@ -123,8 +348,59 @@ final class TaggedImageCreator {
          tags.put("Binning", core.getProperty(core.getCameraDevice(), "Binning"));
       } catch (Exception ex) {
       }
+   }
 
-      return new TaggedImage(pixels, tags);
+   static void putAll(JSONObject src, JSONObject dst) throws java.lang.Exception {
+      for (Iterator<String> keys = src.keys(); keys.hasNext(); ) {
+         String key = keys.next();
+         dst.put(key, src.get(key));
+      }
+   }
+
+   /**
+    * Builds lazy tags in the same order as the eager path: image metadata,
+    * then the system state cache, then the image tags, then the camera
+    * channel tags (which may depend on the state cache).
+    */
+   private static final class LazyTags implements JSONObject.Deferred {
+      private final Metadata md;
+      private final String serializedMetadata;
+      private final SystemStateSnapshot state;
+      private final AcquisitionContext context;
+      private final int cameraChannelIndex;
+
+      LazyTags(Metadata md, String serializedMetadata, SystemStateSnapshot state,
+            AcquisitionContext context, int cameraChannelIndex) {
+         this.md = md;
+         this.serializedMetadata = serializedMetadata;
+         this.state = state;
+         this.context = context;
+         this.cameraChannelIndex = cameraChannelIndex;
+      }
+
+      @Override
+      public void populate(JSONObject tags) {
+         tags.ensureCapacity(context.tagCountHint());
+         // Metadata tags that cannot be converted are skipped one by one, as
+         // in the eager path.
+         if (md != null) {
+            putMetadata(md, tags, null);
+         } else {
+            putSerializedMetadata(serializedMetadata, tags, null);
+         }
+         try {
+            putCoreTags(state, context, tags);
+            if (cameraChannelIndex >= 0) {
+               putCameraChannelTags(tags, cameraChannelIndex);
+            }
+         } catch (Exception e) {
+            // The eager path throws these from createTaggedImage(); the
+            // accessor cannot throw a checked exception, but must not return
+            // tags without the Core tags either.
+            throw new IllegalStateException("Cannot create image tags", e);
+         }
+         context.setTagCountHint(tags.length());
+      }
    }
 
    private TaggedImageCreator() {
@@ -0,0 +1,204 @@
+package mmcorej;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import mmcorej.org.json.JSONObject;
+
+/**
+ * A pool of pixel arrays for TaggedImages, so that long-running acquisitions
+ * can reuse arrays instead of allocating a new one for every image.
+ *
+ * Arrays are kept per size class (array type and length, which follow from
+ * the image width, height and pixel format). Images that take their pixels
+ * from a pool return them with TaggedImage.release(). At most
+ * maxArraysPerSize arrays are kept per size class; any more that are
+ * released are left to the garbage collector.
+ *
+ * A pool can also keep the tags of released images, up to maxTags of them,
+ * and reuse them (cleared) for the tags of later images. This is off by
+ * default, because the tags of a released image then change under anyone
+ * who still holds them.
+ *
+ * @see CMMCore#setTaggedImagePool(TaggedImagePool)
+ */
+public final class TaggedImagePool {
+   private final int maxArraysPerSize_;
+   private final int maxTags_;
+   private final Map<SizeClass, ArrayDeque<Object>> free_ =
+         new HashMap<SizeClass, ArrayDeque<Object>>();
+   private final ArrayDeque<JSONObject> freeTags_ = new ArrayDeque<JSONObject>();
+
+   public TaggedImagePool() {
+      this(16);
+   }
+
+   public TaggedImagePool(int maxArraysPerSize) {
+      this(maxArraysPerSize, 0);
+   }
+
+   /**
+    * Creates a pool that also reuses the tags of released images, keeping
+    * at most maxTags of them.
+    */
+   public TaggedImagePool(int maxArraysPerSize, int maxTags) {
+      if (maxArraysPerSize < 0) {
+         throw new IllegalArgumentException("maxArraysPerSize must not be negative");
+      }
+      if (maxTags < 0) {
+         throw new IllegalArgumentException("maxTags must not be negative");
+      }
+      maxArraysPerSize_ = maxArraysPerSize;
+      maxTags_ = maxTags;
+   }
+
+   /**
+    * Returns an array for an image of the given size and pixel format, of
+    * the same type as popNextImage() would return. The array is reused from
+    * the pool if possible, in which case it still holds old pixels. Returns
+    * null if the pixel format is unknown.
+    */
+   public Object getPixelArray(int width, int height, int bytesPerPixel, int numComponents) {
+      return getPixelArray(width * height * bytesPerPixel, bytesPerPixel, numComponents);
+   }
+
+   Object getPixelArray(int nBytes, int bytesPerPixel, int numComponents) {
+      Object pixels = null;
+      SizeClass key = sizeClass(nBytes, bytesPerPixel, numComponents);
+      if (key == null) {
+         return null;
+      }
+      synchronized (this) {
+         ArrayDeque<Object> arrays = free_.get(key);
+         if (arrays != null) {
+            pixels = arrays.pollFirst();
+         }
+      }
+      if (pixels == null) {
+         pixels = ImageBuffers.newPixelArray(nBytes, bytesPerPixel, numComponents);
+      }
+      return pixels;
+   }
+
+   /**
+    * Returns an array to the pool. The caller must not use it afterwards.
+    * Arrays of types that are never used for pixels are ignored.
+    */
+   public void recycle(Object pixels) {
+      if (!(pixels instanceof byte[] || pixels instanceof short[]
+            || pixels instanceof float[])) {
+         return;
+      }
+      SizeClass key = new SizeClass(pixels.getClass(),
+            java.lang.reflect.Array.getLength(pixels));
+      synchronized (this) {
+         ArrayDeque<Object> arrays = free_.get(key);
+         if (arrays == null) {
+            arrays = new ArrayDeque<Object>();
+            free_.put(key, arrays);
+         }
+         if (arrays.size() < maxArraysPerSize_) {
+            arrays.addFirst(pixels);
+         }
+      }
+   }
+
+   /**
+    * Returns an overlay of base (see JSONObject.overlay()) for the tags of
+    * an image, reusing tags released to the pool if possible.
+    */
+   public JSONObject getTags(JSONObject base) {
+      JSONObject tags;
+      synchronized (this) {
+         tags = freeTags_.pollFirst();
+      }
+      if (tags == null) {
+         return JSONObject.overlay(base);
+      }
+      return tags.reset(base);
+   }
+
+   /**
+    * Returns the tags of an image to the pool, if the pool reuses tags. The
+    * caller must not use them afterwards. Frozen tags, which may be shared,
+    * are ignored.
+    */
+   public void recycleTags(JSONObject tags) {
+      if (maxTags_ == 0 || tags == null || tags.isFrozen()) {
+         return;
+      }
+      tags.clear();
+      synchronized (this) {
+         if (freeTags_.size() < maxTags_) {
+            freeTags_.addFirst(tags);
+         }
+      }
+   }
+
+   /**
+    * Returns the number of tags objects currently held by the pool.
+    */
+   public synchronized int getFreeTagsCount() {
+      return freeTags_.size();
+   }
+
+   /**
+    * Returns the number of arrays currently held by the pool.
+    */
+   public synchronized int getFreeCount() {
+      int count = 0;
+      for (ArrayDeque<Object> arrays : free_.values()) {
+         count += arrays.size();
+      }
+      return count;
+   }
+
+   /**
+    * Drops all arrays and tags held by the pool.
+    */
+   public synchronized void clear() {
+      free_.clear();
+      freeTags_.clear();
+   }
+
+   private static SizeClass sizeClass(int nBytes, int bytesPerPixel, int numComponents) {
+      switch (bytesPerPixel) {
+         case 1:
+            return new SizeClass(byte[].class, nBytes);
+         case 2:
+         case 8:
+            return new SizeClass(short[].class, nBytes / 2);
+         case 4:
+            if (numComponents == 1) {
+               return new SizeClass(float[].class, nBytes / 4);
+            }
+            return new SizeClass(byte[].class, nBytes);
+         default:
+            return null;
+      }
+   }
+
+   private static final class SizeClass {
+      private final Class<?> type;
+      private final int length;
+
+      SizeClass(Class<?> type, int length) {
+         this.type = type;
+         this.length = length;
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (!(o instanceof SizeClass)) {
+            return false;
+         }
+         SizeClass other = (SizeClass) o;
+         return type == other.type && length == other.length;
+      }
+
+      @Override
+      public int hashCode() {
+         return 31 * type.hashCode() + length;
+      }
+   }
+}
@@ -0,0 +1,496 @@
+package mmcorej;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import mmcorej.org.json.JSONArray;
+import mmcorej.org.json.JSONException;
+import mmcorej.org.json.JSONObject;
+
+/**
+ * A compact binary encoding of image tags, for streaming the tags of a
+ * sequence of images to a file or to another process.
+ *
+ * An Encoder turns the tags of each image into a record, and a Decoder turns
+ * the records back into JSONObjects that serialize to the same JSON text
+ * (with the same key order). Keys are sent once and referred to by number
+ * afterwards, values are binary, and each record only holds the values that
+ * differ from the last record. The tags of successive images of an
+ * acquisition typically differ in a few values, so that a record is a few
+ * dozen bytes where the JSON text would be tens of kilobytes.
+ *
+ * Records depend on the ones before them, so they must be decoded in the
+ * order they were encoded. The first record after Encoder.reset() (or after
+ * creating the Encoder) is a key frame, which does not depend on earlier
+ * records: to make a stream that can be decoded from more than one point,
+ * reset the encoder at those points.
+ *
+ * Format of a record (varints are unsigned LEB128; signed numbers are
+ * zigzag-encoded):
+ * <pre>
+ * record  := flags:byte newKeys [layout] changes
+ * flags   := KEY_FRAME? | SAME_LAYOUT?
+ * newKeys := count:varint { length:varint utf8 }   (appended to key list)
+ * layout  := count:varint { keyId:varint }         (unless SAME_LAYOUT)
+ * changes := count:varint { skip:varint value }    (skip unchanged entries)
+ * value   := NULL | FALSE | TRUE | INT zigzag | LONG zigzag
+ *          | ADD zigzag (last value of the key, plus the number)
+ *          | DOUBLE 8 bytes (little-endian bits) | STRING length:varint utf8
+ *          | OBJECT count:varint { keyId:varint value }
+ *          | ARRAY count:varint { value }
+ * </pre>
+ *
+ * Numbers other than Integer, Long and Double are sent as doubles, and other
+ * objects as their string value (as in JSON text). Encoders and decoders are
+ * not thread-safe.
+ */
+public final class TagsCodec {
+   static final int KEY_FRAME = 1;
+   static final int SAME_LAYOUT = 2;
+
+   static final int NULL = 0;
+   static final int FALSE = 1;
+   static final int TRUE = 2;
+   static final int INT = 3;
+   static final int LONG = 4;
+   static final int ADD = 5;
+   static final int DOUBLE = 6;
+   static final int STRING = 7;
+   static final int OBJECT = 8;
+   static final int ARRAY = 9;
+
+   /**
+    * Encodes the tags of successive images.
+    */
+   public static final class Encoder {
+      private final Map<String, Integer> keyIds_ = new HashMap<String, Integer>();
+      private final List<String> keys_ = new ArrayList<String>(); // By key id
+      private final List<String> newKeys_ = new ArrayList<String>();
+      private Object[] lastValues_ = new Object[64]; // By key id
+      private int[] layout_ = new int[0];
+      private int[] nextLayout_ = new int[64];
+      private boolean keyFrame_ = true;
+      private final Bytes out_ = new Bytes();
+      private final Bytes body_ = new Bytes();
+
+      /**
+       * Forgets the previous records, so that the next record is a key frame.
+       * @return this
+       */
+      public Encoder reset() {
+         keyIds_.clear();
+         keys_.clear();
+         Arrays.fill(lastValues_, null);
+         layout_ = new int[0];
+         keyFrame_ = true;
+         return this;
+      }
+
+      /**
+       * Encodes the next record.
+       * @return the record
+       */
+      public byte[] encode(JSONObject tags) throws JSONException {
+         encodeRecord(tags);
+         return Arrays.copyOf(out_.buf, out_.len);
+      }
+
+      /**
+       * Encodes the next record into a reusable buffer.
+       * @param dst a buffer to reuse, or null. It is used (from position 0)
+       * if its capacity suffices; otherwise a new buffer is allocated.
+       * @return the buffer holding the record, from position 0 to its limit
+       */
+      public ByteBuffer encode(JSONObject tags, ByteBuffer dst) throws JSONException {
+         encodeRecord(tags);
+         if (dst == null || dst.capacity() < out_.len) {
+            dst = ByteBuffer.allocate(Math.max(out_.len, 256));
+         }
+         dst.clear();
+         dst.put(out_.buf, 0, out_.len);
+         dst.flip();
+         return dst;
+      }
+
+      private void encodeRecord(JSONObject tags) throws JSONException {
+         newKeys_.clear();
+
+         int n = 0;
+         for (Iterator<String> keys = tags.keys(); keys.hasNext(); ) {
+            if (n == nextLayout_.length) {
+               nextLayout_ = Arrays.copyOf(nextLayout_, n * 2);
+            }
+            nextLayout_[n++] = keyId(keys.next());
+         }
+         boolean sameLayout = !keyFrame_ && n == layout_.length
+               && equalPrefix(layout_, nextLayout_, n);
+         if (!sameLayout) {
+            layout_ = Arrays.copyOf(nextLayout_, n);
+         }
+
+         // Values go to body_ first, as they may add keys to newKeys_
+         body_.len = 0;
+         int changes = 0;
+         int skip = 0;
+         for (int i = 0; i < n; ++i) {
+            int id = layout_[i];
+            Object value = tags.opt(keys_.get(id));
+            Object last = lastValues_[id];
+            if (!keyFrame_ && last != null && isImmutable(value) && value.equals(last)) {
+               ++skip;
+               continue;
+            }
+            body_.putVarint(skip);
+            writeValue(body_, value, last);
+            lastValues_[id] = value;
+            skip = 0;
+            ++changes;
+         }
+
+         out_.len = 0;
+         out_.put((keyFrame_ ? KEY_FRAME : 0) | (sameLayout ? SAME_LAYOUT : 0));
+         out_.putVarint(newKeys_.size());
+         for (String key : newKeys_) {
+            out_.putString(key);
+         }
+         if (!sameLayout) {
+            out_.putVarint(n);
+            for (int i = 0; i < n; ++i) {
+               out_.putVarint(layout_[i]);
+            }
+         }
+         out_.putVarint(changes);
+         out_.put(body_.buf, body_.len);
+         keyFrame_ = false;
+      }
+
+      private int keyId(String key) {
+         Integer id = keyIds_.get(key);
+         if (id != null) {
+            return id;
+         }
+         int newId = keyIds_.size();
+         keyIds_.put(key, newId);
+         keys_.add(key);
+         newKeys_.add(key);
+         if (newId == lastValues_.length) {
+            lastValues_ = Arrays.copyOf(lastValues_, newId * 2);
+         }
+         return newId;
+      }
+
+      private void writeValue(Bytes b, Object value, Object last)
+            throws JSONException {
+         if (value == null || value.equals(null)) {
+            b.put(NULL);
+         } else if (value instanceof Boolean) {
+            b.put(((Boolean) value).booleanValue() ? TRUE : FALSE);
+         } else if (value instanceof Integer || value instanceof Long) {
+            long v = ((Number) value).longValue();
+            if (last != null && last.getClass() == value.getClass()) {
+               long delta = v - ((Number) last).longValue();
+               if (Math.abs(delta) < Math.abs(v)) {
+                  b.put(ADD);
+                  b.putVarint(zigzag(delta));
+                  return;
+               }
+            }
+            b.put(value instanceof Integer ? INT : LONG);
+            b.putVarint(zigzag(v));
+         } else if (value instanceof Number) {
+            b.put(DOUBLE);
+            long bits = Double.doubleToRawLongBits(((Number) value).doubleValue());
+            for (int i = 0; i < 8; ++i) {
+               b.put((int) (bits >>> (8 * i)));
+            }
+         } else if (value instanceof JSONObject) {
+            JSONObject jo = (JSONObject) value;
+            b.put(OBJECT);
+            b.putVarint(jo.length());
+            for (Iterator<String> keys = jo.keys(); keys.hasNext(); ) {
+               String key = keys.next();
+               b.putVarint(keyId(key));
+               writeValue(b, jo.opt(key), null);
+            }
+         } else if (value instanceof JSONArray) {
+            JSONArray ja = (JSONArray) value;
+            b.put(ARRAY);
+            b.putVarint(ja.length());
+            for (int i = 0; i < ja.length(); ++i) {
+               writeValue(b, ja.opt(i), null);
+            }
+         } else {
+            b.put(STRING);
+            b.putString(value.toString());
+         }
+      }
+   }
+
+   /**
+    * Decodes the records made by an Encoder.
+    */
+   public static final class Decoder {
+      private final List<String> keys_ = new ArrayList<String>();
+      private Object[] lastValues_ = new Object[64]; // By key id
+      private int[] layout_ = new int[0];
+      private boolean started_;
+
+      /**
+       * Forgets the previous records. Not needed before a key frame, which
+       * resets the decoder itself.
+       * @return this
+       */
+      public Decoder reset() {
+         keys_.clear();
+         Arrays.fill(lastValues_, null);
+         layout_ = new int[0];
+         started_ = false;
+         return this;
+      }
+
+      /**
+       * Decodes a record.
+       */
+      public JSONObject decode(byte[] record) throws JSONException {
+         return decode(ByteBuffer.wrap(record));
+      }
+
+      /**
+       * Decodes a record starting at the position of src, and advances the
+       * position past the record.
+       * @throws JSONException if the record is malformed, or is not a key
+       * frame and the preceding records were not decoded
+       */
+      public JSONObject decode(ByteBuffer src) throws JSONException {
+         try {
+            return decodeRecord(src);
+         } catch (BufferUnderflowException e) {
+            throw new JSONException("Truncated tags record");
+         } catch (IndexOutOfBoundsException e) {
+            throw new JSONException("Invalid key in tags record");
+         }
+      }
+
+      private JSONObject decodeRecord(ByteBuffer src) throws JSONException {
+         int flags = src.get() & 0xff;
+         if ((flags & ~(KEY_FRAME | SAME_LAYOUT)) != 0) {
+            throw new JSONException("Unsupported tags record");
+         }
+         if ((flags & KEY_FRAME) != 0) {
+            reset();
+         } else if (!started_) {
+            throw new JSONException(
+                  "Tags record depends on records that were not decoded");
+         }
+         started_ = true;
+
+         int newKeys = getCount(src);
+         for (int i = 0; i < newKeys; ++i) {
+            keys_.add(getString(src));
+         }
+         if (keys_.size() > lastValues_.length) {
+            lastValues_ = Arrays.copyOf(lastValues_,
+                  Math.max(keys_.size(), lastValues_.length * 2));
+         }
+         if ((flags & SAME_LAYOUT) == 0) {
+            int n = getCount(src);
+            layout_ = new int[n];
+            for (int i = 0; i < n; ++i) {
+               layout_[i] = checkKeyId(getVarint(src));
+            }
+         }
+
+         int changes = getCount(src);
+         long pos = -1;
+         for (int i = 0; i < changes; ++i) {
+            pos += 1 + getVarint(src);
+            if (pos < 0 || pos >= layout_.length) {
+               throw new JSONException("Invalid change in tags record");
+            }
+            int id = layout_[(int) pos];
+            lastValues_[id] = readValue(src, lastValues_[id]);
+         }
+
+         JSONObject tags = new JSONObject();
+         for (int id : layout_) {
+            Object value = lastValues_[id];
+            if (value == null) {
+               throw new JSONException("Missing value in tags record");
+            }
+            tags.put(keys_.get(id), value);
+         }
+         return tags;
+      }
+
+      private Object readValue(ByteBuffer src, Object last) throws JSONException {
+         int type = src.get() & 0xff;
+         switch (type) {
+            case NULL:
+               return JSONObject.NULL;
+            case FALSE:
+               return Boolean.FALSE;
+            case TRUE:
+               return Boolean.TRUE;
+            case INT:
+               return Integer.valueOf((int) unzigzag(getVarint(src)));
+            case LONG:
+               return Long.valueOf(unzigzag(getVarint(src)));
+            case ADD: {
+               long delta = unzigzag(getVarint(src));
+               if (last instanceof Integer) {
+                  return Integer.valueOf((int) (((Integer) last).intValue() + delta));
+               }
+               if (last instanceof Long) {
+                  return Long.valueOf(((Long) last).longValue() + delta);
+               }
+               throw new JSONException("Invalid delta in tags record");
+            }
+            case DOUBLE: {
+               long bits = 0;
+               for (int i = 0; i < 8; ++i) {
+                  bits |= (src.get() & 0xffL) << (8 * i);
+               }
+               return Double.valueOf(Double.longBitsToDouble(bits));
+            }
+            case STRING:
+               return getString(src);
+            case OBJECT: {
+               JSONObject jo = new JSONObject();
+               int n = getCount(src);
+               for (int i = 0; i < n; ++i) {
+                  String key = keys_.get(checkKeyId(getVarint(src)));
+                  jo.put(key, readValue(src, null));
+               }
+               return jo;
+            }
+            case ARRAY: {
+               JSONArray ja = new JSONArray();
+               int n = getCount(src);
+               for (int i = 0; i < n; ++i) {
+                  ja.put(readValue(src, null));
+               }
+               return ja;
+            }
+            default:
+               throw new JSONException("Invalid value type in tags record: " + type);
+         }
+      }
+
+      private int checkKeyId(long id) throws JSONException {
+         if (id >= keys_.size()) {
+            throw new JSONException("Invalid key in tags record");
+         }
+         return (int) id;
+      }
+
+      /**
+       * Reads the count of a list of items that take at least one byte each
+       * (so that a corrupt count cannot cause a huge allocation).
+       */
+      private static int getCount(ByteBuffer src) throws JSONException {
+         long n = getVarint(src);
+         if (n > src.remaining()) {
+            throw new JSONException("Invalid count in tags record");
+         }
+         return (int) n;
+      }
+
+      private static String getString(ByteBuffer src) throws JSONException {
+         int len = getCount(src);
+         String s;
+         if (src.hasArray()) {
+            s = new String(src.array(), src.arrayOffset() + src.position(), len,
+                  StandardCharsets.UTF_8);
+            src.position(src.position() + len);
+         } else {
+            byte[] bytes = new byte[len];
+            src.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+         }
+         return s;
+      }
+
+      private static long getVarint(ByteBuffer src) throws JSONException {
+         long v = 0;
+         for (int shift = 0; shift < 64; shift += 7) {
+            int b = src.get();
+            v |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+               return v;
+            }
+         }
+         throw new JSONException("Invalid varint in tags record");
+      }
+   }
+
+   /**
+    * Values that are compared with the last value of a key, rather than
+    * always being sent (JSONObjects and JSONArrays can be changed in place).
+    */
+   private static boolean isImmutable(Object value) {
+      return !(value instanceof JSONObject || value instanceof JSONArray);
+   }
+
+   private static boolean equalPrefix(int[] a, int[] b, int n) {
+      for (int i = 0; i < n; ++i) {
+         if (a[i] != b[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   static long zigzag(long v) {
+      return (v << 1) ^ (v >> 63);
+   }
+
+   static long unzigzag(long v) {
+      return (v >>> 1) ^ -(v & 1);
+   }
+
+   /**
+    * A growable byte array.
+    */
+   private static final class Bytes {
+      byte[] buf = new byte[256];
+      int len;
+
+      void put(int b) {
+         if (len == buf.length) {
+            buf = Arrays.copyOf(buf, len * 2);
+         }
+         buf[len++] = (byte) b;
+      }
+
+      void put(byte[] bytes, int n) {
+         if (len + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(len + n, len * 2));
+         }
+         System.arraycopy(bytes, 0, buf, len, n);
+         len += n;
+      }
+
+      void putVarint(long v) {
+         while ((v & ~0x7fL) != 0) {
+            put((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+         }
+         put((int) v);
+      }
+
+      void putString(String s) {
+         byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+         putVarint(bytes.length);
+         put(bytes, bytes.length);
+      }
+   }
+
+   private TagsCodec() {
+   }
+}
@@ -0,0 +1,354 @@
+package mmcorej.org.json;
+
+import java.util.Iterator;
+
+/**
+ * A JSONObject that can be read and changed by any number of threads without
+ * external locking, e.g. summary metadata shared by the threads of an
+ * acquisition pipeline.
+ * <p>
+ * The contents are a frozen JSONObject (see <code>freeze</code>), which is
+ * replaced as a whole on every change. Reads go to the current contents
+ * without locking, and each read sees the contents as of some completed
+ * change; <code>keys</code>, <code>toString</code> and <code>write</code>
+ * see a single consistent version. Changes are serialized: each one makes
+ * an overlay of the current contents, applies the change and publishes the
+ * overlay frozen, which takes time proportional to the number of keys. This
+ * suits objects that are read much more often than they are changed. Each
+ * change, including <code>accumulate</code>, is atomic; use
+ * <code>update</code> to make several changes atomically.
+ * <p>
+ * JSONObject values are frozen when put, so that readers can share them;
+ * to change one, put a changed copy. JSONArray values should not be changed
+ * once put (<code>accumulate</code> copies the array it appends to).
+ * <p>
+ * <code>freeze</code> returns the current contents, which can be used as a
+ * consistent snapshot or as the base of an overlay, and leaves this object
+ * changeable.
+ */
+public class ConcurrentJSONObject extends JSONObject {
+
+    /**
+     * A change to apply atomically with <code>update</code>.
+     */
+    public interface Update {
+        void apply(JSONObject jo) throws JSONException;
+    }
+
+
+    private static final JSONObject EMPTY = new JSONObject().freeze();
+
+
+    /**
+     * The current contents, always frozen.
+     */
+    private volatile JSONObject contents;
+
+
+    /**
+     * Construct an empty ConcurrentJSONObject.
+     */
+    public ConcurrentJSONObject() {
+        super(0);
+        this.contents = EMPTY;
+    }
+
+
+    /**
+     * Construct a ConcurrentJSONObject with the contents of a JSONObject,
+     * without copying them. The JSONObject is frozen.
+     * @param jo A JSONObject.
+     */
+    public ConcurrentJSONObject(JSONObject jo) {
+        super(0);
+        this.contents = jo.freeze();
+    }
+
+
+    /**
+     * Construct a ConcurrentJSONObject from a string.
+     * @param string A JSON object text.
+     * @exception JSONException If there is a syntax error in the source string.
+     */
+    public ConcurrentJSONObject(String string) throws JSONException {
+        this(new JSONObject(string));
+    }
+
+
+    /**
+     * Apply a change atomically: the change is made to an overlay of the
+     * current contents, which replaces them if the change returns normally.
+     * Readers see either none or all of the change. Other changes wait until
+     * it is done, so it should not block.
+     * @param update The change.
+     * @return this.
+     * @throws JSONException If the change throws it; the contents are then
+     *  unchanged.
+     */
+    public synchronized ConcurrentJSONObject update(Update update)
+            throws JSONException {
+        JSONObject next = JSONObject.overlay(this.contents);
+        update.apply(next);
+        this.contents = next.freeze();
+        return this;
+    }
+
+
+    /**
+     * Get the current contents, frozen. Later changes to this object do not
+     * affect them.
+     * @return The contents.
+     */
+    public JSONObject freeze() {
+        return this.contents;
+    }
+
+
+    /**
+     * A ConcurrentJSONObject is never frozen; see <code>freeze</code>.
+     * @return false.
+     */
+    public boolean isFrozen() {
+        return false;
+    }
+
+
+    // Changes
+
+    public synchronized JSONObject accumulate(String key, Object value)
+            throws JSONException {
+        Object o = this.contents.opt(key);
+        if (o instanceof JSONArray) {
+            testValidity(value);
+            JSONArray old = (JSONArray)o;
+            JSONArray ja = new JSONArray();
+            for (int i = 0; i < old.length(); i += 1) {
+                ja.put(old.opt(i));
+            }
+            return put(key, ja.put(value));
+        }
+        return update(jo -> jo.accumulate(key, value));
+    }
+
+
+    public JSONObject clear() {
+        return reset(null);
+    }
+
+
+    /**
+     * Replace the contents with those of a base JSONObject, without copying
+     * them. The base is frozen.
+     * @param base The base JSONObject, or null to remove all keys.
+     * @return this.
+     */
+    public synchronized JSONObject reset(JSONObject base) {
+        this.contents = base == null ? EMPTY : base.freeze();
+        return this;
+    }
+
+
+    public void ensureCapacity(int capacity) {
+    }
+
+
+    public JSONObject put(String key, boolean value) throws JSONException {
+        return update(jo -> jo.put(key, value));
+    }
+
+
+    public JSONObject put(String key, double value) throws JSONException {
+        return update(jo -> jo.put(key, value));
+    }
+
+
+    public JSONObject put(String key, int value) throws JSONException {
+        return update(jo -> jo.put(key, value));
+    }
+
+
+    public JSONObject put(String key, long value) throws JSONException {
+        return update(jo -> jo.put(key, value));
+    }
+
+
+    public JSONObject put(String key, Object value) throws JSONException {
+        return update(jo -> jo.put(key, value));
+    }
+
+
+    public JSONObject putOpt(String key, Object value) throws JSONException {
+        if (key != null && value != null) {
+            put(key, value);
+        }
+        return this;
+    }
+
+
+    public synchronized Object remove(String key) {
+        Object o = this.contents.opt(key);
+        if (o != null) {
+            JSONObject next = JSONObject.overlay(this.contents);
+            next.remove(key);
+            this.contents = next.freeze();
+        }
+        return o;
+    }
+
+
+    // Reads, from the current contents
+
+    public Object get(String key) throws JSONException {
+        return this.contents.get(key);
+    }
+
+
+    public boolean getBoolean(String key) throws JSONException {
+        return this.contents.getBoolean(key);
+    }
+
+
+    public double getDouble(String key) throws JSONException {
+        return this.contents.getDouble(key);
+    }
+
+
+    public int getInt(String key) throws JSONException {
+        return this.contents.getInt(key);
+    }
+
+
+    public JSONArray getJSONArray(String key) throws JSONException {
+        return this.contents.getJSONArray(key);
+    }
+
+
+    public JSONObject getJSONObject(String key) throws JSONException {
+        return this.contents.getJSONObject(key);
+    }
+
+
+    public long getLong(String key) throws JSONException {
+        return this.contents.getLong(key);
+    }
+
+
+    public String getString(String key) throws JSONException {
+        return this.contents.getString(key);
+    }
+
+
+    public boolean has(String key) {
+        return this.contents.has(key);
+    }
+
+
+    public boolean isNull(String key) {
+        return this.contents.isNull(key);
+    }
+
+
+    public Iterator<String> keys() {
+        return this.contents.keys();
+    }
+
+
+    public int length() {
+        return this.contents.length();
+    }
+
+
+    public JSONArray names() {
+        return this.contents.names();
+    }
+
+
+    public Object opt(String key) {
+        return this.contents.opt(key);
+    }
+
+
+    public boolean optBoolean(String key) {
+        return this.contents.optBoolean(key);
+    }
+
+
+    public boolean optBoolean(String key, boolean defaultValue) {
+        return this.contents.optBoolean(key, defaultValue);
+    }
+
+
+    public double optDouble(String key) {
+        return this.contents.optDouble(key);
+    }
+
+
+    public double optDouble(String key, double defaultValue) {
+        return this.contents.optDouble(key, defaultValue);
+    }
+
+
+    public int optInt(String key) {
+        return this.contents.optInt(key);
+    }
+
+
+    public int optInt(String key, int defaultValue) {
+        return this.contents.optInt(key, defaultValue);
+    }
+
+
+    public JSONArray optJSONArray(String key) {
+        return this.contents.optJSONArray(key);
+    }
+
+
+    public JSONObject optJSONObject(String key) {
+        return this.contents.optJSONObject(key);
+    }
+
+
+    public long optLong(String key) {
+        return this.contents.optLong(key);
+    }
+
+
+    public long optLong(String key, long defaultValue) {
+        return this.contents.optLong(key, defaultValue);
+    }
+
+
+    public String optString(String key) {
+        return this.contents.optString(key);
+    }
+
+
+    public String optString(String key, String defaultValue) {
+        return this.contents.optString(key, defaultValue);
+    }
+
+
+    public JSONArray toJSONArray(JSONArray names) throws JSONException {
+        return this.contents.toJSONArray(names);
+    }
+
+
+    public String toString() {
+        return this.contents.toString();
+    }
+
+
+    public String toString(int indentFactor) throws JSONException {
+        return this.contents.toString(indentFactor);
+    }
+
+
+    String toString(int indentFactor, int indent) throws JSONException {
+        return this.contents.toString(indentFactor, indent);
+    }
+
+
+    public Appendable write(Appendable out) throws JSONException {
+        return this.contents.write(out);
+    }
+}
@@ -26,7 +26,6 @@ SOFTWARE.
 
 import java.io.IOException;
 import java.io.Writer;
-import java.util.ArrayList;
 import java.util.Collection;
 
 /**
@@ -83,16 +82,16 @@ public class JSONArray {
 
 
     /**
-     * The arrayList where the JSONArray's properties are kept.
+     * The elements, with numbers kept unboxed.
      */
-    private ArrayList<Object> myArrayList;
+    private ValueSlots myValues;
 
 
     /**
      * Construct an empty JSONArray.
      */
     public JSONArray() {
-        this.myArrayList = new ArrayList<Object>();
+        this.myValues = new ValueSlots(10);
     }
 
     /**
@@ -112,10 +111,10 @@ public class JSONArray {
         for (;;) {
             if (x.nextClean() == ',') {
                 x.back();
-                this.myArrayList.add(null);
+                put((Object) null);
             } else {
                 x.back();
-                this.myArrayList.add(x.nextValue());
+                put(x.nextValue());
             }
             switch (x.nextClean()) {
             case ';':
@@ -151,7 +150,10 @@ public class JSONArray {
      * @param collection     A Collection.
      */
     public JSONArray(Collection<?> collection) {
-        this.myArrayList = new ArrayList<Object>(collection);
+        this.myValues = new ValueSlots(collection.size());
+        for (Object o : collection) {
+            put(o);
+        }
     }
 
 
@@ -204,6 +206,9 @@ public class JSONArray {
      *  be converted to a number.
      */
     public double getDouble(int index) throws JSONException {
+        if (isNumber(index)) {
+            return this.myValues.doubleValue(index);
+        }
         Object o = get(index);
         try {
             return o instanceof Number ?
@@ -225,6 +230,9 @@ public class JSONArray {
      *  if the value cannot be converted to a number.
      */
     public int getInt(int index) throws JSONException {
+        if (isNumber(index)) {
+            return this.myValues.intValue(index);
+        }
         Object o = get(index);
         return o instanceof Number ?
                 ((Number)o).intValue() : (int)getDouble(index);
@@ -274,6 +282,9 @@ public class JSONArray {
      *  be converted to a number.
      */
     public long getLong(int index) throws JSONException {
+        if (isNumber(index)) {
+            return this.myValues.longValue(index);
+        }
         Object o = get(index);
         return o instanceof Number ?
                 ((Number)o).longValue() : (long)getDouble(index);
@@ -317,7 +328,7 @@ public class JSONArray {
             if (i > 0) {
                 sb.append(separator);
             }
-            sb.append(JSONObject.valueToString(this.myArrayList.get(i)));
+            sb.append(JSONObject.valueToString(this.myValues.get(i)));
         }
         return sb.toString();
     }
@@ -329,7 +340,7 @@ public class JSONArray {
      * @return The length (or size).
      */
     public int length() {
-        return this.myArrayList.size();
+        return this.myValues.size();
     }
 
 
@@ -341,7 +352,15 @@ public class JSONArray {
      */
     public Object opt(int index) {
         return (index < 0 || index >= length()) ?
-            null : this.myArrayList.get(index);
+            null : this.myValues.get(index);
+    }
+
+
+    /**
+     * Determine whether the element at an index is a number kept unboxed.
+     */
+    private boolean isNumber(int index) {
+        return index >= 0 && index < length() && this.myValues.isNumber(index);
     }
 
 
@@ -540,9 +559,8 @@ public class JSONArray {
      * @return this.
      */
     public JSONArray put(double value) throws JSONException {
-        Double d = new Double(value);
-        JSONObject.testValidity(d);
-        put(d);
+        JSONObject.testValidity(value);
+        this.myValues.setDouble(this.myValues.add(), value);
         return this;
     }
 
@@ -554,7 +572,7 @@ public class JSONArray {
      * @return this.
      */
     public JSONArray put(int value) {
-        put(new Integer(value));
+        this.myValues.setInt(this.myValues.add(), value);
         return this;
     }
 
@@ -566,7 +584,7 @@ public class JSONArray {
      * @return this.
      */
     public JSONArray put(long value) {
-        put(new Long(value));
+        this.myValues.setLong(this.myValues.add(), value);
         return this;
     }
 
@@ -579,7 +597,7 @@ public class JSONArray {
      * @return this.
      */
     public JSONArray put(Object value) {
-        this.myArrayList.add(value);
+        this.myValues.set(this.myValues.add(), value);
         return this;
     }
 
@@ -610,7 +628,8 @@ public class JSONArray {
      * not finite.
      */
     public JSONArray put(int index, double value) throws JSONException {
-        put(index, new Double(value));
+        JSONObject.testValidity(value);
+        this.myValues.setDouble(slot(index), value);
         return this;
     }
 
@@ -625,7 +644,7 @@ public class JSONArray {
      * @throws JSONException If the index is negative.
      */
     public JSONArray put(int index, int value) throws JSONException {
-        put(index, new Integer(value));
+        this.myValues.setInt(slot(index), value);
         return this;
     }
 
@@ -640,7 +659,7 @@ public class JSONArray {
      * @throws JSONException If the index is negative.
      */
     public JSONArray put(int index, long value) throws JSONException {
-        put(index, new Long(value));
+        this.myValues.setLong(slot(index), value);
         return this;
     }
 
@@ -657,18 +676,24 @@ public class JSONArray {
      */
     public JSONArray put(int index, Object value) throws JSONException {
         JSONObject.testValidity(value);
+        this.myValues.set(slot(index), value);
+        return this;
+    }
+
+
+    /**
+     * Get the slot for an index, padding the array with null elements if
+     * necessary.
+     * @throws JSONException If the index is negative.
+     */
+    private int slot(int index) throws JSONException {
         if (index < 0) {
             throw new JSONException("JSONArray[" + index + "] not found.");
         }
-        if (index < length()) {
-            this.myArrayList.set(index, value);
-        } else {
-            while (index != length()) {
-                put(null);
-            }
-            put(value);
+        while (index >= length()) {
+            this.myValues.add();
         }
-        return this;
+        return index;
     }
 
 
@@ -747,7 +772,7 @@ public class JSONArray {
         int i;
         StringBuffer sb = new StringBuffer("[");
         if (len == 1) {
-            sb.append(JSONObject.valueToString(this.myArrayList.get(0),
+            sb.append(JSONObject.valueToString(this.myValues.get(0),
                     indentFactor, indent));
         } else {
             int newindent = indent + indentFactor;
@@ -759,7 +784,7 @@ public class JSONArray {
                 for (int j = 0; j < newindent; j += 1) {
                     sb.append(' ');
                 }
-                sb.append(JSONObject.valueToString(this.myArrayList.get(i),
+                sb.append(JSONObject.valueToString(this.myValues.get(i),
                         indentFactor, newindent));
             }
             sb.append('\n');
@@ -782,28 +807,33 @@ public class JSONArray {
      * @throws JSONException
      */
     public Writer write(Writer writer) throws JSONException {
-        try {
-            boolean b = false;
-            int     len = length();
+        write((Appendable) writer);
+        return writer;
+    }
 
-            writer.write('[');
 
+    /**
+     * Write the contents of the JSONArray as JSON text to an Appendable,
+     * such as a StringBuilder or a {@link JSONEncoder}.
+     * <p>
+     * Warning: This method assumes that the data structure is acyclical.
+     *
+     * @return The Appendable.
+     * @throws JSONException If the array contains an invalid number or
+     *  the Appendable throws an IOException.
+     */
+    public Appendable write(Appendable out) throws JSONException {
+        try {
+            int len = length();
+            out.append('[');
             for (int i = 0; i < len; i += 1) {
-                if (b) {
-                    writer.write(',');
-                }
-                Object v = this.myArrayList.get(i);
-                if (v instanceof JSONObject) {
-                    ((JSONObject)v).write(writer);
-                } else if (v instanceof JSONArray) {
-                    ((JSONArray)v).write(writer);
-                } else {
-                    writer.write(JSONObject.valueToString(v));
+                if (i > 0) {
+                    out.append(',');
                 }
-                b = true;
+                this.myValues.write(i, out);
             }
-            writer.write(']');
-            return writer;
+            out.append(']');
+            return out;
         } catch (IOException e) {
            throw new JSONException(e);
         }
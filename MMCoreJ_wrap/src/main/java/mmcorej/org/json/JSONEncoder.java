@@ -0,0 +1,362 @@
+package mmcorej.org.json;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * JSONEncoder serializes JSONObjects and JSONArrays into a reusable character
+ * buffer, producing the same text as <code>toString()</code> without building
+ * intermediate strings for keys, string values or integers.
+ * <p>
+ * An encoder is meant to be kept and reused, e.g. for the metadata of every
+ * image written to a file:
+ * <pre>
+ * encoder.reset().encode(tags);
+ * utf8 = encoder.toUTF8(utf8);
+ * </pre>
+ * Once the buffer has grown to fit the largest text, encoding allocates
+ * nothing except when formatting non-integer numbers.
+ * <p>
+ * The static write methods are also used by
+ * <code>JSONObject.write(Appendable)</code> and
+ * <code>JSONArray.write(Appendable)</code>, for streaming to any Appendable.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class JSONEncoder implements Appendable {
+
+    private char[] buf;
+    private int len;
+
+
+    /**
+     * Construct an empty encoder.
+     */
+    public JSONEncoder() {
+        this(1024);
+    }
+
+
+    /**
+     * Construct an empty encoder.
+     * @param capacity The initial buffer size, in characters.
+     */
+    public JSONEncoder(int capacity) {
+        this.buf = new char[Math.max(capacity, 16)];
+    }
+
+
+    /**
+     * Discard the encoded text, keeping the buffer for reuse.
+     * @return this.
+     */
+    public JSONEncoder reset() {
+        this.len = 0;
+        return this;
+    }
+
+
+    /**
+     * Append the JSON text of a value: a JSONObject, JSONArray, String,
+     * Number, Boolean or <code>JSONObject.NULL</code>.
+     * @param value The value to encode.
+     * @return this.
+     * @throws JSONException If the value is or contains an invalid number.
+     */
+    public JSONEncoder encode(Object value) throws JSONException {
+        try {
+            writeValue(value, this);
+        } catch (IOException e) {
+            throw new JSONException(e); // Not thrown by this Appendable
+        }
+        return this;
+    }
+
+
+    /**
+     * Get the number of characters encoded.
+     */
+    public int length() {
+        return this.len;
+    }
+
+
+    /**
+     * Get the buffer holding the encoded text, which is valid up to
+     * <code>length()</code>. The buffer is reused and may be replaced when
+     * more text is appended.
+     */
+    public char[] buffer() {
+        return this.buf;
+    }
+
+
+    /**
+     * Write the encoded text to an Appendable (e.g. a Writer).
+     * @param out The destination.
+     * @throws IOException If out throws.
+     */
+    public void writeTo(Appendable out) throws IOException {
+        if (out instanceof java.io.Writer) {
+            ((java.io.Writer) out).write(this.buf, 0, this.len);
+        } else {
+            out.append(java.nio.CharBuffer.wrap(this.buf, 0, this.len));
+        }
+    }
+
+
+    /**
+     * Encode the text as UTF-8.
+     * @param dst A buffer to reuse, or null. It is used (from position 0) if
+     *  its capacity suffices; otherwise a new buffer is allocated.
+     * @return The buffer holding the bytes, from position 0 to its limit.
+     */
+    public ByteBuffer toUTF8(ByteBuffer dst) {
+        int n = utf8Length();
+        if (dst == null || dst.capacity() < n) {
+            dst = ByteBuffer.allocate(Math.max(n, dst == null ? 0 :
+                    dst.capacity() + (dst.capacity() >> 1)));
+        }
+        dst.clear();
+        char[] b = this.buf;
+        for (int i = 0; i < this.len; i += 1) {
+            char c = b[i];
+            if (c < 0x80) {
+                dst.put((byte) c);
+            } else if (c < 0x800) {
+                dst.put((byte) (0xc0 | (c >> 6)));
+                dst.put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < this.len &&
+                    Character.isLowSurrogate(b[i + 1])) {
+                int cp = Character.toCodePoint(c, b[i + 1]);
+                i += 1;
+                dst.put((byte) (0xf0 | (cp >> 18)));
+                dst.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+                dst.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+                dst.put((byte) (0x80 | (cp & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                dst.put((byte) '?'); // Unpaired, as String.getBytes() does
+            } else {
+                dst.put((byte) (0xe0 | (c >> 12)));
+                dst.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                dst.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+        dst.flip();
+        return dst;
+    }
+
+
+    private int utf8Length() {
+        int n = this.len;
+        char[] b = this.buf;
+        for (int i = 0; i < this.len; i += 1) {
+            char c = b[i];
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    n += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < this.len &&
+                        Character.isLowSurrogate(b[i + 1])) {
+                    n += 2; // 4 bytes for 2 chars
+                    i += 1;
+                } else if (!Character.isSurrogate(c)) {
+                    n += 2;
+                }
+            }
+        }
+        return n;
+    }
+
+
+    /**
+     * Get the encoded text as a String.
+     */
+    public String toString() {
+        return new String(this.buf, 0, this.len);
+    }
+
+
+    public JSONEncoder append(char c) {
+        if (this.len == this.buf.length) {
+            grow(1);
+        }
+        this.buf[this.len++] = c;
+        return this;
+    }
+
+
+    public JSONEncoder append(CharSequence s) {
+        return s == null ? append("null", 0, 4) : append(s, 0, s.length());
+    }
+
+
+    public JSONEncoder append(CharSequence s, int start, int end) {
+        if (s == null) {
+            s = "null";
+        }
+        int n = end - start;
+        if (this.len + n > this.buf.length) {
+            grow(n);
+        }
+        if (s instanceof String) {
+            ((String) s).getChars(start, end, this.buf, this.len);
+            this.len += n;
+        } else {
+            for (int i = start; i < end; i += 1) {
+                this.buf[this.len++] = s.charAt(i);
+            }
+        }
+        return this;
+    }
+
+
+    private void appendLong(long v) {
+        if (v == Long.MIN_VALUE) {
+            append(Long.toString(v));
+            return;
+        }
+        if (this.len + 20 > this.buf.length) {
+            grow(20);
+        }
+        if (v < 0) {
+            this.buf[this.len++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long t = v; t >= 10; t /= 10) {
+            digits += 1;
+        }
+        int i = this.len + digits;
+        this.len = i;
+        do {
+            this.buf[--i] = (char) ('0' + (int) (v % 10));
+            v /= 10;
+        } while (v != 0);
+    }
+
+
+    private void grow(int extra) {
+        char[] b = new char[Math.max(this.buf.length * 2, this.len + extra)];
+        System.arraycopy(this.buf, 0, b, 0, this.len);
+        this.buf = b;
+    }
+
+
+    /**
+     * Write the JSON text of a value, as <code>JSONObject.valueToString</code>
+     * would produce it, without intermediate strings.
+     */
+    static void writeValue(Object value, Appendable out)
+            throws JSONException, IOException {
+        if (value == null || value.equals(null)) {
+            out.append("null");
+        } else if (value instanceof String) {
+            writeQuoted((String) value, out);
+        } else if (value instanceof Number) {
+            writeNumber((Number) value, out);
+        } else if (value instanceof Boolean) {
+            out.append(((Boolean) value).booleanValue() ? "true" : "false");
+        } else if (value instanceof JSONObject) {
+            ((JSONObject) value).write(out);
+        } else if (value instanceof JSONArray) {
+            ((JSONArray) value).write(out);
+        } else {
+            writeQuoted(value.toString(), out);
+        }
+    }
+
+
+    static void writeNumber(Number n, Appendable out)
+            throws JSONException, IOException {
+        if (n instanceof Integer || n instanceof Long ||
+                n instanceof Short || n instanceof Byte) {
+            writeLong(n.longValue(), out);
+        } else if (n instanceof Double) {
+            writeDouble(n.doubleValue(), out);
+        } else {
+            out.append(JSONObject.numberToString(n));
+        }
+    }
+
+
+    static void writeLong(long v, Appendable out) throws IOException {
+        if (out instanceof JSONEncoder) {
+            ((JSONEncoder) out).appendLong(v);
+        } else {
+            out.append(Long.toString(v));
+        }
+    }
+
+
+    static void writeDouble(double d, Appendable out)
+            throws JSONException, IOException {
+        JSONObject.testValidity(d);
+        NumberText.appendDouble(d, out);
+    }
+
+
+    /**
+     * Write a string in double quotes with the same escaping as
+     * <code>JSONObject.quote</code>. Runs of characters that need no
+     * escaping are appended in one call.
+     */
+    static void writeQuoted(String string, Appendable out) throws IOException {
+        out.append('"');
+        if (string == null) {
+            out.append('"');
+            return;
+        }
+        int len = string.length();
+        int start = 0;
+        char c = 0;
+        for (int i = 0; i < len; i += 1) {
+            char b = c;
+            c = string.charAt(i);
+            String escape;
+            switch (c) {
+            case '\\':
+                escape = "\\\\";
+                break;
+            case '"':
+                escape = "\\\"";
+                break;
+            case '/':
+                escape = b == '<' ? "\\/" : null;
+                break;
+            case '\b':
+                escape = "\\b";
+                break;
+            case '\t':
+                escape = "\\t";
+                break;
+            case '\n':
+                escape = "\\n";
+                break;
+            case '\f':
+                escape = "\\f";
+                break;
+            case '\r':
+                escape = "\\r";
+                break;
+            default:
+                escape = null;
+                if (c < ' ') {
+                    out.append(string, start, i);
+                    out.append("\\u00");
+                    out.append(HEX[c >> 4]);
+                    out.append(HEX[c & 0xf]);
+                    start = i + 1;
+                }
+            }
+            if (escape != null) {
+                out.append(string, start, i);
+                out.append(escape);
+                start = i + 1;
+            }
+        }
+        out.append(string, start, len);
+        out.append('"');
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+}
@@ -26,9 +26,9 @@ SOFTWARE.
 
 import java.io.IOException;
 import java.io.Writer;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * A JSONObject is an unordered collection of name/value pairs. Its
@@ -124,9 +124,80 @@ public class JSONObject {
 
 
     /**
-     * The hash map where the JSONObject's properties are kept.
+     * Supplies the contents of a JSONObject created with
+     * {@link #JSONObject(Deferred)}. It is called at most once, the first time
+     * the object is accessed, and should add the contents using
+     * <code>put</code>.
      */
-    private HashMap<String, Object> myHashMap;
+    public interface Deferred {
+        void populate(JSONObject jo);
+    }
+
+
+    /**
+     * Objects with more slots than this are compacted when over half of the
+     * slots are empty.
+     */
+    private static final int MIN_COMPACT_SLOTS = 8;
+
+
+    /**
+     * The keys, by slot, in the order in which they were first put. Shapes
+     * are shared by objects with the same keys, so an object itself only
+     * holds its values. The value for a key is in the same slot of
+     * myValues. A removed key keeps its slot, with no value, until the
+     * slots are compacted.
+     */
+    private Shape myShape;
+
+
+    /**
+     * The values, by slot.
+     */
+    private ValueSlots myValues;
+
+
+    /**
+     * The number of keys that have a value, including those seen through
+     * myBase.
+     */
+    private int myCount;
+
+
+    /**
+     * The frozen object that this object overlays, or null. Own slots hold
+     * only the keys put or removed since the overlay was created: a value
+     * overrides the base, REMOVED hides the base key, and a key with no own
+     * slot is looked up in the base.
+     */
+    private JSONObject myBase;
+
+
+    /**
+     * True once the object has been frozen; it can then no longer change.
+     */
+    private boolean myFrozen;
+
+
+    /**
+     * Held in an own slot of an overlay for a base key that was removed.
+     */
+    private static final Object REMOVED = new Object();
+
+
+    /**
+     * Returned by find() for a key that is not in the own slots of an
+     * overlay, and may be in its base.
+     */
+    private static final int INHERITED = -2;
+
+
+    /**
+     * Non-null until the deferred contents have been populated. Written only
+     * after the slots hold the contents, so that readers seeing null also see
+     * the populated slots.
+     */
+    private volatile Deferred deferred;
 
 
     /**
@@ -142,7 +213,31 @@ public class JSONObject {
      * Construct an empty JSONObject.
      */
     public JSONObject() {
-        this.myHashMap = new HashMap<String, Object>();
+        this(8);
+    }
+
+
+    /**
+     * Construct an empty JSONObject with room for a number of keys, so that
+     * putting that many does not have to grow it. Use this when the number
+     * of keys is known or can be estimated, e.g. from the previous object of
+     * the same kind.
+     * @param capacity The expected number of keys.
+     */
+    public JSONObject(int capacity) {
+        this.myShape = Shape.EMPTY;
+        this.myValues = new ValueSlots(capacity);
+    }
+
+
+    /**
+     * Construct a JSONObject whose contents are produced on first access.
+     * This avoids the cost of building objects that may never be read.
+     * @param deferred Supplies the contents.
+     */
+    public JSONObject(Deferred deferred) {
+        this();
+        this.deferred = deferred;
     }
 
 
@@ -199,7 +294,9 @@ public class JSONObject {
             } else if (c != ':') {
                 throw x.syntaxError("Expected a ':' after a key");
             }
-            this.myHashMap.put(key, x.nextValue());
+            Object value = x.nextValue();
+            int i = slotFor(key);
+            this.myValues.set(i, value);
 
             /*
              * Pairs are separated by ','. We will also tolerate ';'.
@@ -228,7 +325,13 @@ public class JSONObject {
      *  the JSONObject.
      */
     public JSONObject(Map<String, ?> map) {
-        this.myHashMap = new HashMap<String, Object>(map);
+        this();
+        for (Map.Entry<String, ?> e : map.entrySet()) {
+            if (e.getKey() != null && e.getValue() != null) {
+                int i = slotFor(e.getKey());
+                this.myValues.set(i, e.getValue());
+            }
+        }
     }
 
 
@@ -245,6 +348,109 @@ public class JSONObject {
     }
 
 
+    /**
+     * Construct a JSONObject that starts with the contents of a base
+     * JSONObject, without copying them. The base is frozen (see
+     * <code>freeze</code>) so that any number of overlays can share it. An
+     * overlay only stores the keys that are put or removed in it, so it is
+     * created in constant time and its size grows with its differences from
+     * the base, not with the size of the base. In every other respect it
+     * behaves like a copy of the base: keys that are in the base come first,
+     * in the base's order, followed by keys that were added.
+     * <p>
+     * This suits the tags of images, most of which are the same for every
+     * image of an acquisition.
+     * @param base The base JSONObject.
+     * @return A new JSONObject.
+     */
+    public static JSONObject overlay(JSONObject base) {
+        return new JSONObject().reset(base);
+    }
+
+
+    /**
+     * Remove all keys, so that the JSONObject can be reused. The storage
+     * for the values is kept, so that an object that is refilled with about
+     * as many keys each time stops allocating. An overlay becomes a plain
+     * empty JSONObject, and deferred contents that have not been populated
+     * are dropped.
+     * @return this.
+     * @throws UnsupportedOperationException If the JSONObject is frozen.
+     */
+    public JSONObject clear() {
+        return reset(null);
+    }
+
+
+    /**
+     * Remove all keys, as with <code>clear</code>, and make this JSONObject
+     * an overlay of a base JSONObject (see <code>overlay</code>). This reuses
+     * the object for the next of a series of overlays, e.g. for the tags of
+     * successive images.
+     * @param base The base JSONObject, or null for a plain empty JSONObject.
+     * @return this.
+     * @throws UnsupportedOperationException If the JSONObject is frozen.
+     */
+    public JSONObject reset(JSONObject base) {
+        checkNotFrozen();
+        this.deferred = null;
+        this.myShape = Shape.EMPTY;
+        this.myValues.truncate(0);
+        this.myBase = base == null ? null : base.freeze();
+        this.myCount = base == null ? 0 : this.myBase.myCount;
+        return this;
+    }
+
+
+    /**
+     * Make room for a number of own keys, so that putting that many does not
+     * have to grow the JSONObject.
+     * @param capacity The expected number of keys.
+     */
+    public void ensureCapacity(int capacity) {
+        populate();
+        this.myValues.ensureCapacity(capacity);
+    }
+
+
+    /**
+     * Make this JSONObject, and the JSONObjects nested in it, immutable, so
+     * that it can be shared between threads and serve as the base of
+     * overlays. Changing a frozen JSONObject throws an
+     * UnsupportedOperationException. JSONArrays in a frozen JSONObject are
+     * not frozen, and should not be changed. An overlay is flattened into a
+     * plain JSONObject when frozen.
+     * @return this (a ConcurrentJSONObject instead returns its current
+     *  contents, and stays changeable).
+     */
+    public JSONObject freeze() {
+        populate();
+        if (this.myFrozen) {
+            return this;
+        }
+        if (this.myBase != null) {
+            flatten();
+        }
+        for (int i = nextSlot(0); i >= 0; i = nextSlot(i + 1)) {
+            Object o = this.myValues.get(i);
+            if (o instanceof JSONObject) {
+                ((JSONObject)o).freeze();
+            }
+        }
+        this.myFrozen = true;
+        return this;
+    }
+
+
+    /**
+     * Determine whether this JSONObject has been frozen.
+     * @return true if the JSONObject can no longer be changed.
+     */
+    public boolean isFrozen() {
+        return this.myFrozen;
+    }
+
+
     /**
      * Accumulate values under a key. It is similar to the put method except
      * that if there is already an object stored under the key then a
@@ -321,6 +527,13 @@ public class JSONObject {
      *  if the value is not a Number object and cannot be converted to a number.
      */
     public double getDouble(String key) throws JSONException {
+        int i = find(key);
+        if (i == INHERITED) {
+            return this.myBase.getDouble(key);
+        }
+        if (i >= 0 && this.myValues.isNumber(i)) {
+            return this.myValues.doubleValue(i);
+        }
         Object o = get(key);
         try {
             return o instanceof Number ?
@@ -342,6 +555,13 @@ public class JSONObject {
      *  be converted to an integer.
      */
     public int getInt(String key) throws JSONException {
+        int i = find(key);
+        if (i == INHERITED) {
+            return this.myBase.getInt(key);
+        }
+        if (i >= 0 && this.myValues.isNumber(i)) {
+            return this.myValues.intValue(i);
+        }
         Object o = get(key);
         return o instanceof Number ?
                 ((Number)o).intValue() : (int)getDouble(key);
@@ -394,6 +614,13 @@ public class JSONObject {
      *  be converted to a long.
      */
     public long getLong(String key) throws JSONException {
+        int i = find(key);
+        if (i == INHERITED) {
+            return this.myBase.getLong(key);
+        }
+        if (i >= 0 && this.myValues.isNumber(i)) {
+            return this.myValues.longValue(i);
+        }
         Object o = get(key);
         return o instanceof Number ?
                 ((Number)o).longValue() : (long)getDouble(key);
@@ -418,7 +645,8 @@ public class JSONObject {
      * @return      true if the key exists in the JSONObject.
      */
     public boolean has(String key) {
-        return this.myHashMap.containsKey(key);
+        int i = find(key);
+        return i >= 0 || (i == INHERITED && this.myBase.has(key));
     }
 
 
@@ -435,12 +663,39 @@ public class JSONObject {
 
 
     /**
-     * Get an enumeration of the keys of the JSONObject.
+     * Get an enumeration of the keys of the JSONObject. The iterator's
+     * <code>remove</code> removes the last key returned from the object.
      *
      * @return An iterator of the keys.
      */
     public Iterator<String> keys() {
-        return this.myHashMap.keySet().iterator();
+        populate();
+        return new Iterator<String>() {
+            private int next = nextEntry(0);
+            private String last;
+
+            public boolean hasNext() {
+                return this.next >= 0;
+            }
+
+            public String next() {
+                if (this.next < 0) {
+                    throw new NoSuchElementException();
+                }
+                this.last = keyAt(this.next);
+                this.next = nextEntry(this.next + 1);
+                return this.last;
+            }
+
+            public void remove() {
+                if (this.last == null) {
+                    throw new IllegalStateException();
+                }
+                // Compacting would move the slots that next refers to
+                removeKey(this.last, false);
+                this.last = null;
+            }
+        };
     }
 
 
@@ -450,7 +705,8 @@ public class JSONObject {
      * @return The number of keys in the JSONObject.
      */
     public int length() {
-        return this.myHashMap.size();
+        populate();
+        return this.myCount;
     }
 
 
@@ -469,6 +725,214 @@ public class JSONObject {
         return ja.length() == 0 ? null : ja;
     }
 
+    /**
+     * Populate deferred contents, if not done yet. Must be called before the
+     * slots are accessed.
+     */
+    private void populate() {
+        if (this.deferred != null) {
+            populateDeferred();
+        }
+    }
+
+
+    private synchronized void populateDeferred() {
+        Deferred d = this.deferred;
+        if (d == null) {
+            return;
+        }
+        // Populate a separate object so that concurrent readers never see
+        // partially filled slots.
+        JSONObject contents = new JSONObject();
+        d.populate(contents);
+        this.myShape = contents.myShape;
+        this.myValues = contents.myValues;
+        this.myCount = contents.myCount;
+        this.deferred = null;
+    }
+
+
+    /**
+     * Get the own slot holding the value for a key.
+     * @return The slot, INHERITED if the value is to be looked up in the
+     *  base, or -1 if the key has no value.
+     */
+    private int find(String key) {
+        if (key == null) {
+            return -1;
+        }
+        populate();
+        int i = this.myShape.indexOf(key);
+        if (i >= 0 && this.myValues.isSet(i)) {
+            return this.myValues.holds(i, REMOVED) ? -1 : i;
+        }
+        return this.myBase != null ? INHERITED : -1;
+    }
+
+
+    /**
+     * Get the own slot for a non-null key, adding one if necessary, and
+     * count the key as having a value.
+     */
+    private int slotFor(String key) {
+        checkNotFrozen();
+        int i = find(key);
+        if (i >= 0) {
+            return i;
+        }
+        if (i != INHERITED || !this.myBase.has(key)) {
+            this.myCount += 1;
+        }
+        return ownSlot(key);
+    }
+
+
+    /**
+     * Get the own slot for a non-null key, adding one if necessary.
+     */
+    private int ownSlot(String key) {
+        int i = this.myShape.indexOf(key);
+        if (i < 0) {
+            this.myShape = this.myShape.add(key);
+            i = this.myValues.add();
+        }
+        return i;
+    }
+
+
+    private void checkNotFrozen() {
+        if (this.myFrozen) {
+            throw new UnsupportedOperationException("JSONObject is frozen");
+        }
+    }
+
+
+    /**
+     * Get the first slot at or after from that has a value.
+     * @return The slot, or -1 if there is none.
+     */
+    private int nextSlot(int from) {
+        int n = this.myValues.size();
+        for (int i = from; i < n; i += 1) {
+            if (this.myValues.isSet(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Get the first entry at or after position from. The entries of an
+     * overlay are the base slots (positions below the base's slot count)
+     * followed by the own slots, skipping base keys that were removed and
+     * own slots that override a base key. Otherwise entries are slots.
+     * @return The position, or -1 if there is none.
+     */
+    private int nextEntry(int from) {
+        JSONObject base = this.myBase;
+        if (base == null) {
+            return nextSlot(from);
+        }
+        int baseSize = base.myValues.size();
+        for (int p = from; p < baseSize; p += 1) {
+            if (base.myValues.isSet(p)) {
+                int i = this.myShape.indexOf(base.myShape.key(p));
+                if (i < 0 || !this.myValues.holds(i, REMOVED)) {
+                    return p;
+                }
+            }
+        }
+        int n = this.myValues.size();
+        for (int i = Math.max(from - baseSize, 0); i < n; i += 1) {
+            if (this.myValues.isSet(i) && !this.myValues.holds(i, REMOVED) &&
+                    !base.has(this.myShape.key(i))) {
+                return baseSize + i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Get the key of the entry at a position.
+     */
+    private String keyAt(int p) {
+        if (this.myBase == null) {
+            return this.myShape.key(p);
+        }
+        int baseSize = this.myBase.myValues.size();
+        return p < baseSize ? this.myBase.myShape.key(p) :
+                this.myShape.key(p - baseSize);
+    }
+
+
+    /**
+     * Get the slot holding the value of the entry at a position.
+     * @return The own slot, or, for a value in the base, -1 - the base slot.
+     */
+    private int locate(int p) {
+        if (this.myBase == null) {
+            return p;
+        }
+        int baseSize = this.myBase.myValues.size();
+        if (p >= baseSize) {
+            return p - baseSize;
+        }
+        int i = this.myShape.indexOf(this.myBase.myShape.key(p));
+        return i >= 0 ? i : -1 - p;
+    }
+
+
+    /**
+     * Get the value of the entry at a position.
+     */
+    private Object valueAt(int p) {
+        int s = locate(p);
+        return s >= 0 ? this.myValues.get(s) :
+                this.myBase.myValues.get(-1 - s);
+    }
+
+
+    /**
+     * Drop the slots of removed keys.
+     */
+    private void compact() {
+        int size = this.myValues.size();
+        Shape shape = Shape.EMPTY;
+        int n = 0;
+        for (int i = 0; i < size; i += 1) {
+            if (this.myValues.isSet(i)) {
+                shape = shape.add(this.myShape.key(i));
+                this.myValues.copy(n, this.myValues, i);
+                n += 1;
+            }
+        }
+        this.myShape = shape;
+        this.myValues.truncate(n);
+    }
+
+
+    /**
+     * Copy the entries of an overlay into own slots, and drop the base.
+     */
+    private void flatten() {
+        Shape shape = Shape.EMPTY;
+        ValueSlots values = new ValueSlots(this.myCount);
+        for (int p = nextEntry(0); p >= 0; p = nextEntry(p + 1)) {
+            shape = shape.add(keyAt(p));
+            int s = locate(p);
+            if (s >= 0) {
+                values.copy(values.add(), this.myValues, s);
+            } else {
+                values.copy(values.add(), this.myBase.myValues, -1 - s);
+            }
+        }
+        this.myShape = shape;
+        this.myValues = values;
+        this.myBase = null;
+    }
+
     /**
      * Produce a string from a number.
      * @param  n A Number
@@ -481,19 +945,16 @@ public class JSONObject {
             throw new JSONException("Null pointer");
         }
         testValidity(n);
+        if (n instanceof Double) {
+            return NumberText.toString(n.doubleValue());
+        }
+        if (n instanceof Integer || n instanceof Long) {
+            return n.toString();
+        }
 
 // Shave off trailing zeros and decimal point, if possible.
 
-        String s = n.toString();
-        if (s.indexOf('.') > 0 && s.indexOf('e') < 0 && s.indexOf('E') < 0) {
-            while (s.endsWith("0")) {
-                s = s.substring(0, s.length() - 1);
-            }
-            if (s.endsWith(".")) {
-                s = s.substring(0, s.length() - 1);
-            }
-        }
-        return s;
+        return NumberText.trimZeros(n.toString());
     }
 
 
@@ -503,7 +964,11 @@ public class JSONObject {
      * @return      An object which is the value, or null if there is no value.
      */
     public Object opt(String key) {
-        return key == null ? null : this.myHashMap.get(key);
+        int i = find(key);
+        if (i == INHERITED) {
+            return this.myBase.opt(key);
+        }
+        return i < 0 ? null : this.myValues.get(i);
     }
 
 
@@ -563,10 +1028,17 @@ public class JSONObject {
      * @return      An object which is the value.
      */
     public double optDouble(String key, double defaultValue) {
+        int i = find(key);
+        if (i == INHERITED) {
+            return this.myBase.optDouble(key, defaultValue);
+        }
+        if (i >= 0 && this.myValues.isNumber(i)) {
+            return this.myValues.doubleValue(i);
+        }
         try {
             Object o = opt(key);
             return o instanceof Number ? ((Number)o).doubleValue() :
-                new Double((String)o).doubleValue();
+                Double.parseDouble((String)o);
         } catch (Exception e) {
             return defaultValue;
         }
@@ -717,7 +1189,12 @@ public class JSONObject {
      * @throws JSONException If the key is null or if the number is invalid.
      */
     public JSONObject put(String key, double value) throws JSONException {
-        put(key, new Double(value));
+        if (key == null) {
+            throw new JSONException("Null key.");
+        }
+        testValidity(value);
+        int i = slotFor(key);
+        this.myValues.setDouble(i, value);
         return this;
     }
 
@@ -731,7 +1208,11 @@ public class JSONObject {
      * @throws JSONException If the key is null.
      */
     public JSONObject put(String key, int value) throws JSONException {
-        put(key, new Integer(value));
+        if (key == null) {
+            throw new JSONException("Null key.");
+        }
+        int i = slotFor(key);
+        this.myValues.setInt(i, value);
         return this;
     }
 
@@ -745,7 +1226,11 @@ public class JSONObject {
      * @throws JSONException If the key is null.
      */
     public JSONObject put(String key, long value) throws JSONException {
-        put(key, new Long(value));
+        if (key == null) {
+            throw new JSONException("Null key.");
+        }
+        int i = slotFor(key);
+        this.myValues.setLong(i, value);
         return this;
     }
 
@@ -767,7 +1252,8 @@ public class JSONObject {
         }
         if (value != null) {
             testValidity(value);
-            this.myHashMap.put(key, value);
+            int i = slotFor(key);
+            this.myValues.set(i, value);
         } else {
             remove(key);
         }
@@ -864,7 +1350,37 @@ public class JSONObject {
      * or null if there was no value.
      */
     public Object remove(String key) {
-        return this.myHashMap.remove(key);
+        return removeKey(key, true);
+    }
+
+    /**
+     * Remove a name and its value, if present, compacting the slots only if
+     * allowed (entry positions stay valid until the slots are compacted).
+     */
+    private Object removeKey(String key, boolean mayCompact) {
+        checkNotFrozen();
+        int i = find(key);
+        Object o;
+        if (i >= 0) {
+            o = this.myValues.get(i);
+        } else if (i == INHERITED && (o = this.myBase.opt(key)) != null) {
+            i = ownSlot(key);
+        } else {
+            return null;
+        }
+        if (this.myBase != null && this.myBase.has(key)) {
+            this.myValues.set(i, REMOVED);
+            this.myCount -= 1;
+            return o;
+        }
+        this.myValues.set(i, null);
+        this.myCount -= 1;
+        if (mayCompact && this.myBase == null &&
+                this.myValues.size() > MIN_COMPACT_SLOTS &&
+                this.myCount * 2 < this.myValues.size()) {
+            compact();
+        }
+        return o;
     }
 
     /**
@@ -889,6 +1405,19 @@ public class JSONObject {
     }
 
 
+    /**
+     * Throw an exception if the number is NaN or infinite.
+     * @param d The number to test.
+     * @throws JSONException If d is a non-finite number.
+     */
+    static void testValidity(double d) throws JSONException {
+        if (Double.isInfinite(d) || Double.isNaN(d)) {
+            throw new JSONException(
+                "JSON does not allow non-finite numbers");
+        }
+    }
+
+
     /**
      * Produce a JSONArray containing the values of the members of this
      * JSONObject.
@@ -922,17 +1451,16 @@ public class JSONObject {
      */
     public String toString() {
         try {
-            Iterator<?>     keys = keys();
+            populate();
             StringBuffer sb = new StringBuffer("{");
 
-            while (keys.hasNext()) {
+            for (int p = nextEntry(0); p >= 0; p = nextEntry(p + 1)) {
                 if (sb.length() > 1) {
                     sb.append(',');
                 }
-                Object o = keys.next();
-                sb.append(quote(o.toString()));
+                sb.append(quote(keyAt(p)));
                 sb.append(':');
-                sb.append(valueToString(this.myHashMap.get(o)));
+                sb.append(valueToString(valueAt(p)));
             }
             sb.append('}');
             return sb.toString();
@@ -978,19 +1506,15 @@ public class JSONObject {
         if (n == 0) {
             return "{}";
         }
-        Iterator<?>     keys = keys();
         StringBuffer sb = new StringBuffer("{");
         int          newindent = indent + indentFactor;
-        Object       o;
+        int          p = nextEntry(0);
         if (n == 1) {
-            o = keys.next();
-            sb.append(quote(o.toString()));
+            sb.append(quote(keyAt(p)));
             sb.append(": ");
-            sb.append(valueToString(this.myHashMap.get(o), indentFactor,
-                    indent));
+            sb.append(valueToString(valueAt(p), indentFactor, indent));
         } else {
-            while (keys.hasNext()) {
-                o = keys.next();
+            for (; p >= 0; p = nextEntry(p + 1)) {
                 if (sb.length() > 1) {
                     sb.append(",\n");
                 } else {
@@ -999,9 +1523,9 @@ public class JSONObject {
                 for (i = 0; i < newindent; i += 1) {
                     sb.append(' ');
                 }
-                sb.append(quote(o.toString()));
+                sb.append(quote(keyAt(p)));
                 sb.append(": ");
-                sb.append(valueToString(this.myHashMap.get(o), indentFactor,
+                sb.append(valueToString(valueAt(p), indentFactor,
                         newindent));
             }
             if (sb.length() > 1) {
@@ -1087,30 +1611,44 @@ public class JSONObject {
       * @throws JSONException
       */
      public Writer write(Writer writer) throws JSONException {
-        try {
-            boolean  b = false;
-            Iterator<?> keys = keys();
-            writer.write('{');
+        write((Appendable) writer);
+        return writer;
+     }
 
-            while (keys.hasNext()) {
+
+     /**
+      * Write the contents of the JSONObject as JSON text to an Appendable,
+      * such as a StringBuilder or a {@link JSONEncoder}. The text is the same
+      * as that of <code>toString()</code>, but keys and values are appended
+      * directly instead of being quoted into temporary strings.
+      * <p>
+      * Warning: This method assumes that the data structure is acyclical.
+      *
+      * @return The Appendable.
+      * @throws JSONException If the object contains an invalid number or
+      *  the Appendable throws an IOException.
+      */
+     public Appendable write(Appendable out) throws JSONException {
+        try {
+            populate();
+            boolean b = false;
+            out.append('{');
+            for (int p = nextEntry(0); p >= 0; p = nextEntry(p + 1)) {
                 if (b) {
-                    writer.write(',');
+                    out.append(',');
                 }
-                Object k = keys.next();
-                writer.write(quote(k.toString()));
-                writer.write(':');
-                Object v = this.myHashMap.get(k);
-                if (v instanceof JSONObject) {
-                    ((JSONObject)v).write(writer);
-                } else if (v instanceof JSONArray) {
-                    ((JSONArray)v).write(writer);
+                JSONEncoder.writeQuoted(keyAt(p), out);
+                out.append(':');
+                int s = locate(p);
+                if (s >= 0) {
+                    this.myValues.write(s, out);
                 } else {
-                    writer.write(valueToString(v));
+                    this.myBase.myValues.write(-1 - s, out);
                 }
                 b = true;
             }
-            writer.write('}');
-            return writer;
+            out.append('}');
+            return out;
         } catch (IOException e) {
             throw new JSONException(e);
         }
@@ -0,0 +1,626 @@
+package mmcorej.org.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JSONReader is a pull parser that reads JSON text incrementally from a
+ * Reader, InputStream or ByteBuffer, so that large texts (such as metadata
+ * files holding the tags of many thousands of images) can be scanned or
+ * indexed without holding the whole text, or a tree built from it, in memory.
+ * <p>
+ * Each call to <code>next</code> returns the next {@link Event}. The text of
+ * the current key, string or number is available from
+ * <code>getString</code>, and <code>getValue</code> builds the current value,
+ * including a whole JSONObject or JSONArray when positioned at its start. For
+ * example, to load only the objects found under keys starting with
+ * <code>"FrameKey"</code>: <pre>
+ * JSONReader r = new JSONReader(in);
+ * r.next(); // START_OBJECT
+ * while (r.next() == JSONReader.Event.KEY) {
+ *     String key = r.getString();
+ *     r.next();
+ *     if (key.startsWith("FrameKey")) {
+ *         frames.put(key, (JSONObject) r.getValue());
+ *     } else {
+ *         r.skipValue();
+ *     }
+ * }</pre>
+ * <p>
+ * The input may hold any number of JSON values one after another (separated
+ * by whitespace, as in a log with one object per line); <code>next</code>
+ * returns <code>END_DOCUMENT</code> after the last one. Values are parsed as
+ * strict JSON, except that strings may contain unescaped control characters
+ * other than line breaks and unknown escapes stand for the escaped character,
+ * as with JSONTokener. Numbers become Integer, Long or Double, also as with
+ * JSONTokener.
+ * <p>
+ * Memory use is bounded by the read buffer, the nesting depth and the
+ * longest single string, apart from values built by <code>getValue</code>.
+ * Instances are not thread-safe.
+ */
+public final class JSONReader implements Closeable {
+
+    /**
+     * The kinds of token returned by <code>next</code>.
+     */
+    public enum Event {
+        START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, KEY, STRING, NUMBER,
+        TRUE, FALSE, NULL, END_DOCUMENT
+    }
+
+    // Parse states, kept for each open object or array.
+    private static final byte OBJECT_START = 0; // '{' read
+    private static final byte OBJECT_KEY = 1;   // ',' read, key must follow
+    private static final byte OBJECT_COLON = 2; // key read
+    private static final byte OBJECT_NEXT = 3;  // value read
+    private static final byte ARRAY_START = 4;  // '[' read
+    private static final byte ARRAY_NEXT = 5;   // value read
+
+    private final Reader reader;
+    private final char[] buf;
+    private int pos;
+    private int lim;
+    private long bufOffset;
+
+    private byte[] stack = new byte[32];
+    private int depth;
+
+    private final StringBuilder sb = new StringBuilder();
+    private Event event;
+    private boolean fractional;
+    private long tokenOffset;
+
+
+    /**
+     * Construct a JSONReader over a Reader. The Reader is read in chunks, so
+     * it need not be buffered.
+     * @param reader The source of the text.
+     */
+    public JSONReader(Reader reader) {
+        this.reader = reader;
+        this.buf = new char[8192];
+    }
+
+
+    /**
+     * Construct a JSONReader over a stream of UTF-8 text.
+     * @param in The source of the text.
+     */
+    public JSONReader(InputStream in) {
+        this(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Construct a JSONReader over UTF-8 text held in a ByteBuffer, from its
+     * position to its limit. The buffer's position is not changed.
+     * @param bytes The source of the text.
+     */
+    public JSONReader(ByteBuffer bytes) {
+        this(new ByteBufferReader(bytes.duplicate()));
+    }
+
+
+    /**
+     * Construct a JSONReader over a string.
+     * @param s The text.
+     */
+    public JSONReader(String s) {
+        this(new StringReader(s));
+    }
+
+
+    /**
+     * Advance to the next token.
+     * @return The event for the token, or <code>END_DOCUMENT</code> if there
+     *  are no more values in the input.
+     * @throws JSONException If the text is not valid JSON or the source
+     *  cannot be read.
+     */
+    public Event next() throws JSONException {
+        int c = nextClean();
+        this.tokenOffset = this.bufOffset + this.pos - 1;
+        if (this.depth == 0) {
+            if (c < 0) {
+                this.tokenOffset += 1;
+                this.event = Event.END_DOCUMENT;
+                return this.event;
+            }
+            return value(c);
+        }
+        switch (this.stack[this.depth - 1]) {
+        case OBJECT_START:
+            if (c == '}') {
+                return end(Event.END_OBJECT);
+            }
+            return key(c);
+        case OBJECT_KEY:
+            return key(c);
+        case OBJECT_COLON:
+            if (c != ':') {
+                throw syntaxError("Expected a ':' after a key");
+            }
+            this.stack[this.depth - 1] = OBJECT_NEXT;
+            c = nextClean();
+            this.tokenOffset = this.bufOffset + this.pos - 1;
+            return value(c);
+        case OBJECT_NEXT:
+            if (c == '}') {
+                return end(Event.END_OBJECT);
+            }
+            if (c != ',') {
+                throw syntaxError("Expected a ',' or '}'");
+            }
+            this.stack[this.depth - 1] = OBJECT_KEY;
+            c = nextClean();
+            this.tokenOffset = this.bufOffset + this.pos - 1;
+            return key(c);
+        case ARRAY_START:
+            if (c == ']') {
+                return end(Event.END_ARRAY);
+            }
+            this.stack[this.depth - 1] = ARRAY_NEXT;
+            return value(c);
+        default: // ARRAY_NEXT
+            if (c == ']') {
+                return end(Event.END_ARRAY);
+            }
+            if (c != ',') {
+                throw syntaxError("Expected a ',' or ']'");
+            }
+            c = nextClean();
+            this.tokenOffset = this.bufOffset + this.pos - 1;
+            return value(c);
+        }
+    }
+
+
+    /**
+     * Get the event returned by the last call to <code>next</code>.
+     * @return The current event, or null before the first call.
+     */
+    public Event getEvent() {
+        return this.event;
+    }
+
+
+    /**
+     * Get the text of the current key, string or number.
+     * @return The unescaped text.
+     * @throws JSONException If the current event is not KEY, STRING or
+     *  NUMBER.
+     */
+    public String getString() throws JSONException {
+        if (this.event != Event.KEY && this.event != Event.STRING &&
+                this.event != Event.NUMBER) {
+            throw new JSONException("No string at " + this.event);
+        }
+        return this.sb.toString();
+    }
+
+
+    /**
+     * Get the value starting at the current token. If the current event is
+     * <code>START_OBJECT</code> or <code>START_ARRAY</code>, the rest of the
+     * object or array is read and the reader is left at its end.
+     * @return A JSONObject, JSONArray, String, Integer, Long, Double, Boolean
+     *  or <code>JSONObject.NULL</code>.
+     * @throws JSONException If the current event does not start a value or
+     *  the text is not valid JSON.
+     */
+    public Object getValue() throws JSONException {
+        switch (this.event == null ? Event.END_DOCUMENT : this.event) {
+        case START_OBJECT:
+            JSONObject jo = new JSONObject();
+            while (next() == Event.KEY) {
+                String key = this.sb.toString();
+                next();
+                jo.put(key, getValue());
+            }
+            return jo;
+        case START_ARRAY:
+            JSONArray ja = new JSONArray();
+            while (next() != Event.END_ARRAY) {
+                ja.put(getValue());
+            }
+            return ja;
+        case STRING:
+            return this.sb.toString();
+        case NUMBER:
+            return number();
+        case TRUE:
+            return Boolean.TRUE;
+        case FALSE:
+            return Boolean.FALSE;
+        case NULL:
+            return JSONObject.NULL;
+        default:
+            throw new JSONException("No value at " + this.event);
+        }
+    }
+
+
+    /**
+     * Read the next value: equivalent to <code>next()</code> followed by
+     * <code>getValue()</code>.
+     * @return The value, or null if there are no more values in the input.
+     * @throws JSONException If the next token does not start a value or the
+     *  text is not valid JSON.
+     */
+    public Object nextValue() throws JSONException {
+        return next() == Event.END_DOCUMENT ? null : getValue();
+    }
+
+
+    /**
+     * Skip the value starting at the current token. If the current event is
+     * <code>START_OBJECT</code> or <code>START_ARRAY</code>, the reader is
+     * left at the matching end; otherwise nothing is read.
+     * @throws JSONException If the text is not valid JSON.
+     */
+    public void skipValue() throws JSONException {
+        if (this.event == Event.START_OBJECT ||
+                this.event == Event.START_ARRAY) {
+            int d = this.depth;
+            do {
+                next();
+            } while (this.depth >= d);
+        }
+    }
+
+
+    /**
+     * Get the position of the first character of the current token, counted
+     * in characters from the start of the input. With a UTF-8 source this
+     * is not the byte offset unless the text is ASCII.
+     */
+    public long getTokenOffset() {
+        return this.tokenOffset;
+    }
+
+
+    /**
+     * Get the nesting depth: the number of objects and arrays that have been
+     * started and not yet ended.
+     */
+    public int getDepth() {
+        return this.depth;
+    }
+
+
+    /**
+     * Close the underlying source.
+     */
+    public void close() throws IOException {
+        this.reader.close();
+    }
+
+
+    /**
+     * Make a JSONException to signal a syntax error.
+     *
+     * @param message The error message.
+     * @return  A JSONException object, suitable for throwing
+     */
+    public JSONException syntaxError(String message) {
+        return new JSONException(message + toString());
+    }
+
+
+    /**
+     * Make a printable string of this JSONReader.
+     *
+     * @return " at character [offset]"
+     */
+    public String toString() {
+        return " at character " + (this.bufOffset + this.pos);
+    }
+
+
+    private Event key(int c) throws JSONException {
+        if (c != '"') {
+            throw syntaxError("Expected a key");
+        }
+        readString();
+        this.stack[this.depth - 1] = OBJECT_COLON;
+        this.event = Event.KEY;
+        return this.event;
+    }
+
+
+    private Event end(Event e) {
+        this.depth -= 1;
+        this.event = e;
+        return e;
+    }
+
+
+    private void push(byte state) {
+        if (this.depth == this.stack.length) {
+            byte[] s = new byte[this.stack.length * 2];
+            System.arraycopy(this.stack, 0, s, 0, this.depth);
+            this.stack = s;
+        }
+        this.stack[this.depth++] = state;
+    }
+
+
+    private Event value(int c) throws JSONException {
+        switch (c) {
+        case '{':
+            push(OBJECT_START);
+            this.event = Event.START_OBJECT;
+            break;
+        case '[':
+            push(ARRAY_START);
+            this.event = Event.START_ARRAY;
+            break;
+        case '"':
+            readString();
+            this.event = Event.STRING;
+            break;
+        case 't':
+            literal("rue");
+            this.event = Event.TRUE;
+            break;
+        case 'f':
+            literal("alse");
+            this.event = Event.FALSE;
+            break;
+        case 'n':
+            literal("ull");
+            this.event = Event.NULL;
+            break;
+        case -1:
+            throw syntaxError("Unexpected end of input");
+        default:
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                readNumber(c);
+                this.event = Event.NUMBER;
+                break;
+            }
+            throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+        return this.event;
+    }
+
+
+    private void literal(String rest) throws JSONException {
+        for (int i = 0; i < rest.length(); i += 1) {
+            if (read() != rest.charAt(i)) {
+                throw syntaxError("Invalid literal");
+            }
+        }
+    }
+
+
+    private void readNumber(int c) throws JSONException {
+        StringBuilder s = this.sb;
+        s.setLength(0);
+        this.fractional = false;
+        if (c == '-') {
+            s.append('-');
+            c = read();
+        }
+        c = digits(c, "Expected a digit");
+        if (c == '.') {
+            this.fractional = true;
+            s.append('.');
+            c = digits(read(), "Expected a digit after '.'");
+        }
+        if (c == 'e' || c == 'E') {
+            this.fractional = true;
+            s.append((char) c);
+            c = read();
+            if (c == '+' || c == '-') {
+                s.append((char) c);
+                c = read();
+            }
+            c = digits(c, "Expected a digit in the exponent");
+        }
+        if (c >= 0) {
+            this.pos -= 1;
+        }
+    }
+
+
+    /**
+     * Append one or more digits starting with c to sb, returning the first
+     * character after them.
+     */
+    private int digits(int c, String message) throws JSONException {
+        if (c < '0' || c > '9') {
+            throw syntaxError(message);
+        }
+        do {
+            this.sb.append((char) c);
+            c = read();
+        } while (c >= '0' && c <= '9');
+        return c;
+    }
+
+
+    private Object number() throws JSONException {
+        Number n = NumberText.parse(this.sb, 0, this.sb.length());
+        if (n != null) {
+            return n;
+        }
+        String s = this.sb.toString();
+        try {
+            if (!this.fractional) {
+                if (s.length() < 10) {
+                    return Integer.valueOf(s);
+                }
+                try {
+                    long l = Long.parseLong(s);
+                    if (l == (int) l) {
+                        return Integer.valueOf((int) l);
+                    }
+                    return Long.valueOf(l);
+                } catch (NumberFormatException e) {
+                    /* Too long for a long; fall back to double */
+                }
+            }
+            return Double.valueOf(s);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Bad number " + s);
+        }
+    }
+
+
+    private void readString() throws JSONException {
+        StringBuilder s = this.sb;
+        s.setLength(0);
+        for (;;) {
+            // Append runs of plain characters directly from the buffer.
+            int start = this.pos;
+            int i = start;
+            char[] b = this.buf;
+            int n = this.lim;
+            while (i < n) {
+                char c = b[i];
+                if (c == '"' || c == '\\' || c == '\n' || c == '\r') {
+                    break;
+                }
+                i += 1;
+            }
+            s.append(b, start, i - start);
+            this.pos = i;
+            int c = read();
+            switch (c) {
+            case '"':
+                return;
+            case -1:
+            case '\n':
+            case '\r':
+                throw syntaxError("Unterminated string");
+            case '\\':
+                c = read();
+                switch (c) {
+                case 'b':
+                    s.append('\b');
+                    break;
+                case 't':
+                    s.append('\t');
+                    break;
+                case 'n':
+                    s.append('\n');
+                    break;
+                case 'f':
+                    s.append('\f');
+                    break;
+                case 'r':
+                    s.append('\r');
+                    break;
+                case 'u':
+                    int u = 0;
+                    for (int k = 0; k < 4; k += 1) {
+                        int h = read();
+                        int d = h < 0 ? -1 : JSONTokener.dehexchar((char) h);
+                        if (d < 0) {
+                            throw syntaxError("Illegal escape");
+                        }
+                        u = (u << 4) | d;
+                    }
+                    s.append((char) u);
+                    break;
+                case -1:
+                    throw syntaxError("Unterminated string");
+                default:
+                    s.append((char) c);
+                }
+                break;
+            default:
+                // End of buffer; read() refilled it.
+                s.append((char) c);
+            }
+        }
+    }
+
+
+    /**
+     * Get the next character that is not whitespace, or -1 at the end of the
+     * input.
+     */
+    private int nextClean() throws JSONException {
+        for (;;) {
+            int c = read();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+
+
+    private int read() throws JSONException {
+        if (this.pos == this.lim && !fill()) {
+            return -1;
+        }
+        return this.buf[this.pos++];
+    }
+
+
+    private boolean fill() throws JSONException {
+        this.bufOffset += this.lim;
+        this.pos = 0;
+        this.lim = 0;
+        try {
+            int n;
+            do {
+                n = this.reader.read(this.buf, 0, this.buf.length);
+            } while (n == 0);
+            if (n < 0) {
+                return false;
+            }
+            this.lim = n;
+            return true;
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+
+    /**
+     * Decodes UTF-8 from a ByteBuffer, replacing malformed input as
+     * InputStreamReader does.
+     */
+    private static final class ByteBufferReader extends Reader {
+        private final ByteBuffer in;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8
+                .newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private boolean flushed;
+
+        ByteBufferReader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        public int read(char[] cbuf, int off, int len) {
+            if (this.flushed) {
+                return -1;
+            }
+            CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+            this.decoder.decode(this.in, out, true);
+            if (!this.in.hasRemaining() &&
+                    this.decoder.flush(out).isUnderflow()) {
+                this.flushed = true;
+            }
+            int n = out.position() - off;
+            return n == 0 && this.flushed ? -1 : n;
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -331,10 +331,11 @@ public class JSONTokener {
          * formatting character.
          */
 
-        StringBuffer sb = new StringBuffer();
+        int start = this.myIndex - 1;
+        int end = start;
         char b = c;
         while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
-            sb.append(c);
+            end += 1;
             c = next();
         }
         back();
@@ -343,7 +344,7 @@ public class JSONTokener {
          * If it is true, false, or null, return the proper value.
          */
 
-        s = sb.toString().trim();
+        s = end > start ? this.mySource.substring(start, end).trim() : "";
         if (s.equals("")) {
             throw syntaxError("Missing value.");
         }
@@ -366,6 +367,10 @@ public class JSONTokener {
          */
 
         if ((b >= '0' && b <= '9') || b == '.' || b == '-' || b == '+') {
+            Number n = NumberText.parse(s, 0, s.length());
+            if (n != null) {
+                return n;
+            }
             if (b == '0') {
                 if (s.length() > 2 &&
                         (s.charAt(1) == 'x' || s.charAt(1) == 'X')) {
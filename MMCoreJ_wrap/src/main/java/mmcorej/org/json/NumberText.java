@@ -0,0 +1,259 @@
+package mmcorej.org.json;
+
+import java.io.IOException;
+
+/**
+ * Conversion between numbers and their JSON text, without exceptions for
+ * control flow and without intermediate strings in the common cases.
+ * <p>
+ * <code>parse</code> reads the numbers that JSON text normally contains
+ * (optional sign, digits, optional fraction and exponent), giving the same
+ * Integer, Long or Double that JSONTokener has always produced. Doubles with
+ * at most 15 significant digits and a small exponent are computed exactly
+ * with one multiplication or division; others go to
+ * <code>Double.parseDouble</code>.
+ * <p>
+ * <code>appendDouble</code> writes doubles between 1e-3 and 1e7 (which
+ * <code>Double.toString</code> writes without an exponent) with the fewest
+ * digits that read back as the same double, which
+ * <code>Double.toString</code> does not always do. Other doubles are written
+ * as before.
+ */
+final class NumberText {
+
+    /**
+     * The powers of ten that doubles hold exactly.
+     */
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+        1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Doubles below this are integers held exactly, as are their quotients
+     * by POW10 (correctly rounded).
+     */
+    private static final double EXACT_LIMIT = 9007199254740992.0; // 2^53
+
+
+    private NumberText() {
+    }
+
+
+    /**
+     * Parse a number in the form <code>[-+]digits[.digits][(e|E)[-+]digits]</code>.
+     * @return An Integer or Long for an integer that fits, else a Double; or
+     *  null if the text is not in that form, or is an integer with a leading
+     *  zero (which JSONTokener reads as octal).
+     */
+    static Number parse(CharSequence s, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i) == '-';
+            i += 1;
+        }
+
+        // Integer part, accumulated negatively as in Long.parseLong
+        int intStart = i;
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multmin = limit / 10;
+        long acc = 0;
+        boolean overflow = false;
+        while (i < end) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                break;
+            }
+            if (acc < multmin || acc * 10 < limit + d) {
+                overflow = true;
+            } else {
+                acc = acc * 10 - d;
+            }
+            i += 1;
+        }
+        int intDigits = i - intStart;
+        if (intDigits == 0) {
+            return null;
+        }
+        if (i == end) {
+            if (intDigits > 1 && intStart == start && s.charAt(start) == '0') {
+                return null;
+            }
+            if (!overflow) {
+                long v = negative ? acc : -acc;
+                if (v == (int) v) {
+                    return Integer.valueOf((int) v);
+                }
+                return Long.valueOf(v);
+            }
+            return Double.valueOf(Double.parseDouble(
+                    s.subSequence(start, end).toString()));
+        }
+
+        // Significant digits of the whole number, and the power of ten that
+        // they are to be multiplied by
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        for (int j = intStart; j < intStart + intDigits; j += 1) {
+            int d = s.charAt(j) - '0';
+            if (digits > 0 || d != 0) {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + d;
+                } else {
+                    scale += 1;
+                }
+                digits += 1;
+            }
+        }
+        if (s.charAt(i) == '.') {
+            i += 1;
+            int fracStart = i;
+            while (i < end && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                int d = s.charAt(i) - '0';
+                if (digits > 0 || d != 0) {
+                    if (digits < 18) {
+                        mantissa = mantissa * 10 + d;
+                        scale -= 1;
+                    }
+                    digits += 1;
+                } else {
+                    scale -= 1;
+                }
+                i += 1;
+            }
+            if (i == fracStart) {
+                return null;
+            }
+        }
+        if (i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i += 1;
+            boolean negativeExp = false;
+            if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+                negativeExp = s.charAt(i) == '-';
+                i += 1;
+            }
+            int expStart = i;
+            int exp = 0;
+            while (i < end && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                if (exp < 100000) {
+                    exp = exp * 10 + (s.charAt(i) - '0');
+                }
+                i += 1;
+            }
+            if (i == expStart) {
+                return null;
+            }
+            scale += negativeExp ? -exp : exp;
+        }
+        if (i != end) {
+            return null;
+        }
+
+        double v;
+        if (digits <= 15 && scale >= -22 && scale <= 22) {
+            v = scale < 0 ? mantissa / POW10[-scale] : mantissa * POW10[scale];
+        } else {
+            v = Double.parseDouble(s.subSequence(start, end).toString());
+            negative = false;
+        }
+        return Double.valueOf(negative ? -v : v);
+    }
+
+
+    /**
+     * Produce the JSON text of a finite double; see
+     * <code>appendDouble</code>.
+     */
+    static String toString(double d) {
+        StringBuilder sb = new StringBuilder(24);
+        try {
+            appendDouble(d, sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Not thrown by StringBuilder
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Append the JSON text of a finite double: no trailing zeros or decimal
+     * point, and the shortest digits that read back as d if it is between
+     * 1e-3 and 1e7, or else as given by <code>Double.toString</code>.
+     */
+    static void appendDouble(double d, Appendable out) throws IOException {
+        if (d == 0) {
+            out.append(1 / d < 0 ? "-0" : "0");
+            return;
+        }
+        double a = Math.abs(d);
+        if (a >= 1e-3 && a < 1e7) {
+            for (int k = 0; k < POW10.length; k += 1) {
+                double scaled = a * POW10[k];
+                if (scaled >= EXACT_LIMIT) {
+                    break;
+                }
+                double m = Math.rint(scaled);
+                if (m / POW10[k] == a) {
+                    if (d < 0) {
+                        out.append('-');
+                    }
+                    appendDecimal((long) m, k, out);
+                    return;
+                }
+            }
+        }
+        out.append(trimZeros(Double.toString(d)));
+    }
+
+
+    /**
+     * Append m / 10^k, where m is positive and not a multiple of 10 if k > 0.
+     */
+    private static void appendDecimal(long m, int k, Appendable out)
+            throws IOException {
+        char[] buf = new char[24];
+        int pos = buf.length;
+        int n = 0;
+        do {
+            buf[--pos] = (char) ('0' + (int) (m % 10));
+            m /= 10;
+            n += 1;
+            if (n == k) {
+                buf[--pos] = '.';
+            }
+        } while (m != 0);
+        if (n <= k) {
+            while (n < k) {
+                buf[--pos] = '0';
+                n += 1;
+            }
+            if (buf[pos] != '.') {
+                buf[--pos] = '.';
+            }
+            buf[--pos] = '0';
+        }
+        for (int i = pos; i < buf.length; i += 1) {
+            out.append(buf[i]);
+        }
+    }
+
+
+    /**
+     * Shave off trailing zeros and decimal point, if possible.
+     */
+    static String trimZeros(String s) {
+        if (s.indexOf('.') > 0 && s.indexOf('e') < 0 && s.indexOf('E') < 0) {
+            int end = s.length();
+            while (s.charAt(end - 1) == '0') {
+                end -= 1;
+            }
+            if (s.charAt(end - 1) == '.') {
+                end -= 1;
+            }
+            return s.substring(0, end);
+        }
+        return s;
+    }
+}
@@ -0,0 +1,284 @@
+package mmcorej.org.json;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The keys of a JSONObject, in slot order. A shape is immutable and is
+ * shared by all objects that were given the same keys in the same order, so
+ * that objects such as the tags of successive images keep one copy of their
+ * keys and a flat array of values, rather than a hash map each.
+ * <p>
+ * Shapes form a tree rooted at <code>EMPTY</code>: <code>add</code> returns
+ * the child shape for a new key, creating it the first time. Children are
+ * weakly referenced, so shapes no longer used by any object can be
+ * collected; their entries are purged when the next new shape is created.
+ * A shape and its first descendants share one append-only
+ * KeyTable, so extending a chain of shapes costs O(1) per key.
+ * <p>
+ * Shapes with more than <code>MAX_SHARED_SIZE</code> keys (e.g., an object
+ * keyed by frame) are not entered in the tree; each such object extends its
+ * own table instead.
+ * <p>
+ * Shapes are safe to share between threads; lookups do not lock, and only
+ * creating a shape locks its parent.
+ */
+final class Shape {
+
+    static final int MAX_SHARED_SIZE = 1024;
+
+    static final Shape EMPTY = new Shape(null, new KeyTable(), null, 0, true);
+
+    /** Children that have been collected, to be removed from their parent. */
+    private static final ReferenceQueue<Shape> COLLECTED =
+            new ReferenceQueue<Shape>();
+
+    private final Shape parent; // Keeps a shared prefix alive while in use
+    private final KeyTable table;
+    private final String key;
+    private final int size;
+    private final boolean shared;
+
+    private volatile ChildRef firstChild;
+    private volatile ConcurrentHashMap<String, ChildRef> otherChildren;
+
+
+    private Shape(Shape parent, KeyTable table, String key, int size,
+            boolean shared) {
+        this.parent = parent;
+        this.table = table;
+        this.key = key;
+        this.size = size;
+        this.shared = shared;
+    }
+
+
+    /**
+     * Get the number of keys (and slots).
+     */
+    int size() {
+        return this.size;
+    }
+
+
+    /**
+     * Get the key for a slot.
+     */
+    String key(int slot) {
+        return this.table.key(slot);
+    }
+
+
+    /**
+     * Get the slot for a key.
+     * @return The slot, or -1 if the key is not in this shape.
+     */
+    int indexOf(String key) {
+        return this.table.indexOf(key, this.size);
+    }
+
+
+    /**
+     * Get the shape with a key appended, in slot <code>size()</code>.
+     * @param key A key that is not in this shape.
+     */
+    Shape add(String key) {
+        if (!this.shared) {
+            return new Shape(null, extendTable(key, true), key, this.size + 1,
+                    false);
+        }
+        Shape child = findChild(key);
+        if (child != null) {
+            return child;
+        }
+        purgeCollected();
+        synchronized (this) {
+            child = findChild(key);
+            if (child != null) {
+                return child;
+            }
+            boolean share = this.size + 1 <= MAX_SHARED_SIZE;
+            Shape c = new Shape(share ? this : null, extendTable(key, share),
+                    key, this.size + 1, share);
+            if (c.shared) {
+                ChildRef first = this.firstChild;
+                if (first == null || first.get() == null) {
+                    this.firstChild = new ChildRef(this, c);
+                } else {
+                    if (this.otherChildren == null) {
+                        this.otherChildren =
+                                new ConcurrentHashMap<String, ChildRef>();
+                    }
+                    this.otherChildren.put(key, new ChildRef(this, c));
+                }
+            }
+            return c;
+        }
+    }
+
+
+    private Shape findChild(String key) {
+        ChildRef ref = this.firstChild;
+        Shape child = ref == null ? null : ref.get();
+        if (child != null && child.key.equals(key)) {
+            return child;
+        }
+        ConcurrentHashMap<String, ChildRef> others = this.otherChildren;
+        if (others == null) {
+            return null;
+        }
+        ref = others.get(key);
+        return ref == null ? null : ref.get();
+    }
+
+
+    /**
+     * Get the number of children entered in the tree, including collected
+     * ones not yet purged.
+     */
+    synchronized int childCount() {
+        ConcurrentHashMap<String, ChildRef> others = this.otherChildren;
+        return (this.firstChild != null ? 1 : 0) +
+                (others != null ? others.size() : 0);
+    }
+
+
+    /**
+     * Remove the entries of collected children from their parents, so that
+     * a parent given many short-lived keys does not accumulate them.
+     */
+    private static void purgeCollected() {
+        ChildRef ref;
+        while ((ref = (ChildRef) COLLECTED.poll()) != null) {
+            Shape parent = ref.parent;
+            synchronized (parent) {
+                if (parent.firstChild == ref) {
+                    parent.firstChild = null;
+                } else if (parent.otherChildren != null) {
+                    parent.otherChildren.remove(ref.key, ref);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Weak reference to a child, which knows where its entry is.
+     */
+    private static final class ChildRef extends WeakReference<Shape> {
+        final Shape parent;
+        final String key;
+
+        ChildRef(Shape parent, Shape child) {
+            super(child, COLLECTED);
+            this.parent = parent;
+            this.key = child.key;
+        }
+    }
+
+
+    /**
+     * Append a key to this shape's table if allowed and no other shape has
+     * extended it, or else to a copy of this shape's part of the table.
+     */
+    private KeyTable extendTable(String key, boolean inPlace) {
+        if (inPlace && this.table.tryAppend(this.size, key)) {
+            return this.table;
+        }
+        KeyTable t = new KeyTable(this.table, this.size);
+        t.tryAppend(this.size, key);
+        return t;
+    }
+
+
+    /**
+     * Keys by slot, with an open-addressing hash index from key to slot + 1
+     * (0 for an empty entry). Keys are only ever appended, under the lock.
+     * Readers do not lock: a shape only looks at slots below its size, which
+     * were written before the shape was created, and skips over index
+     * entries for later slots.
+     */
+    private static final class KeyTable {
+        private volatile String[] keys;
+        private volatile int[] index;
+        private int size; // Guarded by this
+
+        KeyTable() {
+            this.keys = new String[8];
+            this.index = new int[16];
+        }
+
+        KeyTable(KeyTable other, int n) {
+            String[] k = Arrays.copyOf(other.keys, Math.max(n + n / 2, 8));
+            Arrays.fill(k, n, k.length, null);
+            int[] idx = new int[Math.max(Integer.highestOneBit(n * 4), 16)];
+            for (int i = 0; i < n; i += 1) {
+                insert(idx, k[i], i);
+            }
+            this.keys = k;
+            this.index = idx;
+            this.size = n;
+        }
+
+        String key(int slot) {
+            return this.keys[slot];
+        }
+
+        int indexOf(String key, int limit) {
+            int[] idx = this.index;
+            String[] k = this.keys;
+            int mask = idx.length - 1;
+            for (int h = hash(key) & mask; ; h = (h + 1) & mask) {
+                int s = idx[h] - 1;
+                if (s < 0) {
+                    return -1;
+                }
+                if (s < limit && k[s].equals(key)) {
+                    return s;
+                }
+            }
+        }
+
+        synchronized boolean tryAppend(int at, String key) {
+            if (this.size != at) {
+                return false;
+            }
+            String[] k = this.keys;
+            if (at == k.length) {
+                k = Arrays.copyOf(k, at + at / 2);
+                k[at] = key;
+                this.keys = k;
+            } else {
+                k[at] = key;
+            }
+            int n = at + 1;
+            if (n * 2 > this.index.length) {
+                int[] idx = new int[this.index.length * 2];
+                for (int i = 0; i < n; i += 1) {
+                    insert(idx, k[i], i);
+                }
+                this.index = idx;
+            } else {
+                insert(this.index, key, at);
+            }
+            this.size = n;
+            return true;
+        }
+
+        private static void insert(int[] idx, String key, int slot) {
+            int mask = idx.length - 1;
+            int h = hash(key) & mask;
+            while (idx[h] != 0) {
+                h = (h + 1) & mask;
+            }
+            idx[h] = slot + 1;
+        }
+
+        private static int hash(String key) {
+            int h = key.hashCode();
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package mmcorej.org.json;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The values of a JSONObject or JSONArray, by slot.
+ * <p>
+ * Integer, Long and Double values, including those put with the primitive
+ * <code>put</code> methods, are kept unboxed in a parallel long[] (doubles as
+ * their raw bits), and the reference for such a slot is one of the markers
+ * INT, LONG or DOUBLE. Other values are kept as references, and a null
+ * reference means that the slot holds no value. The typed getters read the
+ * primitive directly; <code>get</code> boxes it on demand.
+ */
+final class ValueSlots {
+
+    private static final class Marker {
+        private final String name;
+
+        Marker(String name) {
+            this.name = name;
+        }
+
+        public String toString() {
+            return this.name;
+        }
+    }
+
+    static final Object INT = new Marker("int");
+    static final Object LONG = new Marker("long");
+    static final Object DOUBLE = new Marker("double");
+
+    private Object[] refs;
+    private long[] bits;
+    private int size;
+
+
+    ValueSlots(int capacity) {
+        this.refs = new Object[Math.max(capacity, 4)];
+    }
+
+
+    ValueSlots(ValueSlots other) {
+        this.refs = other.refs.clone();
+        this.bits = other.bits == null ? null : other.bits.clone();
+        this.size = other.size;
+    }
+
+
+    int size() {
+        return this.size;
+    }
+
+
+    /**
+     * Append an empty slot.
+     * @return The index of the new slot.
+     */
+    int add() {
+        if (this.size == this.refs.length) {
+            int n = this.size + (this.size >> 1) + 1;
+            this.refs = Arrays.copyOf(this.refs, n);
+            if (this.bits != null) {
+                this.bits = Arrays.copyOf(this.bits, n);
+            }
+        }
+        return this.size++;
+    }
+
+
+    /**
+     * Make room for at least n slots.
+     */
+    void ensureCapacity(int n) {
+        if (n > this.refs.length) {
+            this.refs = Arrays.copyOf(this.refs, n);
+            if (this.bits != null) {
+                this.bits = Arrays.copyOf(this.bits, n);
+            }
+        }
+    }
+
+
+    /**
+     * Copy the value in slot j of src (which may be this) to slot i.
+     */
+    void copy(int i, ValueSlots src, int j) {
+        Object r = src.refs[j];
+        if (r instanceof Marker) {
+            bits()[i] = src.bits[j];
+        }
+        this.refs[i] = r;
+    }
+
+
+    /**
+     * Discard all slots from index n on.
+     */
+    void truncate(int n) {
+        Arrays.fill(this.refs, n, this.size, null);
+        this.size = n;
+    }
+
+
+    /**
+     * Get the value in a slot, boxing a primitive.
+     * @return The value, or null if the slot is empty.
+     */
+    Object get(int i) {
+        Object r = this.refs[i];
+        if (r instanceof Marker) {
+            if (r == INT) {
+                return Integer.valueOf((int) this.bits[i]);
+            }
+            if (r == LONG) {
+                return Long.valueOf(this.bits[i]);
+            }
+            return Double.valueOf(Double.longBitsToDouble(this.bits[i]));
+        }
+        return r;
+    }
+
+
+    /**
+     * Determine whether a slot holds a value.
+     */
+    boolean isSet(int i) {
+        return this.refs[i] != null;
+    }
+
+
+    /**
+     * Determine whether a slot holds a particular reference (not a number).
+     */
+    boolean holds(int i, Object ref) {
+        return this.refs[i] == ref;
+    }
+
+
+    /**
+     * Determine whether a slot holds an unboxed number, which can be read
+     * with <code>intValue</code>, <code>longValue</code> and
+     * <code>doubleValue</code>.
+     */
+    boolean isNumber(int i) {
+        return this.refs[i] instanceof Marker;
+    }
+
+
+    int intValue(int i) {
+        return this.refs[i] == DOUBLE ?
+                (int) Double.longBitsToDouble(this.bits[i]) : (int) this.bits[i];
+    }
+
+
+    long longValue(int i) {
+        return this.refs[i] == DOUBLE ?
+                (long) Double.longBitsToDouble(this.bits[i]) : this.bits[i];
+    }
+
+
+    double doubleValue(int i) {
+        return this.refs[i] == DOUBLE ?
+                Double.longBitsToDouble(this.bits[i]) : (double) this.bits[i];
+    }
+
+
+    /**
+     * Store a value, unboxing an Integer, Long or Double.
+     * @param value The value, or null to empty the slot.
+     */
+    void set(int i, Object value) {
+        if (value instanceof Integer) {
+            setInt(i, ((Integer) value).intValue());
+        } else if (value instanceof Long) {
+            setLong(i, ((Long) value).longValue());
+        } else if (value instanceof Double) {
+            setDouble(i, ((Double) value).doubleValue());
+        } else {
+            this.refs[i] = value;
+        }
+    }
+
+
+    void setInt(int i, int value) {
+        bits()[i] = value;
+        this.refs[i] = INT;
+    }
+
+
+    void setLong(int i, long value) {
+        bits()[i] = value;
+        this.refs[i] = LONG;
+    }
+
+
+    void setDouble(int i, double value) {
+        bits()[i] = Double.doubleToRawLongBits(value);
+        this.refs[i] = DOUBLE;
+    }
+
+
+    private long[] bits() {
+        if (this.bits == null) {
+            this.bits = new long[this.refs.length];
+        }
+        return this.bits;
+    }
+
+
+    /**
+     * Write the JSON text of the value in a slot.
+     */
+    void write(int i, Appendable out) throws JSONException, IOException {
+        Object r = this.refs[i];
+        if (r == INT || r == LONG) {
+            JSONEncoder.writeLong(this.bits[i], out);
+        } else if (r == DOUBLE) {
+            JSONEncoder.writeDouble(Double.longBitsToDouble(this.bits[i]), out);
+        } else {
+            JSONEncoder.writeValue(r, out);
+        }
+    }
+}
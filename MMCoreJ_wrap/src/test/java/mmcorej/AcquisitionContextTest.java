@@ -0,0 +1,180 @@
+package mmcorej;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import mmcorej.org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class AcquisitionContextTest {
+
+    @Mock
+    CMMCore core;
+
+    @BeforeEach
+    void stubCore() throws Exception {
+        lenient().when(core.getBytesPerPixel()).thenReturn(2L);
+        lenient().when(core.getNumberOfComponents()).thenReturn(1L);
+        lenient().when(core.getImageBitDepth()).thenReturn(12L);
+        lenient().when(core.getImageWidth()).thenReturn(64L);
+        lenient().when(core.getImageHeight()).thenReturn(32L);
+        lenient().when(core.getPropertyFromCache("Core", "ChannelGroup"))
+                .thenReturn("Channel");
+        lenient().when(core.getCurrentConfigFromCache("Channel"))
+                .thenReturn("GFP");
+    }
+
+    // --- update ---
+
+    @Test
+    void update_reusedWhileVersionUnchanged() throws Exception {
+        when(core.getAcquisitionContextVersion()).thenReturn(7L);
+
+        AcquisitionContext first = AcquisitionContext.update(core, null);
+        AcquisitionContext second = AcquisitionContext.update(core, first);
+
+        assertSame(first, second);
+        verify(core, times(1)).getImageWidth();
+    }
+
+    @Test
+    void update_recapturedWhenVersionChanges() throws Exception {
+        when(core.getAcquisitionContextVersion()).thenReturn(7L, 8L);
+
+        AcquisitionContext first = AcquisitionContext.update(core, null);
+        when(core.getImageWidth()).thenReturn(128L);
+        AcquisitionContext second = AcquisitionContext.update(core, first);
+
+        assertNotSame(first, second);
+        JSONObject tags = new JSONObject();
+        second.putInto(tags);
+        assertEquals(128L, tags.getLong("Width"));
+    }
+
+    @Test
+    void update_roiRereadWhenVersionChanges() throws Exception {
+        when(core.getAcquisitionContextVersion()).thenReturn(7L, 7L, 8L);
+        int[] originX = {0};
+        doAnswer(invocation -> {
+            ((int[]) invocation.getArgument(0))[0] = originX[0];
+            ((int[]) invocation.getArgument(1))[0] = 0;
+            ((int[]) invocation.getArgument(2))[0] = 64;
+            ((int[]) invocation.getArgument(3))[0] = 32;
+            return null;
+        }).when(core).getROI(any(int[].class), any(int[].class),
+                any(int[].class), any(int[].class));
+
+        AcquisitionContext first = AcquisitionContext.update(core, null);
+        // The ROI moves without changing size; setROI() bumps the version
+        originX[0] = 16;
+        AcquisitionContext unchanged = AcquisitionContext.update(core, first);
+        AcquisitionContext second = AcquisitionContext.update(core, unchanged);
+
+        assertSame(first, unchanged);
+        JSONObject tags = new JSONObject();
+        first.putInto(tags);
+        assertEquals("0-0-64-32", tags.getString("ROI"));
+        tags = new JSONObject();
+        second.putInto(tags);
+        assertEquals("16-0-64-32", tags.getString("ROI"));
+    }
+
+    @Test
+    void update_notReusedWhenNoAcquisitionRunning() throws Exception {
+        when(core.getAcquisitionContextVersion()).thenReturn(-1L);
+
+        AcquisitionContext first = AcquisitionContext.update(core, null);
+        AcquisitionContext second = AcquisitionContext.update(core, first);
+
+        assertNotSame(first, second);
+    }
+
+    // --- capture ---
+
+    @Test
+    void capture_pixelFormatAndTags() throws Exception {
+        AcquisitionContext context = AcquisitionContext.capture(core);
+
+        assertEquals(2, context.bytesPerPixel);
+        assertEquals(1, context.numComponents);
+        JSONObject tags = new JSONObject();
+        context.putInto(tags);
+        assertEquals("GRAY16", tags.getString("PixelType"));
+        assertEquals("GFP", tags.getString("Channel"));
+        verify(core, never()).getAcquisitionContextVersion();
+    }
+
+    // --- forFrame ---
+
+    private static Metadata frameMetadata(String width, String height,
+            String pixelType) {
+        Metadata md = new Metadata();
+        putTag(md, "Width", width);
+        putTag(md, "Height", height);
+        putTag(md, "PixelType", pixelType);
+        return md;
+    }
+
+    private static void putTag(Metadata md, String key, String value) {
+        MetadataSingleTag tag = new MetadataSingleTag(key, "_", false);
+        tag.SetValue(value);
+        md.SetTag(tag);
+    }
+
+    @Test
+    void forFrame_sameFrameReturnsContext() throws Exception {
+        AcquisitionContext context = AcquisitionContext.capture(core);
+
+        assertSame(context, context.forFrame(frameMetadata("64", "32", "GRAY16")));
+        assertSame(context, context.forFrame(new Metadata()));
+    }
+
+    @Test
+    void forFrame_otherFrameTakesGeometryAndPixelType() throws Exception {
+        AcquisitionContext context = AcquisitionContext.capture(core);
+        Metadata md = frameMetadata("16", "8", "GRAY8");
+        putTag(md, "ROI-X-start", "4");
+        putTag(md, "ROI-Y-start", "2");
+
+        AcquisitionContext frame = context.forFrame(md);
+
+        assertEquals(1, frame.bytesPerPixel);
+        assertEquals(1, frame.numComponents);
+        JSONObject tags = new JSONObject();
+        frame.putInto(tags);
+        assertEquals(16L, tags.getLong("Width"));
+        assertEquals(8L, tags.getLong("Height"));
+        assertEquals("GRAY8", tags.getString("PixelType"));
+        assertEquals(8L, tags.getLong("BitDepth"));
+        assertEquals("4-2-16-8", tags.getString("ROI"));
+        assertEquals("GFP", tags.getString("Channel"));
+        assertSame(frame, context.forFrame(md));
+    }
+
+    @Test
+    void forFrame_noOriginKeepsOnlyMatchingCameraROI() throws Exception {
+        doAnswer(invocation -> {
+            ((int[]) invocation.getArgument(0))[0] = 8;
+            ((int[]) invocation.getArgument(1))[0] = 4;
+            ((int[]) invocation.getArgument(2))[0] = 64;
+            ((int[]) invocation.getArgument(3))[0] = 32;
+            return null;
+        }).when(core).getROI(any(int[].class), any(int[].class),
+                any(int[].class), any(int[].class));
+        AcquisitionContext context = AcquisitionContext.capture(core);
+
+        JSONObject tags = new JSONObject();
+        context.forFrame(frameMetadata("64", "32", "GRAY8")).putInto(tags);
+        assertEquals("8-4-64-32", tags.getString("ROI"));
+        tags = new JSONObject();
+        context.forFrame(frameMetadata("16", "8", "GRAY16")).putInto(tags);
+        assertFalse(tags.has("ROI"));
+        assertEquals(16L, tags.getLong("Width"));
+    }
+}
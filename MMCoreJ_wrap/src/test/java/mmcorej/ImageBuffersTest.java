@@ -0,0 +1,125 @@
+package mmcorej;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.jupiter.api.Test;
+
+class ImageBuffersTest {
+
+    private static ByteBuffer nativeBuffer(int nBytes) {
+        return ByteBuffer.allocateDirect(nBytes).order(ByteOrder.nativeOrder());
+    }
+
+    // --- checkDestination ---
+
+    @Test
+    void checkDestination_rejectsUnsupportedTypes() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ImageBuffers.checkDestination(null));
+        assertThrows(IllegalArgumentException.class,
+                () -> ImageBuffers.checkDestination(new long[4]));
+        assertThrows(IllegalArgumentException.class,
+                () -> ImageBuffers.checkDestination("pixels"));
+    }
+
+    // --- checkCapacity ---
+
+    @Test
+    void checkCapacity_acceptsLargeEnoughArrays() {
+        ImageBuffers.checkCapacity(new byte[8], 8);
+        ImageBuffers.checkCapacity(new short[4], 8);
+        ImageBuffers.checkCapacity(new float[4], 8);
+        ImageBuffers.checkCapacity(new short[4], 0);
+    }
+
+    @Test
+    void checkCapacity_rejectsTooSmallArrays() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ImageBuffers.checkCapacity(new short[3], 8));
+        assertThrows(IllegalArgumentException.class,
+                () -> ImageBuffers.checkCapacity(new int[1], 6));
+        assertThrows(IllegalArgumentException.class,
+                () -> ImageBuffers.checkCapacity(new long[8], 8));
+    }
+
+    // --- copy ---
+
+    @Test
+    void copy_bytes() {
+        ByteBuffer src = nativeBuffer(4);
+        src.put(new byte[] { 1, 2, 3, 4 }).flip();
+        byte[] dst = new byte[6];
+        assertEquals(4, ImageBuffers.copy(src, dst));
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 0, 0 }, dst);
+        assertEquals(0, src.position());
+    }
+
+    @Test
+    void copy_shortsUseBufferByteOrder() {
+        ByteBuffer src = nativeBuffer(4);
+        src.asShortBuffer().put(new short[] { 1000, -2 });
+        short[] dst = new short[2];
+        assertEquals(2, ImageBuffers.copy(src, dst));
+        assertArrayEquals(new short[] { 1000, -2 }, dst);
+    }
+
+    @Test
+    void copy_intsAndFloats() {
+        ByteBuffer src = nativeBuffer(8);
+        src.asIntBuffer().put(new int[] { 0x01020304, 7 });
+        int[] ints = new int[2];
+        assertEquals(2, ImageBuffers.copy(src, ints));
+        assertArrayEquals(new int[] { 0x01020304, 7 }, ints);
+
+        src.asFloatBuffer().put(new float[] { 1.5f, -3.0f });
+        float[] floats = new float[2];
+        assertEquals(2, ImageBuffers.copy(src, floats));
+        assertArrayEquals(new float[] { 1.5f, -3.0f }, floats);
+    }
+
+    @Test
+    void copy_readOnlySource() {
+        ByteBuffer src = nativeBuffer(2);
+        src.asShortBuffer().put((short) 12345);
+        short[] dst = new short[1];
+        ImageBuffers.copy(src.asReadOnlyBuffer().order(src.order()), dst);
+        assertEquals(12345, dst[0]);
+    }
+
+    // --- toPixelArray ---
+
+    @Test
+    void toPixelArray_arrayTypeFollowsPixelFormat() {
+        ByteBuffer src = nativeBuffer(16);
+        assertEquals(16, ((byte[]) ImageBuffers.toPixelArray(src, 1, 1)).length);
+        assertEquals(8, ((short[]) ImageBuffers.toPixelArray(src, 2, 1)).length);
+        assertEquals(4, ((float[]) ImageBuffers.toPixelArray(src, 4, 1)).length);
+        assertEquals(16, ((byte[]) ImageBuffers.toPixelArray(src, 4, 4)).length);
+        assertEquals(8, ((short[]) ImageBuffers.toPixelArray(src, 8, 4)).length);
+        assertNull(ImageBuffers.toPixelArray(src, 3, 1));
+    }
+
+    @Test
+    void toPixelArray_copiesPixels() {
+        ByteBuffer src = nativeBuffer(4);
+        src.asShortBuffer().put(new short[] { 4095, 17 });
+        assertArrayEquals(new short[] { 4095, 17 },
+                (short[]) ImageBuffers.toPixelArray(src, 2, 1));
+    }
+
+    @Test
+    void copy_destinationTooSmall() {
+        ByteBuffer src = nativeBuffer(8);
+        assertThrows(IllegalArgumentException.class,
+                () -> ImageBuffers.copy(src, new short[3]));
+    }
+
+    @Test
+    void copy_sizeNotMultipleOfElementSize() {
+        ByteBuffer src = nativeBuffer(3);
+        assertThrows(IllegalArgumentException.class,
+                () -> ImageBuffers.copy(src, new short[2]));
+    }
+}
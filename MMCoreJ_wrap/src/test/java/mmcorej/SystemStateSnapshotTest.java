@@ -0,0 +1,64 @@
+package mmcorej;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import mmcorej.org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class SystemStateSnapshotTest {
+
+    @Mock
+    CMMCore core;
+
+    private static Configuration config(String value) {
+        Configuration config = new Configuration();
+        config.addSetting(new PropertySetting("Dev", "Prop", value));
+        return config;
+    }
+
+    // --- update ---
+
+    @Test
+    void update_reusedWhileVersionUnchanged() throws Exception {
+        when(core.getSystemStateCacheVersion()).thenReturn(3L);
+        when(core.getSystemStateCache()).thenReturn(config("A"));
+
+        SystemStateSnapshot first = SystemStateSnapshot.update(core, null);
+        SystemStateSnapshot second = SystemStateSnapshot.update(core, first);
+
+        assertSame(first, second);
+        verify(core, times(1)).getSystemStateCache();
+    }
+
+    @Test
+    void update_refetchedWhenVersionChanges() throws Exception {
+        when(core.getSystemStateCacheVersion()).thenReturn(3L, 4L);
+        when(core.getSystemStateCache()).thenReturn(config("A"), config("B"));
+
+        SystemStateSnapshot first = SystemStateSnapshot.update(core, null);
+        SystemStateSnapshot second = SystemStateSnapshot.update(core, first);
+
+        assertNotSame(first, second);
+        JSONObject tags = new JSONObject();
+        second.putInto(tags);
+        assertEquals("B", tags.getString("Dev-Prop"));
+    }
+
+    // --- putInto ---
+
+    @Test
+    void putInto_sameTagsEachTime() throws Exception {
+        SystemStateSnapshot snapshot = new SystemStateSnapshot(config("A"));
+        for (int i = 0; i < 2; ++i) {
+            JSONObject tags = new JSONObject();
+            snapshot.putInto(tags);
+            assertEquals(1, tags.length());
+            assertEquals("A", tags.getString("Dev-Prop"));
+        }
+    }
+}
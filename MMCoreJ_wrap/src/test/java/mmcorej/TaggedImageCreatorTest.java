@@ -104,6 +104,42 @@ class TaggedImageCreatorTest {
         assertEquals("value", result.getString("good"));
     }
 
+    // --- serializedMetadataToMap ---
+
+    @Test
+    void serializedMetadataToMap_emptyMetadata() {
+        assertEquals(0, TaggedImageCreator.serializedMetadataToMap("0\n").length());
+        assertEquals(0, TaggedImageCreator.serializedMetadataToMap("").length());
+        assertEquals(0, TaggedImageCreator.serializedMetadataToMap(null).length());
+    }
+
+    @Test
+    void serializedMetadataToMap_qualifiesKeysAndSkipsArrayTags() throws Exception {
+        String serialized = "3\n"
+                + "s\nExposure\nCamera\n0\n100.0\n"
+                + "a\nPositions\nStage\n1\n2\n1.0\n2.0\n"
+                + "s\nImageNumber\n_\n1\n7\n";
+        JSONObject result = TaggedImageCreator.serializedMetadataToMap(serialized);
+        assertEquals(2, result.length());
+        assertEquals("100.0", result.getString("Camera-Exposure"));
+        assertEquals("7", result.getString("ImageNumber"));
+    }
+
+    @Test
+    void serializedMetadataToMap_emptyValue() throws Exception {
+        JSONObject result = TaggedImageCreator.serializedMetadataToMap(
+                "1\ns\nLabel\n_\n0\n\n");
+        assertEquals("", result.getString("Label"));
+    }
+
+    @Test
+    void serializedMetadataToMap_truncatedInput() throws Exception {
+        JSONObject result = TaggedImageCreator.serializedMetadataToMap(
+                "2\ns\nA\n_\n0\nx\ns\nB\n");
+        assertEquals(1, result.length());
+        assertEquals("x", result.getString("A"));
+    }
+
     // --- getROITag ---
 
     @Test
@@ -449,4 +485,163 @@ class TaggedImageCreatorTest {
         assertEquals("ExistingCam", image.tags.getString("Camera"));
         assertEquals("DAPI", image.tags.getString("Channel"));
     }
+
+    // --- createLazyTaggedImage ---
+
+    @Test
+    void createLazyTaggedImage_sameTagsAsEager() throws Exception {
+        stubCoreDefaults(core);
+        Configuration config = new Configuration();
+        config.addSetting(
+                new PropertySetting("Core", "Camera", "Multi"));
+        config.addSetting(
+                new PropertySetting("Multi", "Physical Camera 2", "PhysCam2"));
+        when(core.getSystemStateCache()).thenReturn(config);
+        Metadata md = new Metadata();
+        MetadataSingleTag tag =
+                new MetadataSingleTag("Exposure", "Camera", false);
+        tag.SetValue("50.0");
+        md.SetTag(tag);
+
+        TaggedImage eager = TaggedImageCreator.createTaggedImage(
+                core, true, new byte[0], md, 1);
+        TaggedImage lazy = TaggedImageCreator.createLazyTaggedImage(
+                core, true, new byte[0], md, 1);
+
+        assertEquals(eager.tags.length(), lazy.tags.length());
+        for (java.util.Iterator<String> keys = eager.tags.keys();
+                keys.hasNext(); ) {
+            String key = keys.next();
+            assertEquals(eager.tags.get(key).toString(),
+                    lazy.tags.get(key).toString(), key);
+        }
+    }
+
+    @Test
+    void createLazyTaggedImage_noCameraChannel() throws Exception {
+        stubCoreDefaults(core);
+
+        TaggedImage image = TaggedImageCreator.createLazyTaggedImage(
+                core, false, new byte[0], new Metadata(), -1);
+
+        verify(core, never()).getSystemStateCache();
+        assertEquals(16, image.tags.length());
+        assertFalse(image.tags.has("CameraChannelIndex"));
+    }
+
+    @Test
+    void createLazyTaggedImage_coreStateCapturedAtCreation() throws Exception {
+        stubCoreDefaults(core);
+
+        TaggedImage image = TaggedImageCreator.createLazyTaggedImage(
+                core, false, new byte[0], new Metadata(), 0);
+        lenient().when(core.getImageWidth()).thenReturn(256L);
+
+        assertEquals(512L, image.tags.getLong("Width"));
+    }
+
+    @Test
+    void createLazyTaggedImage_metadataConvertedOnFirstAccess()
+            throws Exception {
+        stubCoreDefaults(core);
+        Metadata md = new Metadata();
+
+        TaggedImage image = TaggedImageCreator.createLazyTaggedImage(
+                core, false, new byte[0], md, 0);
+        MetadataSingleTag tag =
+                new MetadataSingleTag("Exposure", "Camera", false);
+        tag.SetValue("50.0");
+        md.SetTag(tag);
+
+        assertEquals("50.0", image.tags.getString("Camera-Exposure"));
+    }
+
+    @Test
+    void createLazyTaggedImage_coreTagErrorThrownOnFirstAccess()
+            throws Exception {
+        stubCoreDefaults(core);
+        Configuration config = mock(Configuration.class);
+        when(config.size()).thenReturn(1L);
+        when(config.getSetting(0)).thenThrow(new Exception("no setting"));
+        when(core.getSystemStateCache()).thenReturn(config);
+
+        TaggedImage image = TaggedImageCreator.createLazyTaggedImage(
+                core, true, new byte[0], new Metadata(), 0);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> image.tags.length());
+        assertEquals("no setting", e.getCause().getMessage());
+        assertThrows(Exception.class, () -> TaggedImageCreator.createTaggedImage(
+                core, true, new byte[0], new Metadata(), 0));
+    }
+
+    // --- shared core tags ---
+
+    @Test
+    void createTaggedImage_sharedContext_imagesIndependent() throws Exception {
+        stubCoreDefaults(core);
+        AcquisitionContext context = AcquisitionContext.capture(core);
+        Metadata md = new Metadata();
+        MetadataSingleTag tag = new MetadataSingleTag("Width", "_", false);
+        tag.SetValue("1024");
+        md.SetTag(tag);
+
+        TaggedImage first = TaggedImageCreator.createTaggedImage(
+                null, context, new byte[0], md, 0);
+        TaggedImage second = TaggedImageCreator.createTaggedImage(
+                null, context, new byte[0], new Metadata(), 1);
+
+        assertSame(context.baseTags(null), context.baseTags(null));
+        assertEquals(512L, first.tags.getLong("Width"));
+        assertEquals(0, first.tags.getInt("CameraChannelIndex"));
+        assertEquals(1, second.tags.getInt("CameraChannelIndex"));
+        first.tags.put("Frame", 3);
+        first.tags.remove("Binning");
+        assertEquals(0, second.tags.getInt("Frame"));
+        assertEquals("1", second.tags.getString("Binning"));
+        assertEquals(16, first.tags.length());
+        assertEquals(17, second.tags.length());
+    }
+
+    // --- createTaggedImages ---
+
+    private static java.nio.ByteBuffer imageBuffer(int nBytes) {
+        return java.nio.ByteBuffer.allocateDirect(nBytes)
+                .order(java.nio.ByteOrder.nativeOrder());
+    }
+
+    private static String frameMetadata(int width, int height, String pixelType) {
+        return "3\n"
+                + "s\nWidth\n_\n1\n" + width + "\n"
+                + "s\nHeight\n_\n1\n" + height + "\n"
+                + "s\nPixelType\n_\n1\n" + pixelType + "\n";
+    }
+
+    @Test
+    void createTaggedImages_ownFramesTakeEachImageSize() throws Exception {
+        stubCoreDefaults(core);
+        AcquisitionContext context = AcquisitionContext.capture(core);
+        java.nio.ByteBuffer[] buffers = {
+                imageBuffer(512 * 512), imageBuffer(16 * 8 * 2)};
+        String[] serializedMetadata = {
+                frameMetadata(512, 512, "GRAY8"), frameMetadata(16, 8, "GRAY16")};
+
+        java.util.List<TaggedImage> images = TaggedImageCreator.createTaggedImages(
+                null, context, false, null, true, buffers, serializedMetadata);
+
+        assertEquals(2, images.size());
+        TaggedImage first = images.get(0);
+        assertEquals(512 * 512, ((byte[]) first.pix).length);
+        assertEquals(512L, first.tags.getLong("Width"));
+        assertEquals("GRAY8", first.tags.getString("PixelType"));
+        assertEquals("0-0-512-512", first.tags.getString("ROI"));
+        TaggedImage second = images.get(1);
+        assertEquals(16 * 8, ((short[]) second.pix).length);
+        assertEquals(16L, second.tags.getLong("Width"));
+        assertEquals(8L, second.tags.getLong("Height"));
+        assertEquals("GRAY16", second.tags.getString("PixelType"));
+        assertEquals(16L, second.tags.getLong("BitDepth"));
+        assertFalse(second.tags.has("ROI"));
+        assertEquals("DAPI", second.tags.getString("Channel"));
+    }
 }
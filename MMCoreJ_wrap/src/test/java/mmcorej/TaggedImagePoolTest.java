@@ -0,0 +1,140 @@
+package mmcorej;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import mmcorej.org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class TaggedImagePoolTest {
+
+    // --- getPixelArray ---
+
+    @Test
+    void getPixelArray_typeAndLengthFollowPixelFormat() {
+        TaggedImagePool pool = new TaggedImagePool();
+        assertEquals(12, ((byte[]) pool.getPixelArray(4, 3, 1, 1)).length);
+        assertEquals(12, ((short[]) pool.getPixelArray(4, 3, 2, 1)).length);
+        assertEquals(12, ((float[]) pool.getPixelArray(4, 3, 4, 1)).length);
+        assertEquals(48, ((byte[]) pool.getPixelArray(4, 3, 4, 4)).length);
+        assertEquals(48, ((short[]) pool.getPixelArray(4, 3, 8, 4)).length);
+        assertNull(pool.getPixelArray(4, 3, 3, 1));
+    }
+
+    @Test
+    void getPixelArray_reusesRecycledArrayOfSameSize() {
+        TaggedImagePool pool = new TaggedImagePool();
+        Object first = pool.getPixelArray(8, 8, 2, 1);
+        pool.recycle(first);
+        assertEquals(1, pool.getFreeCount());
+        assertSame(first, pool.getPixelArray(8, 8, 2, 1));
+        assertEquals(0, pool.getFreeCount());
+    }
+
+    @Test
+    void getPixelArray_doesNotReuseOtherSizes() {
+        TaggedImagePool pool = new TaggedImagePool();
+        Object shorts = pool.getPixelArray(8, 8, 2, 1);
+        pool.recycle(shorts);
+        assertNotSame(shorts, pool.getPixelArray(16, 8, 2, 1));
+        assertNotSame(shorts, pool.getPixelArray(8, 16, 1, 1));
+        assertEquals(1, pool.getFreeCount());
+    }
+
+    // --- recycle ---
+
+    @Test
+    void recycle_keepsAtMostMaxArraysPerSize() {
+        TaggedImagePool pool = new TaggedImagePool(2);
+        for (int i = 0; i < 3; ++i) {
+            pool.recycle(new byte[16]);
+        }
+        assertEquals(2, pool.getFreeCount());
+        pool.clear();
+        assertEquals(0, pool.getFreeCount());
+    }
+
+    @Test
+    void recycle_ignoresNonPixelArrays() {
+        TaggedImagePool pool = new TaggedImagePool();
+        pool.recycle(null);
+        pool.recycle(new int[4]);
+        pool.recycle("pixels");
+        assertEquals(0, pool.getFreeCount());
+    }
+
+    // --- TaggedImage.release ---
+
+    @Test
+    void release_returnsPixelsOnce() {
+        TaggedImagePool pool = new TaggedImagePool();
+        TaggedImage image = new TaggedImage(pool.getPixelArray(2, 2, 1, 1), null, pool);
+        image.release();
+        image.release();
+        assertEquals(1, pool.getFreeCount());
+    }
+
+    @Test
+    void release_unpooledImageIsNoOp() {
+        new TaggedImage(new byte[4], null).release();
+    }
+
+    @Test
+    void release_keepsTagsOnlyIfPoolReusesTags() throws Exception {
+        TaggedImagePool pool = new TaggedImagePool();
+        JSONObject tags = new JSONObject().put("a", 1);
+        new TaggedImage(new byte[4], tags, pool).release();
+        assertEquals(0, pool.getFreeTagsCount());
+        assertEquals(1, tags.getInt("a"));
+    }
+
+    // --- getTags ---
+
+    @Test
+    void getTags_reusesReleasedTags() throws Exception {
+        TaggedImagePool pool = new TaggedImagePool(16, 1);
+        JSONObject base = new JSONObject().put("Camera", "Cam");
+        JSONObject tags = pool.getTags(base);
+        tags.put("ImageNumber", "1");
+        TaggedImage image = new TaggedImage(new byte[4], tags, pool);
+        image.release();
+        image.release();
+        assertEquals(1, pool.getFreeTagsCount());
+        assertEquals(0, tags.length());
+
+        JSONObject next = pool.getTags(base);
+        assertSame(tags, next);
+        assertEquals("{\"Camera\":\"Cam\"}", next.toString());
+        assertNotSame(tags, pool.getTags(base));
+    }
+
+    @Test
+    void recycleTags_keepsAtMostMaxTags() throws Exception {
+        TaggedImagePool pool = new TaggedImagePool(16, 2);
+        for (int i = 0; i < 3; ++i) {
+            pool.recycleTags(new JSONObject().put("a", i));
+        }
+        pool.recycleTags(new JSONObject().freeze());
+        pool.recycleTags(null);
+        assertEquals(2, pool.getFreeTagsCount());
+        pool.clear();
+        assertEquals(0, pool.getFreeTagsCount());
+    }
+
+    // --- ImageBuffers.toPixelArray ---
+
+    @Test
+    void toPixelArray_copiesIntoPooledArray() {
+        TaggedImagePool pool = new TaggedImagePool();
+        short[] recycled = new short[2];
+        pool.recycle(recycled);
+        ByteBuffer src = ByteBuffer.allocateDirect(4).order(ByteOrder.nativeOrder());
+        src.asShortBuffer().put(new short[] { 7, 9 });
+
+        Object pixels = ImageBuffers.toPixelArray(src, 2, 1, pool);
+
+        assertSame(recycled, pixels);
+        assertArrayEquals(new short[] { 7, 9 }, recycled);
+    }
+}
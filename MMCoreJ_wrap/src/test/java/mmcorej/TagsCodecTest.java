@@ -0,0 +1,154 @@
+package mmcorej;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import mmcorej.org.json.JSONArray;
+import mmcorej.org.json.JSONException;
+import mmcorej.org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class TagsCodecTest {
+
+    /** Tags shaped like those of a sequence acquisition image. */
+    private static JSONObject frameTags(int frame) throws JSONException {
+        JSONObject tags = new JSONObject();
+        for (int i = 0; i < 300; ++i) {
+            tags.put("Device" + (i / 10) + "-Property" + (i % 10),
+                    "Value " + i);
+        }
+        tags.put("BitDepth", 16L);
+        tags.put("PixelSizeUm", 0.325);
+        tags.put("Width", 2048L);
+        tags.put("Height", 2048L);
+        tags.put("PixelType", "GRAY16");
+        tags.put("Camera", "Camera \u00b5");
+        tags.put("ImageNumber", Integer.toString(frame));
+        tags.put("Frame", frame);
+        tags.put("ElapsedTime-ms", frame * 10.25);
+        tags.put("TimeReceivedByCore", 1712345678901L + frame * 10);
+        tags.put("Binning", JSONObject.NULL);
+        tags.put("Flag", frame % 2 == 0);
+        return tags;
+    }
+
+    // --- round trip ---
+
+    @Test
+    void decode_sequenceRoundTrips() throws Exception {
+        TagsCodec.Encoder encoder = new TagsCodec.Encoder();
+        TagsCodec.Decoder decoder = new TagsCodec.Decoder();
+        for (int frame = 0; frame < 20; ++frame) {
+            JSONObject tags = frameTags(frame);
+            JSONObject decoded = decoder.decode(encoder.encode(tags));
+            assertEquals(tags.toString(), decoded.toString());
+            assertEquals(Integer.class, decoded.get("Frame").getClass());
+            assertEquals(Long.class,
+                    decoded.get("TimeReceivedByCore").getClass());
+        }
+    }
+
+    @Test
+    void encode_deltaRecordsAreSmall() throws Exception {
+        TagsCodec.Encoder encoder = new TagsCodec.Encoder();
+        byte[] first = encoder.encode(frameTags(0));
+        byte[] second = encoder.encode(frameTags(1));
+        assertTrue(first.length < frameTags(0).toString().length());
+        assertTrue(second.length < 40, "delta record: " + second.length);
+        assertEquals(TagsCodec.KEY_FRAME, first[0]);
+        assertEquals(TagsCodec.SAME_LAYOUT, second[0]);
+    }
+
+    @Test
+    void decode_layoutChanges() throws Exception {
+        TagsCodec.Encoder encoder = new TagsCodec.Encoder();
+        TagsCodec.Decoder decoder = new TagsCodec.Decoder();
+        JSONObject a = new JSONObject().put("x", 1).put("y", "s");
+        JSONObject b = new JSONObject().put("y", "s").put("z", 2.5);
+        JSONObject c = new JSONObject().put("x", 1).put("y", "s");
+        for (JSONObject tags : new JSONObject[] { a, b, c, new JSONObject() }) {
+            assertEquals(tags.toString(),
+                    decoder.decode(encoder.encode(tags)).toString());
+        }
+    }
+
+    @Test
+    void decode_nestedValues() throws Exception {
+        TagsCodec.Encoder encoder = new TagsCodec.Encoder();
+        TagsCodec.Decoder decoder = new TagsCodec.Decoder();
+        JSONObject tags = new JSONObject();
+        tags.put("Summary", new JSONObject().put("Prefix", "acq")
+                .put("Channels", new JSONArray().put("DAPI").put(2)));
+        tags.put("Positions", new JSONArray().put(new JSONObject()
+                .put("x", -1.5)).put(JSONObject.NULL).put(true));
+        String text = tags.toString();
+        assertEquals(text, decoder.decode(encoder.encode(tags)).toString());
+        tags.getJSONObject("Summary").put("Prefix", "changed");
+        assertEquals(tags.toString(),
+                decoder.decode(encoder.encode(tags)).toString());
+    }
+
+    @Test
+    void decode_integersUseDeltas() throws Exception {
+        TagsCodec.Encoder encoder = new TagsCodec.Encoder();
+        TagsCodec.Decoder decoder = new TagsCodec.Decoder();
+        long[] values = { 1712345678901L, 1712345678911L, 5L, -7L,
+                Long.MIN_VALUE, Long.MAX_VALUE, 0L };
+        for (long v : values) {
+            JSONObject tags = new JSONObject().put("t", v)
+                    .put("i", (int) v);
+            JSONObject decoded = decoder.decode(encoder.encode(tags));
+            assertEquals(v, decoded.getLong("t"));
+            assertEquals((int) v, decoded.getInt("i"));
+        }
+    }
+
+    @Test
+    void encode_reusesBuffer() throws Exception {
+        TagsCodec.Encoder encoder = new TagsCodec.Encoder();
+        TagsCodec.Decoder decoder = new TagsCodec.Decoder();
+        ByteBuffer buf = encoder.encode(frameTags(0), null);
+        assertEquals(0, buf.position());
+        assertEquals(frameTags(0).toString(),
+                decoder.decode(buf).toString());
+        assertFalse(buf.hasRemaining());
+        ByteBuffer again = encoder.encode(frameTags(1), buf);
+        assertSame(buf, again);
+        assertEquals(frameTags(1).toString(),
+                decoder.decode(again).toString());
+    }
+
+    // --- key frames ---
+
+    @Test
+    void decode_keyFrameAfterReset() throws Exception {
+        TagsCodec.Encoder encoder = new TagsCodec.Encoder();
+        encoder.encode(frameTags(0));
+        byte[] delta = encoder.encode(frameTags(1));
+        byte[] keyFrame = encoder.reset().encode(frameTags(2));
+        byte[] next = encoder.encode(frameTags(3));
+
+        TagsCodec.Decoder decoder = new TagsCodec.Decoder();
+        assertThrows(JSONException.class, () -> decoder.decode(delta));
+        assertEquals(frameTags(2).toString(),
+                decoder.decode(keyFrame).toString());
+        assertEquals(frameTags(3).toString(),
+                decoder.decode(next).toString());
+    }
+
+    // --- errors ---
+
+    @Test
+    void decode_rejectsMalformedRecords() throws Exception {
+        byte[] record = new TagsCodec.Encoder().encode(frameTags(0));
+        for (int n = 0; n < record.length; n += 97) {
+            byte[] truncated = java.util.Arrays.copyOf(record, n);
+            assertThrows(JSONException.class,
+                    () -> new TagsCodec.Decoder().decode(truncated));
+        }
+        assertThrows(JSONException.class,
+                () -> new TagsCodec.Decoder().decode(new byte[] { 0x41 }));
+        assertThrows(JSONException.class, () -> new TagsCodec.Decoder()
+                .decode(new byte[] { 1, 0, 1, 5, 0 }));
+    }
+}
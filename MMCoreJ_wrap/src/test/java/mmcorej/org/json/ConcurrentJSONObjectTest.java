@@ -0,0 +1,163 @@
+package mmcorej.org.json;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+class ConcurrentJSONObjectTest {
+
+    // --- single thread ---
+
+    @Test
+    void behavesLikeJSONObject() throws Exception {
+        ConcurrentJSONObject cjo = new ConcurrentJSONObject();
+        JSONObject jo = new JSONObject();
+        for (JSONObject o : new JSONObject[] { cjo, jo }) {
+            o.put("Prefix", "acq").put("Frames", 10).put("Interval_ms", 1.5)
+                    .put("StartTime", 1712345678901L).put("Stack", true);
+            o.putOpt("Skipped", null);
+            o.accumulate("ChNames", "DAPI");
+            o.accumulate("ChNames", "FITC");
+            o.put("Frames", 20);
+            o.remove("Stack");
+        }
+        assertEquals(jo.toString(), cjo.toString());
+        assertEquals(jo.toString(2), cjo.toString(2));
+        assertEquals(jo.toString(),
+                cjo.write(new StringBuilder()).toString());
+        assertEquals(jo.names().toString(), cjo.names().toString());
+        assertEquals(5, cjo.length());
+        assertEquals(20, cjo.getInt("Frames"));
+        assertEquals(1.5, cjo.getDouble("Interval_ms"));
+        assertEquals(1712345678901L, cjo.getLong("StartTime"));
+        assertEquals("FITC", cjo.getJSONArray("ChNames").getString(1));
+        assertFalse(cjo.has("Stack"));
+        assertNull(cjo.remove("Stack"));
+        assertThrows(JSONException.class, () -> cjo.get("Stack"));
+        assertEquals("[\"acq\",{\"a\":{\"Frames\":20}}]",
+                new JSONArray().put("acq").put(new JSONObject().put("a",
+                        new ConcurrentJSONObject("{\"Frames\":20}")))
+                        .toString());
+    }
+
+    @Test
+    void freeze_returnsSnapshot() throws Exception {
+        ConcurrentJSONObject cjo = new ConcurrentJSONObject("{\"a\":1}");
+        JSONObject snapshot = cjo.freeze();
+        Iterator<String> keys = cjo.keys();
+        cjo.put("b", 2);
+        assertTrue(snapshot.isFrozen());
+        assertFalse(cjo.isFrozen());
+        assertEquals("{\"a\":1}", snapshot.toString());
+        assertEquals("a", keys.next());
+        assertFalse(keys.hasNext());
+
+        JSONObject overlay = JSONObject.overlay(cjo);
+        overlay.put("c", 3);
+        cjo.put("a", 10);
+        assertEquals("{\"a\":1,\"b\":2,\"c\":3}", overlay.toString());
+    }
+
+    @Test
+    void put_freezesNestedObjects() throws Exception {
+        JSONObject nested = new JSONObject().put("x", 1);
+        ConcurrentJSONObject cjo = new ConcurrentJSONObject();
+        cjo.put("Nested", nested);
+        assertTrue(nested.isFrozen());
+        assertThrows(UnsupportedOperationException.class,
+                () -> cjo.getJSONObject("Nested").put("y", 2));
+    }
+
+    @Test
+    void accumulate_doesNotChangeSharedArray() throws Exception {
+        ConcurrentJSONObject cjo = new ConcurrentJSONObject();
+        cjo.accumulate("a", 1);
+        cjo.accumulate("a", 2);
+        JSONObject snapshot = cjo.freeze();
+        cjo.accumulate("a", 3);
+        assertEquals("[1,2]", snapshot.getJSONArray("a").toString());
+        assertEquals("[1,2,3]", cjo.getJSONArray("a").toString());
+    }
+
+    @Test
+    void update_isAllOrNothing() throws Exception {
+        ConcurrentJSONObject cjo = new ConcurrentJSONObject("{\"a\":1}");
+        cjo.update(jo -> jo.put("b", 2).put("c", 3));
+        assertEquals("{\"a\":1,\"b\":2,\"c\":3}", cjo.toString());
+        assertThrows(JSONException.class, () -> cjo.update(jo -> {
+            jo.put("d", 4);
+            jo.put("e", Double.NaN);
+        }));
+        assertFalse(cjo.has("d"));
+        cjo.clear();
+        assertEquals("{}", cjo.toString());
+    }
+
+    // --- threads ---
+
+    @Test
+    void accumulate_concurrentWritersLoseNothing() throws Exception {
+        ConcurrentJSONObject cjo = new ConcurrentJSONObject();
+        int nThreads = 4;
+        int perThread = 200;
+        Thread[] writers = new Thread[nThreads];
+        for (int t = 0; t < nThreads; ++t) {
+            int id = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; ++i) {
+                    try {
+                        cjo.accumulate("values", id * perThread + i);
+                        cjo.put("Writer" + id, i);
+                    } catch (JSONException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+        }
+        AtomicReference<Throwable> readerError = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                for (;;) {
+                    // Each snapshot is consistent: a writer's key is put
+                    // after the value that it accumulated
+                    JSONObject snapshot = cjo.freeze();
+                    JSONArray values = snapshot.optJSONArray("values");
+                    int n = values == null ? 0 : values.length();
+                    for (int t = 0; t < nThreads; ++t) {
+                        assertTrue(snapshot.optInt("Writer" + t, -1) < n);
+                    }
+                    if (n == nThreads * perThread) {
+                        break;
+                    }
+                }
+            } catch (Throwable e) {
+                readerError.set(e);
+            }
+        });
+        reader.start();
+        for (Thread w : writers) {
+            w.start();
+        }
+        for (Thread w : writers) {
+            w.join();
+        }
+        reader.join(10000);
+        assertFalse(reader.isAlive());
+        assertNull(readerError.get());
+
+        JSONArray values = cjo.getJSONArray("values");
+        assertEquals(nThreads * perThread, values.length());
+        boolean[] seen = new boolean[nThreads * perThread];
+        for (int i = 0; i < values.length(); ++i) {
+            seen[values.getInt(i)] = true;
+        }
+        for (boolean s : seen) {
+            assertTrue(s);
+        }
+        for (int t = 0; t < nThreads; ++t) {
+            assertEquals(perThread - 1, cjo.getInt("Writer" + t));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package mmcorej.org.json;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class JSONArrayTest {
+
+    // --- values ---
+
+    @Test
+    void put_primitivesReadBackWithTheirTypes() throws Exception {
+        JSONArray ja = new JSONArray().put(1).put(2L).put(2.5).put("s")
+                .put(true);
+        assertEquals(Integer.valueOf(1), ja.get(0));
+        assertEquals(Long.valueOf(2), ja.get(1));
+        assertEquals(Double.valueOf(2.5), ja.get(2));
+        assertEquals(2, ja.getInt(2));
+        assertEquals(2.0, ja.getDouble(1), 0.0);
+        assertEquals("[1,2,2.5,\"s\",true]", ja.toString());
+    }
+
+    @Test
+    void put_atIndexPadsWithNulls() throws Exception {
+        JSONArray ja = new JSONArray();
+        ja.put(2, 7);
+        ja.put(0, 1.5);
+        assertEquals(3, ja.length());
+        assertTrue(ja.isNull(1));
+        assertEquals("[1.5,null,7]", ja.toString());
+        ja.put(2, "x");
+        assertEquals("x", ja.get(2));
+        assertThrows(JSONException.class, () -> ja.put(-1, 0));
+        assertThrows(JSONException.class, () -> ja.put(Double.NaN));
+    }
+
+    @Test
+    void collectionConstructor() throws Exception {
+        JSONArray ja = new JSONArray(Arrays.asList(1, "a", null, 3.0));
+        assertEquals(4, ja.length());
+        assertEquals("[1,\"a\",null,3]", ja.toString());
+        assertEquals(0, ja.optInt(1));
+        assertEquals(3L, ja.getLong(3));
+    }
+}
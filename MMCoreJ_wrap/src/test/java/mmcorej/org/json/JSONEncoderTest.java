@@ -0,0 +1,134 @@
+package mmcorej.org.json;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class JSONEncoderTest {
+
+    private static JSONObject sample() throws JSONException {
+        JSONObject jo = new JSONObject();
+        jo.put("Camera", "Camera-1");
+        jo.put("Width", 512L);
+        jo.put("Height", -7);
+        jo.put("Exposure-ms", 10.5);
+        jo.put("Whole", 2.0);
+        jo.put("Flag", true);
+        jo.put("Nothing", JSONObject.NULL);
+        jo.put("Escapes", "a\"b\\c</d\n\t\u0001");
+        jo.put("Nested", new JSONObject().put("x", 1));
+        jo.put("List", new JSONArray().put(1).put("two").put(3.5)
+                .put(new JSONArray()));
+        return jo;
+    }
+
+    // --- write(Appendable) ---
+
+    @Test
+    void write_matchesToString() throws Exception {
+        JSONObject jo = sample();
+        assertEquals(jo.toString(), jo.write(new StringBuilder()).toString());
+        assertEquals(jo.toString(), jo.write(new StringWriter()).toString());
+        JSONArray ja = jo.getJSONArray("List");
+        assertEquals(ja.toString(), ja.write(new StringBuilder()).toString());
+    }
+
+    @Test
+    void write_escapesLikeQuote() throws Exception {
+        String[] strings = { "", "plain", "</script>", "/", "\\\\", "\"\"",
+                "\b\f\n\r\t", "\u0000\u001f", "tab\tmid", "\u00e9\u4e2d" };
+        for (String s : strings) {
+            StringBuilder sb = new StringBuilder();
+            JSONEncoder.writeQuoted(s, sb);
+            assertEquals(JSONObject.quote(s), sb.toString(), s);
+        }
+    }
+
+    @Test
+    void write_rejectsInvalidNumbers() {
+        JSONArray ja = new JSONArray().put((Object) Double.NaN);
+        assertThrows(JSONException.class, () -> ja.write(new StringBuilder()));
+    }
+
+    // --- encoder ---
+
+    @Test
+    void encoder_matchesToString() throws Exception {
+        JSONObject jo = sample();
+        JSONEncoder encoder = new JSONEncoder(16);
+        assertEquals(jo.toString(), encoder.encode(jo).toString());
+        assertEquals(jo.toString().length(), encoder.length());
+    }
+
+    @Test
+    void encoder_integers() throws Exception {
+        long[] values = { 0, 9, 10, -1, -10, 1234567890123L, Long.MAX_VALUE,
+                Long.MIN_VALUE };
+        JSONEncoder encoder = new JSONEncoder();
+        for (long v : values) {
+            assertEquals(Long.toString(v), encoder.reset().encode(v).toString());
+        }
+        assertEquals("-32768",
+                encoder.reset().encode(Short.MIN_VALUE).toString());
+    }
+
+    @Test
+    void encoder_resetReusesBuffer() throws Exception {
+        JSONEncoder encoder = new JSONEncoder();
+        encoder.encode(sample());
+        char[] buf = encoder.buffer();
+        String expected = new JSONArray().put("x").toString();
+        assertEquals(expected,
+                encoder.reset().encode(new JSONArray().put("x")).toString());
+        assertSame(buf, encoder.buffer());
+    }
+
+    @Test
+    void encoder_writeTo() throws Exception {
+        JSONObject jo = sample();
+        JSONEncoder encoder = new JSONEncoder().encode(jo);
+        StringWriter w = new StringWriter();
+        encoder.writeTo(w);
+        assertEquals(jo.toString(), w.toString());
+        StringBuilder sb = new StringBuilder();
+        encoder.writeTo(sb);
+        assertEquals(jo.toString(), sb.toString());
+    }
+
+    // --- toUTF8 ---
+
+    @Test
+    void toUTF8_matchesStringEncoding() throws Exception {
+        JSONObject jo = new JSONObject();
+        jo.put("ascii", "abc");
+        jo.put("latin", "\u00b5m \u00e9");
+        jo.put("cjk", "\u4e2d\u6587");
+        jo.put("emoji", "\ud83d\udd2c");
+        jo.put("unpaired", "\ud83d!");
+        JSONEncoder encoder = new JSONEncoder().encode(jo);
+        ByteBuffer bytes = encoder.toUTF8(null);
+        byte[] actual = new byte[bytes.remaining()];
+        bytes.get(actual);
+        assertArrayEquals(jo.toString().getBytes(StandardCharsets.UTF_8),
+                actual);
+    }
+
+    @Test
+    void toUTF8_reusesLargeEnoughBuffer() throws Exception {
+        JSONEncoder encoder = new JSONEncoder().encode("abc");
+        ByteBuffer reuse = ByteBuffer.allocate(64);
+        reuse.position(10);
+        ByteBuffer bytes = encoder.toUTF8(reuse);
+        assertSame(reuse, bytes);
+        assertEquals(0, bytes.position());
+        assertEquals(5, bytes.limit());
+
+        ByteBuffer small = ByteBuffer.allocate(2);
+        ByteBuffer grown = encoder.toUTF8(small);
+        assertNotSame(small, grown);
+        assertEquals(5, grown.remaining());
+    }
+}
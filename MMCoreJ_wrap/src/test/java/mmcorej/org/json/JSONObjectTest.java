@@ -0,0 +1,368 @@
+package mmcorej.org.json;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class JSONObjectTest {
+
+    private static JSONObject deferred(AtomicInteger calls) {
+        return new JSONObject(jo -> {
+            calls.incrementAndGet();
+            try {
+                jo.put("a", 1);
+                jo.put("b", "two");
+            } catch (JSONException e) {
+                throw new AssertionError(e);
+            }
+        });
+    }
+
+    // --- values ---
+
+    @Test
+    void put_primitivesReadBackWithTheirTypes() throws Exception {
+        JSONObject jo = new JSONObject();
+        jo.put("i", 7);
+        jo.put("l", 1L << 40);
+        jo.put("d", 0.325);
+        jo.put("boxed", Integer.valueOf(-3));
+        assertEquals(7, jo.getInt("i"));
+        assertEquals(Integer.valueOf(7), jo.get("i"));
+        assertEquals(Long.valueOf(1L << 40), jo.get("l"));
+        assertEquals(Double.valueOf(0.325), jo.get("d"));
+        assertEquals(Integer.valueOf(-3), jo.get("boxed"));
+        assertEquals(0, jo.getInt("d"));
+        assertEquals(0.325, jo.optDouble("d"), 0.0);
+        assertEquals(1L << 40, jo.getLong("l"));
+        assertEquals((double) (1L << 40), jo.getDouble("l"), 0.0);
+        assertEquals("7", jo.getString("i"));
+        assertEquals("{\"i\":7,\"l\":1099511627776,\"d\":0.325,\"boxed\":-3}",
+                jo.toString());
+    }
+
+    @Test
+    void put_replacesValueOfAnotherType() throws Exception {
+        JSONObject jo = new JSONObject();
+        jo.put("k", 1.5);
+        jo.put("k", "1.5x");
+        assertEquals("1.5x", jo.get("k"));
+        assertEquals(Double.NaN, jo.optDouble("k"), 0.0);
+        jo.put("k", 2);
+        assertEquals(2.0, jo.getDouble("k"), 0.0);
+        assertEquals(1, jo.length());
+        assertThrows(JSONException.class, () -> jo.put("k", Double.NaN));
+        assertThrows(JSONException.class, () -> jo.put(null, 1));
+    }
+
+    @Test
+    void remove_manyKeys() throws Exception {
+        JSONObject jo = new JSONObject();
+        for (int i = 0; i < 100; ++i) {
+            jo.put("key" + i, i);
+        }
+        for (int i = 0; i < 100; i += 1) {
+            assertEquals(i, jo.getInt("key" + i));
+        }
+        for (int i = 0; i < 90; ++i) {
+            assertEquals(i, jo.remove("key" + i));
+        }
+        assertNull(jo.remove("key0"));
+        assertEquals(10, jo.length());
+        assertFalse(jo.has("key0"));
+        for (int i = 90; i < 100; ++i) {
+            assertEquals(i, jo.getInt("key" + i));
+        }
+        jo.put("key5", 5);
+        Iterator<String> keys = jo.keys();
+        for (int i = 90; i < 100; ++i) {
+            assertEquals("key" + i, keys.next());
+        }
+        assertEquals("key5", keys.next());
+        assertFalse(keys.hasNext());
+    }
+
+    @Test
+    void put_afterRemoveKeepsCount() throws Exception {
+        JSONObject jo = new JSONObject();
+        jo.put("a", 1);
+        jo.put("a", (Object) null);
+        assertEquals(0, jo.length());
+        assertFalse(jo.has("a"));
+        jo.put("a", 2);
+        assertEquals(1, jo.length());
+        assertEquals("{\"a\":2}", jo.toString());
+    }
+
+    @Test
+    void keys_removeRemovesLastKey() throws Exception {
+        JSONObject jo = new JSONObject();
+        for (int i = 0; i < 100; ++i) {
+            jo.put("key" + i, i);
+        }
+        Iterator<String> keys = jo.keys();
+        assertThrows(IllegalStateException.class, keys::remove);
+        int seen = 0;
+        while (keys.hasNext()) {
+            assertEquals("key" + seen, keys.next());
+            if (seen % 4 != 0) {
+                keys.remove();
+                assertThrows(IllegalStateException.class, keys::remove);
+            }
+            ++seen;
+        }
+        assertEquals(100, seen);
+        assertEquals(25, jo.length());
+        assertFalse(jo.has("key1"));
+        assertEquals(96, jo.getInt("key96"));
+        keys = jo.keys();
+        for (int i = 0; i < 100; i += 4) {
+            assertEquals("key" + i, keys.next());
+        }
+        assertFalse(keys.hasNext());
+    }
+
+    @Test
+    void keys_removeFromOverlay() throws Exception {
+        JSONObject overlay = JSONObject.overlay(base());
+        overlay.put("Time", 1712345678901L);
+        for (Iterator<String> keys = overlay.keys(); keys.hasNext(); ) {
+            String key = keys.next();
+            if (key.equals("Width") || key.equals("Time")) {
+                keys.remove();
+            }
+        }
+        assertEquals(3, overlay.length());
+        assertFalse(overlay.has("Width"));
+        assertFalse(overlay.has("Time"));
+        assertEquals("{\"Camera\":\"Cam\",\"Exposure\":10.5,\"Nested\":{\"x\":1}}",
+                overlay.toString());
+        assertThrows(UnsupportedOperationException.class, () -> {
+            Iterator<String> keys = overlay.keys();
+            keys.next();
+            JSONObject.overlay(overlay);
+            keys.remove();
+        });
+    }
+
+    // --- deferred contents ---
+
+    @Test
+    void deferred_notPopulatedUntilAccessed() {
+        AtomicInteger calls = new AtomicInteger();
+        deferred(calls);
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    void deferred_populatedOnce() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        JSONObject jo = deferred(calls);
+        assertEquals(2, jo.length());
+        assertEquals(1, jo.getInt("a"));
+        assertEquals("two", jo.getString("b"));
+        assertTrue(jo.has("a"));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void deferred_putBeforeAccessAppliesAfterContents() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        JSONObject jo = deferred(calls);
+        jo.put("a", 10);
+        jo.put("c", true);
+        assertEquals(10, jo.getInt("a"));
+        assertEquals(3, jo.length());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void deferred_removeAndKeys() {
+        JSONObject jo = deferred(new AtomicInteger());
+        assertEquals(1, jo.remove("a"));
+        Iterator<String> keys = jo.keys();
+        assertEquals("b", keys.next());
+        assertFalse(keys.hasNext());
+    }
+
+    @Test
+    void deferred_serializesLikeEager() throws Exception {
+        JSONObject eager = new JSONObject();
+        eager.put("a", 1);
+        eager.put("b", "two");
+        assertEquals(eager.toString(),
+                deferred(new AtomicInteger()).toString());
+        assertEquals(eager.toString(2),
+                deferred(new AtomicInteger()).toString(2));
+    }
+
+    @Test
+    void deferred_concurrentReadersSeeFullContents() throws Exception {
+        for (int trial = 0; trial < 100; ++trial) {
+            AtomicInteger calls = new AtomicInteger();
+            JSONObject jo = deferred(calls);
+            AtomicInteger lengthSum = new AtomicInteger();
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; ++i) {
+                threads[i] = new Thread(() -> lengthSum.addAndGet(jo.length()));
+                threads[i].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            assertEquals(2 * threads.length, lengthSum.get());
+            assertEquals(1, calls.get());
+        }
+    }
+
+    // --- overlays ---
+
+    private static JSONObject base() throws JSONException {
+        JSONObject base = new JSONObject();
+        base.put("Camera", "Cam");
+        base.put("Width", 512);
+        base.put("Exposure", 10.5);
+        base.put("Nested", new JSONObject().put("x", 1));
+        return base;
+    }
+
+    /** Apply the same changes to an overlay and to a copy of its base. */
+    private static void change(JSONObject jo) throws JSONException {
+        jo.put("Width", 256);
+        jo.remove("Camera");
+        jo.put("Time", 1712345678901L);
+        jo.put("ImageNumber", "7");
+        jo.remove("ImageNumber");
+    }
+
+    @Test
+    void overlay_behavesLikeCopyOfBase() throws Exception {
+        JSONObject base = base();
+        JSONObject overlay = JSONObject.overlay(base);
+        assertEquals(base.toString(), overlay.toString());
+        assertEquals(4, overlay.length());
+        assertEquals(10.5, overlay.getDouble("Exposure"));
+
+        JSONObject copy = new JSONObject(base.toString());
+        change(overlay);
+        change(copy);
+        assertEquals(copy.toString(), overlay.toString());
+        assertEquals(copy.toString(2), overlay.toString(2));
+        assertEquals(copy.toString(),
+                overlay.write(new StringBuilder()).toString());
+        assertEquals(copy.length(), overlay.length());
+        assertEquals(copy.names().toString(), overlay.names().toString());
+        assertFalse(overlay.has("Camera"));
+        assertNull(overlay.opt("Camera"));
+        assertEquals(256, overlay.getInt("Width"));
+
+        overlay.put("Camera", "Other");
+        assertEquals("Other", overlay.getString("Camera"));
+        assertEquals(5, overlay.length());
+        assertEquals("Cam", base.getString("Camera"));
+        assertEquals(512, base.getInt("Width"));
+    }
+
+    @Test
+    void overlay_sharesFrozenBase() throws Exception {
+        JSONObject base = base();
+        JSONObject a = JSONObject.overlay(base);
+        JSONObject b = JSONObject.overlay(base);
+        assertTrue(base.isFrozen());
+        assertTrue(base.getJSONObject("Nested").isFrozen());
+        a.put("ImageNumber", 1);
+        b.put("ImageNumber", 2);
+        assertEquals(1, a.getInt("ImageNumber"));
+        assertEquals(2, b.getInt("ImageNumber"));
+        assertFalse(base.has("ImageNumber"));
+        assertThrows(UnsupportedOperationException.class,
+                () -> base.put("Width", 1));
+        assertThrows(UnsupportedOperationException.class,
+                () -> base.remove("Width"));
+        assertThrows(UnsupportedOperationException.class,
+                () -> a.getJSONObject("Nested").put("y", 2));
+    }
+
+    @Test
+    void freeze_flattensOverlay() throws Exception {
+        JSONObject overlay = JSONObject.overlay(base());
+        change(overlay);
+        String expected = overlay.toString();
+        JSONObject next = JSONObject.overlay(overlay);
+        assertTrue(overlay.isFrozen());
+        assertEquals(expected, overlay.toString());
+        assertEquals(expected, next.toString());
+        next.remove("Time");
+        assertEquals(1712345678901L, overlay.getLong("Time"));
+        assertFalse(next.has("Time"));
+    }
+
+    // --- reuse ---
+
+    @Test
+    void clear_removesAllKeys() throws Exception {
+        JSONObject jo = new JSONObject(2);
+        for (int i = 0; i < 100; ++i) {
+            jo.put("k" + i, i);
+        }
+        assertSame(jo, jo.clear());
+        assertEquals(0, jo.length());
+        assertFalse(jo.keys().hasNext());
+        assertEquals("{}", jo.toString());
+        jo.put("k5", "five").put("a", 1.5);
+        assertEquals("{\"k5\":\"five\",\"a\":1.5}", jo.toString());
+        assertFalse(jo.has("k0"));
+    }
+
+    @Test
+    void clear_dropsOverlayAndDeferredContents() throws Exception {
+        JSONObject overlay = JSONObject.overlay(base());
+        change(overlay);
+        overlay.clear();
+        assertEquals("{}", overlay.toString());
+        assertFalse(overlay.has("Width"));
+
+        JSONObject deferred = new JSONObject(jo -> {
+            try {
+                jo.put("a", 1);
+            } catch (JSONException e) {
+                throw new AssertionError(e);
+            }
+        });
+        deferred.clear();
+        assertEquals(0, deferred.length());
+        assertThrows(UnsupportedOperationException.class,
+                () -> base().freeze().clear());
+    }
+
+    @Test
+    void reset_reusesOverlayForNewBase() throws Exception {
+        JSONObject base = base();
+        JSONObject tags = JSONObject.overlay(base);
+        change(tags);
+        JSONObject nextBase = new JSONObject().put("Camera", "Other");
+        assertSame(tags, tags.reset(nextBase));
+        assertEquals("{\"Camera\":\"Other\"}", tags.toString());
+        assertEquals(1, tags.length());
+        tags.put("ImageNumber", "8");
+        assertEquals(2, tags.length());
+        assertTrue(nextBase.isFrozen());
+
+        tags.reset(base);
+        JSONObject copy = new JSONObject(base.toString());
+        change(tags);
+        change(copy);
+        assertEquals(copy.toString(), tags.toString());
+    }
+
+    @Test
+    void ensureCapacity_keepsContents() throws Exception {
+        JSONObject jo = new JSONObject().put("a", 1).put("b", 2.5);
+        jo.ensureCapacity(500);
+        jo.put("c", "x");
+        assertEquals("{\"a\":1,\"b\":2.5,\"c\":\"x\"}", jo.toString());
+        assertEquals(0, new JSONObject(-1).length());
+    }
+}
@@ -0,0 +1,189 @@
+package mmcorej.org.json;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import mmcorej.org.json.JSONReader.Event;
+import org.junit.jupiter.api.Test;
+
+class JSONReaderTest {
+
+    private static List<Event> events(JSONReader r) throws JSONException {
+        List<Event> events = new ArrayList<>();
+        Event e;
+        do {
+            e = r.next();
+            events.add(e);
+        } while (e != Event.END_DOCUMENT);
+        return events;
+    }
+
+    /** A Reader that returns at most one character per read. */
+    private static Reader trickle(String s) {
+        return new StringReader(s) {
+            @Override
+            public int read(char[] cbuf, int off, int len)
+                    throws java.io.IOException {
+                return super.read(cbuf, off, Math.min(len, 1));
+            }
+        };
+    }
+
+    // --- events ---
+
+    @Test
+    void next_events() throws Exception {
+        JSONReader r = new JSONReader(
+                "{\"a\": [1, -2.5e3, \"s\"], \"b\": {}, \"c\": true, "
+                + "\"d\": false, \"e\": null}");
+        assertEquals(java.util.Arrays.asList(Event.START_OBJECT,
+                Event.KEY, Event.START_ARRAY, Event.NUMBER, Event.NUMBER,
+                Event.STRING, Event.END_ARRAY,
+                Event.KEY, Event.START_OBJECT, Event.END_OBJECT,
+                Event.KEY, Event.TRUE, Event.KEY, Event.FALSE,
+                Event.KEY, Event.NULL, Event.END_OBJECT, Event.END_DOCUMENT),
+                events(r));
+        assertEquals(Event.END_DOCUMENT, r.next());
+    }
+
+    @Test
+    void getString_keysStringsAndNumbers() throws Exception {
+        JSONReader r = new JSONReader("{\"k\\u00e9y\":\"a\\\"b\\\\c\\/\\n\","
+                + "\"n\":-12.50}");
+        r.next();
+        r.next();
+        assertEquals("k\u00e9y", r.getString());
+        r.next();
+        assertEquals("a\"b\\c/\n", r.getString());
+        r.next();
+        r.next();
+        assertEquals("-12.50", r.getString());
+        r.next();
+        assertThrows(JSONException.class, r::getString);
+    }
+
+    @Test
+    void next_multipleTopLevelValues() throws Exception {
+        JSONReader r = new JSONReader("{\"i\":0}\n{\"i\":1}\n 7 ");
+        assertEquals(0, ((JSONObject) r.nextValue()).getInt("i"));
+        assertEquals(1, ((JSONObject) r.nextValue()).getInt("i"));
+        assertEquals(7, r.nextValue());
+        assertNull(r.nextValue());
+    }
+
+    @Test
+    void getTokenOffset() throws Exception {
+        JSONReader r = new JSONReader(" {\"ab\": [ 12 ]}");
+        r.next();
+        assertEquals(1, r.getTokenOffset());
+        r.next();
+        assertEquals(2, r.getTokenOffset());
+        r.next();
+        assertEquals(8, r.getTokenOffset());
+        r.next();
+        assertEquals(10, r.getTokenOffset());
+        assertEquals(2, r.getDepth());
+    }
+
+    // --- values ---
+
+    @Test
+    void getValue_matchesJSONObjectParser() throws Exception {
+        String text = "{\"Camera\":\"Cam\",\"Width\":512,\"Time\":1712345678901,"
+                + "\"Exposure\":10.5,\"Big\":123456789012345678901234,"
+                + "\"Flags\":[true,false,null,[]],\"Nested\":{\"x\":{\"y\":\"z\"}},"
+                + "\"Ctl\":\"tab\\tq\\u0001\"}";
+        JSONObject expected = new JSONObject(text);
+        JSONObject actual = (JSONObject) new JSONReader(text).nextValue();
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(Integer.class, actual.get("Width").getClass());
+        assertEquals(Long.class, actual.get("Time").getClass());
+        assertEquals(Double.class, actual.get("Exposure").getClass());
+        assertEquals(Double.class, actual.get("Big").getClass());
+    }
+
+    @Test
+    void skipValue_leavesReaderAfterValue() throws Exception {
+        JSONReader r = new JSONReader(
+                "{\"skip\":{\"a\":[1,{\"b\":2}]},\"keep\":{\"c\":3},\"s\":\"x\"}");
+        r.next();
+        r.next();
+        r.next();
+        r.skipValue();
+        assertEquals(Event.END_OBJECT, r.getEvent());
+        assertEquals(Event.KEY, r.next());
+        assertEquals("keep", r.getString());
+        r.next();
+        assertEquals(3, ((JSONObject) r.getValue()).getInt("c"));
+        r.next();
+        r.next();
+        r.skipValue();
+        assertEquals(Event.STRING, r.getEvent());
+        assertEquals(Event.END_OBJECT, r.next());
+    }
+
+    // --- sources ---
+
+    @Test
+    void sources_smallReadsAndUTF8() throws Exception {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < 2000; ++i) {
+            sb.append(i == 0 ? "" : ",").append("{\"Key").append(i)
+                    .append("\":\"\u00b5m \u4e2d \ud83d\udd2c ").append(i)
+                    .append("\"}");
+        }
+        String text = sb.append(']').toString();
+        String expected = new JSONArray(text).toString();
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(expected,
+                new JSONReader(trickle(text)).nextValue().toString());
+        assertEquals(expected, new JSONReader(
+                new ByteArrayInputStream(utf8)).nextValue().toString());
+        ByteBuffer direct = ByteBuffer.allocateDirect(utf8.length);
+        direct.put(utf8).flip();
+        assertEquals(expected, new JSONReader(direct).nextValue().toString());
+        assertEquals(0, direct.position());
+    }
+
+    @Test
+    void sources_stringsAndNumbersAcrossChunks() throws Exception {
+        JSONReader r = new JSONReader(trickle("[\"a\\u0041b\", 12345.5e-1]"));
+        r.next();
+        r.next();
+        assertEquals("aAb", r.getString());
+        r.next();
+        assertEquals(1234.55, r.getValue());
+        assertEquals(Event.END_ARRAY, r.next());
+    }
+
+    // --- errors ---
+
+    @Test
+    void next_rejectsInvalidText() {
+        String[] invalid = { "{", "[1,]", "{\"a\" 1}", "{\"a\":1,}", "{1:2}",
+                "[1 2]", "[tru]", "[-]", "[1.]", "[1e]", "[\"abc", "[\"a\nb\"]",
+                "[\"\\u12g4\"]", "}", "[@]" };
+        for (String s : invalid) {
+            assertThrows(JSONException.class, () -> {
+                JSONReader r = new JSONReader(s);
+                while (r.next() != Event.END_DOCUMENT) {
+                }
+            }, s);
+        }
+    }
+
+    @Test
+    void getValue_atKeyThrows() throws Exception {
+        JSONReader r = new JSONReader("{\"a\":1}");
+        r.next();
+        r.next();
+        assertThrows(JSONException.class, r::getValue);
+    }
+}
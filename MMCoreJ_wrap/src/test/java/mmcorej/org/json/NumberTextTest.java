@@ -0,0 +1,137 @@
+package mmcorej.org.json;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class NumberTextTest {
+
+    private static Number parse(String s) {
+        return NumberText.parse(s, 0, s.length());
+    }
+
+    /** The text that numberToString produced from Double.toString. */
+    private static String legacyText(double d) {
+        return NumberText.trimZeros(Double.toString(d));
+    }
+
+    // --- formatting ---
+
+    @Test
+    void toString_trimsLikeNumberToString() {
+        assertEquals("100", NumberText.toString(100.0));
+        assertEquals("0.325", NumberText.toString(0.325));
+        assertEquals("-12.5", NumberText.toString(-12.5));
+        assertEquals("0.001", NumberText.toString(0.001));
+        assertEquals("0", NumberText.toString(0.0));
+        assertEquals("-0", NumberText.toString(-0.0));
+        assertEquals("1.0E7", NumberText.toString(1e7));
+        assertEquals("1.0E-4", NumberText.toString(1e-4));
+        assertEquals("1.7976931348623157E308",
+                NumberText.toString(Double.MAX_VALUE));
+        assertEquals("0.30000000000000004", NumberText.toString(0.1 + 0.2));
+    }
+
+    @Test
+    void toString_shortestDigits() {
+        // Double.toString gives 2.0E-3 as 0.0020 before Java 19
+        assertEquals("0.002", NumberText.toString(2.0E-3));
+        assertEquals("1234.5678", NumberText.toString(1234.5678));
+    }
+
+    @Test
+    void toString_randomDoublesRoundTrip() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; ++i) {
+            double d;
+            switch (i % 3) {
+                case 0:
+                    d = Double.longBitsToDouble(random.nextLong());
+                    break;
+                case 1:
+                    d = (random.nextDouble() - 0.5) * 2e7;
+                    break;
+                default:
+                    d = Math.round(random.nextDouble() * 1e6) / 1e3;
+            }
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                continue;
+            }
+            String s = NumberText.toString(d);
+            assertEquals(d, Double.parseDouble(s), s);
+            assertTrue(s.length() <= legacyText(d).length(), s);
+        }
+    }
+
+    @Test
+    void numberToString_usesShortestDigits() throws Exception {
+        assertEquals("0.002", JSONObject.numberToString(2.0E-3));
+        assertEquals("7", JSONObject.numberToString(7L));
+        assertEquals("2.5", JSONObject.numberToString(2.5f));
+        assertEquals("{\"a\":0.002}",
+                new JSONObject().put("a", 2.0E-3).toString());
+        assertEquals("[0.002]",
+                new JSONEncoder().encode(new JSONArray().put(2.0E-3))
+                        .toString());
+    }
+
+    // --- parsing ---
+
+    @Test
+    void parse_integers() {
+        assertEquals(Integer.valueOf(0), parse("0"));
+        assertEquals(Integer.valueOf(0), parse("-0"));
+        assertEquals(Integer.valueOf(5), parse("+5"));
+        assertEquals(Integer.valueOf(-12), parse("-012"));
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE), parse("-2147483648"));
+        assertEquals(Long.valueOf(2147483648L), parse("2147483648"));
+        assertEquals(Long.valueOf(Long.MIN_VALUE), parse("-9223372036854775808"));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), parse("9223372036854775807"));
+        assertEquals(Double.valueOf(9223372036854775808.0),
+                parse("9223372036854775808"));
+    }
+
+    @Test
+    void parse_doubles() {
+        String[] texts = { "0.5", "-0.0", "1e2", "1E-2", "-12.50", "0.000123",
+                "3.141592653589793", "1.7976931348623157e308", "4.9e-324",
+                "1e400", "123456789012345678901234", "0.1e23", "2.5e-22",
+                "0.30000000000000004", "1234567890.123456789" };
+        for (String s : texts) {
+            assertEquals(Double.valueOf(s), parse(s), s);
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; ++i) {
+            String s = Double.toString((random.nextDouble() - 0.5)
+                    * Math.pow(10, random.nextInt(40) - 20));
+            assertEquals(Double.valueOf(s), parse(s), s);
+        }
+    }
+
+    @Test
+    void parse_rejectsOtherForms() {
+        String[] texts = { "", "-", "+", ".5", "1.", "1e", "1e+", "01", "00",
+                "0x1F", "1.5f", "1d", "--1", "1 2", "Infinity", "1e5x" };
+        for (String s : texts) {
+            assertNull(parse(s), s);
+        }
+    }
+
+    @Test
+    void tokener_keepsNonStandardForms() throws Exception {
+        JSONArray ja = new JSONArray("[010, 0x1F, .5, 1., 1e5, -0, 12abc, "
+                + "9223372036854775807, 2147483648]");
+        assertEquals(8, ja.get(0));
+        assertEquals(31, ja.get(1));
+        assertEquals(0.5, ja.get(2));
+        assertEquals(1.0, ja.get(3));
+        assertEquals(100000.0, ja.get(4));
+        assertEquals(0, ja.get(5));
+        assertEquals("12abc", ja.get(6));
+        assertEquals(Long.MAX_VALUE, ja.get(7));
+        assertEquals(2147483648L, ja.get(8));
+        assertEquals(12, new JSONObject("{\"a\":12}").get("a"));
+        assertEquals("x y", new JSONObject("{a: x y }").get("a"));
+    }
+}
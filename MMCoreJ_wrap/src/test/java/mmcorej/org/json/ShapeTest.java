@@ -0,0 +1,138 @@
+package mmcorej.org.json;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+class ShapeTest {
+
+    private static Shape shapeOf(String... keys) {
+        Shape s = Shape.EMPTY;
+        for (String k : keys) {
+            s = s.add(k);
+        }
+        return s;
+    }
+
+    // --- sharing ---
+
+    @Test
+    void add_sameKeysGiveSameShape() {
+        Shape a = shapeOf("ShapeTest-a", "b", "c");
+        Shape b = shapeOf(new String("ShapeTest-a"), "b", "c");
+        assertSame(a, b);
+        assertEquals(3, a.size());
+        assertEquals(1, a.indexOf("b"));
+        assertEquals("c", a.key(2));
+    }
+
+    @Test
+    void add_branchesKeepTheirOwnKeys() {
+        Shape prefix = shapeOf("ShapeTest-branch", "x");
+        Shape first = prefix.add("y");
+        Shape second = prefix.add("z");
+        assertNotSame(first, second);
+        assertEquals(2, first.indexOf("y"));
+        assertEquals(-1, first.indexOf("z"));
+        assertEquals(2, second.indexOf("z"));
+        assertEquals(-1, second.indexOf("y"));
+        assertEquals(-1, prefix.indexOf("y"));
+        assertEquals(-1, prefix.indexOf("z"));
+        assertSame(second, prefix.add("z"));
+    }
+
+    @Test
+    void add_largeShapesAreNotShared() {
+        Shape s = shapeOf("ShapeTest-large");
+        for (int i = 1; i < Shape.MAX_SHARED_SIZE + 100; ++i) {
+            s = s.add("k" + i);
+        }
+        assertEquals(Shape.MAX_SHARED_SIZE + 100, s.size());
+        for (int i = 1; i < Shape.MAX_SHARED_SIZE + 100; ++i) {
+            assertEquals(i, s.indexOf("k" + i));
+        }
+        Shape t = shapeOf("ShapeTest-large");
+        for (int i = 1; i < Shape.MAX_SHARED_SIZE + 100; ++i) {
+            t = t.add("k" + i);
+        }
+        assertNotSame(s, t);
+        assertEquals(Shape.MAX_SHARED_SIZE + 99, t.indexOf("k"
+                + (Shape.MAX_SHARED_SIZE + 99)));
+    }
+
+    @Test
+    void add_collectedChildrenArePurged() throws Exception {
+        Shape prefix = shapeOf("ShapeTest-purge");
+        List<Shape> children = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            children.add(prefix.add("k" + i));
+        }
+        assertEquals(1000, prefix.childCount());
+        children.clear();
+        // Collected children are purged when a new shape is created
+        for (int i = 0; i < 100 && prefix.childCount() > 10; ++i) {
+            System.gc();
+            Thread.sleep(10);
+            prefix.add("ShapeTest-purge-" + i);
+        }
+        assertTrue(prefix.childCount() <= 10);
+    }
+
+    @Test
+    void add_concurrentBuildersAgree() throws Exception {
+        String[] keys = new String[300];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = "ShapeTest-concurrent-" + i;
+        }
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        Shape[] results = new Shape[threads.length];
+        for (int t = 0; t < threads.length; ++t) {
+            final int id = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    Shape s = Shape.EMPTY;
+                    for (int i = 0; i < keys.length; ++i) {
+                        s = s.add(keys[i]);
+                        assertEquals(i, s.indexOf(keys[i]));
+                        assertEquals(0, s.indexOf(keys[0]));
+                    }
+                    results[id] = s;
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertNull(failure.get());
+        for (Shape s : results) {
+            assertSame(results[0], s);
+        }
+    }
+
+    // --- JSONObject ---
+
+    @Test
+    void jsonObject_removeAndCompact() throws Exception {
+        JSONObject jo = new JSONObject();
+        for (int i = 0; i < 20; ++i) {
+            jo.put("ShapeTest-compact-" + i, i);
+        }
+        for (int i = 0; i < 20; i += 2) {
+            jo.remove("ShapeTest-compact-" + i);
+        }
+        for (int i = 1; i < 20; i += 2) {
+            assertEquals(i, jo.getInt("ShapeTest-compact-" + i));
+        }
+        assertEquals(10, jo.length());
+        jo.put("ShapeTest-compact-0", "again");
+        assertEquals("again", jo.get("ShapeTest-compact-0"));
+        assertEquals(11, jo.length());
+    }
+}